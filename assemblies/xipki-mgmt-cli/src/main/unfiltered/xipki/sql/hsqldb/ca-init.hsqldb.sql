@@ -3,6 +3,7 @@ DROP TABLE IF EXISTS PROFILE CASCADE;
 DROP TABLE IF EXISTS REQUESTOR CASCADE;
 DROP TABLE IF EXISTS CA CASCADE;
 DROP TABLE IF EXISTS CRL CASCADE;
+DROP TABLE IF EXISTS CRL_LEASE CASCADE;
 DROP TABLE IF EXISTS CERT CASCADE;
 
 -- changeset xipki:1
@@ -63,6 +64,20 @@ COMMENT ON COLUMN CRL.CRL_SCOPE IS 'CRL scope, reserved for future use';
 COMMENT ON COLUMN CRL.SHA1 IS 'base64 encoded SHA1 fingerprint of the CRL';
 ALTER TABLE CRL ADD CONSTRAINT CONST_CA_CRLNO UNIQUE (CA_ID, CRL_NO);
 
+CREATE TABLE CRL_LEASE (
+    CA_ID SMALLINT NOT NULL,
+    SCHEDULED BIGINT NOT NULL,
+    OWNER VARCHAR(100) NOT NULL,
+    EXPIRES BIGINT NOT NULL,
+    TOKEN BIGINT NOT NULL,
+    CONSTRAINT "CRL_LEASE_pkey" PRIMARY KEY (CA_ID)
+);
+
+COMMENT ON COLUMN CRL_LEASE.SCHEDULED IS 'scheduled CRL generation time, seconds since January 1, 1970, 00:00:00 GMT';
+COMMENT ON COLUMN CRL_LEASE.OWNER IS 'instance holding the lease';
+COMMENT ON COLUMN CRL_LEASE.EXPIRES IS 'expiration of the lease, seconds since January 1, 1970, 00:00:00 GMT';
+COMMENT ON COLUMN CRL_LEASE.TOKEN IS 'fencing token, incremented each time the lease is granted';
+
 CREATE TABLE CERT (
     ID BIGINT NOT NULL,
     CA_ID SMALLINT NOT NULL,
@@ -113,6 +128,7 @@ COMMENT ON COLUMN CERT.PRIVATE_KEY IS 'Base64-encoded encrypted PKCS#8 private k
 
 ALTER TABLE CERT ADD CONSTRAINT CONST_CA_SN UNIQUE (CA_ID, SN);
 CREATE INDEX IDX_CA_FPS ON CERT(CA_ID, FP_S, FP_SAN);
+CREATE INDEX IDX_CA_LUPDATE ON CERT(CA_ID, LUPDATE);
 
 -- changeset xipki:4
 ALTER TABLE CRL ADD CONSTRAINT FK_CRL_CA1 FOREIGN KEY (CA_ID) REFERENCES CA (ID)
@@ -12,6 +12,7 @@ DROP TABLE IF EXISTS PROFILE;
 DROP TABLE IF EXISTS REQUESTOR;
 DROP TABLE IF EXISTS CA;
 DROP TABLE IF EXISTS CRL;
+DROP TABLE IF EXISTS CRL_LEASE;
 DROP TABLE IF EXISTS CERT;
 
 -- changeset xipki:1
@@ -63,6 +64,15 @@ CREATE TABLE CRL (
 
 ALTER TABLE CRL ADD CONSTRAINT CONST_CA_CRLNO UNIQUE (CA_ID, CRL_NO);
 
+CREATE TABLE CRL_LEASE (
+    CA_ID SMALLINT NOT NULL,
+    SCHEDULED BIGINT NOT NULL COMMENT 'scheduled CRL generation time, seconds since January 1, 1970, 00:00:00 GMT',
+    OWNER VARCHAR(100) NOT NULL COMMENT 'instance holding the lease',
+    EXPIRES BIGINT NOT NULL COMMENT 'expiration of the lease, seconds since January 1, 1970, 00:00:00 GMT',
+    TOKEN BIGINT NOT NULL COMMENT 'fencing token, incremented each time the lease is granted',
+    CONSTRAINT PK_CRL_LEASE PRIMARY KEY (CA_ID)
+);
+
 CREATE TABLE CERT (ID BIGINT NOT NULL,
     CA_ID SMALLINT NOT NULL COMMENT 'Issuer (CA) id',
     SN VARCHAR(40) NOT NULL COMMENT 'serial number',
@@ -91,6 +101,7 @@ CREATE TABLE CERT (ID BIGINT NOT NULL,
 
 ALTER TABLE CERT ADD CONSTRAINT CONST_CA_SN UNIQUE (CA_ID, SN);
 CREATE INDEX IDX_CA_FPS ON CERT(CA_ID, FP_S, FP_SAN);
+CREATE INDEX IDX_CA_LUPDATE ON CERT(CA_ID, LUPDATE);
 
 -- changeset xipki:4
 ALTER TABLE CRL ADD CONSTRAINT FK_CRL_CA1 FOREIGN KEY (CA_ID) REFERENCES CA (ID)
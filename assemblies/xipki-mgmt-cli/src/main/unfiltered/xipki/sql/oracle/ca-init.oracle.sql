@@ -12,6 +12,7 @@ DROP TABLE IF EXISTS PROFILE;
 DROP TABLE IF EXISTS REQUESTOR;
 DROP TABLE IF EXISTS CA;
 DROP TABLE IF EXISTS CRL;
+DROP TABLE IF EXISTS CRL_LEASE;
 DROP TABLE IF EXISTS CERT;
 
 -- changeset xipki:1
@@ -73,6 +74,20 @@ COMMENT ON COLUMN CRL.SHA1 IS 'base64 encoded SHA1 fingerprint of the CRL';
 
 ALTER TABLE CRL ADD CONSTRAINT CONST_CA_CRLNO UNIQUE (CA_ID, CRL_NO);
 
+CREATE TABLE CRL_LEASE (
+    CA_ID NUMBER(5) NOT NULL,
+    SCHEDULED NUMBER(38, 0) NOT NULL,
+    OWNER VARCHAR2(100) NOT NULL,
+    EXPIRES NUMBER(38, 0) NOT NULL,
+    TOKEN NUMBER(38, 0) NOT NULL,
+    CONSTRAINT PK_CRL_LEASE PRIMARY KEY (CA_ID)
+);
+
+COMMENT ON COLUMN CRL_LEASE.SCHEDULED IS 'scheduled CRL generation time, seconds since January 1, 1970, 00:00:00 GMT';
+COMMENT ON COLUMN CRL_LEASE.OWNER IS 'instance holding the lease';
+COMMENT ON COLUMN CRL_LEASE.EXPIRES IS 'expiration of the lease, seconds since January 1, 1970, 00:00:00 GMT';
+COMMENT ON COLUMN CRL_LEASE.TOKEN IS 'fencing token, incremented each time the lease is granted';
+
 CREATE TABLE CERT (
     ID NUMBER(38, 0) NOT NULL,
     CA_ID NUMBER(5) NOT NULL,
@@ -123,6 +138,7 @@ COMMENT ON COLUMN CERT.PRIVATE_KEY IS 'Base64-encoded encrypted PKCS#8 private k
 
 ALTER TABLE CERT ADD CONSTRAINT CONST_CA_SN UNIQUE (CA_ID, SN);
 CREATE INDEX IDX_CA_FPS ON CERT(CA_ID, FP_S, FP_SAN);
+CREATE INDEX IDX_CA_LUPDATE ON CERT(CA_ID, LUPDATE);
 
 -- changeset xipki:4
 ALTER TABLE CRL ADD CONSTRAINT FK_CRL_CA1 FOREIGN KEY (CA_ID) REFERENCES CA (ID);
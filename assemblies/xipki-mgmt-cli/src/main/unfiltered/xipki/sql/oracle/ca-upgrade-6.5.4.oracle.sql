@@ -0,0 +1,20 @@
+-- Upgrade an existing CA database (schema version 8) to XiPKI 6.5.4.
+-- Run with: ca:sql --db-conf <ca-db.properties> xipki/sql/ca-upgrade-6.5.4.sql
+
+-- changeset xipki:6.5.4-1
+CREATE INDEX IDX_CA_LUPDATE ON CERT(CA_ID, LUPDATE);
+
+-- changeset xipki:6.5.4-2
+CREATE TABLE CRL_LEASE (
+    CA_ID NUMBER(5) NOT NULL,
+    SCHEDULED NUMBER(38, 0) NOT NULL,
+    OWNER VARCHAR2(100) NOT NULL,
+    EXPIRES NUMBER(38, 0) NOT NULL,
+    TOKEN NUMBER(38, 0) NOT NULL,
+    CONSTRAINT PK_CRL_LEASE PRIMARY KEY (CA_ID)
+);
+
+COMMENT ON COLUMN CRL_LEASE.SCHEDULED IS 'scheduled CRL generation time, seconds since January 1, 1970, 00:00:00 GMT';
+COMMENT ON COLUMN CRL_LEASE.OWNER IS 'instance holding the lease';
+COMMENT ON COLUMN CRL_LEASE.EXPIRES IS 'expiration of the lease, seconds since January 1, 1970, 00:00:00 GMT';
+COMMENT ON COLUMN CRL_LEASE.TOKEN IS 'fencing token, incremented each time the lease is granted';
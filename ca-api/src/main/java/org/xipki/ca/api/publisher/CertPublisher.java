@@ -11,6 +11,8 @@ import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.X509Cert;
 
 import java.io.Closeable;
+import java.math.BigInteger;
+import java.util.List;
 
 /**
  * Defines how to publish the certificates and CRLs. All CertPublisher classes must extend this
@@ -99,6 +101,32 @@ public abstract class CertPublisher implements Closeable {
    */
   public abstract boolean certificateRemoved(X509Cert caCert, CertWithDbId cert);
 
+  /**
+   * Whether this publisher can publish the remove of certificates given only by their serial
+   * numbers, see {@link #certificatesRemoved(X509Cert, List)}.
+   *
+   * @return whether the remove of certificates by serial numbers is supported.
+   */
+  public boolean supportsCertificatesRemoved() {
+    return false;
+  }
+
+  /**
+   * Publishes the remove of several certificates. This method is called only if
+   * {@link #supportsCertificatesRemoved()} returns {@code true}, publishers doing so must
+   * override it. The default implementation publishes nothing and returns {@code false}, so that
+   * the certificates are kept and retried later.
+   *
+   * @param caCert
+   *          CA certificate. Must not be {@code null}.
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @return whether the remove is published.
+   */
+  public boolean certificatesRemoved(X509Cert caCert, List<BigInteger> serialNumbers) {
+    return false;
+  }
+
   /**
    * Publishes a CRL.
    *
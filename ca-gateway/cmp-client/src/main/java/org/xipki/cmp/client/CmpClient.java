@@ -13,6 +13,7 @@ import java.math.BigInteger;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * CMP client interface.
@@ -229,6 +230,86 @@ public interface CmpClient extends Closeable {
       String caName, Requestor requestor, UnrevokeCertRequest request, ReqRespDebug debug)
       throws CmpClientException, PkiErrorException;
 
+  /**
+   * Enrolls a certificate asynchronously. With the pooled transport the calling thread is not
+   * blocked, otherwise the request is sent in the calling thread and a completed future is returned.
+   *
+   * @param caName
+   *          CA name. Must not be {@code null}.
+   * @param requestor
+   *          Requestor, the actor which requests the operation. Must not be {@code null}.
+   * @param csr
+   *          CSR. Must not be{@code null}.
+   * @param profile
+   *          Certificate profile name. Must not be{@code null}.
+   * @param notBefore
+   *          NotBefore. Could be {@code null}.
+   * @param notAfter
+   *          NotAfter. Could be {@code null}.
+   * @param debug
+   *          Request/response debug control. Could be {@code null}.
+   * @return the future of the enrolling result, completes exceptionally with {@link PkiErrorException}
+   *          or {@link CmpClientException} on error.
+   * @since 6.5.4
+   */
+  CompletableFuture<EnrollCertResult> enrollCertAsync(
+      String caName, Requestor requestor, CertificationRequest csr, String profile,
+      Instant notBefore, Instant notAfter, ReqRespDebug debug);
+
+  /**
+   * Enrolls a set of certificates asynchronously.
+   *
+   * @param caName
+   *          CA name. Must not be {@code null}.
+   * @param requestor
+   *          Requestor, the actor which requests the operation. Must not be {@code null}.
+   * @param request
+   *          Request. Must not be {@code null}.
+   * @param debug
+   *          Request/response debug control. Could be {@code null}.
+   * @return the future of the enrolling result, completes exceptionally with {@link PkiErrorException}
+   *          or {@link CmpClientException} on error.
+   * @since 6.5.4
+   */
+  CompletableFuture<EnrollCertResult> enrollCertsAsync(
+      String caName, Requestor requestor, EnrollCertRequest request, ReqRespDebug debug);
+
+  /**
+   * Revokes a set of certificates asynchronously.
+   *
+   * @param caName
+   *          CA name. Must not be {@code null}.
+   * @param requestor
+   *          Requestor, the actor which requests the operation. Must not be {@code null}.
+   * @param request
+   *          Request. Must not be {@code null}.
+   * @param debug
+   *          Request/response debug control. Could be {@code null}.
+   * @return the future of the revocation result, completes exceptionally with {@link PkiErrorException}
+   *          or {@link CmpClientException} on error.
+   * @since 6.5.4
+   */
+  CompletableFuture<Map<String, CertIdOrError>> revokeCertsAsync(
+      String caName, Requestor requestor, RevokeCertRequest request, ReqRespDebug debug);
+
+  /**
+   * Unsuspends certificates asynchronously.
+   *
+   * @param caName
+   *          CA name. Must not be {@code null}.
+   * @param requestor
+   *          Requestor, the actor which requests the operation. Must not be {@code null}.
+   * @param request
+   *          Request. Must not be {@code null}.
+   * @param debug
+   *          Request/response debug control. Could be {@code null}.
+   * @return the future of the unrevocation result, completes exceptionally with {@link PkiErrorException}
+   *          or {@link CmpClientException} on error.
+   * @since 6.5.4
+   */
+  CompletableFuture<Map<String, CertIdOrError>> unsuspendCertsAsync(
+      String caName, Requestor requestor, UnrevokeCertRequest request, ReqRespDebug debug);
+
   /**
    * Returns the CA certificate.
    * @param caName
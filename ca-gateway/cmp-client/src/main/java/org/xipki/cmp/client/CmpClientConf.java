@@ -145,6 +145,32 @@ public class CmpClientConf extends ValidableConf {
 
   private SslConf ssl;
 
+  /**
+   * Whether to use the pooled transport based on java.net.http.HttpClient. If false, the requests
+   * are sent via the blocking XiHttpClient.
+   */
+  private boolean pooledTransport;
+
+  /**
+   * Whether to prefer HTTP/2 in the pooled transport.
+   */
+  private boolean http2 = true;
+
+  /**
+   * Connect timeout in seconds of the pooled transport, 0 for no timeout.
+   */
+  private int connectTimeout = 10;
+
+  /**
+   * Request timeout in seconds of the pooled transport, 0 for no timeout.
+   */
+  private int requestTimeout = 60;
+
+  /**
+   * Maximal number of in-flight requests of the pooled transport, 0 for no limit.
+   */
+  private int maxConcurrentRequests;
+
   public boolean isSendRequestorCert() {
     return sendRequestorCert;
   }
@@ -169,9 +195,52 @@ public class CmpClientConf extends ValidableConf {
     this.ssl = ssl;
   }
 
+  public boolean isPooledTransport() {
+    return pooledTransport;
+  }
+
+  public void setPooledTransport(boolean pooledTransport) {
+    this.pooledTransport = pooledTransport;
+  }
+
+  public boolean isHttp2() {
+    return http2;
+  }
+
+  public void setHttp2(boolean http2) {
+    this.http2 = http2;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getRequestTimeout() {
+    return requestTimeout;
+  }
+
+  public void setRequestTimeout(int requestTimeout) {
+    this.requestTimeout = requestTimeout;
+  }
+
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
   @Override
   public void validate() throws InvalidConfException {
     validate(responder, ssl);
+    if (connectTimeout < 0 || requestTimeout < 0 || maxConcurrentRequests < 0) {
+      throw new InvalidConfException("connectTimeout, requestTimeout and maxConcurrentRequests must not be negative");
+    }
   }
 
 }
@@ -138,6 +138,7 @@ import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.GeneralSecurityException;
@@ -156,6 +157,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 /**
  * CMP agent to communicate with CA.
@@ -199,10 +204,32 @@ class CmpAgent {
 
   private final XiHttpClient httpClient;
 
+  private final CmpHttpTransport transport;
+
   private final String serverUrl;
 
+  // the responder certificate does not change, the verifier provider is created only once.
+  private volatile ContentVerifierProvider responderVerifierProvider;
+
+  /**
+   * Handler of a response which may throw the checked exceptions of the client.
+   */
+  @FunctionalInterface
+  interface ResponseHandler<T, R> {
+
+    R apply(T response) throws CmpClientException, PkiErrorException;
+
+  } // interface ResponseHandler
+
+  /**
+   * Constructor.
+   *
+   * @param transport the pooled transport. If {@code null}, the requests are sent via the blocking
+   *        XiHttpClient built from sslSocketFactory and hostnameVerifier.
+   */
   CmpAgent(Responder signatureResponder, Responder pbmMacResponder, String serverUrl, SecurityFactory securityFactory,
-           SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier, boolean sendRequestorCert) {
+           SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier, CmpHttpTransport transport,
+           boolean sendRequestorCert) {
     this.signatureResponder = signatureResponder;
     this.pbmMacResponder = pbmMacResponder;
     this.securityFactory = Args.notNull(securityFactory, "securityFactory");
@@ -212,10 +239,51 @@ class CmpAgent {
     } catch (MalformedURLException ex) {
       throw new IllegalArgumentException("invalid URL: " + serverUrl);
     }
-    this.httpClient = new XiHttpClient(sslSocketFactory, hostnameVerifier);
+    this.transport = transport;
+    this.httpClient = transport == null ? new XiHttpClient(sslSocketFactory, hostnameVerifier) : null;
     this.sendRequestorCert = sendRequestorCert;
   } // constructor
 
+  /**
+   * Waits for the future and unwraps the {@link CmpClientException} and {@link PkiErrorException}.
+   *
+   * @param future the future returned by one of the async methods.
+   * @param <T> type of the result.
+   * @return the result.
+   * @throws CmpClientException if the future completed exceptionally with a client error.
+   * @throws PkiErrorException if the response returns none-success status.
+   */
+  static <T> T join(CompletableFuture<T> future) throws CmpClientException, PkiErrorException {
+    try {
+      return future.join();
+    } catch (CompletionException | CancellationException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof CmpClientException) {
+        throw (CmpClientException) cause;
+      } else if (cause instanceof PkiErrorException) {
+        throw (PkiErrorException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new CmpClientException(cause == null ? ex.getMessage() : cause.getMessage(), cause);
+    }
+  } // method join
+
+  /**
+   * Wraps the handler in a function usable in {@link CompletableFuture#thenApply(Function)} and
+   * {@link CompletableFuture#thenCompose(Function)}, the checked exceptions are rethrown wrapped in
+   * {@link CompletionException}.
+   */
+  static <T, R> Function<T, R> unchecked(ResponseHandler<T, R> handler) {
+    return response -> {
+      try {
+        return handler.apply(response);
+      } catch (CmpClientException | PkiErrorException ex) {
+        throw new CompletionException(ex);
+      }
+    };
+  }
+
   private Responder getResponder(Requestor requestor) {
     return (requestor instanceof Requestor.SignatureCmpRequestor) ? signatureResponder : pbmMacResponder;
   }
@@ -250,13 +318,23 @@ class CmpAgent {
     }
   } // method sign
 
-  private VerifiedPkiMessage signAndSend(
-      String caName, Requestor requestor, Responder responder, PKIMessage request, ReqRespDebug debug)
-      throws CmpClientException {
+  private CompletableFuture<VerifiedPkiMessage> signAndSend(
+      String caName, Requestor requestor, Responder responder, PKIMessage request, ReqRespDebug debug) {
     ASN1OctetString tid = Args.notNull(request, "request").getHeader().getTransactionID();
-    PKIMessage tmpRequest = sign(requestor, request);
-    GeneralPKIMessage response = send(caName, tmpRequest, debug);
+    PKIMessage tmpRequest;
+    try {
+      tmpRequest = sign(requestor, request);
+    } catch (CmpClientException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+
+    return sendAsync(caName, tmpRequest, debug).thenApply(unchecked(
+        response -> verifyResponse(requestor, responder, tid, response)));
+  } // method signAndSend
 
+  private VerifiedPkiMessage verifyResponse(
+      Requestor requestor, Responder responder, ASN1OctetString tid, GeneralPKIMessage response)
+      throws CmpClientException {
     GeneralName rec = response.getHeader().getRecipient();
     if (!requestor.getName().equals(rec)) {
       LOG.warn("tid={}: unknown CMP requestor '{}'", tid, rec);
@@ -277,41 +355,80 @@ class CmpAgent {
     }
 
     return ret;
-  }
+  } // method verifyResponse
 
-  private GeneralPKIMessage send(String caName, PKIMessage request, ReqRespDebug debug) throws CmpClientException {
+  private GeneralPKIMessage send(String caName, PKIMessage request, ReqRespDebug debug)
+      throws CmpClientException, PkiErrorException {
+    return join(sendAsync(caName, request, debug));
+  } // method send
+
+  /**
+   * Sends the request asynchronously. With the pooled transport the calling thread is not blocked,
+   * otherwise the request is sent in the calling thread and a completed future is returned.
+   */
+  private CompletableFuture<GeneralPKIMessage> sendAsync(String caName, PKIMessage request, ReqRespDebug debug) {
     byte[] encodedRequest;
     try {
       encodedRequest = request.getEncoded();
     } catch (IOException ex) {
       LOG.error("could not encode the PKI request {}", request);
-      throw new CmpClientException(ex.getMessage(), ex);
+      return CompletableFuture.failedFuture(new CmpClientException(ex.getMessage(), ex));
     }
 
-    ReqRespPair reqResp = null;
+    ReqRespPair reqResp;
     if (debug != null) {
       reqResp = new ReqRespPair();
       debug.add(reqResp);
       if (debug.saveRequest()) {
         reqResp.setRequest(encodedRequest);
       }
+    } else {
+      reqResp = null;
     }
 
-    HttpRespContent resp;
-    try {
-      resp = send(caName, encodedRequest);
-    } catch (IOException ex) {
-      LogUtil.error(LOG, ex, "could not send the PKI request to server");
-      throw new CmpClientException("TRANSPORT_ERROR", ex);
+    if (transport == null) {
+      try {
+        HttpRespContent resp;
+        try {
+          resp = send(caName, encodedRequest);
+        } catch (IOException ex) {
+          LogUtil.error(LOG, ex, "could not send the PKI request to server");
+          throw new CmpClientException("TRANSPORT_ERROR", ex);
+        }
+
+        return CompletableFuture.completedFuture(
+            parseResponse(request, reqResp, debug, resp.isOK(), resp.getStatusCode(), resp.getContent()));
+      } catch (CmpClientException ex) {
+        return CompletableFuture.failedFuture(ex);
+      }
     }
 
-    byte[] encodedResp = resp.getContent();
-    if (reqResp != null && debug.saveResponse() && resp.getContent() != null) {
+    return transport.post(serverUrl + caName, CMP_REQUEST_MIMETYPE, encodedRequest, CMP_RESPONSE_MIMETYPE)
+        .handle((resp, ex) -> {
+          try {
+            if (ex != null) {
+              Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+              LogUtil.error(LOG, cause, "could not send the PKI request to server");
+              throw new CmpClientException("TRANSPORT_ERROR", cause);
+            }
+
+            int status = resp.statusCode();
+            return parseResponse(request, reqResp, debug, status == HttpURLConnection.HTTP_OK, status, resp.body());
+          } catch (CmpClientException e) {
+            throw new CompletionException(e);
+          }
+        });
+  } // method sendAsync
+
+  private GeneralPKIMessage parseResponse(
+      PKIMessage request, ReqRespPair reqResp, ReqRespDebug debug, boolean ok, int statusCode, byte[] encodedResp)
+      throws CmpClientException {
+    if (reqResp != null && debug.saveResponse() && encodedResp != null) {
       reqResp.setResponse(encodedResp);
     }
 
-    if (!resp.isOK()) {
-      String msg = "received HTTP status code " + resp.getStatusCode();
+    if (!ok) {
+      String msg = "received HTTP status code " + statusCode;
       LOG.warn(msg);
       throw new CmpClientException(msg);
     }
@@ -343,7 +460,7 @@ class CmpAgent {
     }
 
     return response;
-  } // method send
+  } // method parseResponse
 
   private PKIHeader buildPkiHeader(Requestor requestor, Responder responder) {
     return buildPkiHeader(requestor, responder,  false, null, null, (InfoTypeAndValue[]) null);
@@ -497,7 +614,12 @@ class CmpAgent {
       }
 
       X509Cert cert = sigResponder.getCert();
-      ContentVerifierProvider verifierProvider = securityFactory.getContentVerifierProvider(cert);
+      ContentVerifierProvider verifierProvider = responderVerifierProvider;
+      if (verifierProvider == null) {
+        verifierProvider = securityFactory.getContentVerifierProvider(cert);
+        responderVerifierProvider = verifierProvider;
+      }
+
       if (verifierProvider == null) {
         LOG.warn("tid={}: not authorized responder '{}'", tid, header.getSender());
         return new ProtectionVerificationResult(cert, ProtectionResult.SENDER_NOT_AUTHORIZED);
@@ -541,37 +663,47 @@ class CmpAgent {
     return certs;
   } // method caCerts
 
-  RevokeCertResponse revokeCertificate(
-      String caName, Requestor requestor, RevokeCertRequest request, ReqRespDebug debug)
-      throws CmpClientException, PkiErrorException {
+  CompletableFuture<RevokeCertResponse> revokeCertificateAsync(
+      String caName, Requestor requestor, RevokeCertRequest request, ReqRespDebug debug) {
     Responder responder = getResponder(requestor);
-    PKIMessage reqMessage = buildRevokeCertRequest(requestor, responder, Args.notNull(request, "request"));
-    VerifiedPkiMessage response = signAndSend(caName, requestor, responder, reqMessage, debug);
-    return parse(response, request.getRequestEntries());
-  } // method revokeCertificate
+    PKIMessage reqMessage;
+    try {
+      reqMessage = buildRevokeCertRequest(requestor, responder, Args.notNull(request, "request"));
+    } catch (CmpClientException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
 
-  RevokeCertResponse unrevokeCertificate(
-      String caName, Requestor requestor, UnrevokeCertRequest request, ReqRespDebug debug)
-      throws CmpClientException, PkiErrorException {
+    return signAndSend(caName, requestor, responder, reqMessage, debug)
+        .thenApply(unchecked(response -> parse(response, request.getRequestEntries())));
+  } // method revokeCertificateAsync
+
+  CompletableFuture<RevokeCertResponse> unrevokeCertificateAsync(
+      String caName, Requestor requestor, UnrevokeCertRequest request, ReqRespDebug debug) {
     Responder responder = getResponder(requestor);
-    PKIMessage reqMessage = buildUnrevokeCertRequest(requestor, responder, Args.notNull(request, "request"),
-        CrlReason.REMOVE_FROM_CRL.getCode());
-    VerifiedPkiMessage response = signAndSend(caName, requestor, responder, reqMessage, debug);
-    return parse(response, request.getRequestEntries());
-  } // method unrevokeCertificate
-
-  EnrollCertResponse requestCertificate(String caName, Requestor requestor, CsrEnrollCertRequest csr,
-                                        Instant notBefore, Instant notAfter, ReqRespDebug debug)
-      throws CmpClientException, PkiErrorException {
+    PKIMessage reqMessage;
+    try {
+      reqMessage = buildUnrevokeCertRequest(requestor, responder, Args.notNull(request, "request"),
+          CrlReason.REMOVE_FROM_CRL.getCode());
+    } catch (CmpClientException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+
+    return signAndSend(caName, requestor, responder, reqMessage, debug)
+        .thenApply(unchecked(response -> parse(response, request.getRequestEntries())));
+  } // method unrevokeCertificateAsync
+
+  CompletableFuture<EnrollCertResponse> requestCertificateAsync(
+      String caName, Requestor requestor, CsrEnrollCertRequest csr,
+      Instant notBefore, Instant notAfter, ReqRespDebug debug) {
     Responder responder = getResponder(requestor);
     PKIMessage request = buildPkiMessage(requestor, responder, Args.notNull(csr, "csr"), notBefore, notAfter);
     Map<BigInteger, String> reqIdIdMap = new HashMap<>();
     reqIdIdMap.put(MINUS_ONE, csr.getId());
     return requestCertificate0(caName, requestor, responder, request, reqIdIdMap, PKIBody.TYPE_CERT_REP, debug);
-  } // method requestCertificate
+  } // method requestCertificateAsync
 
-  EnrollCertResponse requestCertificate(String caName, Requestor requestor, EnrollCertRequest req, ReqRespDebug debug)
-      throws CmpClientException, PkiErrorException {
+  CompletableFuture<EnrollCertResponse> requestCertificateAsync(
+      String caName, Requestor requestor, EnrollCertRequest req, ReqRespDebug debug) {
     Responder responder = getResponder(requestor);
     PKIMessage request = buildPkiMessage(requestor, responder, Args.notNull(req, "req"));
     Map<BigInteger, String> reqIdIdMap = new HashMap<>();
@@ -600,13 +732,19 @@ class CmpAgent {
     }
 
     return requestCertificate0(caName, requestor, responder, request, reqIdIdMap, exptectedBodyType, debug);
-  } // method requestCertificate
+  } // method requestCertificateAsync
 
-  private EnrollCertResponse requestCertificate0(
+  private CompletableFuture<EnrollCertResponse> requestCertificate0(
       String caName, Requestor requestor, Responder responder, PKIMessage reqMessage,
+      Map<BigInteger, String> reqIdIdMap, int expectedBodyType, ReqRespDebug debug) {
+    return signAndSend(caName, requestor, responder, reqMessage, debug).thenCompose(unchecked(
+        response -> processCertResponse(caName, requestor, responder, response, reqIdIdMap, expectedBodyType, debug)));
+  } // method requestCertificate0
+
+  private CompletableFuture<EnrollCertResponse> processCertResponse(
+      String caName, Requestor requestor, Responder responder, VerifiedPkiMessage response,
       Map<BigInteger, String> reqIdIdMap, int expectedBodyType, ReqRespDebug debug)
       throws CmpClientException, PkiErrorException {
-    VerifiedPkiMessage response = signAndSend(caName, requestor, responder, reqMessage, debug);
     checkProtection(response);
 
     PKIBody respBody = response.getPkiMessage().getBody();
@@ -662,12 +800,12 @@ class CmpAgent {
       if (status == PKIStatus.GRANTED || status == PKIStatus.GRANTED_WITH_MODS) {
         CertifiedKeyPair cvk = certResp.getCertifiedKeyPair();
         if (cvk == null) {
-          return null;
+          return CompletableFuture.completedFuture(null);
         }
 
         CMPCertificate cmpCert = cvk.getCertOrEncCert().getCertificate();
         if (cmpCert == null) {
-          return null;
+          return CompletableFuture.completedFuture(null);
         }
 
         if (requestor == null) {
@@ -723,17 +861,17 @@ class CmpAgent {
     }
 
     if (!requireConfirm) {
-      return result;
+      return CompletableFuture.completedFuture(result);
     }
 
     PKIMessage confirmRequest = buildCertConfirmRequest(requestor, responder,
         response.getPkiMessage().getHeader().getTransactionID(), certConfirmBuilder);
 
-    response = signAndSend(caName, requestor, responder, confirmRequest, debug);
-    checkProtection(response);
-
-    return result;
-  } // method requestCertificate0
+    return signAndSend(caName, requestor, responder, confirmRequest, debug).thenApply(unchecked(confirmResponse -> {
+      checkProtection(confirmResponse);
+      return result;
+    }));
+  } // method processCertResponse
 
   private PKIMessage buildCertConfirmRequest(
       Requestor requestor, Responder responder, ASN1OctetString tid,
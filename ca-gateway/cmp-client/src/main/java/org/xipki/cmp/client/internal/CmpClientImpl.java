@@ -52,6 +52,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -149,8 +150,16 @@ public final class CmpClientImpl implements CmpClient {
       this.dhpopCerts = X509Util.parseCerts(responderConf.getDhPopCerts().readContent());
     }
 
+    CmpHttpTransport transport = null;
+    if (conf.isPooledTransport()) {
+      LOG.info("use pooled transport, http2: {}, maxConcurrentRequests: {}",
+          conf.isHttp2(), conf.getMaxConcurrentRequests());
+      transport = new CmpHttpTransport(sslCc.getSslContext(), hostnameVerifier, conf.isHttp2(),
+          conf.getConnectTimeout(), conf.getRequestTimeout(), conf.getMaxConcurrentRequests());
+    }
+
     this.agent = new CmpAgent(signatureResponder, pbmMacResponder, serverUrl, securityFactory,
-        sslSocketFactory, hostnameVerifier, conf.isSendRequestorCert());
+        sslSocketFactory, hostnameVerifier, transport, conf.isSendRequestorCert());
 
     initialized.set(true);
     LOG.info("initialized");
@@ -177,24 +186,36 @@ public final class CmpClientImpl implements CmpClient {
       String caName, Requestor requestor, CertificationRequest csr, String profile,
       Instant notBefore, Instant notAfter, ReqRespDebug debug)
       throws CmpClientException, PkiErrorException {
+    return CmpAgent.join(enrollCertAsync(caName, requestor, csr, profile, notBefore, notAfter, debug));
+  }
+
+  @Override
+  public CompletableFuture<EnrollCertResult> enrollCertAsync(
+      String caName, Requestor requestor, CertificationRequest csr, String profile,
+      Instant notBefore, Instant notAfter, ReqRespDebug debug) {
     Args.notNull(csr, "csr");
     caName = Args.notBlank(caName, "caName").toLowerCase(Locale.ROOT);
 
     final String id = "cert-1";
     CsrEnrollCertRequest request = new CsrEnrollCertRequest(id, profile, csr);
-    EnrollCertResponse result = agent.requestCertificate(caName, requestor, request, notBefore, notAfter, debug);
-
-    return parseEnrollCertResult(result);
+    return agent.requestCertificateAsync(caName, requestor, request, notBefore, notAfter, debug)
+        .thenApply(this::parseEnrollCertResult);
   }
 
   @Override
   public EnrollCertResult enrollCerts(
       String caName, Requestor requestor, EnrollCertRequest request, ReqRespDebug debug)
       throws CmpClientException, PkiErrorException {
+    return CmpAgent.join(enrollCertsAsync(caName, requestor, request, debug));
+  }
+
+  @Override
+  public CompletableFuture<EnrollCertResult> enrollCertsAsync(
+      String caName, Requestor requestor, EnrollCertRequest request, ReqRespDebug debug) {
     caName = Args.notBlank(caName, "caName").toLowerCase(Locale.ROOT);
     List<EnrollCertRequest.Entry> requestEntries = Args.notNull(request, "request").getRequestEntries();
-    return CollectionUtil.isEmpty(requestEntries) ? null
-        : parseEnrollCertResult(agent.requestCertificate(caName, requestor, request, debug));
+    return CollectionUtil.isEmpty(requestEntries) ? CompletableFuture.completedFuture(null)
+        : agent.requestCertificateAsync(caName, requestor, request, debug).thenApply(this::parseEnrollCertResult);
   }
 
   @Override
@@ -229,23 +250,31 @@ public final class CmpClientImpl implements CmpClient {
   public Map<String, CertIdOrError> revokeCerts(
       String caName, Requestor requestor, RevokeCertRequest request, ReqRespDebug debug)
       throws CmpClientException, PkiErrorException {
+    return CmpAgent.join(revokeCertsAsync(caName, requestor, request, debug));
+  }
+
+  @Override
+  public CompletableFuture<Map<String, CertIdOrError>> revokeCertsAsync(
+      String caName, Requestor requestor, RevokeCertRequest request, ReqRespDebug debug) {
     List<RevokeCertRequest.Entry> requestEntries = Args.notNull(request, "request").getRequestEntries();
     if (CollectionUtil.isEmpty(requestEntries)) {
-      return Collections.emptyMap();
+      return CompletableFuture.completedFuture(Collections.emptyMap());
     }
 
     X500Name issuer = requestEntries.get(0).getIssuer();
     for (int i = 1; i < requestEntries.size(); i++) {
       if (!issuer.equals(requestEntries.get(i).getIssuer())) {
-        throw new PkiErrorException(PKIStatus.REJECTION, PKIFailureInfo.badRequest,
-            "revoking certificates issued by more than one CA is not allowed");
+        return CompletableFuture.failedFuture(new PkiErrorException(PKIStatus.REJECTION, PKIFailureInfo.badRequest,
+            "revoking certificates issued by more than one CA is not allowed"));
       }
     }
 
-    return parseRevokeCertResult(agent.revokeCertificate(caName, requestor, request, debug));
+    return agent.revokeCertificateAsync(caName, requestor, request, debug)
+        .thenApply(CmpAgent.unchecked(CmpClientImpl::parseRevokeCertResult));
   }
 
-  private Map<String, CertIdOrError> parseRevokeCertResult(RevokeCertResponse result) throws CmpClientException {
+  private static Map<String, CertIdOrError> parseRevokeCertResult(RevokeCertResponse result)
+      throws CmpClientException {
     Map<String, CertIdOrError> ret = new HashMap<>();
 
     for (ResultEntry re : result.getResultEntries()) {
@@ -326,20 +355,27 @@ public final class CmpClientImpl implements CmpClient {
   public Map<String, CertIdOrError> unsuspendCerts(
       String caName, Requestor requestor, UnrevokeCertRequest request, ReqRespDebug debug)
       throws CmpClientException, PkiErrorException {
+    return CmpAgent.join(unsuspendCertsAsync(caName, requestor, request, debug));
+  }
+
+  @Override
+  public CompletableFuture<Map<String, CertIdOrError>> unsuspendCertsAsync(
+      String caName, Requestor requestor, UnrevokeCertRequest request, ReqRespDebug debug) {
     List<UnrevokeCertRequest.Entry> requestEntries = Args.notNull(request, "request").getRequestEntries();
     if (CollectionUtil.isEmpty(requestEntries)) {
-      return Collections.emptyMap();
+      return CompletableFuture.completedFuture(Collections.emptyMap());
     }
 
     X500Name issuer = requestEntries.get(0).getIssuer();
     for (int i = 1; i < requestEntries.size(); i++) {
       if (!issuer.equals(requestEntries.get(i).getIssuer())) {
-        throw new PkiErrorException(PKIStatus.REJECTION, PKIFailureInfo.badRequest,
-            "unsuspending certificates issued by more than one CA is not allowed");
+        return CompletableFuture.failedFuture(new PkiErrorException(PKIStatus.REJECTION, PKIFailureInfo.badRequest,
+            "unsuspending certificates issued by more than one CA is not allowed"));
       }
     }
 
-    return parseRevokeCertResult(agent.unrevokeCertificate(caName, requestor, request, debug));
+    return agent.unrevokeCertificateAsync(caName, requestor, request, debug)
+        .thenApply(CmpAgent.unchecked(CmpClientImpl::parseRevokeCertResult));
   }
 
   private EnrollCertResult parseEnrollCertResult(EnrollCertResponse result) {
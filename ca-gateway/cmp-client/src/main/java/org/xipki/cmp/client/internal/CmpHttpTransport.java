@@ -0,0 +1,155 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.cmp.client.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport based on {@link HttpClient}. The connections to the CMP responder are kept alive and
+ * reused, with HTTP/2 (if enabled and supported by the server) several requests are multiplexed
+ * over one connection. The number of in-flight requests can be limited, requests exceeding the
+ * limit are queued without blocking the caller.
+ * <p>
+ * Custom hostname verifiers are not supported, {@link HttpClient} always applies the standard
+ * HTTPS hostname verification.
+ *
+ * @author Lijun Liao (xipki)
+ * @since 6.5.4
+ */
+
+class CmpHttpTransport {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CmpHttpTransport.class);
+
+  private final HttpClient client;
+
+  private final Duration requestTimeout;
+
+  private final int maxConcurrentRequests;
+
+  private final Queue<Runnable> waiting = new ArrayDeque<>();
+
+  private int active;
+
+  /**
+   * Constructor.
+   *
+   * @param sslContext the SSL context, may be {@code null}.
+   * @param hostnameVerifier the configured hostname verifier, may be {@code null}. It is not used,
+   *        a warning is logged if it is not the default one.
+   * @param http2 whether to prefer HTTP/2.
+   * @param connectTimeout connect timeout in seconds, non-positive for no timeout.
+   * @param requestTimeout request timeout in seconds, non-positive for no timeout.
+   * @param maxConcurrentRequests maximal number of in-flight requests, non-positive for no limit.
+   */
+  CmpHttpTransport(SSLContext sslContext, HostnameVerifier hostnameVerifier, boolean http2,
+                   int connectTimeout, int requestTimeout, int maxConcurrentRequests) {
+    if (hostnameVerifier != null && hostnameVerifier != HttpsURLConnection.getDefaultHostnameVerifier()) {
+      LOG.warn("the pooled transport ignores the configured hostnameVerifier {}, the standard HTTPS "
+          + "hostname verification is applied", hostnameVerifier.getClass().getName());
+    }
+
+    HttpClient.Builder builder = HttpClient.newBuilder()
+        .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+        .followRedirects(HttpClient.Redirect.NEVER);
+    if (sslContext != null) {
+      builder.sslContext(sslContext);
+    }
+    if (connectTimeout > 0) {
+      builder.connectTimeout(Duration.ofSeconds(connectTimeout));
+    }
+
+    this.client = builder.build();
+    this.requestTimeout = requestTimeout > 0 ? Duration.ofSeconds(requestTimeout) : null;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  /**
+   * Posts the request asynchronously.
+   *
+   * @param url the URL.
+   * @param contentType the content type of the request.
+   * @param content the content.
+   * @param accept the expected content type of the response.
+   * @return the future of the response.
+   */
+  CompletableFuture<HttpResponse<byte[]>> post(String url, String contentType, byte[] content, String accept) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+        .POST(HttpRequest.BodyPublishers.ofByteArray(content))
+        .header("Content-Type", contentType)
+        .header("Accept", accept);
+    if (requestTimeout != null) {
+      builder.timeout(requestTimeout);
+    }
+
+    HttpRequest request = builder.build();
+    if (maxConcurrentRequests <= 0) {
+      return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    CompletableFuture<HttpResponse<byte[]>> result = new CompletableFuture<>();
+    Runnable start = () -> {
+      CompletableFuture<HttpResponse<byte[]>> future;
+      try {
+        future = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+      } catch (RuntimeException ex) {
+        release();
+        result.completeExceptionally(ex);
+        return;
+      }
+
+      future.whenComplete((value, ex) -> {
+        release();
+        if (ex != null) {
+          result.completeExceptionally(ex);
+        } else {
+          result.complete(value);
+        }
+      });
+    };
+
+    boolean runNow;
+    synchronized (this) {
+      runNow = active < maxConcurrentRequests;
+      if (runNow) {
+        active++;
+      } else {
+        waiting.add(start);
+      }
+    }
+
+    if (runNow) {
+      start.run();
+    }
+    return result;
+  } // method post
+
+  private void release() {
+    Runnable next;
+    synchronized (this) {
+      next = waiting.poll();
+      if (next == null) {
+        active--;
+      }
+    }
+
+    if (next != null) {
+      next.run();
+    }
+  }
+
+}
@@ -24,6 +24,7 @@ import org.bouncycastle.cert.cmp.ProtectedPKIMessageBuilder;
 import org.bouncycastle.cert.crmf.CRMFException;
 import org.bouncycastle.cert.crmf.PKMACBuilder;
 import org.bouncycastle.cert.crmf.jcajce.JcePKMACValuesCalculator;
+import org.bouncycastle.operator.MacCalculator;
 import org.xipki.security.ConcurrentContentSigner;
 import org.xipki.security.NoIdleSignerException;
 import org.xipki.security.ObjectIdentifiers;
@@ -85,14 +86,30 @@ public class CmpUtil {
   public static PKIMessage addProtection(
       PKIMessage pkiMessage, char[] password, PBMParameter pbmParameter, GeneralName signerName, byte[] senderKid)
       throws CMPException {
-    ProtectedPKIMessageBuilder builder = newProtectedPKIMessageBuilder(pkiMessage, signerName, senderKid);
+    MacCalculator macCalculator;
     try {
       PKMACBuilder pkMacBuilder = new PKMACBuilder(new JcePKMACValuesCalculator());
       pkMacBuilder.setParameters(pbmParameter);
-      return builder.build(pkMacBuilder.build(password)).toASN1Structure();
+      macCalculator = pkMacBuilder.build(password);
     } catch (CRMFException ex) {
       throw new CMPException(ex.getMessage(), ex);
     }
+    return addProtection(pkiMessage, macCalculator, signerName, senderKid);
+  }
+
+  /**
+   * Protects the message with the given MAC calculator, e.g. one with an already derived
+   * password based MAC key.
+   *
+   * @since 6.5.4
+   */
+  public static PKIMessage addProtection(
+      PKIMessage pkiMessage, MacCalculator macCalculator, GeneralName signerName, byte[] senderKid)
+      throws CMPException {
+    Args.notNull(pkiMessage, "pkiMessage");
+    Args.notNull(macCalculator, "macCalculator");
+    ProtectedPKIMessageBuilder builder = newProtectedPKIMessageBuilder(pkiMessage, signerName, senderKid);
+    return builder.build(macCalculator).toASN1Structure();
   }
 
   private static ProtectedPKIMessageBuilder newProtectedPKIMessageBuilder(PKIMessage pkiMessage,
@@ -0,0 +1,182 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.xipki.ca.gateway.api.Requestor;
+import org.xipki.ca.gateway.api.RequestorAuthenticator;
+import org.xipki.security.X509Cert;
+import org.xipki.util.Args;
+import org.xipki.util.RandomUtil;
+import org.xipki.util.StringUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link RequestorAuthenticator} which caches the successful password verifications of the
+ * underlying authenticator for a short time. Only a keyed digest of the password is cached.
+ *
+ * @author Lijun Liao (xipki)
+ * @since 6.5.4
+ */
+
+public class CachingRequestorAuthenticator implements RequestorAuthenticator {
+
+  private static class CachedAuth {
+
+    private final byte[] digest;
+
+    private final long expires;
+
+    CachedAuth(byte[] digest, long expires) {
+      this.digest = digest;
+      this.expires = expires;
+    }
+
+  } // class CachedAuth
+
+  private class CachingPasswordRequestor implements Requestor.PasswordRequestor {
+
+    private final String user;
+
+    private final Requestor.PasswordRequestor underlying;
+
+    CachingPasswordRequestor(String user, Requestor.PasswordRequestor underlying) {
+      this.user = user;
+      this.underlying = underlying;
+    }
+
+    @Override
+    public String getName() {
+      return underlying.getName();
+    }
+
+    @Override
+    public boolean isCertprofilePermitted(String caName, String certprofile) {
+      return underlying.isCertprofilePermitted(caName, certprofile);
+    }
+
+    @Override
+    public boolean isPermitted(Permission permission) {
+      return underlying.isPermitted(permission);
+    }
+
+    @Override
+    public boolean authenticate(char[] password) {
+      if (password == null) {
+        return underlying.authenticate(password);
+      }
+
+      byte[] digest = digest(user, new String(password).getBytes(StandardCharsets.UTF_8));
+      if (isCached(user, digest)) {
+        return true;
+      }
+
+      boolean authenticated = underlying.authenticate(password);
+      if (authenticated) {
+        cache(user, digest);
+      }
+      return authenticated;
+    }
+
+    @Override
+    public boolean authenticate(byte[] password) {
+      if (password == null) {
+        return underlying.authenticate(password);
+      }
+
+      byte[] digest = digest(user, password);
+      if (isCached(user, digest)) {
+        return true;
+      }
+
+      boolean authenticated = underlying.authenticate(password);
+      if (authenticated) {
+        cache(user, digest);
+      }
+      return authenticated;
+    }
+
+  } // class CachingPasswordRequestor
+
+  private static final int MAX_CACHE_SIZE = 10000;
+
+  private final RequestorAuthenticator underlying;
+
+  private final long ttlMs;
+
+  // random key, so that the cached digests are useless outside of this instance.
+  private final byte[] macKey = RandomUtil.nextBytes(32);
+
+  private final Map<String, CachedAuth> cache = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   * @param underlying the authenticator which verifies the passwords.
+   * @param ttlSeconds seconds for which a successful password verification is cached.
+   */
+  public CachingRequestorAuthenticator(RequestorAuthenticator underlying, int ttlSeconds) {
+    this.underlying = Args.notNull(underlying, "underlying");
+    this.ttlMs = Args.positive(ttlSeconds, "ttlSeconds") * 1000L;
+  }
+
+  @Override
+  public Requestor.SimplePasswordRequestor getSimplePasswordRequestorByKeyId(byte[] keyId) {
+    return underlying.getSimplePasswordRequestorByKeyId(keyId);
+  }
+
+  @Override
+  public Requestor.PasswordRequestor getPasswordRequestorByUser(String user) {
+    Requestor.PasswordRequestor requestor = underlying.getPasswordRequestorByUser(user);
+    return requestor == null ? null : new CachingPasswordRequestor(user, requestor);
+  }
+
+  @Override
+  public Requestor.CertRequestor getCertRequestor(X509Cert cert) {
+    return underlying.getCertRequestor(cert);
+  }
+
+  private boolean isCached(String user, byte[] digest) {
+    CachedAuth auth = cache.get(user);
+    if (auth == null) {
+      return false;
+    }
+
+    if (auth.expires < System.currentTimeMillis()) {
+      cache.remove(user, auth);
+      return false;
+    }
+
+    return MessageDigest.isEqual(auth.digest, digest);
+  }
+
+  private void cache(String user, byte[] digest) {
+    long now = System.currentTimeMillis();
+    if (cache.size() >= MAX_CACHE_SIZE) {
+      cache.values().removeIf(auth -> auth.expires < now);
+      if (cache.size() >= MAX_CACHE_SIZE) {
+        cache.clear();
+      }
+    }
+    cache.put(user, new CachedAuth(digest, now + ttlMs));
+  }
+
+  private byte[] digest(String user, byte[] password) {
+    HMac mac = new HMac(new SHA256Digest());
+    mac.init(new KeyParameter(macKey));
+    byte[] userBytes = StringUtil.toUtf8Bytes(user);
+    mac.update(userBytes, 0, userBytes.length);
+    mac.update((byte) 0);
+    mac.update(password, 0, password.length);
+    byte[] digest = new byte[mac.getMacSize()];
+    mac.doFinal(digest, 0);
+    return digest;
+  }
+
+}
@@ -0,0 +1,248 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway;
+
+import org.bouncycastle.asn1.x509.CertificateList;
+import org.bouncycastle.asn1.x509.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.sdk.CertprofileInfoResponse;
+import org.xipki.ca.sdk.SdkClient;
+import org.xipki.ca.sdk.SdkClientConf;
+import org.xipki.ca.sdk.SdkErrorResponseException;
+import org.xipki.pki.ErrorCode;
+import org.xipki.util.Args;
+import org.xipki.util.LruCache;
+import org.xipki.util.exception.ObjectCreationException;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * {@link SdkClient} which caches the CA metadata (CA certificate, CA certificate chain, current CRL
+ * and certificate profile information) for a configurable time. The CRL is cached at most until its
+ * nextUpdate. If the CA certificate changes, all cached entries of the CA are dropped. Concurrent
+ * requests for the same missing entry result in only one request to the CA. At most
+ * {@value #MAX_CACHE_SIZE} entries are cached, the least recently used ones are evicted first.
+ *
+ * @author Lijun Liao (xipki)
+ * @since 6.5.4
+ */
+
+public class CachingSdkClient extends SdkClient {
+
+  private interface Loader<T> {
+    T load() throws SdkErrorResponseException;
+  }
+
+  private static class CacheKey {
+
+    private final String type;
+
+    private final String ca;
+
+    private final String name;
+
+    CacheKey(String type, String ca, String name) {
+      this.type = type;
+      this.ca = ca;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+
+      CacheKey other = (CacheKey) obj;
+      return type.equals(other.type) && Objects.equals(ca, other.ca) && Objects.equals(name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(type, ca, name);
+    }
+
+  } // class CacheKey
+
+  private static class CacheEntry {
+
+    private final Object value;
+
+    private final long expires;
+
+    CacheEntry(Object value, long expires) {
+      this.value = value;
+      this.expires = expires;
+    }
+
+  } // class CacheEntry
+
+  private static final Logger LOG = LoggerFactory.getLogger(CachingSdkClient.class);
+
+  private static final String TYPE_CACERT = "cacert";
+
+  private static final String TYPE_CACERTS = "cacerts";
+
+  private static final String TYPE_CRL = "crl";
+
+  private static final String TYPE_PROFILE = "profile";
+
+  // 3 entries per CA and one per profile, the limit is only reached with many CAs and profiles.
+  private static final int MAX_CACHE_SIZE = 1000;
+
+  private final long ttlMs;
+
+  private final LruCache<CacheKey, CacheEntry> cache = new LruCache<>(MAX_CACHE_SIZE);
+
+  private final Map<CacheKey, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+  private final Map<String, byte[]> caCerts = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   * @param conf configuration of the SDK client.
+   * @param ttlSeconds seconds for which the CA metadata is cached.
+   * @throws ObjectCreationException if the SDK client could not be created.
+   */
+  public CachingSdkClient(SdkClientConf conf, int ttlSeconds) throws ObjectCreationException {
+    super(conf);
+    this.ttlMs = Args.positive(ttlSeconds, "ttlSeconds") * 1000L;
+  }
+
+  @Override
+  public byte[] cacert(String ca) throws SdkErrorResponseException {
+    return get(new CacheKey(TYPE_CACERT, ca, null), () -> {
+      byte[] cert = super.cacert(ca);
+      checkCaCert(ca, cert);
+      return cert;
+    }, null);
+  }
+
+  @Override
+  public byte[][] cacerts(String ca) throws SdkErrorResponseException {
+    return get(new CacheKey(TYPE_CACERTS, ca, null), () -> {
+      byte[][] certs = super.cacerts(ca);
+      checkCaCert(ca, certs == null || certs.length == 0 ? null : certs[0]);
+      return certs;
+    }, null);
+  }
+
+  @Override
+  public byte[] currentCrl(String ca) throws SdkErrorResponseException {
+    return get(new CacheKey(TYPE_CRL, ca, null), () -> super.currentCrl(ca), CachingSdkClient::getNextUpdate);
+  }
+
+  @Override
+  public CertprofileInfoResponse profileInfo(String ca, String profileName) throws SdkErrorResponseException {
+    return get(new CacheKey(TYPE_PROFILE, ca, profileName), () -> super.profileInfo(ca, profileName), null);
+  }
+
+  /**
+   * Removes all cached entries of the given CA.
+   * @param ca the CA name.
+   */
+  public void invalidate(String ca) {
+    removeEntries(ca);
+    caCerts.remove(ca);
+  }
+
+  private void removeEntries(String ca) {
+    for (CacheKey key : cache.snapshot().keySet()) {
+      if (Objects.equals(ca, key.ca)) {
+        cache.remove(key);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T get(CacheKey key, Loader<T> loader, Function<T, Long> expiresFn)
+      throws SdkErrorResponseException {
+    CacheEntry entry = cache.get(key);
+    if (entry != null && entry.expires > System.currentTimeMillis()) {
+      return (T) entry.value;
+    }
+
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    CompletableFuture<Object> existing = loading.putIfAbsent(key, future);
+    if (existing != null) {
+      // other thread is loading the same entry, wait for its result.
+      return (T) waitFor(existing);
+    }
+
+    try {
+      T value = loader.load();
+      long expires = System.currentTimeMillis() + ttlMs;
+      if (value != null && expiresFn != null) {
+        Long expires2 = expiresFn.apply(value);
+        if (expires2 != null) {
+          expires = Math.min(expires, expires2);
+        }
+      }
+
+      if (value != null) {
+        cache.put(key, new CacheEntry(value, expires));
+      } else {
+        cache.remove(key);
+      }
+      future.complete(value);
+      return value;
+    } catch (SdkErrorResponseException | RuntimeException ex) {
+      future.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      loading.remove(key, future);
+    }
+  } // method get
+
+  private static Object waitFor(CompletableFuture<Object> future) throws SdkErrorResponseException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SdkErrorResponseException(ErrorCode.SYSTEM_UNAVAILABLE, "interrupted");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof SdkErrorResponseException) {
+        throw (SdkErrorResponseException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new SdkErrorResponseException(ErrorCode.SYSTEM_FAILURE, cause.getMessage());
+      }
+    }
+  } // method waitFor
+
+  private void checkCaCert(String ca, byte[] cert) {
+    if (cert == null) {
+      return;
+    }
+
+    byte[] previous = caCerts.put(ca, cert);
+    if (previous != null && !Arrays.equals(previous, cert)) {
+      LOG.info("certificate of CA {} changed, invalidate its cached metadata", ca);
+      removeEntries(ca);
+    }
+  } // method checkCaCert
+
+  private static Long getNextUpdate(byte[] crl) {
+    try {
+      Time nextUpdate = CertificateList.getInstance(crl).getNextUpdate();
+      return nextUpdate == null ? null : nextUpdate.getDate().getTime();
+    } catch (RuntimeException ex) {
+      LOG.warn("could not parse CRL: {}", ex.getMessage());
+      // do not cache invalid CRL
+      return 0L;
+    }
+  } // method getNextUpdate
+
+}
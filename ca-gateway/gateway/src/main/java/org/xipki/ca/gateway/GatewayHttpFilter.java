@@ -30,6 +30,7 @@ import org.xipki.ca.gateway.scep.ScepHttpServlet;
 import org.xipki.ca.gateway.scep.ScepProtocolConf;
 import org.xipki.ca.gateway.scep.ScepResponder;
 import org.xipki.ca.sdk.SdkClient;
+import org.xipki.ca.sdk.SdkClientConf;
 import org.xipki.security.ConcurrentContentSigner;
 import org.xipki.security.Securities;
 import org.xipki.security.X509Cert;
@@ -48,7 +49,9 @@ import org.xipki.util.http.XiHttpRequest;
 import org.xipki.util.http.XiHttpResponse;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -71,6 +74,8 @@ public class GatewayHttpFilter implements XiHttpFilter {
 
   private CmpHttpServlet cmpServlet;
 
+  private CmpResponder cmpResponder;
+
   private EstHttpServlet estServlet;
 
   private RestHttpServlet restServlet;
@@ -79,6 +84,10 @@ public class GatewayHttpFilter implements XiHttpFilter {
 
   private Securities securities;
 
+  private Integer caMetadataCacheTtl;
+
+  private final List<SdkClient> sdkClients = new ArrayList<>();
+
   static {
     LOG.info("XiPKI CA Protocol Gateway version {}", StringUtil.getBundleVersion(AcmeResponder.class));
   }
@@ -107,7 +116,8 @@ public class GatewayHttpFilter implements XiHttpFilter {
       throw new InvalidConfException("could not init AuditService");
     }
 
-    SdkClient gSdkClient = new SdkClient(gatewayConf.getSdkClient());
+    caMetadataCacheTtl = gatewayConf.getCaMetadataCacheTtl();
+    SdkClient gSdkClient = newSdkClient(gatewayConf.getSdkClient());
     boolean gLogReqResp = gatewayConf.isLogReqResp();
     String reverseProxyMode = gatewayConf.getReverseProxyMode();
     PopControl gPopControl = new PopControl(gatewayConf.getPop());
@@ -155,7 +165,7 @@ public class GatewayHttpFilter implements XiHttpFilter {
 
       SdkClient sdkClient = gSdkClient;
       if (pconf.getSdkClient() != null) {
-        sdkClient = new SdkClient(pconf.getSdkClient());
+        sdkClient = newSdkClient(pconf.getSdkClient());
         sdkClient.setLogReqResp(logReqResp);
       }
 
@@ -184,7 +194,7 @@ public class GatewayHttpFilter implements XiHttpFilter {
 
       SdkClient sdkClient = gSdkClient;
       if (pconf.getSdkClient() != null) {
-        sdkClient = new SdkClient(pconf.getSdkClient());
+        sdkClient = newSdkClient(pconf.getSdkClient());
         sdkClient.setLogReqResp(logReqResp);
       }
 
@@ -193,7 +203,8 @@ public class GatewayHttpFilter implements XiHttpFilter {
         popControl = new PopControl(pconf.getPop());
       }
 
-      RequestorAuthenticator authenticator = newAuthenticator(pconf.getAuthenticator());
+      RequestorAuthenticator authenticator =
+          newAuthenticator(pconf.getAuthenticator(), pconf.getAuthenticationCacheTtl());
       CaNameSigners signers = newCaSigners(securities, pconf.getSigners());
       CmpControl cmpControl = new CmpControl(pconf.getCmp());
 
@@ -201,6 +212,7 @@ public class GatewayHttpFilter implements XiHttpFilter {
           securities.getSecurityFactory(), signers, authenticator, popControl);
 
       cmpServlet = new CmpHttpServlet(logReqResp, reverseProxyMode, responder);
+      cmpResponder = responder;
       LOG.info("started CMP gateway");
     } catch (Throwable ex) {
       LogUtil.error(LOG, ex, "error starting CMP gateway");
@@ -217,7 +229,7 @@ public class GatewayHttpFilter implements XiHttpFilter {
 
       SdkClient sdkClient = gSdkClient;
       if (pconf.getSdkClient() != null) {
-        sdkClient = new SdkClient(pconf.getSdkClient());
+        sdkClient = newSdkClient(pconf.getSdkClient());
         sdkClient.setLogReqResp(logReqResp);
       }
 
@@ -226,7 +238,8 @@ public class GatewayHttpFilter implements XiHttpFilter {
         popControl = new PopControl(pconf.getPop());
       }
 
-      RequestorAuthenticator authenticator = newAuthenticator(pconf.getAuthenticator());
+      RequestorAuthenticator authenticator =
+          newAuthenticator(pconf.getAuthenticator(), pconf.getAuthenticationCacheTtl());
       CaProfilesControl caProfilesControl = new CaProfilesControl(pconf.getCaProfiles());
 
       EstResponder responder = new EstResponder(sdkClient, securities.getSecurityFactory(),
@@ -249,7 +262,7 @@ public class GatewayHttpFilter implements XiHttpFilter {
 
       SdkClient sdkClient = gSdkClient;
       if (pconf.getSdkClient() != null) {
-        sdkClient = new SdkClient(pconf.getSdkClient());
+        sdkClient = newSdkClient(pconf.getSdkClient());
         sdkClient.setLogReqResp(logReqResp);
       }
 
@@ -258,7 +271,8 @@ public class GatewayHttpFilter implements XiHttpFilter {
         popControl = new PopControl(pconf.getPop());
       }
 
-      RequestorAuthenticator authenticator = newAuthenticator(pconf.getAuthenticator());
+      RequestorAuthenticator authenticator =
+          newAuthenticator(pconf.getAuthenticator(), pconf.getAuthenticationCacheTtl());
       CaProfilesControl caProfilesControl = new CaProfilesControl(pconf.getCaProfiles());
 
       RestResponder responder = new RestResponder(sdkClient, securities.getSecurityFactory(),
@@ -281,7 +295,7 @@ public class GatewayHttpFilter implements XiHttpFilter {
 
       SdkClient sdkClient = gSdkClient;
       if (pconf.getSdkClient() != null) {
-        sdkClient = new SdkClient(pconf.getSdkClient());
+        sdkClient = newSdkClient(pconf.getSdkClient());
         sdkClient.setLogReqResp(logReqResp);
       }
 
@@ -290,7 +304,8 @@ public class GatewayHttpFilter implements XiHttpFilter {
         popControl = new PopControl(pconf.getPop());
       }
 
-      RequestorAuthenticator authenticator = newAuthenticator(pconf.getAuthenticator());
+      RequestorAuthenticator authenticator =
+          newAuthenticator(pconf.getAuthenticator(), pconf.getAuthenticationCacheTtl());
       CaProfilesControl caProfilesControl = new CaProfilesControl(pconf.getCaProfiles());
       CaNameScepSigners signers = new CaNameScepSigners(
           newCaSigners(securities, pconf.getSigners()));
@@ -307,6 +322,16 @@ public class GatewayHttpFilter implements XiHttpFilter {
 
   @Override
   public void destroy() {
+    if (cmpResponder != null) {
+      cmpResponder.close();
+      cmpResponder = null;
+    }
+
+    for (SdkClient client : sdkClients) {
+      client.close();
+    }
+    sdkClients.clear();
+
     try {
       if (securities != null) {
         securities.close();
@@ -362,13 +387,31 @@ public class GatewayHttpFilter implements XiHttpFilter {
     }
   }
 
-  private static RequestorAuthenticator newAuthenticator(String authenticatorClazz) throws InvalidConfException {
+  private SdkClient newSdkClient(SdkClientConf conf) throws ObjectCreationException {
+    SdkClient client;
+    if (caMetadataCacheTtl != null && caMetadataCacheTtl > 0) {
+      LOG.info("cache CA metadata for {} seconds", caMetadataCacheTtl);
+      client = new CachingSdkClient(conf, caMetadataCacheTtl);
+    } else {
+      client = new SdkClient(conf);
+    }
+    sdkClients.add(client);
+    return client;
+  }
+
+  private static RequestorAuthenticator newAuthenticator(String authenticatorClazz, Integer cacheTtl)
+      throws InvalidConfException {
     if (authenticatorClazz == null) {
       return null;
     }
 
     try {
-      return ReflectiveUtil.newInstance(authenticatorClazz);
+      RequestorAuthenticator authenticator = ReflectiveUtil.newInstance(authenticatorClazz);
+      if (cacheTtl != null && cacheTtl > 0) {
+        authenticator = new CachingRequestorAuthenticator(authenticator, cacheTtl);
+        LOG.info("cache successful password verifications of {} for {} seconds", authenticatorClazz, cacheTtl);
+      }
+      return authenticator;
     } catch (ObjectCreationException e) {
       String msg = "could not load RequestorAuthenticator " + authenticatorClazz;
       LOG.error(msg, e);
@@ -30,12 +30,6 @@ public class PasswordHash {
   public static final int SALT_INDEX = 1;
   public static final int PBKDF2_INDEX = 2;
 
-  private static final PKCS5S2ParametersGenerator GEN;
-
-  static {
-    GEN = new PKCS5S2ParametersGenerator(new SHA256Digest());
-  }
-
   private PasswordHash() {
   }
 
@@ -142,10 +136,10 @@ public class PasswordHash {
    * @return the PBDKF2 hash of the password
    */
   public static byte[] pbkdf2(byte[] password, byte[] salt, int iterations, int bytes) {
-    synchronized (GEN) {
-      GEN.init(password, salt, iterations);
-      return ((KeyParameter) GEN.generateDerivedParameters(bytes * 8)).getKey();
-    }
+    // PKCS5S2ParametersGenerator is not thread-safe, and cheap to create compared to the iterations.
+    PKCS5S2ParametersGenerator gen = new PKCS5S2ParametersGenerator(new SHA256Digest());
+    gen.init(password, salt, iterations);
+    return ((KeyParameter) gen.generateDerivedParameters(bytes * 8)).getKey();
   }
 
   /**
@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  *
@@ -80,6 +81,18 @@ public class AcmeAccount {
 
   private AcmeAccount mark;
 
+  /**
+   * State before the last {@link #prepareFlush()}, restored if the write fails.
+   */
+  private boolean flushingNew;
+
+  private AcmeAccount flushingMark;
+
+  /**
+   * Notified if this account saved in the database is modified the first time since the last write.
+   */
+  private volatile Consumer<AcmeAccount> dirtyListener;
+
   private final long id;
 
   private final String idStr;
@@ -105,6 +118,10 @@ public class AcmeAccount {
     this.inDb = inDb;
   }
 
+  void setDirtyListener(Consumer<AcmeAccount> dirtyListener) {
+    this.dirtyListener = dirtyListener;
+  }
+
   public boolean hasJwk(Map<String, String> jwk) {
     return jwk != null && jwk.equals(data.jwk);
   }
@@ -124,7 +141,7 @@ public class AcmeAccount {
     return jwkSha256;
   }
 
-  public void setJwkSha256(String jwkSha256) {
+  public synchronized void setJwkSha256(String jwkSha256) {
     markMe();
     this.jwkSha256 = jwkSha256;
   }
@@ -136,16 +153,19 @@ public class AcmeAccount {
     return publicKey;
   }
 
-  public void setJwk(Map<String, String> jwk) {
+  public synchronized void setJwk(Map<String, String> jwk) {
     markMe();
     this.data.jwk = jwk;
+    // derived from the jwk, computed again on demand.
+    this.jwkSha256 = null;
+    this.publicKey = null;
   }
 
   public AccountStatus getStatus() {
     return status;
   }
 
-  public void setStatus(AccountStatus status) {
+  public synchronized void setStatus(AccountStatus status) {
     markMe();
     this.status = status;
   }
@@ -162,7 +182,7 @@ public class AcmeAccount {
     return data.contact;
   }
 
-  public void setContact(List<String> contact) {
+  public synchronized void setContact(List<String> contact) {
     markMe();
     this.data.contact = contact;
   }
@@ -171,7 +191,7 @@ public class AcmeAccount {
     return data.externalAccountBinding;
   }
 
-  public void setExternalAccountBinding(JoseMessage externalAccountBinding) {
+  public synchronized void setExternalAccountBinding(JoseMessage externalAccountBinding) {
     markMe();
     this.data.externalAccountBinding = externalAccountBinding;
   }
@@ -180,7 +200,7 @@ public class AcmeAccount {
     return data.termsOfServiceAgreed;
   }
 
-  public void setTermsOfServiceAgreed(Boolean termsOfServiceAgreed) {
+  public synchronized void setTermsOfServiceAgreed(Boolean termsOfServiceAgreed) {
     markMe();
     this.data.termsOfServiceAgreed = termsOfServiceAgreed;
   }
@@ -203,19 +223,40 @@ public class AcmeAccount {
     this.marked = true;
   }
 
-  // do not throw any exception
-  public synchronized void flush() throws AcmeSystemException {
-    if (inDb) {
-      if (mark != null) {
-        dataSource.updateAccount(mark, this);
-      }
-    } else {
+  /**
+   * Prepares the write of this account to the database, and considers it as saved. The caller must
+   * call {@link #flushDone(boolean)} after the write.
+   *
+   * @return the write, or {@code null} if the account has not been changed.
+   * @throws AcmeSystemException if the account is invalid.
+   */
+  synchronized AcmeDataSource.RowWrite prepareFlush() throws AcmeSystemException {
+    flushingNew = !inDb;
+    flushingMark = mark;
+    mark = null;
+
+    if (flushingNew) {
       // not saved in database.
-      dataSource.addNewAccount(this);
+      AcmeDataSource.RowWrite write = dataSource.buildAddAccount(this);
       inDb = true;
+      return write;
+    } else {
+      return flushingMark == null ? null : dataSource.buildUpdateAccount(flushingMark, this);
     }
+  }
 
-    mark = null;
+  synchronized void flushDone(boolean success) {
+    if (!success) {
+      if (flushingNew) {
+        inDb = false;
+        mark = null;
+      } else if (flushingMark != null) {
+        // the mark created after prepareFlush() (if any) is newer than the database.
+        mark = flushingMark;
+      }
+    }
+
+    flushingMark = null;
   }
 
   private synchronized void markMe() {
@@ -239,6 +280,11 @@ public class AcmeAccount {
     copy.marked = marked;
 
     this.mark = copy;
+
+    Consumer<AcmeAccount> listener = dirtyListener;
+    if (listener != null) {
+      listener.accept(this);
+    }
   }
 
 }
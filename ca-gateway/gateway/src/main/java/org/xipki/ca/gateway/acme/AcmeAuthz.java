@@ -102,8 +102,11 @@ public class AcmeAuthz {
   }
 
   public void setStatus(AuthzStatus status) {
-    markOrder();
-    this.status = status;
+    synchronized (orderLock()) {
+      markOrder();
+      this.status = status;
+    }
+    orderStateChanged();
   }
 
   public Instant getExpires() {
@@ -111,8 +114,10 @@ public class AcmeAuthz {
   }
 
   public void setExpires(Instant expires) {
-    markOrder();
-    this.expires = expires;
+    synchronized (orderLock()) {
+      markOrder();
+      this.expires = expires;
+    }
   }
 
   public AcmeIdentifier getIdentifier() {
@@ -124,11 +129,13 @@ public class AcmeAuthz {
   }
 
   public void setChallenges(List<AcmeChallenge> challenges) {
-    markOrder();
-    this.challenges = challenges;
-    if (challenges != null) {
-      for (AcmeChallenge chall : challenges) {
-        chall.setAuthz(this);
+    synchronized (orderLock()) {
+      markOrder();
+      this.challenges = challenges;
+      if (challenges != null) {
+        for (AcmeChallenge chall : challenges) {
+          chall.setAuthz(this);
+        }
       }
     }
   }
@@ -139,6 +146,20 @@ public class AcmeAuthz {
     }
   }
 
+  /**
+   * Returns the lock guarding the modification of this authorization and its mark in the order.
+   */
+  Object orderLock() {
+    AcmeOrder o = order;
+    return o == null ? this : o;
+  }
+
+  void orderStateChanged() {
+    if (order != null) {
+      order.stateChanged();
+    }
+  }
+
   public AuthzResponse toResponse(String baseUrl, long orderId) {
     AuthzResponse resp = new AuthzResponse();
     resp.setExpires(expires.toString());
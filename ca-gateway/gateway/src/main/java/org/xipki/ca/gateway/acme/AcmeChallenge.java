@@ -86,8 +86,10 @@ public class AcmeChallenge {
   }
 
   public void setValidated(Instant validated) {
-    markOrder();
-    this.validated = validated;
+    synchronized (orderLock()) {
+      markOrder();
+      this.validated = validated;
+    }
   }
 
   public String getType() {
@@ -103,8 +105,13 @@ public class AcmeChallenge {
   }
 
   public void setStatus(ChallengeStatus status) {
-    markOrder();
-    this.status = status;
+    synchronized (orderLock()) {
+      markOrder();
+      this.status = status;
+    }
+    if (authz != null) {
+      authz.orderStateChanged();
+    }
   }
 
   public String getExpectedAuthorization() {
@@ -117,6 +124,10 @@ public class AcmeChallenge {
     }
   }
 
+  private Object orderLock() {
+    return authz == null ? this : authz.orderLock();
+  }
+
   public ChallengeResponse toChallengeResponse(String baseUrl, long orderId, int authzId) {
     ChallengeResponse resp = new ChallengeResponse();
     if (validated != null) {
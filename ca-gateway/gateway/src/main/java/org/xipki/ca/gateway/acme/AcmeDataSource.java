@@ -16,8 +16,10 @@ import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
 import org.xipki.util.Base64Url;
 import org.xipki.util.CompareUtil;
+import org.xipki.util.LogUtil;
 
 import java.security.SecureRandom;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -25,9 +27,14 @@ import java.sql.Types;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  *
@@ -43,6 +50,46 @@ public class AcmeDataSource {
 
   }
 
+  /**
+   * INSERT or UPDATE of one row, prepared to be written later in a JDBC batch.
+   */
+  static class RowWrite {
+
+    private final String table;
+
+    private final long id;
+
+    private final String sql;
+
+    private final List<Integer> types = new ArrayList<>();
+
+    private final List<Object> values = new ArrayList<>();
+
+    private RowWrite(String table, long id, String sql) {
+      this.table = table;
+      this.id = id;
+      this.sql = sql;
+    }
+
+    private RowWrite add(int type, Object value) {
+      types.add(type);
+      values.add(value);
+      return this;
+    }
+
+    private void setParameters(PreparedStatement ps) throws SQLException {
+      for (int i = 0; i < values.size(); i++) {
+        Object value = values.get(i);
+        if (value == null) {
+          ps.setNull(i + 1, types.get(i));
+        } else {
+          ps.setObject(i + 1, value, types.get(i));
+        }
+      }
+    }
+
+  } // class RowWrite
+
   private static final String SQL_ADD_ACCOUNT =
       "INSERT INTO ACCOUNT (ID,LUPDATE,STATUS,JWK_SHA256,DATA) VALUES (?,?,?,?,?)";
 
@@ -96,75 +143,40 @@ public class AcmeDataSource {
     }
   } // method prepareStatement
 
-  public void addNewAccount(AcmeAccount account) throws AcmeSystemException {
+  RowWrite buildAddAccount(AcmeAccount account) throws AcmeSystemException {
     if (account.getId() == 0) {
       throw new AcmeSystemException("account.id not set");
     }
 
-    final String sql = SQL_ADD_ACCOUNT;
-
-    PreparedStatement ps = prepareStatement(sql);
-    // ID,STATUS,JWK_SHA256,DATA
-    try {
-      int index = 1;
-      ps.setLong(index++, account.getId());
-      ps.setLong(index++, Instant.now().getEpochSecond());
-      ps.setInt(index++, account.getStatus().getCode());
-      ps.setString(index++, account.getJwkSha256());
-      ps.setString(index, account.getData().encode());
-      ps.executeUpdate();
-      LOG.info("Database: added account " + account.getId());
-    } catch (SQLException ex) {
-      throw new AcmeSystemException(dataSource.translate(sql, ex));
-    } finally {
-      dataSource.releaseResources(ps, null);
-    }
-  }
-
-  public byte[] getCert(long orderId) throws AcmeSystemException {
-    try {
-      String str = dataSource.getFirstStringValue(null, "ORDER2", "CERT", "ID=" + orderId);
-      return str == null ? null : Base64Url.decodeFast(str);
-    } catch (DataAccessException e) {
-      throw new AcmeSystemException(e);
-    }
-  }
-
-  public byte[] getCsr(long orderId) throws AcmeSystemException {
-    try {
-      String str = dataSource.getFirstStringValue(null, "ORDER2", "CSR", "ID=" + orderId);
-      return str == null ? null : Base64Url.decodeFast(str);
-    } catch (DataAccessException e) {
-      throw new AcmeSystemException(e);
-    }
-  }
-
-  public AcmeAccount getAccount(long accountId) throws AcmeSystemException {
-    // STATUS,DATA FROM ACCOUNT
-    PreparedStatement ps = prepareStatement(sqlGetAccount);
-    try {
-      ps.setLong(1, accountId);
-      return getAccount(ps, sqlGetAccount);
-    } catch (SQLException ex) {
-      throw new AcmeSystemException(dataSource.translate(sqlGetAccount, ex));
-    } finally {
-      dataSource.releaseResources(ps, null);
-    }
-  }
-
-  public void updateAccount(AcmeAccount oldAccount, AcmeAccount newAccount) throws AcmeSystemException {
+    // ID,LUPDATE,STATUS,JWK_SHA256,DATA
+    return new RowWrite("account", account.getId(), SQL_ADD_ACCOUNT)
+        .add(Types.BIGINT, account.getId())
+        .add(Types.BIGINT, Instant.now().getEpochSecond())
+        .add(Types.INTEGER, account.getStatus().getCode())
+        .add(Types.VARCHAR, account.getJwkSha256())
+        .add(Types.VARCHAR, account.getData().encode());
+  } // method buildAddAccount
+
+  /**
+   * Builds the UPDATE of the changed columns.
+   *
+   * @param oldAccount the account as saved in the database.
+   * @param newAccount the current account.
+   * @return the UPDATE, or {@code null} if nothing has been changed.
+   */
+  RowWrite buildUpdateAccount(AcmeAccount oldAccount, AcmeAccount newAccount) {
     if (oldAccount.getId() != newAccount.getId()) {
       throw new IllegalArgumentException("oldAccount and newAccount does not have the same id");
     }
 
-    boolean updateJwkFp = oldAccount.getJwkSha256().equals(newAccount.getJwkSha256());
+    boolean updateJwkFp = !CompareUtil.equalsObject(oldAccount.getJwkSha256(), newAccount.getJwkSha256());
     boolean updateStatus = oldAccount.getStatus() != newAccount.getStatus();
     String oldData = oldAccount.getData().encode();
     String newData = newAccount.getData().encode();
     boolean updateData = !oldData.equals(newData);
 
     if (!(updateJwkFp || updateStatus || updateData)) {
-      return;
+      return null;
     }
 
     StringBuilder sb = new StringBuilder();
@@ -182,132 +194,51 @@ public class AcmeDataSource {
     }
 
     sb.deleteCharAt(sb.length() - 1);
-    sb.append(" WHERE ID=").append(oldAccount.getId());
+    sb.append(" WHERE ID=?");
 
-    String sql = sb.toString();
-    PreparedStatement ps = prepareStatement(sql);
-    try {
-      int index = 1;
-      ps.setLong(index++, Instant.now().getEpochSecond());
+    RowWrite write = new RowWrite("account", newAccount.getId(), sb.toString())
+        .add(Types.BIGINT, Instant.now().getEpochSecond());
 
-      if (updateStatus) {
-        ps.setInt(index++, newAccount.getStatus().getCode());
-      }
-
-      if (updateJwkFp) {
-        ps.setString(index++, newAccount.getJwkSha256());
-      }
-
-      if (updateData) {
-        ps.setString(index, newData);
-      }
-
-      ps.executeUpdate();
-      LOG.info("Database: added account " + oldAccount.getId());
-    } catch (SQLException ex) {
-      throw new AcmeSystemException(dataSource.translate(sql, ex));
-    } finally {
-      dataSource.releaseResources(ps, null);
+    if (updateStatus) {
+      write.add(Types.INTEGER, newAccount.getStatus().getCode());
     }
-  }
 
-  public AcmeAccount getAccountForJwk(Map<String, String> jwk) throws AcmeSystemException {
-    String sha256 = AcmeUtils.jwkSha256(jwk);
-    final String sql = sqlGetAccountFowJwkSha256;
-    PreparedStatement ps = prepareStatement(sql);
-    try {
-      ps.setString(1, sha256);
-      return getAccount(ps, sql);
-    } catch (SQLException ex) {
-      throw new AcmeSystemException(dataSource.translate(sql, ex));
-    } finally {
-      dataSource.releaseResources(ps, null);
+    if (updateJwkFp) {
+      write.add(Types.VARCHAR, newAccount.getJwkSha256());
     }
-  }
 
-  private AcmeAccount getAccount(PreparedStatement ps, String sql) throws AcmeSystemException {
-    // ID,JWK_SHA256,STATUS,DATA FROM ACCOUNT
-    ResultSet rs = null;
-    try {
-      rs = ps.executeQuery();
-      if (!rs.next()) {
-        return null;
-      }
-
-      AccountStatus status = AccountStatus.ofCode(rs.getInt("STATUS"));
-      AcmeAccount.Data data = AcmeAccount.Data.decode(rs.getString("DATA"));
-      long id = rs.getLong("ID");
-      AcmeAccount ret = new AcmeAccount(id, this);
-      ret.setData(data);
-      ret.setStatus(status);
-      ret.setJwkSha256(rs.getString("JWK_SHA256"));
-      ret.setInDb(true);
-      ret.mark();
-
-      return ret;
-    } catch (SQLException ex) {
-      throw new AcmeSystemException(dataSource.translate(sql, ex));
-    } finally {
-      dataSource.releaseResources(null, rs);
+    if (updateData) {
+      write.add(Types.VARCHAR, newData);
     }
-  }
 
-  public void addNewOrder(AcmeOrder order) throws AcmeSystemException {
-    String sql = SQL_ADD_ORDER;
+    return write.add(Types.BIGINT, newAccount.getId());
+  } // method buildUpdateAccount
 
-    PreparedStatement ps = prepareStatement(sql);
+  RowWrite buildAddOrder(AcmeOrder order) {
     // ID,LUPDATE,ACCOUNT,STATUS,EXPIRES,CERT_NAFTER,CERT_SHA256,CERTREQ_META,CSR,CERT,AUTHZS
-    try {
-      order.updateStatus();
-
-      int index = 1;
-      ps.setLong(index++, order.getId());
-      ps.setLong(index++, Instant.now().getEpochSecond());
-      ps.setLong(index++, order.getAccountId());
-      ps.setInt(index++, order.getStatus().getCode());
-      ps.setLong(index++, order.getExpires().getEpochSecond());
-
-      byte[] certBytes = order.getCert();
-      if (certBytes == null) {
-        ps.setNull(index++, Types.BIGINT);
-      } else {
-        ps.setLong(index++, X509Util.extractCertNotAfter(certBytes));
-      }
-      ps.setString(index++, order.getCertSha256());
-
-      if (order.getCertReqMeta() == null) {
-        ps.setNull(index, Types.VARCHAR);
-      } else {
-        ps.setString(index, order.getCertReqMeta().encode());
-      }
-      index++;
-
-      if (order.getCsr() == null) {
-        ps.setNull(index, Types.VARCHAR);
-      } else {
-        ps.setString(index, Base64Url.encodeToStringNoPadding(order.getCsr()));
-      }
-      index++;
-
-      if (certBytes == null) {
-        ps.setNull(index, Types.VARCHAR);
-      } else {
-        ps.setString(index, Base64Url.encodeToStringNoPadding(certBytes));
-      }
-      index++;
-
-      ps.setString(index, order.getEncodedAuthzs());
-
-      ps.executeUpdate();
-      LOG.info("Database: added order " + order.getId());
-    } catch (SQLException ex) {
-      throw new AcmeSystemException(dataSource.translate(sql, ex));
-    } finally {
-      dataSource.releaseResources(ps, null);
-    }
-  }
-
-  public void updateOrder(AcmeOrder oldOrder, AcmeOrder newOrder) throws AcmeSystemException {
+    byte[] certBytes = order.getCert();
+    return new RowWrite("order", order.getId(), SQL_ADD_ORDER)
+        .add(Types.BIGINT, order.getId())
+        .add(Types.BIGINT, Instant.now().getEpochSecond())
+        .add(Types.BIGINT, order.getAccountId())
+        .add(Types.INTEGER, order.getStatus().getCode())
+        .add(Types.BIGINT, order.getExpires().getEpochSecond())
+        .add(Types.BIGINT, certBytes == null ? null : X509Util.extractCertNotAfter(certBytes))
+        .add(Types.VARCHAR, order.getCertSha256())
+        .add(Types.VARCHAR, order.getCertReqMeta() == null ? null : order.getCertReqMeta().encode())
+        .add(Types.VARCHAR, order.getCsr() == null ? null : Base64Url.encodeToStringNoPadding(order.getCsr()))
+        .add(Types.VARCHAR, certBytes == null ? null : Base64Url.encodeToStringNoPadding(certBytes))
+        .add(Types.VARCHAR, order.getEncodedAuthzs());
+  } // method buildAddOrder
+
+  /**
+   * Builds the UPDATE of the changed columns.
+   *
+   * @param oldOrder the order as saved in the database.
+   * @param newOrder the current order.
+   * @return the UPDATE, or {@code null} if nothing has been changed.
+   */
+  RowWrite buildUpdateOrder(AcmeOrder oldOrder, AcmeOrder newOrder) {
     if (oldOrder.getId() != newOrder.getId()) {
       throw new IllegalArgumentException("oldOrder and newOrder does not have the same id");
     }
@@ -316,18 +247,18 @@ public class AcmeDataSource {
       throw new IllegalArgumentException("oldOrder and newOrder does not have the same account");
     }
 
-    newOrder.updateStatus();
-
     // ACCOUNT_ID,STATUS,EXPIRES,CSR,AUTHZS
     boolean updateStatus = oldOrder.getStatus() != newOrder.getStatus();
     boolean updateExpires = !CompareUtil.equalsObject(oldOrder.getExpires(), newOrder.getExpires());
     boolean updateAuthzs = !CompareUtil.equalsObject(oldOrder.getAuthzs(), newOrder.getAuthzs());
     boolean updateCertReqMeta = !CompareUtil.equalsObject(oldOrder.getCertReqMeta(), newOrder.getCertReqMeta());
-    boolean updateCsr = newOrder.getCsr() != null; // we do not read cert from database to save the bandwidth
-    boolean updateCert = newOrder.getCert() != null; // we do not read cert from database to save the bandwidth
+    // CSR and cert are not read from database to save the bandwidth, and the mark shares their
+    // references with the order, so a different reference means that they have been set.
+    boolean updateCsr = newOrder.getCsr() != null && newOrder.getCsr() != oldOrder.getCsr();
+    boolean updateCert = newOrder.getCert() != null && newOrder.getCert() != oldOrder.getCert();
 
     if (!(updateStatus || updateExpires || updateAuthzs || updateCertReqMeta || updateCsr || updateCert)) {
-      return;
+      return null;
     }
 
     StringBuilder sb = new StringBuilder();
@@ -357,52 +288,197 @@ public class AcmeDataSource {
     }
 
     sb.deleteCharAt(sb.length() - 1);
-    sb.append(" WHERE ID=").append(oldOrder.getId());
+    sb.append(" WHERE ID=?");
 
-    String sql = sb.toString();
-    PreparedStatement ps = prepareStatement(sql);
+    RowWrite write = new RowWrite("order", newOrder.getId(), sb.toString())
+        .add(Types.BIGINT, Instant.now().getEpochSecond());
+
+    if (updateStatus) {
+      write.add(Types.INTEGER, newOrder.getStatus().getCode());
+    }
+
+    if (updateExpires) {
+      write.add(Types.BIGINT, newOrder.getExpires().getEpochSecond());
+    }
+
+    if (updateAuthzs) {
+      write.add(Types.VARCHAR, newOrder.getAuthzs() == null ? null : newOrder.getEncodedAuthzs());
+    }
+
+    if (updateCertReqMeta) {
+      write.add(Types.VARCHAR, newOrder.getCertReqMeta() == null ? null : newOrder.getCertReqMeta().encode());
+    }
+
+    if (updateCsr) {
+      write.add(Types.VARCHAR, Base64Url.encodeToStringNoPadding(newOrder.getCsr()));
+    }
+
+    if (updateCert) {
+      byte[] certBytes = newOrder.getCert();
+      write.add(Types.BIGINT, X509Util.extractCertNotAfter(certBytes))
+          .add(Types.VARCHAR, newOrder.getCertSha256())
+          .add(Types.VARCHAR, Base64Url.encodeToStringNoPadding(certBytes));
+    }
+
+    return write.add(Types.BIGINT, newOrder.getId());
+  } // method buildUpdateOrder
+
+  /**
+   * Writes the given rows in one transaction. Rows with the same SQL statement are sent in one
+   * JDBC batch, in the order of their first occurrence, so the accounts shall precede the orders.
+   * If the transaction fails, it is rolled back and the rows are written again one by one, each in
+   * its own transaction, so that one bad row does not prevent the other rows from being written.
+   *
+   * @param writes the rows to write.
+   * @return the rows which could not be written, empty if all rows are written.
+   * @throws AcmeSystemException if no database connection could be obtained, in this case none is
+   *         written.
+   */
+  Set<RowWrite> write(List<RowWrite> writes) throws AcmeSystemException {
+    Set<RowWrite> failed = new HashSet<>();
+    if (writes.isEmpty()) {
+      return failed;
+    }
+
+    Map<String, List<RowWrite>> batches = new LinkedHashMap<>();
+    for (RowWrite write : writes) {
+      batches.computeIfAbsent(write.sql, k -> new LinkedList<>()).add(write);
+    }
+
+    Connection conn;
     try {
-      int index = 1;
-      ps.setLong(index++, Instant.now().getEpochSecond());
-      if (updateStatus) {
-        ps.setInt(index++, newOrder.getStatus().getCode());
-      }
+      conn = dataSource.getConnection();
+    } catch (DataAccessException ex) {
+      throw new AcmeSystemException(ex);
+    }
 
-      if (updateExpires) {
-        ps.setLong(index++, newOrder.getExpires().getEpochSecond());
+    Boolean origAutoCommit = null;
+    try {
+      origAutoCommit = conn.getAutoCommit();
+      if (origAutoCommit) {
+        conn.setAutoCommit(false);
       }
 
-      if (updateAuthzs) {
-        if (newOrder.getAuthzs() == null) {
-          ps.setNull(index, Types.VARCHAR);
-        } else {
-          ps.setString(index, newOrder.getEncodedAuthzs());
+      try {
+        writeInTransaction(conn, batches.values());
+      } catch (SQLException | DataAccessException | RuntimeException ex) {
+        LogUtil.warn(LOG, ex, "could not write " + writes.size() + " rows in batches, write them one by one");
+
+        for (RowWrite write : writes) {
+          try {
+            writeInTransaction(conn, Collections.singletonList(Collections.singletonList(write)));
+          } catch (SQLException | DataAccessException | RuntimeException ex2) {
+            failed.add(write);
+            LogUtil.error(LOG, ex2, "could not write " + write.table + " " + write.id);
+          }
         }
-        index++;
       }
-
-      if (updateCertReqMeta) {
-        if (newOrder.getCertReqMeta() == null) {
-          ps.setNull(index, Types.VARCHAR);
-        } else {
-          ps.setString(index, newOrder.getCertReqMeta().encode());
+    } catch (SQLException ex) {
+      throw new AcmeSystemException(dataSource.translate(null, ex));
+    } finally {
+      if (Boolean.TRUE.equals(origAutoCommit)) {
+        try {
+          conn.setAutoCommit(true);
+        } catch (SQLException ex) {
+          LogUtil.error(LOG, ex, "could not restore the autoCommit of the connection");
         }
-        index++;
       }
+      dataSource.returnConnection(conn);
+    }
 
-      if (updateCsr) {
-        ps.setString(index++, Base64Url.encodeToStringNoPadding(newOrder.getCsr()));
+    if (LOG.isInfoEnabled()) {
+      StringBuilder sb = new StringBuilder();
+      for (RowWrite write : writes) {
+        if (!failed.contains(write)) {
+          sb.append(" ").append(write.table).append(" ").append(write.id);
+        }
+      }
+      LOG.info("Database: wrote {} rows in {} batches:{}", writes.size() - failed.size(), batches.size(), sb);
+    }
+    return failed;
+  } // method write
+
+  /**
+   * Writes the given batches in one transaction. The transaction is rolled back if it could not be
+   * committed, whatever the cause is.
+   */
+  private void writeInTransaction(Connection conn, Collection<List<RowWrite>> batches)
+      throws SQLException, DataAccessException {
+    boolean committed = false;
+    String sql = null;
+    try {
+      for (List<RowWrite> batch : batches) {
+        sql = batch.get(0).sql;
+        PreparedStatement ps = dataSource.prepareStatement(conn, sql);
+        try {
+          for (RowWrite write : batch) {
+            write.setParameters(ps);
+            ps.addBatch();
+          }
+          ps.executeBatch();
+        } finally {
+          dataSource.releaseResources(ps, null, false);
+        }
       }
 
-      if (updateCert) {
-        byte[] certBytes = newOrder.getCert();
-        ps.setLong(index++, X509Util.extractCertNotAfter(certBytes));
-        ps.setString(index++, newOrder.getCertSha256());
-        ps.setString(index, Base64Url.encodeToStringNoPadding(certBytes));
+      sql = "COMMIT";
+      conn.commit();
+      committed = true;
+    } catch (SQLException ex) {
+      throw dataSource.translate(sql, ex);
+    } finally {
+      if (!committed) {
+        rollback(conn);
       }
+    }
+  } // method writeInTransaction
+
+  private static void rollback(Connection conn) {
+    try {
+      conn.rollback();
+    } catch (SQLException ex) {
+      LogUtil.error(LOG, ex, "could not rollback the transaction");
+    }
+  }
+
+  public byte[] getCert(long orderId) throws AcmeSystemException {
+    try {
+      String str = dataSource.getFirstStringValue(null, "ORDER2", "CERT", "ID=" + orderId);
+      return str == null ? null : Base64Url.decodeFast(str);
+    } catch (DataAccessException e) {
+      throw new AcmeSystemException(e);
+    }
+  }
 
-      ps.executeUpdate();
-      LOG.info("Database: updated order " + oldOrder.getId());
+  public byte[] getCsr(long orderId) throws AcmeSystemException {
+    try {
+      String str = dataSource.getFirstStringValue(null, "ORDER2", "CSR", "ID=" + orderId);
+      return str == null ? null : Base64Url.decodeFast(str);
+    } catch (DataAccessException e) {
+      throw new AcmeSystemException(e);
+    }
+  }
+
+  public AcmeAccount getAccount(long accountId) throws AcmeSystemException {
+    // STATUS,DATA FROM ACCOUNT
+    PreparedStatement ps = prepareStatement(sqlGetAccount);
+    try {
+      ps.setLong(1, accountId);
+      return getAccount(ps, sqlGetAccount);
+    } catch (SQLException ex) {
+      throw new AcmeSystemException(dataSource.translate(sqlGetAccount, ex));
+    } finally {
+      dataSource.releaseResources(ps, null);
+    }
+  }
+
+  public AcmeAccount getAccountForJwk(Map<String, String> jwk) throws AcmeSystemException {
+    String sha256 = AcmeUtils.jwkSha256(jwk);
+    final String sql = sqlGetAccountFowJwkSha256;
+    PreparedStatement ps = prepareStatement(sql);
+    try {
+      ps.setString(1, sha256);
+      return getAccount(ps, sql);
     } catch (SQLException ex) {
       throw new AcmeSystemException(dataSource.translate(sql, ex));
     } finally {
@@ -410,6 +486,33 @@ public class AcmeDataSource {
     }
   }
 
+  private AcmeAccount getAccount(PreparedStatement ps, String sql) throws AcmeSystemException {
+    // ID,JWK_SHA256,STATUS,DATA FROM ACCOUNT
+    ResultSet rs = null;
+    try {
+      rs = ps.executeQuery();
+      if (!rs.next()) {
+        return null;
+      }
+
+      AccountStatus status = AccountStatus.ofCode(rs.getInt("STATUS"));
+      AcmeAccount.Data data = AcmeAccount.Data.decode(rs.getString("DATA"));
+      long id = rs.getLong("ID");
+      AcmeAccount ret = new AcmeAccount(id, this);
+      ret.setData(data);
+      ret.setStatus(status);
+      ret.setJwkSha256(rs.getString("JWK_SHA256"));
+      ret.setInDb(true);
+      ret.mark();
+
+      return ret;
+    } catch (SQLException ex) {
+      throw new AcmeSystemException(dataSource.translate(sql, ex));
+    } finally {
+      dataSource.releaseResources(null, rs);
+    }
+  }
+
   public AcmeOrder getOrder(long orderId) throws AcmeSystemException {
     // do not read CSR and CERT to save bandwidth.
     PreparedStatement ps = prepareStatement(sqlGetOrderById);
@@ -16,6 +16,7 @@ import org.xipki.util.Base64Url;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  *
@@ -29,6 +30,13 @@ public class AcmeOrder {
 
   private AcmeOrder mark;
 
+  /**
+   * State before the last {@link #prepareFlush()}, restored if the write fails.
+   */
+  private boolean flushingNew;
+
+  private AcmeOrder flushingMark;
+
   private OrderStatus status = OrderStatus.pending;
 
   private final long accountId;
@@ -51,6 +59,16 @@ public class AcmeOrder {
 
   private final AcmeDataSource dataSource;
 
+  /**
+   * Notified if the status of this order, or of one of its authorizations or challenges changes.
+   */
+  private volatile Consumer<AcmeOrder> stateListener;
+
+  /**
+   * Notified if this order saved in the database is modified the first time since the last write.
+   */
+  private volatile Consumer<AcmeOrder> dirtyListener;
+
   public AcmeOrder(long accountId, long id, AcmeDataSource dataSource) {
     this.accountId = accountId;
     this.id = id;
@@ -67,8 +85,26 @@ public class AcmeOrder {
   }
 
   public void setStatus(OrderStatus status) {
-    markMe();
-    this.status = status;
+    synchronized (this) {
+      markMe();
+      this.status = status;
+    }
+    stateChanged();
+  }
+
+  void setStateListener(Consumer<AcmeOrder> stateListener) {
+    this.stateListener = stateListener;
+  }
+
+  void setDirtyListener(Consumer<AcmeOrder> dirtyListener) {
+    this.dirtyListener = dirtyListener;
+  }
+
+  void stateChanged() {
+    Consumer<AcmeOrder> listener = stateListener;
+    if (listener != null) {
+      listener.accept(this);
+    }
   }
 
   public void setInDb(boolean inDb) {
@@ -79,7 +115,7 @@ public class AcmeOrder {
     return certReqMeta;
   }
 
-  public void setCertReqMeta(CertReqMeta certReqMeta) {
+  public synchronized void setCertReqMeta(CertReqMeta certReqMeta) {
     markMe();
     this.certReqMeta = certReqMeta;
   }
@@ -105,7 +141,7 @@ public class AcmeOrder {
     this.certSha256 = certSha256;
   }
 
-  public void setCert(byte[] cert) {
+  public synchronized void setCert(byte[] cert) {
     markMe();
     this.cert = cert;
     if (cert == null) {
@@ -127,7 +163,7 @@ public class AcmeOrder {
     return expires;
   }
 
-  public void setExpires(Instant expires) {
+  public synchronized void setExpires(Instant expires) {
     markMe();
     this.expires = expires;
   }
@@ -136,7 +172,7 @@ public class AcmeOrder {
     return csr;
   }
 
-  public void setCsr(byte[] csr) {
+  public synchronized void setCsr(byte[] csr) {
     markMe();
     this.csr = csr;
   }
@@ -149,7 +185,7 @@ public class AcmeOrder {
     return AcmeAuthz.encodeAuthzs(authzs);
   }
 
-  public void setAuthzs(List<AcmeAuthz> authzs) {
+  public synchronized void setAuthzs(List<AcmeAuthz> authzs) {
     markMe();
     this.authzs = authzs;
     if (authzs != null) {
@@ -194,7 +230,7 @@ public class AcmeOrder {
     return null;
   }
 
-  public void updateStatus() {
+  public synchronized void updateStatus() {
     if (status == OrderStatus.valid || status == OrderStatus.invalid) {
       return;
     }
@@ -207,7 +243,9 @@ public class AcmeOrder {
           break;
         } else if (chall.getStatus() == ChallengeStatus.invalid) {
           authz.setStatus(AuthzStatus.invalid);
+          markMe();
           status = OrderStatus.invalid;
+          stateChanged();
           return;
         }
       }
@@ -226,7 +264,9 @@ public class AcmeOrder {
     }
 
     if (allAuthzsValidated) {
+      markMe();
       status = OrderStatus.ready;
+      stateChanged();
     }
   }
 
@@ -234,20 +274,40 @@ public class AcmeOrder {
     marked = true;
   }
 
-  public synchronized void flush() throws AcmeSystemException {
+  /**
+   * Prepares the write of this order to the database, and considers it as saved. The caller must
+   * call {@link #flushDone(boolean)} after the write.
+   *
+   * @return the write, or {@code null} if the order has not been changed.
+   */
+  synchronized AcmeDataSource.RowWrite prepareFlush() {
     updateStatus();
 
-    if (inDb) {
-      if (mark != null) {
-        dataSource.updateOrder(mark, this);
-      }
-    } else {
+    flushingNew = !inDb;
+    flushingMark = mark;
+    mark = null;
+
+    if (flushingNew) {
       // not saved in database.
-      dataSource.addNewOrder(this);
       inDb = true;
+      return dataSource.buildAddOrder(this);
+    } else {
+      return flushingMark == null ? null : dataSource.buildUpdateOrder(flushingMark, this);
+    }
+  }
+
+  synchronized void flushDone(boolean success) {
+    if (!success) {
+      if (flushingNew) {
+        inDb = false;
+        mark = null;
+      } else if (flushingMark != null) {
+        // the mark created after prepareFlush() (if any) is newer than the database.
+        mark = flushingMark;
+      }
     }
 
-    mark = null;
+    flushingMark = null;
   }
 
   synchronized void markMe() {
@@ -284,6 +344,11 @@ public class AcmeOrder {
     copy.marked = marked;
 
     this.mark = copy;
+
+    Consumer<AcmeOrder> listener = dirtyListener;
+    if (listener != null) {
+      listener.accept(this);
+    }
   }
 
 }
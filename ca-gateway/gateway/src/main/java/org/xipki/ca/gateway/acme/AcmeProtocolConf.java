@@ -69,10 +69,39 @@ public class AcmeProtocolConf extends ProtocolConf {
 
     private int nonceNumBytes = 16;
 
+    /**
+     * Key to compute the HMAC of the nonces, the instances of a cluster must use the same key. Can be
+     * protected as a password. If not set, a random key is used, and the nonces are accepted only by
+     * this instance.
+     */
+    private String nonceKey;
+
+    /**
+     * Expected maximal number of nonces used within 10 minutes, determines the size of the filters
+     * to detect the replayed nonces.
+     */
+    private int nonceFilterCapacity = 100000;
+
     private int tokenNumBytes = 16;
 
     private int syncDbSeconds = 60;
 
+    /**
+     * Interval in seconds to look for challenges to validate and orders to enroll which have not been
+     * submitted directly, e.g. those read from the database after a restart.
+     */
+    private int sweepSeconds = 60;
+
+    /**
+     * Number of threads to enroll the certificates.
+     */
+    private int enrollThreads = 4;
+
+    /**
+     * Maximal number of orders for the same CA and certificate profile enrolled in one request.
+     */
+    private int enrollBatchSize = 1;
+
     private String dbConf;
 
     // optional. If not set, any valid email address will be accepted.
@@ -93,6 +122,8 @@ public class AcmeProtocolConf extends ProtocolConf {
 
     private List<String> challengeTypes;
 
+    private ChallengeValidationConf challengeValidation;
+
     public String getBaseUrl() {
       if (baseUrl != null) {
         if (!baseUrl.endsWith("/")) {
@@ -111,6 +142,30 @@ public class AcmeProtocolConf extends ProtocolConf {
       this.syncDbSeconds = syncDbSeconds;
     }
 
+    public int getSweepSeconds() {
+      return sweepSeconds;
+    }
+
+    public void setSweepSeconds(int sweepSeconds) {
+      this.sweepSeconds = sweepSeconds;
+    }
+
+    public int getEnrollThreads() {
+      return enrollThreads;
+    }
+
+    public void setEnrollThreads(int enrollThreads) {
+      this.enrollThreads = enrollThreads;
+    }
+
+    public int getEnrollBatchSize() {
+      return enrollBatchSize;
+    }
+
+    public void setEnrollBatchSize(int enrollBatchSize) {
+      this.enrollBatchSize = enrollBatchSize;
+    }
+
     public int getCacheSize() {
       return cacheSize;
     }
@@ -147,6 +202,22 @@ public class AcmeProtocolConf extends ProtocolConf {
       return nonceNumBytes;
     }
 
+    public String getNonceKey() {
+      return nonceKey;
+    }
+
+    public void setNonceKey(String nonceKey) {
+      this.nonceKey = nonceKey;
+    }
+
+    public int getNonceFilterCapacity() {
+      return nonceFilterCapacity;
+    }
+
+    public void setNonceFilterCapacity(int nonceFilterCapacity) {
+      this.nonceFilterCapacity = nonceFilterCapacity;
+    }
+
     public int getTokenNumBytes() {
       return tokenNumBytes;
     }
@@ -203,15 +274,35 @@ public class AcmeProtocolConf extends ProtocolConf {
       this.challengeTypes = challengeTypes;
     }
 
+    public ChallengeValidationConf getChallengeValidation() {
+      return challengeValidation;
+    }
+
+    public void setChallengeValidation(ChallengeValidationConf challengeValidation) {
+      this.challengeValidation = challengeValidation;
+    }
+
     private void validate() throws InvalidConfException {
       if ((syncDbSeconds < 1)) {
         throw new InvalidConfException("syncDbSeconds must be not less than 1");
       }
 
+      if ((sweepSeconds < 1)) {
+        throw new InvalidConfException("sweepSeconds must be not less than 1");
+      }
+
+      if (enrollThreads < 1 || enrollBatchSize < 1) {
+        throw new InvalidConfException("enrollThreads and enrollBatchSize must be not less than 1");
+      }
+
       if (nonceNumBytes < 12) {
         throw new InvalidConfException("nonceNumBytes must be not less than 12");
       }
 
+      if (nonceFilterCapacity < 1000) {
+        throw new InvalidConfException("nonceFilterCapacity must be not less than 1000");
+      }
+
       if (tokenNumBytes < 12) {
         throw new InvalidConfException("tokenNumBytes must be not less than 12");
       }
@@ -227,6 +318,10 @@ public class AcmeProtocolConf extends ProtocolConf {
           entry.validate();
         }
       }
+
+      if (challengeValidation != null) {
+        challengeValidation.validate();
+      }
     }
 
   }
@@ -260,6 +355,99 @@ public class AcmeProtocolConf extends ProtocolConf {
     }
   }
 
+  public static class ChallengeValidationConf {
+
+    /**
+     * Number of worker threads.
+     */
+    private int threads = 16;
+
+    /**
+     * Connect timeout in seconds.
+     */
+    private int connectTimeout = 5;
+
+    /**
+     * Read timeout in seconds.
+     */
+    private int readTimeout = 10;
+
+    /**
+     * Maximal number of validation attempts before the challenge is marked as invalid.
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * Delay in seconds before the first retry, doubled for each further retry.
+     */
+    private int retryDelay = 2;
+
+    /**
+     * Maximal number of concurrent validations against the same host.
+     */
+    private int maxPerHost = 2;
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getConnectTimeout() {
+      return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+      this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+      return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+      this.readTimeout = readTimeout;
+    }
+
+    public int getMaxAttempts() {
+      return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+      this.maxAttempts = maxAttempts;
+    }
+
+    public int getRetryDelay() {
+      return retryDelay;
+    }
+
+    public void setRetryDelay(int retryDelay) {
+      this.retryDelay = retryDelay;
+    }
+
+    public int getMaxPerHost() {
+      return maxPerHost;
+    }
+
+    public void setMaxPerHost(int maxPerHost) {
+      this.maxPerHost = maxPerHost;
+    }
+
+    private void validate() throws InvalidConfException {
+      if (threads < 1 || connectTimeout < 1 || readTimeout < 1 || maxAttempts < 1 || maxPerHost < 1) {
+        throw new InvalidConfException(
+            "threads, connectTimeout, readTimeout, maxAttempts and maxPerHost must be not less than 1");
+      }
+
+      if (retryDelay < 0) {
+        throw new InvalidConfException("retryDelay must not be negative");
+      }
+    }
+
+  }
+
   private Acme acme;
 
   public Acme getAcme() {
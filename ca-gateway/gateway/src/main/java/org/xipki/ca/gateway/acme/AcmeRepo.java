@@ -16,11 +16,15 @@ import org.xipki.util.LogUtil;
 import org.xipki.util.LruCache;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  *
@@ -28,58 +32,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class AcmeRepo implements AcmeDataSource.IdChecker {
 
-  static class ListIterator <T> implements Iterator<T> {
-
-    private final List<T> list;
-    private final AtomicInteger index = new AtomicInteger(0);
-
-    ListIterator(List<T> list) {
-      this.list = list;
-    }
-
-    @Override
-    public boolean hasNext() {
-      return index.get() < list.size();
-    }
-
-    @Override
-    public T next() {
-      if (hasNext()) {
-        return list.get(index.getAndIncrement());
-      } else {
-        return null;
-      }
-    }
-  }
-
-  private static class AccountLruCache extends LruCache<Long, AcmeAccount> {
-
-    /**
-     * Constructor with the maximal size.
-     *
-     * @param maxSize for caches that do not override {@link #sizeOf}, this is
-     *                the maximum number of entries in the cache. For all other caches,
-     *                this is the maximum sum of the sizes of the entries in this cache.
-     */
-    public AccountLruCache(int maxSize) {
-      super(maxSize);
-    }
-
-    @Override
-    protected void entryRemoved(boolean evicted, Long key, AcmeAccount oldValue, AcmeAccount newValue) {
-      super.entryRemoved(evicted, key, oldValue, newValue);
-      if (oldValue != null) {
-        try {
-          oldValue.flush();
-        } catch (Throwable th) {
-          LogUtil.error(LOG, th, "error flushing AcmeAccount " + oldValue.getId());
-        }
-      }
-    }
-
-  }
-
-  private static class OrderLruCache extends LruCache<Long, AcmeOrder> {
+  private class OrderLruCache extends LruCache<Long, AcmeOrder> {
 
     /**
      * Constructor with the maximal size.
@@ -96,11 +49,8 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
     protected void entryRemoved(boolean evicted, Long key, AcmeOrder oldValue, AcmeOrder newValue) {
       super.entryRemoved(evicted, key, oldValue, newValue);
       if (oldValue != null) {
-        try {
-          oldValue.flush();
-        } catch (Throwable th) {
-          LogUtil.error(LOG, th, "error flushing AcmeOrder " + oldValue.getId());
-        }
+        // a modified order is kept in dirtyOrders until written to the database.
+        unindexOrder(oldValue);
       }
     }
 
@@ -155,7 +105,7 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
 
   private static final Logger LOG = LoggerFactory.getLogger(AcmeRepo.class);
 
-  private final AccountLruCache accountCache;
+  private final LruCache<Long, AcmeAccount> accountCache;
 
   private final OrderLruCache orderCache;
 
@@ -163,10 +113,46 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
 
   private final int syncDbSeconds;
 
+  /**
+   * Index of the cached orders: account id to order ids.
+   */
+  private final ConcurrentHashMap<Long, Set<Long>> accountOrdersIndex = new ConcurrentHashMap<>();
+
+  /**
+   * Index of the cached orders: challenges to validate.
+   */
+  private final Set<ChallId> challengesToValidateIndex = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Index of the cached orders: orders to enroll.
+   */
+  private final Set<Long> ordersToEnrollIndex = ConcurrentHashMap.newKeySet();
+
+  private final Consumer<AcmeOrder> orderStateListener = this::indexOrderState;
+
+  /**
+   * New and modified accounts not written to the database yet, including the evicted ones.
+   */
+  private final ConcurrentHashMap<Long, AcmeAccount> dirtyAccounts = new ConcurrentHashMap<>();
+
+  /**
+   * New and modified orders not written to the database yet, including the evicted ones.
+   */
+  private final ConcurrentHashMap<Long, AcmeOrder> dirtyOrders = new ConcurrentHashMap<>();
+
+  private final Consumer<AcmeAccount> accountDirtyListener = a -> dirtyAccounts.put(a.getId(), a);
+
+  private final Consumer<AcmeOrder> orderDirtyListener = o -> dirtyOrders.put(o.getId(), o);
+
+  /**
+   * Serializes the writes to the database, the request threads never acquire it.
+   */
+  private final Object writeLock = new Object();
+
   private boolean stopMe;
 
   public AcmeRepo(AcmeDataSource dataSource, int cacheSize, int syncDbSeconds) {
-    this.accountCache = new AccountLruCache(Args.min(cacheSize, "cacheSize", 1));
+    this.accountCache = new LruCache<>(Args.min(cacheSize, "cacheSize", 1));
     this.orderCache = new OrderLruCache(Args.min(cacheSize, "cacheSize", 1));
     this.syncDbSeconds = Args.min(syncDbSeconds, "syncDbSeconds", 1);
     this.dataSource = Args.notNull(dataSource, "dataSource");
@@ -175,12 +161,12 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
 
   @Override
   public boolean accountIdExists(long id) {
-    return accountCache.containsKey(id);
+    return accountCache.containsKey(id) || dirtyAccounts.containsKey(id);
   }
 
   @Override
   public boolean orderIdExists(long id) {
-    return orderCache.containsKey(id);
+    return orderCache.containsKey(id) || dirtyOrders.containsKey(id);
   }
 
   IdsForOrder newIdsForOrder(int numAuthzs, int numChalls) throws DataAccessException {
@@ -196,12 +182,23 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
   }
 
   public void addAccount(AcmeAccount account) {
+    account.setDirtyListener(accountDirtyListener);
+    dirtyAccounts.put(account.getId(), account);
     accountCache.put(account.getId(), account);
     LOG.info("added account {}", account.idText());
   }
 
+  private void cacheAccount(AcmeAccount account) {
+    account.setDirtyListener(accountDirtyListener);
+    accountCache.put(account.getId(), account);
+  }
+
   public byte[] getCsr(long orderId) throws AcmeSystemException {
     AcmeOrder order = orderCache.get(orderId);
+    if (order == null) {
+      order = dirtyOrders.get(orderId);
+    }
+
     if (order != null && order.getCsr() != null) {
       return order.getCsr();
     } else {
@@ -212,9 +209,14 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
   public AcmeAccount getAccount(long accountId) throws AcmeSystemException {
     AcmeAccount account = accountCache.get(accountId);
     if (account == null) {
-      account = dataSource.getAccount(accountId);
+      // evicted but not written to the database yet.
+      account = dirtyAccounts.get(accountId);
+      if (account == null) {
+        account = dataSource.getAccount(accountId);
+      }
+
       if (account != null) {
-        accountCache.put(account.getId(), account);
+        cacheAccount(account);
       }
     }
     return account;
@@ -228,25 +230,109 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
       }
     }
 
-    AcmeAccount account = dataSource.getAccountForJwk(jwk);
+    AcmeAccount account = null;
+    for (AcmeAccount dirtyAccount : dirtyAccounts.values()) {
+      if (dirtyAccount.hasJwk(jwk)) {
+        account = dirtyAccount;
+        break;
+      }
+    }
+
+    if (account == null) {
+      account = dataSource.getAccountForJwk(jwk);
+    }
+
     if (account != null) {
-      accountCache.put(account.getId(), account);
+      cacheAccount(account);
     }
     return account;
   }
 
   public void addOrder(AcmeOrder order) {
-    // set IDs
-    orderCache.put(order.getId(), order);
+    dirtyOrders.put(order.getId(), order);
+    cacheOrder(order);
     LOG.info("added order {}", order.idText());
   }
 
+  private void cacheOrder(AcmeOrder order) {
+    // put first, the replaced order (if any) is removed from the indexes by the cache.
+    orderCache.put(order.getId(), order);
+    accountOrdersIndex.computeIfAbsent(order.getAccountId(), k -> ConcurrentHashMap.newKeySet()).add(order.getId());
+    order.setStateListener(orderStateListener);
+    order.setDirtyListener(orderDirtyListener);
+    indexOrderState(order);
+  }
+
+  private void unindexOrder(AcmeOrder order) {
+    order.setStateListener(null);
+    long orderId = order.getId();
+
+    accountOrdersIndex.computeIfPresent(order.getAccountId(), (k, v) -> {
+      v.remove(orderId);
+      return v.isEmpty() ? null : v;
+    });
+
+    synchronized (order) {
+      ordersToEnrollIndex.remove(orderId);
+      if (order.getAuthzs() != null) {
+        for (AcmeAuthz authz : order.getAuthzs()) {
+          for (AcmeChallenge challenge : authz.getChallenges()) {
+            challengesToValidateIndex.remove(new ChallId(orderId, authz.getSubId(), challenge.getSubId()));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Updates the indexes of challenges to validate and orders to enroll for the given order.
+   * Called on every state transition of the order, its authorizations and challenges.
+   */
+  private void indexOrderState(AcmeOrder order) {
+    long orderId = order.getId();
+    synchronized (order) {
+      if (order.getStatus() == OrderStatus.processing) {
+        ordersToEnrollIndex.add(orderId);
+      } else {
+        ordersToEnrollIndex.remove(orderId);
+      }
+
+      if (order.getAuthzs() == null) {
+        return;
+      }
+
+      for (AcmeAuthz authz : order.getAuthzs()) {
+        boolean found = false;
+        for (AcmeChallenge challenge : authz.getChallenges()) {
+          ChallId challId = new ChallId(orderId, authz.getSubId(), challenge.getSubId());
+          boolean addMe = !found
+              && challenge.getStatus() == ChallengeStatus.processing
+              && authz.getStatus() == AuthzStatus.pending
+              && order.getStatus() == OrderStatus.pending;
+
+          if (addMe) {
+            challengesToValidateIndex.add(challId);
+            // at most one challenge per authorization.
+            found = true;
+          } else {
+            challengesToValidateIndex.remove(challId);
+          }
+        }
+      }
+    }
+  } // method indexOrderState
+
   public AcmeOrder getOrder(long orderId) throws AcmeSystemException {
     AcmeOrder order = orderCache.get(orderId);
     if (order == null) {
-      order = dataSource.getOrder(orderId);
+      // evicted but not written to the database yet.
+      order = dirtyOrders.get(orderId);
+      if (order == null) {
+        order = dataSource.getOrder(orderId);
+      }
+
       if (order != null) {
-        orderCache.put(order.getId(), order);
+        cacheOrder(order);
       }
     }
     return order;
@@ -263,10 +349,20 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
       }
     }
 
+    if (order == null) {
+      for (AcmeOrder dirtyOrder : dirtyOrders.values()) {
+        if (sha256.equals(dirtyOrder.getCertSha256())) {
+          order = dirtyOrder;
+          cacheOrder(order);
+          break;
+        }
+      }
+    }
+
     if (order == null) {
       order = dataSource.getOrderForCertSha256(sha256);
       if (order != null) {
-        orderCache.put(order.getId(), order);
+        cacheOrder(order);
       }
     }
 
@@ -303,68 +399,45 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
   }
 
   public List<Long> getOrderIds(long accountId) throws AcmeSystemException {
-    List<Long> orderIds = new LinkedList<>();
     // from cache
-    for (Map.Entry<Long, AcmeOrder> entry : orderCache.snapshot().entrySet()) {
-      if (entry.getValue().getAccountId() == accountId) {
-        orderIds.add(entry.getKey());
+    Set<Long> orderIds = new LinkedHashSet<>(accountOrdersIndex.getOrDefault(accountId, Collections.emptySet()));
+    for (AcmeOrder order : dirtyOrders.values()) {
+      if (order.getAccountId() == accountId) {
+        orderIds.add(order.getId());
       }
     }
 
     // from database
-    List<Long> dbOrderIds = dataSource.getOrderIds(accountId);
-    orderIds.addAll(dbOrderIds);
-    return orderIds;
+    orderIds.addAll(dataSource.getOrderIds(accountId));
+    return new ArrayList<>(orderIds);
   }
 
   public Iterator<ChallId> getChallengesToValidate() throws AcmeSystemException {
-    // from database
-    List<ChallId> dbIds = dataSource.getChallengesToValidate();
-    List<ChallId> ids = new LinkedList<>(dbIds);
-
-    // from cache
-    for (Long id : orderCache.keySnapshot()) {
-      AcmeOrder order = orderCache.get(id);
-      for (AcmeAuthz authz : order.getAuthzs()) {
-        for (AcmeChallenge challenge : authz.getChallenges()) {
-          ChallId challId = new ChallId(order.getId(), authz.getSubId(), challenge.getSubId());
-          boolean addMe = challenge.getStatus() == ChallengeStatus.processing
-              && authz.getStatus() == AuthzStatus.pending
-              && order.getStatus() == OrderStatus.pending;
-
-          if (addMe) {
-            ids.add(challId);
-            break;
-          } else {
-            ids.remove(challId);
-          }
-        } // end AcmeChallenge-for
-      } // end AcmeAuthz-for
+    Set<ChallId> ids = new LinkedHashSet<>();
+    // from database, the cached orders are more current than the database.
+    for (ChallId id : dataSource.getChallengesToValidate()) {
+      if (!orderCache.containsKey(id.getOrderId())) {
+        ids.add(id);
+      }
     }
 
-    return new ListIterator<>(ids);
+    // from cache
+    ids.addAll(challengesToValidateIndex);
+    return ids.iterator();
   }
 
   public Iterator<Long> getOrdersToEnroll() throws AcmeSystemException {
-    // add those from database
-    List<Long> dbIds = dataSource.getOrdersToEnroll();
-    List<Long> ids = new LinkedList<>(dbIds);
-
-    // from cache
-    for (Long id : orderCache.keySnapshot()) {
-      AcmeOrder order = orderCache.get(id);
-      order.updateStatus();
-
-      if (order.getStatus() == OrderStatus.processing) {
-        if (!ids.contains(id)) {
-          ids.add(id);
-        }
-      } else {
-        ids.remove(id);
+    Set<Long> ids = new LinkedHashSet<>();
+    // from database, the cached orders are more current than the database.
+    for (Long id : dataSource.getOrdersToEnroll()) {
+      if (!orderCache.containsKey(id)) {
+        ids.add(id);
       }
     }
 
-    return new ListIterator<>(ids);
+    // from cache
+    ids.addAll(ordersToEnrollIndex);
+    return ids.iterator();
   }
 
   public int cleanOrders(Instant certNotAfter, Instant notFinishedOrderExpires) throws AcmeSystemException {
@@ -388,23 +461,81 @@ public class AcmeRepo implements AcmeDataSource.IdChecker {
     }
   }
 
-  private synchronized void writeToDb() throws AcmeSystemException {
-    // save the accounts and orders
-    for (Map.Entry<Long, AcmeAccount> account : accountCache.snapshot().entrySet()) {
-      account.getValue().flush();
-    }
+  /**
+   * Writes the new and modified accounts and orders to the database in one transaction, with one
+   * JDBC batch per SQL statement. The objects are locked only while their rows are being prepared.
+   * The objects whose rows could not be written are kept dirty and written again later.
+   */
+  private void writeToDb() throws AcmeSystemException {
+    synchronized (writeLock) {
+      // orders first, the accounts of the drained orders are then drained too.
+      List<AcmeOrder> orders = drain(dirtyOrders);
+      List<AcmeAccount> accounts = drain(dirtyAccounts);
+      if (accounts.isEmpty() && orders.isEmpty()) {
+        return;
+      }
+
+      List<AcmeDataSource.RowWrite> writes = new ArrayList<>(accounts.size() + orders.size());
+      List<AcmeDataSource.RowWrite> accountWrites = new ArrayList<>(accounts.size());
+      List<AcmeDataSource.RowWrite> orderWrites = new ArrayList<>(orders.size());
+      // null if nothing has been written.
+      Set<AcmeDataSource.RowWrite> failed = null;
+      try {
+        // write accounts before the orders referring to them.
+        for (AcmeAccount account : accounts) {
+          AcmeDataSource.RowWrite write = account.prepareFlush();
+          accountWrites.add(write);
+          if (write != null) {
+            writes.add(write);
+          }
+        }
+
+        for (AcmeOrder order : orders) {
+          AcmeDataSource.RowWrite write = order.prepareFlush();
+          orderWrites.add(write);
+          if (write != null) {
+            writes.add(write);
+          }
+        }
 
-    // save the accounts and orders
-    for (Map.Entry<Long, AcmeOrder> order : orderCache.snapshot().entrySet()) {
-      order.getValue().flush();
+        failed = dataSource.write(writes);
+      } finally {
+        for (int i = 0; i < accounts.size(); i++) {
+          AcmeAccount account = accounts.get(i);
+          boolean success = isWritten(failed, accountWrites, i);
+          account.flushDone(success);
+          if (!success) {
+            dirtyAccounts.putIfAbsent(account.getId(), account);
+          }
+        }
+
+        for (int i = 0; i < orders.size(); i++) {
+          AcmeOrder order = orders.get(i);
+          boolean success = isWritten(failed, orderWrites, i);
+          order.flushDone(success);
+          if (!success) {
+            dirtyOrders.putIfAbsent(order.getId(), order);
+          }
+        }
+      }
     }
+  } // method writeToDb
+
+  private static boolean isWritten(Set<AcmeDataSource.RowWrite> failed, List<AcmeDataSource.RowWrite> writes,
+                                   int index) {
+    // the object has not been prepared if index >= writes.size().
+    return failed != null && index < writes.size() && !failed.contains(writes.get(index));
   }
 
-  public synchronized void flushOrderIfNotCached(AcmeOrder order) throws AcmeSystemException {
-    AcmeOrder cachedOrder = orderCache.get(order.getId());
-    if (cachedOrder != order) {
-      order.flush();
+  private static <T> List<T> drain(ConcurrentHashMap<Long, T> map) {
+    List<T> list = new ArrayList<>(map.size());
+    for (Map.Entry<Long, T> entry : map.entrySet()) {
+      // re-added by the dirty listener if modified after this point.
+      if (map.remove(entry.getKey(), entry.getValue())) {
+        list.add(entry.getValue());
+      }
     }
+    return list;
   }
 
 }
@@ -46,6 +46,8 @@ import org.xipki.ca.sdk.X500NameType;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceFactory;
 import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.password.PasswordResolverException;
+import org.xipki.password.Passwords;
 import org.xipki.pki.ErrorCode;
 import org.xipki.security.CrlReason;
 import org.xipki.security.HashAlgo;
@@ -189,6 +191,8 @@ public class AcmeResponder {
 
   private final NonceManager nonceManager;
 
+  private final JwsVerifierCache verifierCache;
+
   private static final Set<String> knownCommands;
 
   private final boolean termsOfServicePresent;
@@ -289,7 +293,17 @@ public class AcmeResponder {
       throw new InvalidConfException("invalid baseUrl '" + baseUrl + "'");
     }
 
-    this.nonceManager = new NonceManager(conf.getNonceNumBytes());
+    byte[] nonceKey = null;
+    if (StringUtil.isNotBlank(conf.getNonceKey())) {
+      try {
+        char[] keyChars = Passwords.resolvePassword(conf.getNonceKey());
+        nonceKey = HashAlgo.SHA256.hash(new String(keyChars).getBytes(StandardCharsets.UTF_8));
+      } catch (PasswordResolverException ex) {
+        throw new InvalidConfException("error resolving nonceKey");
+      }
+    }
+    this.nonceManager = new NonceManager(conf.getNonceNumBytes(), nonceKey, conf.getNonceFilterCapacity());
+    this.verifierCache = new JwsVerifierCache(conf.getCacheSize());
     this.tokenNumBytes = conf.getTokenNumBytes();
     this.directoryHeader = "<" + baseUrl + "directory>;rel=\"index\"";
     this.caProfiles = conf.getCaProfiles();
@@ -372,8 +386,9 @@ public class AcmeResponder {
       throw new InvalidConfException("could not initialize database", ex);
     }
 
-    this.challengeValidator = new ChallengeValidator(repo);
-    this.certEnroller = new CertEnroller(repo, sdk);
+    this.challengeValidator = new ChallengeValidator(repo, conf.getChallengeValidation(), conf.getSweepSeconds());
+    this.certEnroller = new CertEnroller(repo, sdk, conf.getSweepSeconds(),
+        conf.getEnrollThreads(), conf.getEnrollBatchSize());
   }
 
   private static String addQuoteSign(String text) {
@@ -401,7 +416,6 @@ public class AcmeResponder {
   public void close() {
     challengeValidator.close();
     certEnroller.close();
-    nonceManager.close();
 
     repo.close();
   }
@@ -543,10 +557,10 @@ public class AcmeResponder {
           "invalid Content-Type '" + contentType + "'");
     }
 
-    JoseMessage body = JSON.parseObject(request, JoseMessage.class);
-    Map<String, Object> protected_= JSON.parseObject(decodeFast(body.getProtected()), Map.class);
+    JoseMessage body = JoseParser.parseMessage(request);
+    JoseParser.Header protected_ = JoseParser.parseHeader(decodeFast(body.getProtected()));
 
-    String protectedUrl = (String) protected_.get("url");
+    String protectedUrl = protected_.getUrl();
     if (protectedUrl == null) {
       throw new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.malformed, "url is not present");
     }
@@ -555,12 +569,12 @@ public class AcmeResponder {
       throw new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.malformed, "url is not valid: '" + protectedUrl + "'");
     }
 
-    String nonce = (String) protected_.get("nonce");
+    String nonce = protected_.getNonce();
     if (nonce == null) {
       throw new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.badNonce, "nonce is not present");
     }
 
-    if (!nonceManager.removeNonce(nonce)) {
+    if (!nonceManager.useNonce(nonce)) {
       throw new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.badNonce, null);
     }
 
@@ -570,8 +584,8 @@ public class AcmeResponder {
     int verificationKeyRequirement = CMD_newAccount.equals(command) ? MASK_JWK
         : CMD_revokeCert.equals(command) ? MASK_JWK | MASK_KID : MASK_KID;
 
-    Map<String, String> jwk = toStringMap((Map<String, Object>) protected_.get("jwk"));
-    String kid = (String) protected_.get("kid");
+    Map<String, String> jwk = protected_.getJwk();
+    String kid = protected_.getKid();
 
     AcmeAccount account = null;
     PublicKey pubKey;
@@ -632,7 +646,7 @@ public class AcmeResponder {
       }
     }
 
-    HttpResponse verifyRes = verifySignature((String) protected_.get("alg"), pubKey, body);
+    HttpResponse verifyRes = verifySignature(protected_.getAlg(), kid, pubKey, body);
     if (verifyRes != null) {
       return verifyRes;
     }
@@ -686,11 +700,14 @@ public class AcmeResponder {
             .putHeader(HDR_LOCATION, newAccount.getLocation(baseUrl));
       }
       case CMD_keyChange: {
-        JoseMessage reqPayload = JSON.parseObject(decodeFast(body.getPayload()), JoseMessage.class);
-        Map<String, Object> innerProtected = JSON.parseObject(
-            decodeFast(reqPayload.getProtected()), Map.class);
+        JoseMessage reqPayload = JoseParser.parseMessage(decodeFast(body.getPayload()));
+        JoseParser.Header innerProtected = JoseParser.parseHeader(decodeFast(reqPayload.getProtected()));
+
+        Map<String, String> newJwk = innerProtected.getJwk();
+        if (newJwk == null) {
+          throw new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.malformed, "jwk is not present in inner JWS");
+        }
 
-        Map<String, String> newJwk = toStringMap((Map<String, Object>) innerProtected.get("jwk"));
         AcmeAccount accountForNewJwk = repo.getAccountForJwk(newJwk);
         if (accountForNewJwk != null) {
           // jwk not exists.
@@ -720,7 +737,7 @@ public class AcmeResponder {
           throw new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.badPublicKey, null);
         }
 
-        verifyRes = verifySignature((String) protected_.get("alg"), newPubKey, reqPayload);
+        verifyRes = verifySignature(innerProtected.getAlg(), null, newPubKey, reqPayload);
         if (verifyRes != null) {
           return verifyRes;
         }
@@ -1136,6 +1153,7 @@ public class AcmeResponder {
 
         order.setCsr(csrBytes);
         order.setStatus(OrderStatus.processing);
+        certEnroller.enqueue(order.getId());
 
         LOG.info("finalized order {}", order.idText());
 
@@ -1205,6 +1223,7 @@ public class AcmeResponder {
         ChallengeStatus status = chall.getStatus();
         if (status == ChallengeStatus.pending) {
           chall.setStatus(ChallengeStatus.processing);
+          challengeValidator.enqueue(challId);
         }
         ChallengeResponse resp = chall.toChallengeResponse(baseUrl, challId.getOrderId(), challId.getAuthzId());
 
@@ -1243,22 +1262,22 @@ public class AcmeResponder {
     return toHttpResponse(HttpRespContent.of(statusCode, CT_PROBLEM_JSON, bytes));
   }
 
-  private HttpResponse verifySignature(String sigAlg, PublicKey pubKey, JoseMessage joseMessage)
+  private HttpResponse verifySignature(String sigAlg, String kid, PublicKey pubKey, JoseMessage joseMessage)
       throws AcmeProtocolException {
-    sigAlg = sigAlg.toUpperCase(Locale.ROOT);
-    SignAlgo signAlgo = joseAlgMap.get(sigAlg);
+    SignAlgo signAlgo = sigAlg == null ? null : joseAlgMap.get(sigAlg.toUpperCase(Locale.ROOT));
     if (signAlgo == null) {
       throw new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.badSignatureAlgorithm,
           "unsupported signature algorrihm " + sigAlg);
     }
 
     try {
-      Signature sig = signAlgo.newSignature();
-      sig.initVerify(pubKey);
+      Signature sig = verifierCache.borrow(kid, pubKey, signAlgo);
       sig.update(joseMessage.getProtected().getBytes(StandardCharsets.UTF_8));
       sig.update((byte) 0x2e); // 0x2e = '.'
       sig.update(joseMessage.getPayload().getBytes(StandardCharsets.UTF_8));
       boolean sigValid = sig.verify(decodeFast(joseMessage.getSignature()));
+      // verify() resets the verifier, it can be reused.
+      verifierCache.release(kid, pubKey, signAlgo, sig);
       if (!sigValid) {
         throw new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.malformed, "signature is not valid");
       }
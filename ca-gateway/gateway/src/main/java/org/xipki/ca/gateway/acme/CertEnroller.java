@@ -15,6 +15,7 @@ import org.xipki.ca.sdk.CertsMode;
 import org.xipki.ca.sdk.EnrollCertsRequest;
 import org.xipki.ca.sdk.EnrollOrPollCertsResponse;
 import org.xipki.ca.sdk.SdkClient;
+import org.xipki.ca.sdk.SdkErrorResponseException;
 import org.xipki.ca.sdk.X500NameType;
 import org.xipki.pki.OperationException;
 import org.xipki.security.util.X509Util;
@@ -22,136 +23,352 @@ import org.xipki.util.Args;
 import org.xipki.util.LogUtil;
 
 import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Enrolls the certificates for the finalized orders. Orders are submitted by
+ * {@link #enqueue(long)} once they are finalized. The periodic sweep of the repository only picks up
+ * orders that were not enqueued, e.g. those restored from the database after a restart.
+ * <p>
+ * The enrollments are executed in a bounded pool of worker threads. Optionally, orders for the same
+ * CA and certificate profile are sent in one request to the CA. The CA processes the entries of such
+ * request independently, and if the whole request is rejected, the orders are enrolled one by one,
+ * so that the failure of one order does not affect the others.
  *
  * @author Lijun Liao (xipki)
  */
 public class CertEnroller implements Runnable {
 
+  private static class PreparedOrder {
+
+    private final AcmeOrder order;
+
+    private final String orderIdStr;
+
+    private final String ca;
+
+    private final EnrollCertsRequest.Entry entry;
+
+    PreparedOrder(AcmeOrder order, String orderIdStr, String ca, EnrollCertsRequest.Entry entry) {
+      this.order = order;
+      this.orderIdStr = orderIdStr;
+      this.ca = ca;
+      this.entry = entry;
+    }
+
+  } // class PreparedOrder
+
   private static final Logger LOG = LoggerFactory.getLogger(CertEnroller.class);
 
   private final AcmeRepo repo;
 
   private final SdkClient sdk;
 
-  public CertEnroller(AcmeRepo repo, SdkClient sdk) {
+  private final long sweepIntervalMs;
+
+  private final int batchSize;
+
+  private final LinkedBlockingQueue<Long> queue = new LinkedBlockingQueue<>();
+
+  /**
+   * IDs of the orders which are queued or being enrolled.
+   */
+  private final Set<Long> inProgress = ConcurrentHashMap.newKeySet();
+
+  private final ThreadPoolExecutor workers;
+
+  public CertEnroller(AcmeRepo repo, SdkClient sdk, int sweepSeconds, int threads, int batchSize) {
     this.repo = Args.notNull(repo, "repo");
     this.sdk = Args.notNull(sdk, "sdk");
+    this.sweepIntervalMs = Args.positive(sweepSeconds, "sweepSeconds") * 1000L;
+    this.batchSize = Args.positive(batchSize, "batchSize");
+    Args.positive(threads, "threads");
+
+    AtomicInteger workerIndex = new AtomicInteger(1);
+    // if all workers are busy and the queue is full, the dispatcher thread enrolls itself, and
+    // stops taking further orders meanwhile. Once shut down, the orders are rejected.
+    this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(2 * threads), r -> {
+          Thread t = new Thread(r, "certEnroller-" + workerIndex.getAndIncrement());
+          t.setDaemon(true);
+          return t;
+        }, (r, executor) -> {
+          if (executor.isShutdown()) {
+            throw new RejectedExecutionException("certificate enroller has been shut down");
+          }
+          r.run();
+        });
+    this.workers.allowCoreThreadTimeOut(true);
+
+    LOG.info("certificate enrollment: threads={}, batchSize={}", threads, batchSize);
   }
 
   private boolean stopMe;
 
   @Override
   public void run() {
+    long nextSweep = 0;
     while (!stopMe) {
-      try {
-        singleRun();
-      } catch (Throwable t) {
-        LogUtil.error(LOG, t, "expected error");
+      if (System.currentTimeMillis() >= nextSweep) {
+        try {
+          singleRun();
+        } catch (Throwable t) {
+          LogUtil.error(LOG, t, "expected error");
+        }
+        nextSweep = System.currentTimeMillis() + sweepIntervalMs;
       }
 
+      Long orderId;
       try {
-        Thread.sleep(1000); // sleep for 1 second.
+        orderId = queue.poll(Math.max(1, nextSweep - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
       } catch (InterruptedException e) {
+        continue;
+      }
+
+      if (orderId == null) {
+        continue;
+      }
+
+      List<Long> orderIds = new ArrayList<>();
+      orderIds.add(orderId);
+      queue.drainTo(orderIds, batchSize * workers.getMaximumPoolSize() - 1);
+
+      try {
+        dispatch(orderIds);
+      } catch (Throwable t) {
+        LogUtil.error(LOG, t, "expected error");
       }
     }
   }
 
+  /**
+   * Submits the order for enrollment.
+   * @param orderId the identifier of the order.
+   */
+  public void enqueue(long orderId) {
+    if (inProgress.add(orderId)) {
+      queue.offer(orderId);
+    }
+  }
+
   public void singleRun() throws AcmeSystemException {
     Iterator<Long> orderIds = repo.getOrdersToEnroll();
 
     while (orderIds.hasNext()) {
       Long orderId = orderIds.next();
-      if (orderId == null) {
-        continue;
-      }
-
-      String orderIdStr = AcmeUtils.toBase64(orderId) + " (" + orderId + ")";
-      LOG.info("try to enroll certificate for order {}", orderIdStr);
-
-      AcmeOrder order = repo.getOrder(orderId);
-      if (order == null) {
-        LOG.error("found no order for id {}", orderIdStr);
-        continue;
+      if (orderId != null) {
+        enqueue(orderId);
       }
+    }
+  }
 
-      byte[] csr = order.getCsr();
-      if (csr == null) {
-        // if the order is read from database, csr is null in the object, even present in the database
-        csr = repo.getCsr(orderId);
+  private void dispatch(List<Long> orderIds) {
+    // group the orders by CA and certificate profile, keep the order of arrival.
+    Map<String, List<PreparedOrder>> groups = new LinkedHashMap<>();
+    for (Long orderId : orderIds) {
+      PreparedOrder prepared = null;
+      try {
+        prepared = prepare(orderId);
+      } catch (Throwable t) {
+        LogUtil.error(LOG, t, "error preparing enrollment of order " + orderId);
       }
 
-      if (csr == null) {
-        LOG.error("found not CSR for order {}", orderIdStr);
+      if (prepared == null) {
+        inProgress.remove(orderId);
         continue;
       }
 
-      EnrollCertsRequest.Entry entry = new EnrollCertsRequest.Entry();
-      CertReqMeta certReqMeta = order.getCertReqMeta();
-      entry.setNotBefore(certReqMeta.getNotBefore());
-      entry.setNotAfter(certReqMeta.getNotAfter());
-      entry.setCertprofile(certReqMeta.getCertProfile());
+      String key = batchSize == 1 ? Long.toString(orderId)
+          : prepared.ca + "/" + prepared.entry.getCertprofile();
+      List<PreparedOrder> group = groups.computeIfAbsent(key, k -> new ArrayList<>());
+      group.add(prepared);
+      if (group.size() >= batchSize) {
+        submit(group);
+        groups.remove(key);
+      }
+    }
 
-      if (certReqMeta.getSubject() == null) {
-        entry.setP10req(csr);
-      } else {
-        entry.setSubject(new X500NameType(certReqMeta.getSubject()));
+    for (List<PreparedOrder> group : groups.values()) {
+      submit(group);
+    }
+  } // method dispatch
 
-        CertificationRequest p10Req;
+  private void submit(List<PreparedOrder> orders) {
+    try {
+      workers.execute(() -> {
         try {
-          p10Req = GatewayUtil.parseCsrInRequest(csr);
-          Extensions extensions = X509Util.getExtensions(p10Req.getCertificationRequestInfo());
-          if (extensions != null) {
-            entry.setExtensions(extensions.getEncoded());
+          enroll(orders);
+        } finally {
+          for (PreparedOrder m : orders) {
+            inProgress.remove(m.order.getId());
           }
-          entry.setSubjectPublicKey(p10Req.getCertificationRequestInfo().getSubjectPublicKeyInfo().getEncoded());
-        } catch (IOException | OperationException e) {
-          throw new AcmeSystemException(e);
         }
+      });
+    } catch (RejectedExecutionException ex) {
+      // only if the pool has been shutdown
+      for (PreparedOrder m : orders) {
+        inProgress.remove(m.order.getId());
       }
+    }
+  }
 
-      EnrollCertsRequest sdkReq = new EnrollCertsRequest();
-      sdkReq.setCaCertMode(CertsMode.NONE);
-      sdkReq.setEntries(new EnrollCertsRequest.Entry[]{entry});
+  private PreparedOrder prepare(long orderId) throws AcmeSystemException {
+    String orderIdStr = AcmeUtils.toBase64(orderId) + " (" + orderId + ")";
+    LOG.info("try to enroll certificate for order {}", orderIdStr);
+
+    AcmeOrder order = repo.getOrder(orderId);
+    if (order == null) {
+      LOG.error("found no order for id {}", orderIdStr);
+      return null;
+    }
 
-      LOG.info("start enrolling certificate for order {}", orderIdStr);
+    if (order.getStatus() != OrderStatus.processing) {
+      // already handled
+      return null;
+    }
+
+    byte[] csr = order.getCsr();
+    if (csr == null) {
+      // if the order is read from database, csr is null in the object, even present in the database
+      csr = repo.getCsr(orderId);
+    }
+
+    if (csr == null) {
+      LOG.error("found not CSR for order {}", orderIdStr);
+      return null;
+    }
+
+    EnrollCertsRequest.Entry entry = new EnrollCertsRequest.Entry();
+    CertReqMeta certReqMeta = order.getCertReqMeta();
+    entry.setNotBefore(certReqMeta.getNotBefore());
+    entry.setNotAfter(certReqMeta.getNotAfter());
+    entry.setCertprofile(certReqMeta.getCertProfile());
+
+    if (certReqMeta.getSubject() == null) {
+      entry.setP10req(csr);
+    } else {
+      entry.setSubject(new X500NameType(certReqMeta.getSubject()));
+
+      CertificationRequest p10Req;
       try {
-        EnrollOrPollCertsResponse sdkResp = sdk.enrollCerts(certReqMeta.getCa(), sdkReq);
-        EnrollOrPollCertsResponse.Entry sdkRespEntry = sdkResp.getEntries()[0];
-        byte[] certBytes = sdkRespEntry.getCert();
-        boolean valid = certBytes != null;
-        if (valid) {
-          // check the certificate
-          try {
-            Certificate.getInstance(certBytes);
-          } catch (Exception ex) {
-            LogUtil.error(LOG, ex, "Error parsing enrolled certificate for order " + orderIdStr);
-            valid = false;
-          }
-        } else {
-          LOG.error("CA returned error for the order {}: {}", orderIdStr, sdkRespEntry.getError());
+        p10Req = GatewayUtil.parseCsrInRequest(csr);
+        Extensions extensions = X509Util.getExtensions(p10Req.getCertificationRequestInfo());
+        if (extensions != null) {
+          entry.setExtensions(extensions.getEncoded());
         }
+        entry.setSubjectPublicKey(p10Req.getCertificationRequestInfo().getSubjectPublicKeyInfo().getEncoded());
+      } catch (IOException | OperationException e) {
+        throw new AcmeSystemException(e);
+      }
+    }
+
+    return new PreparedOrder(order, orderIdStr, certReqMeta.getCa(), entry);
+  } // method prepare
+
+  private void enroll(List<PreparedOrder> orders) {
+    final int n = orders.size();
+    EnrollCertsRequest.Entry[] entries = new EnrollCertsRequest.Entry[n];
+    for (int i = 0; i < n; i++) {
+      EnrollCertsRequest.Entry entry = orders.get(i).entry;
+      entry.setCertReqId(BigInteger.valueOf(i + 1));
+      entries[i] = entry;
+      LOG.info("start enrolling certificate for order {}", orders.get(i).orderIdStr);
+    }
+
+    EnrollCertsRequest sdkReq = new EnrollCertsRequest();
+    sdkReq.setCaCertMode(CertsMode.NONE);
+    sdkReq.setEntries(entries);
 
-        if (valid) {
-          LOG.info("enrolled certificate for order {}", orderIdStr);
-          order.setCert(certBytes);
-          order.setStatus(OrderStatus.valid);
-        } else {
-          order.setStatus(OrderStatus.invalid);
+    EnrollOrPollCertsResponse sdkResp;
+    try {
+      sdkResp = sdk.enrollCerts(orders.get(0).ca, sdkReq);
+    } catch (SdkErrorResponseException ex) {
+      if (n > 1) {
+        LOG.warn("CA rejected the enrollment of {} orders ({}), enroll them separately", n, ex.getMessage());
+        for (PreparedOrder order : orders) {
+          enroll(Collections.singletonList(order));
         }
+        return;
+      }
+
+      LogUtil.error(LOG, ex);
+      setInvalid(orders.get(0));
+      return;
+    } catch (Throwable t) {
+      LogUtil.error(LOG, t);
+      for (PreparedOrder order : orders) {
+        setInvalid(order);
+      }
+      return;
+    }
+
+    Map<BigInteger, EnrollOrPollCertsResponse.Entry> respEntries = new HashMap<>();
+    for (EnrollOrPollCertsResponse.Entry m : sdkResp.getEntries()) {
+      respEntries.put(m.getId(), m);
+    }
 
-        repo.flushOrderIfNotCached(order);
+    for (int i = 0; i < n; i++) {
+      PreparedOrder order = orders.get(i);
+      try {
+        handleResult(order, respEntries.get(BigInteger.valueOf(i + 1)));
       } catch (Throwable t) {
         LogUtil.error(LOG, t);
-        order.setStatus(OrderStatus.invalid);
+        setInvalid(order);
+      }
+    }
+  } // method enroll
+
+  private void handleResult(PreparedOrder prepared, EnrollOrPollCertsResponse.Entry sdkRespEntry) {
+    String orderIdStr = prepared.orderIdStr;
+    AcmeOrder order = prepared.order;
+
+    byte[] certBytes = sdkRespEntry == null ? null : sdkRespEntry.getCert();
+    boolean valid = certBytes != null;
+    if (valid) {
+      // check the certificate
+      try {
+        Certificate.getInstance(certBytes);
+      } catch (Exception ex) {
+        LogUtil.error(LOG, ex, "Error parsing enrolled certificate for order " + orderIdStr);
+        valid = false;
       }
+    } else {
+      LOG.error("CA returned error for the order {}: {}", orderIdStr,
+          sdkRespEntry == null ? "no response entry" : sdkRespEntry.getError());
     }
+
+    if (valid) {
+      LOG.info("enrolled certificate for order {}", orderIdStr);
+      order.setCert(certBytes);
+      order.setStatus(OrderStatus.valid);
+    } else {
+      order.setStatus(OrderStatus.invalid);
+    }
+  } // method handleResult
+
+  private void setInvalid(PreparedOrder prepared) {
+    // written to the database by the repository.
+    prepared.order.setStatus(OrderStatus.invalid);
   }
 
   public void close() {
     stopMe = true;
+    workers.shutdown();
   }
 
 }
@@ -79,6 +79,11 @@ public class ChallId {
     return orderId == b.orderId && authzId == b.authzId && subId == b.subId;
   }
 
+  @Override
+  public int hashCode() {
+    return Long.hashCode(orderId) * 31 * 31 + authzId * 31 + subId;
+  }
+
   public String toIdText() {
     return idText;
   }
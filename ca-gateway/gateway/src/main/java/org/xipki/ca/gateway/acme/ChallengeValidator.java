@@ -10,8 +10,10 @@ import org.bouncycastle.asn1.x509.GeneralName;
 import org.bouncycastle.asn1.x509.GeneralNames;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xbill.DNS.ExtendedResolver;
 import org.xbill.DNS.Lookup;
 import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
 import org.xbill.DNS.TXTRecord;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
@@ -19,8 +21,6 @@ import org.xipki.ca.gateway.acme.type.ChallengeStatus;
 import org.xipki.util.Args;
 import org.xipki.util.Base64Url;
 import org.xipki.util.LogUtil;
-import org.xipki.util.http.HttpRespContent;
-import org.xipki.util.http.XiHttpClient;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLParameters;
@@ -30,23 +30,60 @@ import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Validates the challenges in a bounded pool of worker threads. Each validation is limited by
+ * connect and read timeouts, failed validations are retried with exponential backoff, and the number
+ * of concurrent validations against the same host is limited.
+ * <p>
+ * Challenges are submitted by {@link #enqueue(ChallId)} once they are ready to be validated. The
+ * periodic sweep of the repository only picks up challenges that were not enqueued, e.g. those
+ * restored from the database after a restart.
  *
  * @author Lijun Liao (xipki)
  */
 public class ChallengeValidator implements Runnable {
 
+  private static class ValidationTask {
+
+    private final ChallId challId;
+
+    private final long created = System.nanoTime();
+
+    private int attempt = 1;
+
+    ValidationTask(ChallId challId) {
+      this.challId = challId;
+    }
+
+  } // class ValidationTask
+
   private static final TrustManager trustAll = new X509TrustManager() {
     @Override
     public void checkClientTrusted(X509Certificate[] chain, String authType) {
@@ -62,16 +99,87 @@ public class ChallengeValidator implements Runnable {
     }
   };
 
-  private static final Logger LOG = LoggerFactory.getLogger(CertEnroller.class);
+  private static final Logger LOG = LoggerFactory.getLogger(ChallengeValidator.class);
+
+  private static final int MAX_HTTP01_RESPONSE_SIZE = 8192;
+
+  /**
+   * Delay in milliseconds before a validation deferred by the per-host limit is submitted again.
+   */
+  private static final long HOST_BUSY_DELAY_MS = 200;
 
   private final AcmeRepo repo;
 
-  public ChallengeValidator(AcmeRepo repo) {
-    this.repo = Args.notNull(repo, "repo");
-  }
+  private final int connectTimeoutMs;
+
+  private final int readTimeoutMs;
+
+  private final int maxAttempts;
+
+  private final long retryDelayMs;
+
+  private final int maxPerHost;
+
+  private final int maxQueueSize;
+
+  private final long sweepIntervalMs;
+
+  private final ThreadPoolExecutor workers;
+
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  private final Set<ChallId> inProgress = ConcurrentHashMap.newKeySet();
+
+  private final Map<String, Integer> activePerHost = new HashMap<>();
+
+  /**
+   * Resolver used by the DNS-01 validation, with its own timeout.
+   */
+  private final Resolver dnsResolver;
 
   private boolean stopMe;
 
+  public ChallengeValidator(AcmeRepo repo, AcmeProtocolConf.ChallengeValidationConf conf, int sweepSeconds) {
+    this.repo = Args.notNull(repo, "repo");
+    this.sweepIntervalMs = Args.positive(sweepSeconds, "sweepSeconds") * 1000L;
+    if (conf == null) {
+      conf = new AcmeProtocolConf.ChallengeValidationConf();
+    }
+
+    this.connectTimeoutMs = conf.getConnectTimeout() * 1000;
+    this.readTimeoutMs = conf.getReadTimeout() * 1000;
+    this.maxAttempts = conf.getMaxAttempts();
+    this.retryDelayMs = conf.getRetryDelay() * 1000L;
+    this.maxPerHost = conf.getMaxPerHost();
+
+    int threads = conf.getThreads();
+    this.maxQueueSize = 10 * threads;
+
+    // the gateway is compiled for Java 11, which has no virtual threads.
+    AtomicInteger workerIndex = new AtomicInteger(1);
+    this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        r -> {
+          Thread t = new Thread(r, "challengeValidator-" + workerIndex.getAndIncrement());
+          t.setDaemon(true);
+          return t;
+        });
+    this.workers.allowCoreThreadTimeOut(true);
+
+    this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread t = new Thread(r, "challengeValidator-retry");
+      t.setDaemon(true);
+      return t;
+    });
+
+    // used by the DNS-01 validation, do not change the JVM-wide default resolver.
+    this.dnsResolver = new ExtendedResolver();
+    this.dnsResolver.setTimeout(Duration.ofMillis(readTimeoutMs));
+
+    LOG.info("challenge validation: threads={}, connectTimeout={}s, readTimeout={}s, maxAttempts={}, " +
+        "retryDelay={}s, maxPerHost={}", threads, conf.getConnectTimeout(), conf.getReadTimeout(),
+        maxAttempts, conf.getRetryDelay(), maxPerHost);
+  }
+
   @Override
   public void run() {
     while (!stopMe) {
@@ -82,12 +190,22 @@ public class ChallengeValidator implements Runnable {
       }
 
       try {
-        Thread.sleep(1000); // sleep for 1 second.
+        Thread.sleep(sweepIntervalMs);
       } catch (InterruptedException e) {
       }
     }
   }
 
+  /**
+   * Submits the challenge for validation.
+   * @param challId the identifier of the challenge.
+   */
+  public void enqueue(ChallId challId) {
+    if (inProgress.add(challId)) {
+      submit(new ValidationTask(challId));
+    }
+  }
+
   public void singleRun() throws AcmeSystemException {
     Iterator<ChallId> challIds = repo.getChallengesToValidate();
 
@@ -97,25 +215,91 @@ public class ChallengeValidator implements Runnable {
         continue;
       }
 
-      LOG.info("validate challenge {}", challId);
+      if (workers.getQueue().size() >= maxQueueSize) {
+        // the remaining challenges will be picked up in the next run.
+        LOG.debug("validation queue is full, defer the remaining challenges");
+        break;
+      }
 
-      AcmeChallenge2 chall2 = repo.getChallenge(challId);
-      if (chall2 == null) {
-        continue;
+      if (inProgress.add(challId)) {
+        submit(new ValidationTask(challId));
       }
+    }
+  } // method singleRun
 
-      AcmeChallenge chall = chall2.getChallenge();
-      String type = chall.getType();
-      String receivedAuthorization = null;
-      AcmeIdentifier identifier = chall2.getIdentifier();
-      // boolean authorizationValid = false;
+  private void submit(ValidationTask task) {
+    if (stopMe) {
+      inProgress.remove(task.challId);
+      return;
+    }
 
-      if (LOG.isDebugEnabled()) {
-        String host = identifier.getValue();
-        if (host.startsWith("*.")) {
-          host = host.substring(2);
-        }
+    try {
+      workers.execute(() -> validate(task));
+    } catch (RejectedExecutionException ex) {
+      inProgress.remove(task.challId);
+    }
+  }
 
+  private void schedule(ValidationTask task, long delayMs) {
+    try {
+      scheduler.schedule(() -> submit(task), delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ex) {
+      inProgress.remove(task.challId);
+    }
+  }
+
+  private void validate(ValidationTask task) {
+    boolean done = true;
+    try {
+      done = validate0(task);
+    } catch (Throwable t) {
+      LogUtil.error(LOG, t, "unexpected error while validating challenge " + task.challId);
+    } finally {
+      if (done) {
+        inProgress.remove(task.challId);
+      }
+    }
+  }
+
+  /**
+   * Validates the challenge.
+   * @param task the validation task.
+   * @return true if the task is finished, false if it is scheduled again.
+   * @throws AcmeSystemException if error occurs.
+   */
+  private boolean validate0(ValidationTask task) throws AcmeSystemException {
+    ChallId challId = task.challId;
+    AcmeChallenge2 chall2 = repo.getChallenge(challId);
+    if (chall2 == null) {
+      return true;
+    }
+
+    AcmeChallenge chall = chall2.getChallenge();
+    if (chall.getStatus() != ChallengeStatus.processing) {
+      return true;
+    }
+
+    AcmeIdentifier identifier = chall2.getIdentifier();
+    String host = identifier.getValue();
+    if (host.startsWith("*.")) {
+      host = host.substring(2);
+    }
+
+    if (!acquireHost(host)) {
+      LOG.debug("too many validations against host {}, defer challenge {}", host, challId);
+      schedule(task, HOST_BUSY_DELAY_MS);
+      return false;
+    }
+
+    String type = chall.getType();
+    String receivedAuthorization;
+    long start = System.nanoTime();
+    long durationMs;
+
+    try {
+      LOG.info("validate challenge {} (attempt {})", challId, task.attempt);
+
+      if (LOG.isDebugEnabled()) {
         try {
           InetAddress inetAddr = InetAddress.getByName(host);
           LOG.debug("type={}, host={}, InetAddress={}", type, host, inetAddr);
@@ -124,129 +308,216 @@ public class ChallengeValidator implements Runnable {
         }
       }
 
-      switch (type) {
-        case AcmeConstants.HTTP_01: {
-          String host = identifier.getValue();
-          // host = "localhost:9081";
-          String url = "http://" + host + "/.well-known/acme-challenge/" + chall.getToken();
-          try {
-            org.xipki.util.http.XiHttpClient client = new XiHttpClient();
-            HttpRespContent authzResp = client.httpGet(url);
-            receivedAuthorization = new String(authzResp.getContent(), StandardCharsets.UTF_8);
-          } catch (IOException ex) {
-            String message = "error while validating challenge " + challId + " for identifier " + identifier;
-            LogUtil.error(LOG, ex, message);
-          }
-          break;
-        }
-        case AcmeConstants.TLS_ALPN_01: {
-          Certificate[] certs = null;
-          try {
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, new TrustManager[]{trustAll}, null);
-            SSLSocketFactory factory = sslContext.getSocketFactory();
-            try (SSLSocket socket = (SSLSocket) factory.createSocket(identifier.getValue(), 443)) {
-              SSLParameters params = socket.getSSLParameters();
-              params.setApplicationProtocols(new String[]{"acme-tls/1.0"});
-              params.setProtocols(new String[]{"TLSv1.2", "TLSv1.3"});
-              socket.setSSLParameters(params);
-
-              SSLSession session = socket.getSession();
-              certs = session.getPeerCertificates();
-            }
-          } catch (NoSuchAlgorithmException | IOException | KeyManagementException ex) {
-            String message = "error while validating challenge " + challId + " for identifier " + identifier;
-            LogUtil.error(LOG, ex, message);
-          }
-
-          boolean match = certs != null && certs.length > 0 && certs[0] instanceof X509Certificate;
-          // check the SAN
-          if (match) {
-            X509Certificate cert = (X509Certificate) certs[0];
-            byte[] extnValue = cert.getExtensionValue(Extension.subjectAlternativeName.getId());
-            byte[] octets = ASN1OctetString.getInstance(extnValue).getOctets();
-            GeneralNames generalNames = GeneralNames.getInstance(octets);
-            GeneralName[] names = generalNames.getNames();
-            match = (names != null && names.length == 1 && names[0].getTagNo() == GeneralName.dNSName);
-            if (match) {
-              String sanValue = ASN1IA5String.getInstance(names[0].getName()).getString();
-              match = identifier.getValue().equals(sanValue);
-            }
-          }
-
-          if (match) {
-            X509Certificate cert = (X509Certificate) certs[0];
-            // check the critical extension id_pe_acmeIdentifier
-            match = cert.getCriticalExtensionOIDs().contains(AcmeConstants.id_pe_acmeIdentifier);
-            if (match) {
-              byte[] extnValue = cert.getExtensionValue(AcmeConstants.id_pe_acmeIdentifier);
-              byte[] octets = ASN1OctetString.getInstance(extnValue).getOctets();
-              byte[] value = ASN1OctetString.getInstance(octets).getOctets();
-              receivedAuthorization = Base64Url.encodeToStringNoPadding(value);
-            }
-          }
-          break;
-        }
-        case AcmeConstants.DNS_01: {
-          String host = identifier.getValue();
-          if (host.startsWith("*.")) {
-            host = host.substring(2);
-          }
-
-          LOG.debug("dns-01: host='{}'", identifier.getValue());
-          Record[] records = null;
-          try {
-            records = new Lookup(host, Type.TXT).run();
-          } catch (TextParseException ex) {
-            String message = "error while validating challenge " + challId + " for identifier " + identifier;
-            LogUtil.error(LOG, ex, message);
-          }
-
-          String expectedName = "_acme-challenge." + host + ".";
-          if (records != null) {
-            for (Record record : records) {
-              TXTRecord txt = (TXTRecord) record;
-              String name = txt.getName().toString();
-              if (!expectedName.equals(name)) {
-                continue;
-              }
-
-              receivedAuthorization = txt.getStrings().get(0);
-            }
-          }
-          break;
-        }
-        default: {
-          throw new RuntimeException("should not reach here, unknown challenge type '" + type + "'");
-        }
+      receivedAuthorization = getReceivedAuthorization(challId, chall, identifier);
+    } finally {
+      releaseHost(host);
+      durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    boolean authorizationValid = false;
+    if (receivedAuthorization != null) {
+      authorizationValid = chall.getExpectedAuthorization().equals(receivedAuthorization.trim());
+    }
+
+    if (authorizationValid) {
+      LOG.info("validated challenge {}/{} for identifier {}/{} in {} ms, attempt {}, {} ms since submission",
+          chall.getType(), challId, identifier.getType(), identifier.getValue(), durationMs, task.attempt,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.created));
+      chall.setValidated(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+      chall.setStatus(ChallengeStatus.valid);
+    } else if (task.attempt < maxAttempts) {
+      long delay = retryDelayMs << (task.attempt - 1);
+      LOG.info("validation attempt {} failed for challenge {}/{} for identifier {}/{} in {} ms, retry in {} ms",
+          task.attempt, chall.getType(), challId, identifier.getType(), identifier.getValue(), durationMs, delay);
+      task.attempt++;
+      schedule(task, delay);
+      return false;
+    } else {
+      LOG.warn("validation failed for challenge {}/{} for identifier {}/{}: received='{}', expected='{}'",
+          chall.getType(), challId, identifier.getType(), identifier.getValue(),
+          receivedAuthorization, chall.getExpectedAuthorization());
+      chall.setStatus(ChallengeStatus.invalid);
+    }
+
+    AcmeOrder order = chall.getAuthz() == null ? null : chall.getAuthz().getOrder();
+    if (order != null) {
+      // propagate the challenge status to the authorization and order.
+      order.updateStatus();
+    }
+    return true;
+  } // method validate0
+
+  private String getReceivedAuthorization(ChallId challId, AcmeChallenge chall, AcmeIdentifier identifier) {
+    String type = chall.getType();
+    switch (type) {
+      case AcmeConstants.HTTP_01:
+        return getHttp01Authorization(challId, chall, identifier);
+      case AcmeConstants.TLS_ALPN_01:
+        return getTlsAlpn01Authorization(challId, identifier);
+      case AcmeConstants.DNS_01:
+        return getDns01Authorization(challId, identifier);
+      default:
+        throw new RuntimeException("should not reach here, unknown challenge type '" + type + "'");
+    }
+  }
+
+  private String getHttp01Authorization(ChallId challId, AcmeChallenge chall, AcmeIdentifier identifier) {
+    String host = identifier.getValue();
+    // host = "localhost:9081";
+    String url = "http://" + host + "/.well-known/acme-challenge/" + chall.getToken();
+    HttpURLConnection conn = null;
+    try {
+      conn = (HttpURLConnection) new URL(url).openConnection();
+      conn.setConnectTimeout(connectTimeoutMs);
+      conn.setReadTimeout(readTimeoutMs);
+      conn.setUseCaches(false);
+
+      int status = conn.getResponseCode();
+      if (status != HttpURLConnection.HTTP_OK) {
+        LOG.info("received HTTP status {} from {}", status, url);
+        return null;
       }
 
-      boolean authorizationValid = false;
-      if (receivedAuthorization != null) {
-        authorizationValid = chall.getExpectedAuthorization().equals(receivedAuthorization.trim());
+      try (InputStream is = conn.getInputStream()) {
+        return new String(is.readNBytes(MAX_HTTP01_RESPONSE_SIZE), StandardCharsets.UTF_8);
+      }
+    } catch (IOException ex) {
+      String message = "error while validating challenge " + challId + " for identifier " + identifier;
+      LogUtil.warn(LOG, ex, message);
+      return null;
+    } finally {
+      if (conn != null) {
+        conn.disconnect();
       }
+    }
+  } // method getHttp01Authorization
 
-      if (authorizationValid) {
-        LOG.info("validated challenge {}/{} for identifier {}/{}", chall.getType(), challId,
-            identifier.getType(), identifier.getValue());
-        chall.setValidated(Instant.now().truncatedTo(ChronoUnit.SECONDS));
-        chall.setStatus(ChallengeStatus.valid);
-      } else {
-        LOG.warn("validation failed for challenge {}/{} for identifier {}/{}: received='{}', expected='{}'",
-            chall.getType(), challId, identifier.getType(), identifier.getValue(),
-            receivedAuthorization, chall.getExpectedAuthorization());
-        chall.setStatus(ChallengeStatus.invalid);
+  private String getTlsAlpn01Authorization(ChallId challId, AcmeIdentifier identifier) {
+    String host = identifier.getValue();
+    Certificate[] certs = null;
+    try {
+      SSLContext sslContext = SSLContext.getInstance("TLS");
+      sslContext.init(null, new TrustManager[]{trustAll}, null);
+      SSLSocketFactory factory = sslContext.getSocketFactory();
+
+      Socket plainSocket = new Socket();
+      try {
+        plainSocket.connect(new InetSocketAddress(host, 443), connectTimeoutMs);
+        plainSocket.setSoTimeout(readTimeoutMs);
+      } catch (IOException ex) {
+        plainSocket.close();
+        throw ex;
       }
 
-      if (chall.getAuthz() != null && chall.getAuthz().getOrder() != null) {
-        repo.flushOrderIfNotCached(chall.getAuthz().getOrder());
+      try (SSLSocket socket = (SSLSocket) factory.createSocket(plainSocket, host, 443, true)) {
+        SSLParameters params = socket.getSSLParameters();
+        params.setApplicationProtocols(new String[]{"acme-tls/1.0"});
+        params.setProtocols(new String[]{"TLSv1.2", "TLSv1.3"});
+        socket.setSSLParameters(params);
+
+        SSLSession session = socket.getSession();
+        certs = session.getPeerCertificates();
+      }
+    } catch (NoSuchAlgorithmException | IOException | KeyManagementException ex) {
+      String message = "error while validating challenge " + challId + " for identifier " + identifier;
+      LogUtil.warn(LOG, ex, message);
+    }
+
+    boolean match = certs != null && certs.length > 0 && certs[0] instanceof X509Certificate;
+    // check the SAN
+    if (match) {
+      X509Certificate cert = (X509Certificate) certs[0];
+      byte[] extnValue = cert.getExtensionValue(Extension.subjectAlternativeName.getId());
+      match = extnValue != null;
+      if (match) {
+        byte[] octets = ASN1OctetString.getInstance(extnValue).getOctets();
+        GeneralNames generalNames = GeneralNames.getInstance(octets);
+        GeneralName[] names = generalNames.getNames();
+        match = (names != null && names.length == 1 && names[0].getTagNo() == GeneralName.dNSName);
+        if (match) {
+          String sanValue = ASN1IA5String.getInstance(names[0].getName()).getString();
+          match = host.equals(sanValue);
+        }
+      }
+    }
+
+    if (match) {
+      X509Certificate cert = (X509Certificate) certs[0];
+      // check the critical extension id_pe_acmeIdentifier
+      Set<String> criticalOids = cert.getCriticalExtensionOIDs();
+      match = criticalOids != null && criticalOids.contains(AcmeConstants.id_pe_acmeIdentifier);
+      if (match) {
+        byte[] extnValue = cert.getExtensionValue(AcmeConstants.id_pe_acmeIdentifier);
+        byte[] octets = ASN1OctetString.getInstance(extnValue).getOctets();
+        byte[] value = ASN1OctetString.getInstance(octets).getOctets();
+        return Base64Url.encodeToStringNoPadding(value);
+      }
+    }
+
+    return null;
+  } // method getTlsAlpn01Authorization
+
+  private String getDns01Authorization(ChallId challId, AcmeIdentifier identifier) {
+    String host = identifier.getValue();
+    if (host.startsWith("*.")) {
+      host = host.substring(2);
+    }
+
+    String expectedName = "_acme-challenge." + host + ".";
+    LOG.debug("dns-01: host='{}'", identifier.getValue());
+    Record[] records = null;
+    try {
+      Lookup lookup = new Lookup(expectedName, Type.TXT);
+      lookup.setResolver(dnsResolver);
+      // do not use the cached (negative) answers, the record may have been added meanwhile.
+      lookup.setCache(null);
+      records = lookup.run();
+    } catch (TextParseException ex) {
+      String message = "error while validating challenge " + challId + " for identifier " + identifier;
+      LogUtil.warn(LOG, ex, message);
+    }
+
+    String receivedAuthorization = null;
+    if (records != null) {
+      for (Record record : records) {
+        TXTRecord txt = (TXTRecord) record;
+        String name = txt.getName().toString();
+        if (!expectedName.equals(name)) {
+          continue;
+        }
+
+        receivedAuthorization = txt.getStrings().get(0);
       }
     }
+    return receivedAuthorization;
+  } // method getDns01Authorization
+
+  private boolean acquireHost(String host) {
+    synchronized (activePerHost) {
+      int active = activePerHost.getOrDefault(host, 0);
+      if (active >= maxPerHost) {
+        return false;
+      }
+      activePerHost.put(host, active + 1);
+      return true;
+    }
+  }
 
+  private void releaseHost(String host) {
+    synchronized (activePerHost) {
+      int active = activePerHost.getOrDefault(host, 1) - 1;
+      if (active <= 0) {
+        activePerHost.remove(host);
+      } else {
+        activePerHost.put(host, active);
+      }
+    }
   }
 
   public void close() {
     stopMe = true;
+    scheduler.shutdownNow();
+    workers.shutdownNow();
   }
 
 }
@@ -0,0 +1,174 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway.acme;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.xipki.ca.gateway.acme.msg.JoseMessage;
+import org.xipki.ca.gateway.acme.type.AcmeError;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.xipki.ca.gateway.acme.AcmeConstants.SC_BAD_REQUEST;
+
+/**
+ * Streaming parser of the flattened JWS and its protected header. Only the fields used by the
+ * ACME server are read, all others are skipped without building intermediate maps.
+ *
+ * @author Lijun Liao (xipki)
+ */
+class JoseParser {
+
+  /**
+   * Protected header of a JWS.
+   */
+  static class Header {
+
+    private String alg;
+
+    private String kid;
+
+    private String nonce;
+
+    private String url;
+
+    private Map<String, String> jwk;
+
+    String getAlg() {
+      return alg;
+    }
+
+    String getKid() {
+      return kid;
+    }
+
+    String getNonce() {
+      return nonce;
+    }
+
+    String getUrl() {
+      return url;
+    }
+
+    Map<String, String> getJwk() {
+      return jwk;
+    }
+
+  } // class Header
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private JoseParser() {
+  }
+
+  static JoseMessage parseMessage(byte[] json) throws AcmeProtocolException {
+    JoseMessage message = new JoseMessage();
+    try (JsonParser parser = FACTORY.createParser(json)) {
+      startObject(parser);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        parser.nextToken();
+        switch (name) {
+          case "protected":
+            message.setProtected(text(parser, name));
+            break;
+          case "payload":
+            message.setPayload(text(parser, name));
+            break;
+          case "signature":
+            message.setSignature(text(parser, name));
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+    } catch (IOException ex) {
+      throw malformed("invalid JWS: " + ex.getMessage());
+    }
+
+    if (message.getProtected() == null || message.getPayload() == null || message.getSignature() == null) {
+      throw malformed("protected, payload and signature must be present");
+    }
+    return message;
+  } // method parseMessage
+
+  static Header parseHeader(byte[] json) throws AcmeProtocolException {
+    Header header = new Header();
+    try (JsonParser parser = FACTORY.createParser(json)) {
+      startObject(parser);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        JsonToken token = parser.nextToken();
+        switch (name) {
+          case "alg":
+            header.alg = text(parser, name);
+            break;
+          case "kid":
+            header.kid = text(parser, name);
+            break;
+          case "nonce":
+            header.nonce = text(parser, name);
+            break;
+          case "url":
+            header.url = text(parser, name);
+            break;
+          case "jwk":
+            if (token != JsonToken.VALUE_NULL) {
+              header.jwk = parseJwk(parser);
+            }
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+    } catch (IOException ex) {
+      throw malformed("invalid JWS protected header: " + ex.getMessage());
+    }
+
+    if (header.alg == null) {
+      throw new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.badSignatureAlgorithm, "alg is not present");
+    }
+    return header;
+  } // method parseHeader
+
+  private static Map<String, String> parseJwk(JsonParser parser) throws IOException, AcmeProtocolException {
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      throw malformed("jwk is not a JSON object");
+    }
+
+    // as before, all members must be strings (or null).
+    Map<String, String> jwk = new HashMap<>(8);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      parser.nextToken();
+      jwk.put(name, text(parser, "jwk member " + name));
+    }
+    return jwk;
+  }
+
+  private static void startObject(JsonParser parser) throws IOException, AcmeProtocolException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw malformed("not a JSON object");
+    }
+  }
+
+  private static String text(JsonParser parser, String name) throws IOException, AcmeProtocolException {
+    JsonToken token = parser.currentToken();
+    if (token == JsonToken.VALUE_STRING) {
+      return parser.getText();
+    } else if (token == JsonToken.VALUE_NULL) {
+      return null;
+    } else {
+      throw malformed(name + " is not a string");
+    }
+  }
+
+  private static AcmeProtocolException malformed(String detail) {
+    return new AcmeProtocolException(SC_BAD_REQUEST, AcmeError.malformed, detail);
+  }
+
+}
@@ -0,0 +1,98 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway.acme;
+
+import org.xipki.security.SignAlgo;
+import org.xipki.util.LruCache;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of {@link Signature} objects initialized for verification with the public key of an
+ * account, keyed by the kid (account URL). A verifier is reset after each verification and can be
+ * reused for the next request of the same account without creating and initializing it again.
+ *
+ * @author Lijun Liao (xipki)
+ */
+class JwsVerifierCache {
+
+  private static class Verifiers {
+
+    private final PublicKey publicKey;
+
+    private final Map<SignAlgo, Queue<Signature>> pools = new ConcurrentHashMap<>();
+
+    Verifiers(PublicKey publicKey) {
+      this.publicKey = publicKey;
+    }
+
+  } // class Verifiers
+
+  // pooled verifiers per account and signature algorithm.
+  private static final int MAX_POOL_SIZE = 4;
+
+  private final LruCache<String, Verifiers> cache;
+
+  JwsVerifierCache(int maxSize) {
+    this.cache = new LruCache<>(maxSize);
+  }
+
+  /**
+   * Returns a verifier initialized with the given public key.
+   *
+   * @param kid the kid, {@code null} if the key is specified by a jwk.
+   * @param publicKey the public key.
+   * @param signAlgo the signature algorithm.
+   * @return the verifier, must be given back via {@link #release(String, PublicKey, SignAlgo, Signature)}.
+   * @throws NoSuchAlgorithmException if the signature algorithm is not supported.
+   * @throws InvalidKeyException if the public key is invalid.
+   */
+  Signature borrow(String kid, PublicKey publicKey, SignAlgo signAlgo)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    if (kid != null) {
+      Verifiers verifiers = cache.get(kid);
+      // the public key object changes only if the key of the account has been changed.
+      if (verifiers != null && verifiers.publicKey == publicKey) {
+        Queue<Signature> pool = verifiers.pools.get(signAlgo);
+        Signature sig = pool == null ? null : pool.poll();
+        if (sig != null) {
+          return sig;
+        }
+      }
+    }
+
+    Signature sig = signAlgo.newSignature();
+    sig.initVerify(publicKey);
+    return sig;
+  } // method borrow
+
+  /**
+   * Gives back the verifier after a completed verification.
+   */
+  void release(String kid, PublicKey publicKey, SignAlgo signAlgo, Signature sig) {
+    if (kid == null) {
+      return;
+    }
+
+    Verifiers verifiers = cache.get(kid);
+    if (verifiers == null || verifiers.publicKey != publicKey) {
+      verifiers = new Verifiers(publicKey);
+      cache.put(kid, verifiers);
+    }
+
+    Queue<Signature> pool = verifiers.pools.computeIfAbsent(signAlgo, k -> new ConcurrentLinkedQueue<>());
+    // size() is O(n), but n is at most MAX_POOL_SIZE.
+    if (pool.size() < MAX_POOL_SIZE) {
+      pool.offer(sig);
+    }
+  } // method release
+
+}
@@ -5,132 +5,248 @@ package org.xipki.ca.gateway.acme;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
 import org.xipki.util.Base64Url;
-import org.xipki.util.LogUtil;
-
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.time.Clock;
-import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Arrays;
 
 /**
+ * Stateless nonces: a nonce consists of its issuing time, random bytes and an HMAC over both, so
+ * it can be verified by every instance sharing the HMAC key without storing the issued nonces.
+ * The used nonces are recorded in one Bloom filter per time window to detect replays, hence the
+ * memory is constant. A false positive of the filter results only in a badNonce error, and the
+ * client retries with a fresh nonce.
+ * <p>
+ * The used nonces are not shared between instances. To prevent the replay of nonces used before
+ * a restart, nonces issued before the start of this instance are rejected.
  *
  * @author Lijun Liao (xipki)
  */
 public class NonceManager {
 
+  /**
+   * Bloom filter of the nonces used in one time window.
+   */
+  private static class UsedNonces {
+
+    private final long[] bits;
+
+    private final long numBits;
+
+    private long window = -1;
+
+    UsedNonces(int capacity) {
+      // 10 bits per entry with 7 hashes: ~1% false positives at the capacity.
+      int numWords = (int) ((capacity * 10L + 63) / 64);
+      this.bits = new long[numWords];
+      this.numBits = numWords * 64L;
+    }
+
+    /**
+     * Records the nonce as used.
+     *
+     * @return true if the nonce has not been used before, false otherwise.
+     */
+    synchronized boolean add(long window, long h1, long h2) {
+      if (window != this.window) {
+        if (window < this.window) {
+          // the filter has been reused for a newer window.
+          return false;
+        }
+
+        Arrays.fill(bits, 0L);
+        this.window = window;
+      }
+
+      boolean added = false;
+      long h = h1;
+      for (int i = 0; i < NUM_HASHES; i++) {
+        long index = Math.floorMod(h, numBits);
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        if ((bits[word] & mask) == 0) {
+          bits[word] |= mask;
+          added = true;
+        }
+        h += h2;
+      }
+      return added;
+    }
+
+  } // class UsedNonces
+
   private static final Logger LOG = LoggerFactory.getLogger(NonceManager.class);
 
-  private final AtomicLong lastCleanUp = new AtomicLong();
+  private static final String HMAC_ALGO = "HmacSHA256";
+
+  private static final int NUM_HASHES = 7;
+
+  private static final int TIME_LEN = 4;
+
+  private static final int MAC_LEN = 16;
 
-  private final ConcurrentHashMap<String, Long> noncePool = new ConcurrentHashMap<>();
+  // windows of the last, current and next (nonces issued by instances whose clocks are ahead) period.
+  private static final int NUM_WINDOWS = 3;
+
+  // maximal clock difference between the instances.
+  private static final long MAX_CLOCK_SKEW_SECONDS = 10;
 
   private final int nonceNumBytes;
 
+  private final int nonceLen;
+
+  private final SecretKeySpec key;
+
+  private final ThreadLocal<Mac> macs;
+
+  private final UsedNonces[] usedNonces = new UsedNonces[NUM_WINDOWS];
+
+  private final long startSeconds;
+
+  private final Clock clock;
+
   // default to 10 minutes
-  private long validityMs = 10L * 60 * 1000;
+  private long validitySeconds = 10L * 60;
 
   private final SecureRandom rnd = new SecureRandom();
 
-  public NonceManager(int nonceNumBytes) {
-    this.nonceNumBytes = nonceNumBytes;
-    // read saved nonces (which are still valid) from file.
-    File nonceFile = new File(".nonces");
-    if (!nonceFile.exists()) {
-      return;
-    }
+  /**
+   * Constructor.
+   *
+   * @param nonceNumBytes number of random bytes in the nonce.
+   * @param key the HMAC key shared by the instances, {@code null} to generate a random one. In the
+   *            latter case the nonces are accepted only by this instance.
+   * @param filterCapacity expected maximal number of used nonces per validity period.
+   */
+  public NonceManager(int nonceNumBytes, byte[] key, int filterCapacity) {
+    this(nonceNumBytes, key, filterCapacity, Clock.systemUTC());
+  }
 
-    long now = Clock.systemUTC().millis();
-    long maxNotAftter = now + 10000; // + 10 seconds
+  NonceManager(int nonceNumBytes, byte[] key, int filterCapacity, Clock clock) {
+    this.clock = Args.notNull(clock, "clock");
+    this.nonceNumBytes = Args.min(nonceNumBytes, "nonceNumBytes", 8);
+    this.nonceLen = TIME_LEN + nonceNumBytes + MAC_LEN;
+    Args.min(filterCapacity, "filterCapacity", 1);
 
-    int sum = 0;
-    try (BufferedReader reader = new BufferedReader(new FileReader(nonceFile))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        StringTokenizer tokenizer = new StringTokenizer(line, ":");
-        String nonce = tokenizer.nextToken();
-        long notAfter = Math.min(maxNotAftter, Long.parseLong(tokenizer.nextToken(), 16));
+    if (key == null) {
+      key = new byte[32];
+      rnd.nextBytes(key);
+      LOG.info("use random nonce key, nonces are accepted only by this instance");
+    }
 
-        if (notAfter > now) {
-          sum++;
-          noncePool.put(nonce, notAfter);
-        }
-      }
-    } catch (IOException ex) {
-      LogUtil.error(LOG, ex, "error reading nonces");
+    this.key = new SecretKeySpec(key, HMAC_ALGO);
+    // check whether the algorithm is supported.
+    newMac(this.key);
+    this.macs = ThreadLocal.withInitial(() -> newMac(this.key));
+
+    for (int i = 0; i < NUM_WINDOWS; i++) {
+      usedNonces[i] = new UsedNonces(filterCapacity);
     }
 
-    LOG.info("restored {} nonces", sum);
+    this.startSeconds = clock.millis() / 1000;
+  }
+
+  private static Mac newMac(SecretKeySpec key) {
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGO);
+      mac.init(key);
+      return mac;
+    } catch (GeneralSecurityException ex) {
+      throw new IllegalStateException("could not initialize " + HMAC_ALGO, ex);
+    }
   }
 
   public long getValidityMs() {
-    return validityMs;
+    return validitySeconds * 1000;
   }
 
   public void setValidityMs(long validityMs) {
-    this.validityMs = validityMs;
+    if (validityMs < 1000) {
+      throw new IllegalArgumentException("validityMs must be not less than 1000");
+    }
+    this.validitySeconds = validityMs / 1000;
   }
 
   public String newNonce() {
-    if (noncePool.size() > 9999) { // more than 9999 nonces in the memory.
-      long now = Clock.systemUTC().millis();
-      if (now > lastCleanUp.get() + 10000) { // 10 seconds
-        for (Map.Entry<String, Long> entry : noncePool.entrySet()) {
-          if (entry.getValue() < now) {
-            noncePool.remove(entry.getKey());
-          }
-        }
-      }
-      lastCleanUp.set(now);
-    }
-
-    byte[] nonce = new byte[nonceNumBytes];
-    rnd.nextBytes(nonce);
-    String nonceText = Base64Url.encodeToStringNoPadding(nonce);
-    noncePool.put(nonceText, Clock.systemUTC().millis() + validityMs);
-    return nonceText;
+    byte[] nonce = new byte[nonceLen];
+    long now = clock.millis() / 1000;
+    // unsigned 32-bit seconds, valid until year 2106.
+    nonce[0] = (byte) (now >>> 24);
+    nonce[1] = (byte) (now >>> 16);
+    nonce[2] = (byte) (now >>> 8);
+    nonce[3] = (byte) now;
+
+    byte[] random = new byte[nonceNumBytes];
+    rnd.nextBytes(random);
+    System.arraycopy(random, 0, nonce, TIME_LEN, nonceNumBytes);
+
+    byte[] mac = mac(nonce);
+    System.arraycopy(mac, 0, nonce, TIME_LEN + nonceNumBytes, MAC_LEN);
+    return Base64Url.encodeToStringNoPadding(nonce);
   }
 
-  public boolean removeNonce(String nonce) {
-    return null != noncePool.remove(nonce);
-  }
+  /**
+   * Verifies the nonce and marks it as used.
+   *
+   * @param nonce the nonce.
+   * @return true if the nonce is valid and not used before, false otherwise.
+   */
+  public boolean useNonce(String nonce) {
+    // base64url without padding
+    if (nonce == null || nonce.length() != (nonceLen * 8 + 5) / 6) {
+      return false;
+    }
 
-  public void close() {
-    if (noncePool.isEmpty()) {
-      return;
+    byte[] bytes;
+    try {
+      bytes = Base64Url.decodeFast(nonce);
+    } catch (RuntimeException ex) {
+      return false;
     }
 
-    long now = Clock.systemUTC().millis();
+    if (bytes.length != nonceLen) {
+      return false;
+    }
 
-    // save the unused nonces
-    int sum = 0;
-    try (OutputStream os = Files.newOutputStream(Paths.get(".nonces"),
-        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-      for (Map.Entry<String, Long> entry : noncePool.entrySet()) {
-        if (entry.getValue() < now) {
-          continue;
-        }
+    long issued = ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16)
+        | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+    long now = clock.millis() / 1000;
+    if (issued < startSeconds || issued > now + MAX_CLOCK_SKEW_SECONDS || now - issued > validitySeconds) {
+      return false;
+    }
 
-        sum++;
-        String line = entry.getKey() + ":" + Long.toString(entry.getValue(), 16) + "\n";
-        os.write(line.getBytes(StandardCharsets.UTF_8));
-      }
-    } catch (IOException ex) {
-      LogUtil.error(LOG, ex, "error saving nonces");
+    byte[] mac = mac(bytes);
+    int macOffset = TIME_LEN + nonceNumBytes;
+    if (!MessageDigest.isEqual(Arrays.copyOf(mac, MAC_LEN),
+        Arrays.copyOfRange(bytes, macOffset, macOffset + MAC_LEN))) {
+      return false;
     }
 
-    LOG.info("saved {} nonces", sum);
+    // the MAC is pseudo-random, use it as hash of the nonce.
+    long h1 = toLong(mac, 0);
+    long h2 = toLong(mac, 8) | 1;
+    long window = issued / validitySeconds;
+    return usedNonces[(int) (window % NUM_WINDOWS)].add(window, h1, h2);
+  } // method useNonce
+
+  private byte[] mac(byte[] nonce) {
+    Mac mac = macs.get();
+    mac.update(nonce, 0, TIME_LEN + nonceNumBytes);
+    return mac.doFinal();
+  }
+
+  private static long toLong(byte[] bytes, int offset) {
+    long v = 0;
+    for (int i = 0; i < 8; i++) {
+      v = (v << 8) | (bytes[offset + i] & 0xFFL);
+    }
+    return v;
   }
 
 }
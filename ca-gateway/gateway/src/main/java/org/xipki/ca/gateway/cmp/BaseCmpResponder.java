@@ -57,10 +57,9 @@ import org.bouncycastle.cert.cmp.GeneralPKIMessage;
 import org.bouncycastle.cert.cmp.ProtectedPKIMessage;
 import org.bouncycastle.cert.crmf.CRMFException;
 import org.bouncycastle.cert.crmf.CertificateRequestMessage;
-import org.bouncycastle.cert.crmf.PKMACBuilder;
-import org.bouncycastle.cert.crmf.jcajce.JcePKMACValuesCalculator;
 import org.bouncycastle.jcajce.spec.PBKDF2KeySpec;
 import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.MacCalculator;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -103,6 +102,7 @@ import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -116,6 +116,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -159,6 +160,8 @@ public abstract class BaseCmpResponder {
 
   private static final int PVNO_CMP2000 = 2;
 
+  private static final int MAX_VERIFIER_PROVIDERS = 1000;
+
   private static final AlgorithmIdentifier prf_hmacWithSHA256 = SignAlgo.HMAC_SHA256.getAlgorithmIdentifier();
 
   private static final ConcurrentBag<Cipher> aesGcm_ciphers;
@@ -187,6 +190,15 @@ public abstract class BaseCmpResponder {
 
   private final KeyGenerator aesKeyGen;
 
+  /**
+   * Verifier providers of the requestor certificates, keyed by the certificate fingerprint and the
+   * protection algorithm. The cache belongs to this responder, and is discarded with it if the
+   * requestors are reconfigured.
+   */
+  private final ConcurrentHashMap<String, ContentVerifierProvider> verifierProviders = new ConcurrentHashMap<>();
+
+  private final PbmMacKeyCache pbmMacKeyCache;
+
   static {
     String oid = NISTObjectIdentifiers.id_aes128_GCM.getId();
     aesGcm_ciphers = new ConcurrentBag<>();
@@ -253,6 +265,7 @@ public abstract class BaseCmpResponder {
     this.popControl = popControl;
     this.signers = signers;
     this.aesKeyGen = KeyGenerator.getInstance("AES");
+    this.pbmMacKeyCache = new PbmMacKeyCache(cmpControl.getPbmKeyCacheTtl());
   }
 
   protected abstract PKIBody cmpEnrollCert(
@@ -572,7 +585,7 @@ public abstract class BaseCmpResponder {
     PKIMessage resp = processPkiMessage0(caName, pkiMessage, requestor, tid, message, parameters, event);
 
     if (isProtected) {
-      resp = addProtection(signer, resp, event, requestor);
+      resp = addProtection(signer, resp, event, requestor, reqHeader);
     }
     // otherwise protected by TLS connection
 
@@ -594,7 +607,7 @@ public abstract class BaseCmpResponder {
   } // method randomBytes
 
   private ProtectionVerificationResult verifyProtection(String tid, GeneralPKIMessage pkiMessage)
-      throws CMPException, InvalidKeyException {
+      throws CMPException, GeneralSecurityException {
     ProtectedPKIMessage protectedMsg = new ProtectedPKIMessage(pkiMessage);
 
     PKIHeader header = protectedMsg.getHeader();
@@ -633,7 +646,6 @@ public abstract class BaseCmpResponder {
         return new ProtectionVerificationResult(null, ProtectionResult.MAC_ALGO_FORBIDDEN);
       }
 
-      PKMACBuilder pkMacBuilder = new PKMACBuilder(new JcePKMACValuesCalculator());
       Requestor.SimplePasswordRequestor requestor = getPasswordRequestor(senderKID);
 
       if (requestor == null) {
@@ -642,7 +654,8 @@ public abstract class BaseCmpResponder {
         return new ProtectionVerificationResult(null, ProtectionResult.SENDER_NOT_AUTHORIZED);
       }
 
-      boolean macValid = protectedMsg.verify(pkMacBuilder, requestor.getPassword());
+      boolean macValid = pbmMacKeyCache.verify(pkiMessage.toASN1Structure(), senderKID,
+          requestor.getPassword(), parameter, owfAlg, macAlg);
       return new ProtectionVerificationResult(requestor,
           macValid ? ProtectionResult.MAC_VALID : ProtectionResult.MAC_INVALID);
     } else {
@@ -659,7 +672,7 @@ public abstract class BaseCmpResponder {
         return new ProtectionVerificationResult(null, ProtectionResult.SENDER_NOT_AUTHORIZED);
       }
 
-      ContentVerifierProvider verifierProvider = securityFactory.getContentVerifierProvider(requestor.getCert());
+      ContentVerifierProvider verifierProvider = getContentVerifierProvider(requestor.getCert(), protectionAlg);
       if (verifierProvider == null) {
         LOG.warn("tid={}: not authorized requestor '{}'", tid, header.getSender());
         return new ProtectionVerificationResult(requestor, ProtectionResult.SENDER_NOT_AUTHORIZED);
@@ -671,21 +684,54 @@ public abstract class BaseCmpResponder {
     }
   } // method verifyProtection
 
+  private ContentVerifierProvider getContentVerifierProvider(X509Cert cert, AlgorithmIdentifier protectionAlg)
+      throws InvalidKeyException {
+    String key = HashAlgo.SHA256.base64Hash(cert.getEncoded()) + "/" + protectionAlg.getAlgorithm().getId();
+    ContentVerifierProvider provider = verifierProviders.get(key);
+    if (provider != null) {
+      return provider;
+    }
+
+    provider = securityFactory.getContentVerifierProvider(cert);
+    if (provider != null) {
+      if (verifierProviders.size() >= MAX_VERIFIER_PROVIDERS) {
+        // the requestors are a small fixed set, only reached with many changed certificates.
+        verifierProviders.clear();
+      }
+      verifierProviders.put(key, provider);
+    }
+    return provider;
+  } // method getContentVerifierProvider
+
   private PKIMessage addProtection(
-      ConcurrentContentSigner signer, PKIMessage pkiMessage, AuditEvent event, Requestor requestor) {
+      ConcurrentContentSigner signer, PKIMessage pkiMessage, AuditEvent event, Requestor requestor,
+      PKIHeader reqHeader) {
     GeneralName respSender = pkiMessage.getHeader().getSender();
     try {
       if (requestor instanceof Requestor.CertRequestor) {
         return CmpUtil.addProtection(pkiMessage, signer, respSender, cmpControl.isSendResponderCert());
       } else {
         Requestor.SimplePasswordRequestor requestor0 = (Requestor.SimplePasswordRequestor) requestor;
-        PBMParameter parameter = new PBMParameter(
-            randomSalt(),
-            cmpControl.getResponsePbmOwf().getAlgorithmIdentifier(),
-            cmpControl.getResponsePbmIterationCount(),
-            cmpControl.getResponsePbmMac().getAlgorithmIdentifier());
-        return CmpUtil.addProtection(pkiMessage, requestor0.getPassword(),
-                  parameter, respSender, requestor0.getKeyId());
+        AlgorithmIdentifier reqProtectionAlg = reqHeader.getProtectionAlg();
+
+        MacCalculator macCalculator;
+        if (cmpControl.isResponsePbmReuseRequestParams() && reqProtectionAlg != null
+            && CMPObjectIdentifiers.passwordBasedMac.equals(reqProtectionAlg.getAlgorithm())) {
+          // the request parameters have been verified, the MAC key is already cached.
+          PBMParameter parameter = PBMParameter.getInstance(reqProtectionAlg.getParameters());
+          byte[] reqSenderKID = reqHeader.getSenderKID() == null ? null : reqHeader.getSenderKID().getOctets();
+          macCalculator = pbmMacKeyCache.newMacCalculator(reqSenderKID, requestor0.getPassword(), parameter,
+              HashAlgo.getInstance(parameter.getOwf()), SignAlgo.getInstance(parameter.getMac()), true);
+        } else {
+          HashAlgo owfAlg = cmpControl.getResponsePbmOwf();
+          SignAlgo macAlg = cmpControl.getResponsePbmMac();
+          PBMParameter parameter = new PBMParameter(randomSalt(), owfAlg.getAlgorithmIdentifier(),
+              cmpControl.getResponsePbmIterationCount(), macAlg.getAlgorithmIdentifier());
+          // the random salt is never used again, do not cache the key.
+          macCalculator = pbmMacKeyCache.newMacCalculator(
+              requestor0.getKeyId(), requestor0.getPassword(), parameter, owfAlg, macAlg, false);
+        }
+        return CmpUtil.addProtection(pkiMessage, macCalculator, respSender, requestor0.getKeyId());
       }
     } catch (Exception ex) {
       LogUtil.error(LOG, ex, "could not add protection to the PKI message");
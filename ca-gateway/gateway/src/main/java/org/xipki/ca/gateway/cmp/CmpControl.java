@@ -32,6 +32,8 @@ public class CmpControl {
 
   private static final int DFLT_PBM_ITERATIONCOUNT = 10240;
 
+  private static final Duration DFLT_PBM_KEY_CACHE_TTL = Duration.ofSeconds(300); // 300 seconds
+
   private final boolean confirmCert;
 
   private final boolean sendCaCert;
@@ -56,8 +58,14 @@ public class CmpControl {
 
   private final int responsePbmIterationCount;
 
+  private final boolean responsePbmReuseRequestParams;
+
+  private final Duration pbmKeyCacheTtl;
+
   private final CollectionAlgorithmValidator sigAlgoValidator;
 
+  private final int popThreads;
+
   public CmpControl(CmpControlConf conf) throws InvalidConfException {
     this.confirmCert = getBoolean(conf.getConfirmCert(), false);
     this.sendCaCert = getBoolean(conf.getSendCaCert(), false);
@@ -68,6 +76,10 @@ public class CmpControl {
                               : Duration.ofSeconds(Math.abs(conf.getMessageTimeBias()));
     this.confirmWaitTime = conf.getConfirmWaitTime() == null ? DFLT_CONFIRM_WAIT_TIME
                               : Duration.ofSeconds(Math.abs(conf.getConfirmWaitTime()));
+    this.responsePbmReuseRequestParams = getBoolean(conf.getResponsePbmReuseRequestParams(), false);
+    this.pbmKeyCacheTtl = conf.getPbmKeyCacheTtl() == null ? DFLT_PBM_KEY_CACHE_TTL
+                              : Duration.ofSeconds(Math.abs(conf.getPbmKeyCacheTtl()));
+    this.popThreads = conf.getPopThreads() == null ? 0 : conf.getPopThreads();
 
     // protection algorithms
     List<String> requestSigAlgos = conf.getRequestSigAlgos();
@@ -192,6 +204,18 @@ public class CmpControl {
     return responsePbmIterationCount;
   }
 
+  public boolean isResponsePbmReuseRequestParams() {
+    return responsePbmReuseRequestParams;
+  }
+
+  public Duration getPbmKeyCacheTtl() {
+    return pbmKeyCacheTtl;
+  }
+
+  public int getPopThreads() {
+    return popThreads;
+  }
+
   public boolean isRequestPbmOwfPermitted(HashAlgo pbmOwf) {
     return requestPbmOwfs.contains(pbmOwf);
   }
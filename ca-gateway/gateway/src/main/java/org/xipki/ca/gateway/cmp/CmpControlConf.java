@@ -40,6 +40,25 @@ public class CmpControlConf {
 
   private Integer responsePbmIterationCount;
 
+  /**
+   * Whether the PBM parameters (salt, OWF, iterationCount and MAC) of a PBM protected request
+   * are used to protect the response, so that the cached MAC key of the request is reused.
+   * Defaults to false, a fresh salt and the responsePbm* parameters are used.
+   */
+  private Boolean responsePbmReuseRequestParams;
+
+  /**
+   * Lifetime in seconds of the cached password based MAC keys. Defaults to 300, 0 disables
+   * the cache.
+   */
+  private Integer pbmKeyCacheTtl;
+
+  /**
+   * Number of threads to verify the POP of the entries of a request with more than one
+   * CertReqMsg. Defaults to 0, values less than 2 disable the parallel processing.
+   */
+  private Integer popThreads;
+
   public Boolean getConfirmCert() {
     return confirmCert;
   }
@@ -144,4 +163,28 @@ public class CmpControlConf {
     this.responsePbmIterationCount = responsePbmIterationCount;
   }
 
+  public Integer getPopThreads() {
+    return popThreads;
+  }
+
+  public void setPopThreads(Integer popThreads) {
+    this.popThreads = popThreads;
+  }
+
+  public Boolean getResponsePbmReuseRequestParams() {
+    return responsePbmReuseRequestParams;
+  }
+
+  public void setResponsePbmReuseRequestParams(Boolean responsePbmReuseRequestParams) {
+    this.responsePbmReuseRequestParams = responsePbmReuseRequestParams;
+  }
+
+  public Integer getPbmKeyCacheTtl() {
+    return pbmKeyCacheTtl;
+  }
+
+  public void setPbmKeyCacheTtl(Integer pbmKeyCacheTtl) {
+    this.pbmKeyCacheTtl = pbmKeyCacheTtl;
+  }
+
 }
@@ -94,6 +94,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.bouncycastle.asn1.cmp.PKIFailureInfo.badCertId;
 import static org.bouncycastle.asn1.cmp.PKIFailureInfo.badCertTemplate;
@@ -116,13 +125,64 @@ import static org.bouncycastle.asn1.cmp.PKIStatus.rejection;
 
 public class CmpResponder extends BaseCmpResponder {
 
+  /**
+   * Result of the pre-processing of a CertReqMsg: either the template or the failure response.
+   */
+  private static class EntryResult {
+
+    private final EnrollCertsRequest.Entry template;
+
+    private final CertResponse failure;
+
+    EntryResult(EnrollCertsRequest.Entry template, CertResponse failure) {
+      this.template = template;
+      this.failure = failure;
+    }
+
+    static EntryResult failure(ASN1Integer certReqId, int pkiFailureInfo, String pkiStatusText) {
+      return new EntryResult(null,
+          new CertResponse(certReqId, generateRejectionStatus(pkiFailureInfo, pkiStatusText)));
+    }
+
+  } // class EntryResult
+
   private static final Logger LOG = LoggerFactory.getLogger(BaseCmpResponder.class);
 
+  /**
+   * Workers to verify the POP of the entries of a request with more than one CertReqMsg,
+   * {@code null} if the entries are processed sequentially.
+   */
+  private final ThreadPoolExecutor popWorkers;
+
   public CmpResponder(
       CmpControl cmpControl, SdkClient sdk, SecurityFactory securityFactory,
       CaNameSigners signers, RequestorAuthenticator authenticator, PopControl popControl)
       throws NoSuchAlgorithmException {
     super(cmpControl, sdk, securityFactory, signers, authenticator, popControl);
+
+    int threads = cmpControl.getPopThreads();
+    if (threads < 2) {
+      this.popWorkers = null;
+    } else {
+      AtomicInteger workerIndex = new AtomicInteger(1);
+      this.popWorkers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<>(4 * threads), r -> {
+            Thread t = new Thread(r, "cmpPop-" + workerIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+          }, new ThreadPoolExecutor.AbortPolicy());
+      this.popWorkers.allowCoreThreadTimeOut(true);
+    }
+    LOG.info("CMP POP verification: threads={}", threads);
+  }
+
+  /**
+   * Shuts down the workers to verify the POP.
+   */
+  public void close() {
+    if (popWorkers != null) {
+      popWorkers.shutdown();
+    }
   }
 
   private CertRepMessage processCertReqMessages(
@@ -176,150 +236,219 @@ public class CmpResponder extends BaseCmpResponder {
     Map<Integer, CertResponse> failureResps = new HashMap<>();
 
     // pre-process requests
+    EntryResult[] results = preprocessCertReqMsgs(caName, reenroll, requestor, certReqMsgs, certprofileNames);
     for (int i = 0; i < n; i++) {
-      CertReqMsg reqMsg = certReqMsgs[i];
-      ASN1Integer certReqId = reqMsg.getCertReq().getCertReqId();
-      CertificateRequestMessage req = new CertificateRequestMessage(reqMsg);
-      CertTemplate certTemp = req.getCertTemplate();
-
-      SubjectPublicKeyInfo publicKey = certTemp.getPublicKey();
-      X500Name subject = certTemp.getSubject();
+      if (results[i].template != null) {
+        certTemplateDatas.add(results[i].template);
+      } else {
+        failureResps.put(i, results[i].failure);
+      }
+    }
 
-      OptionalValidity validity = certTemp.getValidity();
+    if (certTemplateDatas.size() != n) {
+      // at least one certRequest cannot be used to enroll certificate
+      event.setStatus(AuditStatus.FAILED);
 
-      Instant notBefore = null;
-      Instant notAfter = null;
-      if (validity != null) {
-        if (validity.getNotBefore() != null) {
-          notBefore = Instant.ofEpochMilli(validity.getNotBefore().getDate().getTime());
-        }
-        if (validity.getNotAfter() != null) {
-          notAfter = Instant.ofEpochMilli(validity.getNotAfter().getDate().getTime());
+      CertResponse[] certResps = new CertResponse[n];
+      for (int i = 0; i < n; i++) {
+        certResps[i] = failureResps.get(i);
+        if (certResps[i] == null) {
+          certResps[i] = new CertResponse(certReqMsgs[i].getCertReq().getCertReqId(),
+              generateRejectionStatus(badRequest, "failure in the parallel entries in the same request"));
         }
       }
+      return new CertRepMessage(null, certResps);
+    }
 
-      OldCertInfo oldCertInfo = null;
+    boolean cross = request.getBody().getType() == PKIBody.TYPE_CROSS_CERT_REQ;
+    return enrollCerts(caName, groupEnroll, reenroll, cross, requestor, tid,
+        certTemplateDatas.toArray(new EnrollCertsRequest.Entry[0]), event);
+  } // method processCertReqMessages
 
-      if (reenroll) {
-        // The regCtl-oldCertID will be ignored by calling
-        // req.getControl(CMPObjectIdentifiers.regCtrl_oldCertID);
-        Controls controls = reqMsg.getCertReq().getControls();
-        AttributeTypeAndValue oldCertIdAtv = null;
-        if (controls != null) {
-          ASN1Sequence seq;
-          try {
-            seq = ASN1Sequence.getInstance(controls.getEncoded());
-          } catch (IOException ex) {
-            addErrCertResp(failureResps, i, certReqId, systemFailure, "could not parse the controls");
-            continue;
-          }
+  /**
+   * Verifies the POP and checks the template of each entry. For more than one entry, the entries
+   * are processed by the POP workers, the results are returned in the order of the entries.
+   */
+  private EntryResult[] preprocessCertReqMsgs(
+      String caName, boolean reenroll, Requestor requestor, CertReqMsg[] certReqMsgs, String[] certprofileNames)
+      throws InsufficientPermissionException, IOException {
+    final int n = certReqMsgs.length;
+    EntryResult[] results = new EntryResult[n];
+    if (n == 1 || popWorkers == null) {
+      for (int i = 0; i < n; i++) {
+        results[i] = preprocessCertReqMsg(caName, reenroll, requestor, certReqMsgs[i], certprofileNames[i]);
+      }
+      return results;
+    }
 
-          final int seqSize = seq.size();
-          for (int j = 0; j < seqSize; j++) {
-            AttributeTypeAndValue atv = AttributeTypeAndValue.getInstance(seq.getObjectAt(j));
-            if (atv.getType().equals(CMPObjectIdentifiers.regCtrl_oldCertID)) {
-              oldCertIdAtv = atv;
-              break;
-            }
-          }
-        }
+    List<Future<EntryResult>> futures = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      CertReqMsg reqMsg = certReqMsgs[i];
+      String certprofileName = certprofileNames[i];
+      Callable<EntryResult> task = () -> preprocessCertReqMsg(caName, reenroll, requestor, reqMsg, certprofileName);
 
-        if (oldCertIdAtv == null) {
-          addErrCertResp(failureResps, i, certReqId, badCertTemplate, "no getCtrl oldCertID is specified");
-          continue;
-        }
+      Future<EntryResult> future;
+      try {
+        future = popWorkers.submit(task);
+      } catch (RejectedExecutionException ex) {
+        // all workers are busy and the queue is full, or the workers have been shut down:
+        // the entry is processed by the current thread.
+        FutureTask<EntryResult> inlineTask = new FutureTask<>(task);
+        inlineTask.run();
+        future = inlineTask;
+      }
+      futures.add(future);
+    }
 
-        CertId oldCertId = CertId.getInstance(oldCertIdAtv.getValue());
-        if (GeneralName.directoryName != oldCertId.getIssuer().getTagNo()) {
-          addErrCertResp(failureResps, i, certReqId, badCertId, "invalid regCtrl oldCertID");
-          continue;
+    InsufficientPermissionException permissionEx = null;
+    for (int i = 0; i < n; i++) {
+      try {
+        results[i] = futures.get(i).get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        for (Future<EntryResult> future : futures) {
+          future.cancel(true);
         }
+        throw new IOException("interrupted while processing the requests", ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof InsufficientPermissionException) {
+          // as in the sequential processing, the request is rejected as a whole.
+          if (permissionEx == null) {
+            permissionEx = (InsufficientPermissionException) cause;
+          }
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        } else {
+          throw new IOException(cause);
+        }
+      }
+    }
 
-        boolean reuseOldPublicKey = publicKey == null;
-        oldCertInfo = new OldCertInfo(reuseOldPublicKey,
-            new OldCertInfo.ByIssuerAndSerial(
-                new X500NameType(oldCertId.getIssuer().getName().toASN1Primitive().getEncoded()),
-                oldCertId.getSerialNumber().getValue()));
-      } // end if(reenroll)
-
-      String certprofileName = certprofileNames[i];
-      if (StringUtil.isNotBlank(certprofileName) && !requestor.isCertprofilePermitted(caName, certprofileName)) {
-        addErrCertResp(failureResps, i, certReqId, notAuthorized,
-            "certprofile " + certprofileName + " is not allowed");
-        continue;
+    if (permissionEx != null) {
+      throw permissionEx;
+    }
+    return results;
+  } // method preprocessCertReqMsgs
+
+  private EntryResult preprocessCertReqMsg(
+      String caName, boolean reenroll, Requestor requestor, CertReqMsg reqMsg, String certprofileName)
+      throws InsufficientPermissionException, IOException {
+    ASN1Integer certReqId = reqMsg.getCertReq().getCertReqId();
+    CertificateRequestMessage req = new CertificateRequestMessage(reqMsg);
+    CertTemplate certTemp = req.getCertTemplate();
+
+    SubjectPublicKeyInfo publicKey = certTemp.getPublicKey();
+    X500Name subject = certTemp.getSubject();
+
+    OptionalValidity validity = certTemp.getValidity();
+
+    Instant notBefore = null;
+    Instant notAfter = null;
+    if (validity != null) {
+      if (validity.getNotBefore() != null) {
+        notBefore = Instant.ofEpochMilli(validity.getNotBefore().getDate().getTime());
+      }
+      if (validity.getNotAfter() != null) {
+        notAfter = Instant.ofEpochMilli(validity.getNotAfter().getDate().getTime());
       }
+    }
+
+    OldCertInfo oldCertInfo = null;
 
-      if (publicKey != null) {
-        if (!req.hasProofOfPossession()) {
-          addErrCertResp(failureResps, i, certReqId, badPOP, "no POP");
-          continue;
+    if (reenroll) {
+      // The regCtl-oldCertID will be ignored by calling
+      // req.getControl(CMPObjectIdentifiers.regCtrl_oldCertID);
+      Controls controls = reqMsg.getCertReq().getControls();
+      AttributeTypeAndValue oldCertIdAtv = null;
+      if (controls != null) {
+        ASN1Sequence seq;
+        try {
+          seq = ASN1Sequence.getInstance(controls.getEncoded());
+        } catch (IOException ex) {
+          return EntryResult.failure(certReqId, systemFailure, "could not parse the controls");
         }
 
-        if (!verifyPop(req, publicKey)) {
-          LOG.warn("could not validate POP for request {}", certReqId.getValue());
-          addErrCertResp(failureResps, i, certReqId, badPOP, "invalid POP");
-          continue;
+        final int seqSize = seq.size();
+        for (int j = 0; j < seqSize; j++) {
+          AttributeTypeAndValue atv = AttributeTypeAndValue.getInstance(seq.getObjectAt(j));
+          if (atv.getType().equals(CMPObjectIdentifiers.regCtrl_oldCertID)) {
+            oldCertIdAtv = atv;
+            break;
+          }
         }
-      } else {
-        checkPermission(requestor, Requestor.Permission.GEN_KEYPAIR);
       }
 
-      EnrollCertsRequest.Entry template = new EnrollCertsRequest.Entry();
-      template.setNotBefore(notBefore);
-      template.setNotAfter(notAfter);
-      template.setCertReqId(certReqId.getValue());
-      if (StringUtil.isNotBlank(certprofileName)) {
-        template.setCertprofile(certprofileName);
+      if (oldCertIdAtv == null) {
+        return EntryResult.failure(certReqId, badCertTemplate, "no getCtrl oldCertID is specified");
       }
 
-      try {
-        template.extensions(certTemp.getExtensions());
-      } catch (IOException e) {
-        LogUtil.warn(LOG, e, "could not encode extensions " + certReqId.getValue());
-        addErrCertResp(failureResps, i, certReqId, badCertTemplate, "invalid extensions");
-        continue;
+      CertId oldCertId = CertId.getInstance(oldCertIdAtv.getValue());
+      if (GeneralName.directoryName != oldCertId.getIssuer().getTagNo()) {
+        return EntryResult.failure(certReqId, badCertId, "invalid regCtrl oldCertID");
       }
 
-      if (publicKey != null) {
-        try {
-          template.setSubjectPublicKey(publicKey.getEncoded());
-        } catch (IOException e) {
-          LogUtil.warn(LOG, e, "could not encode extensions " + certReqId.getValue());
-          addErrCertResp(failureResps, i, certReqId, badCertTemplate, "invalid public key");
-          continue;
-        }
-      }
+      boolean reuseOldPublicKey = publicKey == null;
+      oldCertInfo = new OldCertInfo(reuseOldPublicKey,
+          new OldCertInfo.ByIssuerAndSerial(
+              new X500NameType(oldCertId.getIssuer().getName().toASN1Primitive().getEncoded()),
+              oldCertId.getSerialNumber().getValue()));
+    } // end if(reenroll)
 
-      if (subject != null) {
-        template.setSubject(new X500NameType(subject));
+    if (StringUtil.isNotBlank(certprofileName) && !requestor.isCertprofilePermitted(caName, certprofileName)) {
+      return EntryResult.failure(certReqId, notAuthorized,
+          "certprofile " + certprofileName + " is not allowed");
+    }
+
+    if (publicKey != null) {
+      if (!req.hasProofOfPossession()) {
+        return EntryResult.failure(certReqId, badPOP, "no POP");
       }
 
-      if (oldCertInfo != null) {
-        template.setOldCertInfo(oldCertInfo);
+      if (!verifyPop(req, publicKey)) {
+        LOG.warn("could not validate POP for request {}", certReqId.getValue());
+        return EntryResult.failure(certReqId, badPOP, "invalid POP");
       }
+    } else {
+      checkPermission(requestor, Requestor.Permission.GEN_KEYPAIR);
+    }
 
-      certTemplateDatas.add(template);
-    } // end for
+    EnrollCertsRequest.Entry template = new EnrollCertsRequest.Entry();
+    template.setNotBefore(notBefore);
+    template.setNotAfter(notAfter);
+    template.setCertReqId(certReqId.getValue());
+    if (StringUtil.isNotBlank(certprofileName)) {
+      template.setCertprofile(certprofileName);
+    }
 
-    if (certTemplateDatas.size() != n) {
-      // at least one certRequest cannot be used to enroll certificate
-      event.setStatus(AuditStatus.FAILED);
+    try {
+      template.extensions(certTemp.getExtensions());
+    } catch (IOException e) {
+      LogUtil.warn(LOG, e, "could not encode extensions " + certReqId.getValue());
+      return EntryResult.failure(certReqId, badCertTemplate, "invalid extensions");
+    }
 
-      CertResponse[] certResps = new CertResponse[n];
-      for (int i = 0; i < n; i++) {
-        certResps[i] = failureResps.get(i);
-        if (certResps[i] == null) {
-          certResps[i] = new CertResponse(certReqMsgs[i].getCertReq().getCertReqId(),
-              generateRejectionStatus(badRequest, "failure in the parallel entries in the same request"));
-        }
+    if (publicKey != null) {
+      try {
+        template.setSubjectPublicKey(publicKey.getEncoded());
+      } catch (IOException e) {
+        LogUtil.warn(LOG, e, "could not encode extensions " + certReqId.getValue());
+        return EntryResult.failure(certReqId, badCertTemplate, "invalid public key");
       }
-      return new CertRepMessage(null, certResps);
     }
 
-    boolean cross = request.getBody().getType() == PKIBody.TYPE_CROSS_CERT_REQ;
-    return enrollCerts(caName, groupEnroll, reenroll, cross, requestor, tid,
-        certTemplateDatas.toArray(new EnrollCertsRequest.Entry[0]), event);
-  } // method processCertReqMessages
+    if (subject != null) {
+      template.setSubject(new X500NameType(subject));
+    }
+
+    if (oldCertInfo != null) {
+      template.setOldCertInfo(oldCertInfo);
+    }
+
+    return new EntryResult(template, null);
+  } // method preprocessCertReqMsg
 
   /**
    * handle the PKI body with the choice {@code p10cr}<br/>
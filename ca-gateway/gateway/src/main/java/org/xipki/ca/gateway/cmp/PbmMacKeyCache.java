@@ -0,0 +1,247 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway.cmp;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.cmp.CMPObjectIdentifiers;
+import org.bouncycastle.asn1.cmp.PBMParameter;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.cmp.ProtectedPart;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.operator.GenericKey;
+import org.bouncycastle.operator.MacCalculator;
+import org.bouncycastle.operator.RuntimeOperatorException;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Strings;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.SignAlgo;
+import org.xipki.util.Base64;
+import org.xipki.util.Hex;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the password based MAC keys (RFC 4210, section 5.1.3.1). Deriving a key requires
+ * iterationCount invocations of the OWF, and the clients usually reuse the PBM parameters for
+ * several messages. The keys are cached per senderKID, salt, iterationCount, OWF and MAC for
+ * a short lifetime.
+ * <p>
+ * The first OWF round over password and salt is stored with the key and compared on each
+ * access, so a changed password never hits a key derived from the old one.
+ *
+ * @author Lijun Liao (xipki)
+ * @since 6.5.4
+ */
+class PbmMacKeyCache {
+
+  private static class Entry {
+
+    private final byte[] firstRound;
+
+    private final byte[] key;
+
+    private final long expiresAt;
+
+    Entry(byte[] firstRound, byte[] key, long expiresAt) {
+      this.firstRound = firstRound;
+      this.key = key;
+      this.expiresAt = expiresAt;
+    }
+
+  } // class Entry
+
+  private static class PbmMacCalculator implements MacCalculator {
+
+    private final AlgorithmIdentifier algId;
+
+    private final byte[] key;
+
+    private final Mac mac;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    PbmMacCalculator(PBMParameter parameter, SignAlgo macAlg, byte[] key) throws GeneralSecurityException {
+      this.algId = new AlgorithmIdentifier(CMPObjectIdentifiers.passwordBasedMac, parameter);
+      this.key = key;
+      this.mac = Mac.getInstance(macAlg.getJceName());
+      this.mac.init(new SecretKeySpec(key, macAlg.getJceName()));
+    }
+
+    @Override
+    public AlgorithmIdentifier getAlgorithmIdentifier() {
+      return algId;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return out;
+    }
+
+    @Override
+    public byte[] getMac() {
+      return mac.doFinal(out.toByteArray());
+    }
+
+    @Override
+    public GenericKey getKey() {
+      return new GenericKey(algId, key);
+    }
+
+  } // class PbmMacCalculator
+
+  // the password requestors are a small set, only reached with many clients rotating the salt.
+  private static final int MAX_SIZE = 10000;
+
+  private final long ttlMs;
+
+  private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param ttl lifetime of the cached keys, zero to disable the cache.
+   */
+  PbmMacKeyCache(Duration ttl) {
+    this.ttlMs = ttl.toMillis();
+  }
+
+  /**
+   * Verifies the password based MAC of the message. The key is cached only if the MAC is valid, so
+   * that messages with arbitrary PBM parameters cannot evict the keys of the legitimate requestors.
+   *
+   * @param pkiMessage the message.
+   * @param senderKID the senderKID.
+   * @param password the password of the requestor.
+   * @param parameter the PBM parameter of the message.
+   * @param owfAlg the OWF of the PBM parameter.
+   * @param macAlg the MAC of the PBM parameter.
+   * @return whether the MAC is valid.
+   * @throws GeneralSecurityException if the MAC could not be computed.
+   */
+  boolean verify(
+      PKIMessage pkiMessage, byte[] senderKID, char[] password,
+      PBMParameter parameter, HashAlgo owfAlg, SignAlgo macAlg) throws GeneralSecurityException {
+    String cacheKey = cacheKey(senderKID, parameter, owfAlg, macAlg);
+    byte[] firstRound = firstRound(password, parameter, owfAlg);
+
+    byte[] key = getCachedKey(cacheKey, firstRound);
+    boolean cached = key != null;
+    if (!cached) {
+      key = deriveKey(firstRound, parameter, owfAlg);
+    }
+
+    MacCalculator calculator = new PbmMacCalculator(parameter, macAlg, key);
+    try {
+      calculator.getOutputStream().write(
+          new ProtectedPart(pkiMessage.getHeader(), pkiMessage.getBody()).getEncoded(ASN1Encoding.DER));
+    } catch (IOException ex) {
+      throw new RuntimeOperatorException("could not encode the protected part", ex);
+    }
+
+    boolean valid = pkiMessage.getProtection() != null
+        && MessageDigest.isEqual(calculator.getMac(), pkiMessage.getProtection().getBytes());
+
+    if (valid && !cached && cacheKey != null) {
+      if (cache.size() >= MAX_SIZE) {
+        cache.clear();
+      }
+      cache.put(cacheKey, new Entry(firstRound, key, Clock.systemUTC().millis() + ttlMs));
+    }
+    return valid;
+  } // method verify
+
+  /**
+   * Returns a MAC calculator with the password based MAC key. The key is looked up in the cache,
+   * but never added to it, see {@link #verify(PKIMessage, byte[], char[], PBMParameter, HashAlgo, SignAlgo)}.
+   *
+   * @param senderKID the senderKID.
+   * @param password the password of the requestor.
+   * @param parameter the PBM parameter.
+   * @param owfAlg the OWF of the PBM parameter.
+   * @param macAlg the MAC of the PBM parameter.
+   * @param useCache whether to look up the key in the cache. False for parameters used only once.
+   * @return the MAC calculator.
+   * @throws GeneralSecurityException if the MAC algorithm is not supported.
+   */
+  MacCalculator newMacCalculator(
+      byte[] senderKID, char[] password, PBMParameter parameter, HashAlgo owfAlg, SignAlgo macAlg,
+      boolean useCache) throws GeneralSecurityException {
+    byte[] firstRound = firstRound(password, parameter, owfAlg);
+    byte[] key = useCache ? getCachedKey(cacheKey(senderKID, parameter, owfAlg, macAlg), firstRound) : null;
+    if (key == null) {
+      key = deriveKey(firstRound, parameter, owfAlg);
+    }
+    return new PbmMacCalculator(parameter, macAlg, key);
+  } // method newMacCalculator
+
+  /**
+   * Returns the number of cached keys, used in the tests.
+   *
+   * @return number of cached keys.
+   */
+  int size() {
+    return cache.size();
+  }
+
+  private String cacheKey(byte[] senderKID, PBMParameter parameter, HashAlgo owfAlg, SignAlgo macAlg) {
+    if (ttlMs <= 0) {
+      return null;
+    }
+
+    return (senderKID == null ? "" : Hex.encode(senderKID))
+        + "/" + Base64.encodeToString(parameter.getSalt().getOctets())
+        + "/" + parameter.getIterationCount().getValue()
+        + "/" + owfAlg.getOid().getId() + "/" + macAlg.getAlgorithmIdentifier().getAlgorithm().getId();
+  }
+
+  private byte[] getCachedKey(String cacheKey, byte[] firstRound) {
+    if (cacheKey == null) {
+      return null;
+    }
+
+    Entry entry = cache.get(cacheKey);
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.expiresAt > Clock.systemUTC().millis() && MessageDigest.isEqual(entry.firstRound, firstRound)) {
+      return entry.key;
+    }
+    cache.remove(cacheKey, entry);
+    return null;
+  }
+
+  private static byte[] firstRound(char[] password, PBMParameter parameter, HashAlgo owfAlg) {
+    byte[] salt = parameter.getSalt().getOctets();
+    return owf(owfAlg.createDigest(), Arrays.concatenate(Strings.toUTF8ByteArray(password), salt));
+  }
+
+  private static byte[] deriveKey(byte[] firstRound, PBMParameter parameter, HashAlgo owfAlg) {
+    int iterationCount = parameter.getIterationCount().getValue().intValueExact();
+    Digest digest = owfAlg.createDigest();
+    byte[] key = firstRound;
+    for (int i = 1; i < iterationCount; i++) {
+      key = owf(digest, key);
+    }
+    return key;
+  }
+
+  private static byte[] owf(Digest digest, byte[] input) {
+    digest.update(input, 0, input.length);
+    byte[] output = new byte[digest.getDigestSize()];
+    digest.doFinal(output, 0);
+    return output;
+  }
+
+}
@@ -85,6 +85,12 @@ public class GatewayConf extends ValidableConf {
 
   private SdkClientConf sdkClient;
 
+  /**
+   * Seconds for which the CA metadata (CA certificates, CRL and profile information) is cached.
+   * Not cached if not set or not positive.
+   */
+  private Integer caMetadataCacheTtl;
+
   private Audits.AuditConf audit;
 
   private Securities.SecurityConf security;
@@ -128,6 +134,14 @@ public class GatewayConf extends ValidableConf {
     this.sdkClient = sdkClient;
   }
 
+  public Integer getCaMetadataCacheTtl() {
+    return caMetadataCacheTtl;
+  }
+
+  public void setCaMetadataCacheTtl(Integer caMetadataCacheTtl) {
+    this.caMetadataCacheTtl = caMetadataCacheTtl;
+  }
+
   public Audits.AuditConf getAudit() {
     return audit;
   }
@@ -20,6 +20,11 @@ public abstract class ProtocolConf extends ValidableConf {
 
   private SdkClientConf sdkClient;
 
+  /**
+   * Seconds for which a successful password verification is cached. Not cached if not set or not positive.
+   */
+  private Integer authenticationCacheTtl;
+
   public Boolean getLogReqResp() {
     return logReqResp;
   }
@@ -44,4 +49,12 @@ public abstract class ProtocolConf extends ValidableConf {
     this.sdkClient = sdkClient;
   }
 
+  public Integer getAuthenticationCacheTtl() {
+    return authenticationCacheTtl;
+  }
+
+  public void setAuthenticationCacheTtl(Integer authenticationCacheTtl) {
+    this.authenticationCacheTtl = authenticationCacheTtl;
+  }
+
 }
@@ -0,0 +1,117 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway.scep;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.http.HttpResponse;
+import org.xipki.util.http.HttpStatusCode;
+import org.xipki.util.http.XiHttpRequest;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoded body of a GetCACaps or GetCACert response, served with the validators ETag and
+ * Last-Modified. The body is built once and replaced only if its content changes.
+ *
+ * @author Lijun Liao (xipki)
+ * @since 6.5.4
+ */
+class ScepCachedResponse {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ScepCachedResponse.class);
+
+  private final String contentType;
+
+  private final byte[] body;
+
+  /**
+   * The certificates the body is built from, {@code null} for the GetCACaps response.
+   */
+  private final byte[][] sourceCerts;
+
+  private final String etag;
+
+  private final Instant lastModified;
+
+  private final Map<String, String> headers;
+
+  // time to check whether the source certificates have been changed.
+  private volatile long nextCheck;
+
+  ScepCachedResponse(String contentType, byte[] body, byte[][] sourceCerts, long nextCheck) {
+    this.contentType = contentType;
+    this.body = body;
+    this.sourceCerts = sourceCerts;
+    this.nextCheck = nextCheck;
+    this.etag = "\"" + HashAlgo.SHA1.hexHash(body) + "\"";
+    // HTTP dates have the precision of seconds.
+    this.lastModified = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+    Map<String, String> map = new HashMap<>(4);
+    map.put("ETag", etag);
+    map.put("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atZone(ZoneOffset.UTC)));
+    this.headers = map;
+  }
+
+  boolean isSource(byte[][] certs) {
+    return Arrays.deepEquals(sourceCerts, certs);
+  }
+
+  long getNextCheck() {
+    return nextCheck;
+  }
+
+  void setNextCheck(long nextCheck) {
+    this.nextCheck = nextCheck;
+  }
+
+  HttpResponse toHttpResponse(XiHttpRequest req) {
+    if (isNotModified(req)) {
+      return new HttpResponse(HttpStatusCode.SC_NOT_MODIFIED, null, headers, null);
+    }
+    return new HttpResponse(HttpStatusCode.SC_OK, contentType, headers, body);
+  }
+
+  private boolean isNotModified(XiHttpRequest req) {
+    // If-None-Match has precedence over If-Modified-Since, see RFC 9110 section 13.2.2
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        // weak comparison, see RFC 9110 section 13.1.2
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+
+        if (tag.equals("*") || tag.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    String ifModifiedSince = req.getHeader("If-Modified-Since");
+    if (ifModifiedSince != null) {
+      try {
+        Instant since = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        return !lastModified.isAfter(since);
+      } catch (DateTimeParseException ex) {
+        LOG.debug("ignore invalid If-Modified-Since header '{}'", ifModifiedSince);
+      }
+    }
+
+    return false;
+  } // method isNotModified
+
+}
@@ -14,6 +14,10 @@ public class ScepControl {
 
   private static final long DFLT_MAX_SIGNINGTIME_BIAS = 5L * 60; // 5 minutes
 
+  private static final long DFLT_RESPONSE_CACHE_TTL = 5L * 60; // 5 minutes
+
+  private static final long DFLT_CACERT_CHECK_INTERVAL = 5L * 60; // 5 minutes
+
   private boolean includeCaCert = true;
 
   private boolean includeCertChain = false;
@@ -24,6 +28,22 @@ public class ScepControl {
 
   private long maxSigningTimeBias = DFLT_MAX_SIGNINGTIME_BIAS;
 
+  /**
+   * Maximal number of cached responses to resent PKIOperation requests, 0 to disable the cache.
+   */
+  private int responseCacheSize = 1000;
+
+  /**
+   * Lifetime in seconds of the cached responses.
+   */
+  private long responseCacheTtl = DFLT_RESPONSE_CACHE_TTL;
+
+  /**
+   * Interval in seconds to check whether the CA certificate has been changed. Until then, the
+   * encoded GetCACert response is returned without retrieving the CA certificate.
+   */
+  private long caCertCheckInterval = DFLT_CACERT_CHECK_INTERVAL;
+
   public boolean isIncludeCaCert() {
     return includeCaCert;
   }
@@ -64,4 +84,28 @@ public class ScepControl {
     this.maxSigningTimeBias = maxSigningTimeBias;
   }
 
+  public int getResponseCacheSize() {
+    return responseCacheSize;
+  }
+
+  public void setResponseCacheSize(int responseCacheSize) {
+    this.responseCacheSize = responseCacheSize;
+  }
+
+  public long getResponseCacheTtl() {
+    return responseCacheTtl;
+  }
+
+  public void setResponseCacheTtl(long responseCacheTtl) {
+    this.responseCacheTtl = responseCacheTtl;
+  }
+
+  public long getCaCertCheckInterval() {
+    return caCertCheckInterval;
+  }
+
+  public void setCaCertCheckInterval(long caCertCheckInterval) {
+    this.caCertCheckInterval = caCertCheckInterval;
+  }
+
 }
@@ -74,8 +74,10 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.xipki.pki.ErrorCode.BAD_CERT_TEMPLATE;
 import static org.xipki.pki.ErrorCode.NOT_PERMITTED;
@@ -91,6 +93,8 @@ import static org.xipki.pki.ErrorCode.SYSTEM_FAILURE;
  */
 public class ScepResponder {
 
+  private static final String NAME_cached_response = "cached_response";
+
   private static final String NAME_decryption = "decryption";
 
   private static final String NAME_fail_info = "fail_info";
@@ -142,12 +146,24 @@ public class ScepResponder {
 
   private final CaCaps caCaps;
 
+  private final ScepCachedResponse caCapsResp;
+
+  /**
+   * GetCACert responses, keyed by the CA name.
+   */
+  private final ConcurrentHashMap<String, ScepCachedResponse> caCertResps = new ConcurrentHashMap<>();
+
   private final SecurityFactory securityFactory;
 
   private final RequestorAuthenticator authenticator;
 
   private final CaNameScepSigners signers;
 
+  /**
+   * Cache of the responses to resent requests, {@code null} if disabled.
+   */
+  private final ScepResponseCache responseCache;
+
   public ScepResponder(ScepControl control, SdkClient sdk, SecurityFactory securityFactory, CaNameScepSigners signers,
                        RequestorAuthenticator authenticator, PopControl popControl,
                        CaProfilesControl caProfiles) {
@@ -162,14 +178,18 @@ public class ScepResponder {
     caps.addCapabilities(CaCapability.SCEPStandard, CaCapability.AES, CaCapability.DES3, CaCapability.POSTPKIOperation,
         CaCapability.Renewal, CaCapability.SHA1, CaCapability.SHA256, CaCapability.SHA512);
     this.caCaps = caps;
+    this.caCapsResp = new ScepCachedResponse(ScepConstants.CT_TEXT_PLAIN, caps.getBytes(), null, Long.MAX_VALUE);
     this.signers = signers;
 
     this.caProfilesControl = Args.notNull(caProfiles, "caProfiles");
-  } // constructor
 
-  private CaCaps getCaCaps() {
-    return caCaps;
-  }
+    if (control.getResponseCacheSize() > 0 && control.getResponseCacheTtl() > 0) {
+      this.responseCache = new ScepResponseCache(control.getResponseCacheSize(),
+          Duration.ofSeconds(control.getResponseCacheTtl()));
+    } else {
+      this.responseCache = null;
+    }
+  } // constructor
 
   private Requestor.PasswordRequestor getRequestor(String user) {
     return authenticator.getPasswordRequestorByUser(user);
@@ -254,6 +274,21 @@ public class ScepResponder {
           return new HttpResponse(HttpStatusCode.SC_BAD_REQUEST);
         }
 
+        String cacheKey = null;
+        if (responseCache != null) {
+          String tid = ScepResponseCache.getTransactionId(reqMessage);
+          if (tid != null) {
+            cacheKey = ScepResponseCache.cacheKey(caName, certprofileName, tid, request);
+            byte[] cachedResp = responseCache.get(cacheKey);
+            if (cachedResp != null) {
+              LOG.info("tid={}: resent request, return the cached response", tid);
+              audit(event, CaAuditConstants.NAME_tid, tid);
+              audit(event, NAME_cached_response, "true");
+              return new HttpResponse(HttpStatusCode.SC_OK, CT_RESPONSE, null, cachedResp);
+            }
+          }
+        }
+
         ContentInfo ci;
         try {
           ci = servicePkiOperation(signer, caName, reqMessage, certprofileName, event);
@@ -310,14 +345,17 @@ public class ScepResponder {
 
         respBody = ci.getEncoded();
         contentType = CT_RESPONSE;
+
+        // only successful responses are cached, a failed request may succeed if resent later.
+        if (cacheKey != null && event.getStatus() != AuditStatus.FAILED) {
+          responseCache.put(cacheKey, respBody);
+        }
       } else if (Operation.GetCACaps.getCode().equalsIgnoreCase(operation)) {
         // CA-Ident is ignored
-        contentType = ScepConstants.CT_TEXT_PLAIN;
-        respBody = getCaCaps().getBytes();
+        return caCapsResp.toHttpResponse(metadataRetriever);
       } else if (Operation.GetCACert.getCode().equalsIgnoreCase(operation)) {
         // CA-Ident is ignored
-        contentType = ScepConstants.CT_X509_CA_RA_CERT;
-        respBody = getCaCertResp(caName);
+        return getCaCertResp(caName).toHttpResponse(metadataRetriever);
       } else if (Operation.GetNextCACert.getCode().equalsIgnoreCase(operation)) {
         auditMessage = "SCEP operation '" + operation + "' is not permitted";
         auditStatus = AuditStatus.FAILED;
@@ -363,7 +401,13 @@ public class ScepResponder {
     GatewayUtil.logAuditEvent(LOG, event);
   } // method audit
 
-  private byte[] getCaCertResp(String caName) throws OperationException, SdkErrorResponseException {
+  private ScepCachedResponse getCaCertResp(String caName) throws OperationException, SdkErrorResponseException {
+    ScepCachedResponse cached = caCertResps.get(caName);
+    long now = System.currentTimeMillis();
+    if (cached != null && cached.getNextCheck() > now) {
+      return cached;
+    }
+
     try {
       ScepSigner signer = Optional.ofNullable(signers.getSigner(caName)).orElseThrow(
           () -> new OperationException(PATH_NOT_FOUND, "found no signer for CA " + caName));
@@ -371,19 +415,35 @@ public class ScepResponder {
       byte[] cacert = Optional.ofNullable(sdk.cacert(caName)).orElseThrow(
           () -> new OperationException(PATH_NOT_FOUND, "unknown CA " + caName));
 
+      long nextCheck = now + 1000L * control.getCaCertCheckInterval();
+      byte[][] sourceCerts = {cacert, signer.getCert().getEncoded()};
+      if (cached != null && cached.isSource(sourceCerts)) {
+        // unchanged, keep the body and its validators.
+        cached.setNextCheck(nextCheck);
+        return cached;
+      }
+
       CMSSignedDataGenerator cmsSignedDataGen = new CMSSignedDataGenerator();
+      byte[] body;
       try {
         cmsSignedDataGen.addCertificate(new X509CertificateHolder(Certificate.getInstance(cacert)));
         cmsSignedDataGen.addCertificate(signer.getCert().toBcCert());
         CMSSignedData degenerateSignedData = cmsSignedDataGen.generate(new CMSAbsentContent());
-        return degenerateSignedData.getEncoded();
+        body = degenerateSignedData.getEncoded();
       } catch (IOException ex) {
         throw new CMSException("could not build CMS SignedDta");
       }
+
+      if (cached != null) {
+        LOG.info("CA or RA certificate of CA {} has been changed", caName);
+      }
+      cached = new ScepCachedResponse(ScepConstants.CT_X509_CA_RA_CERT, body, sourceCerts, nextCheck);
+      caCertResps.put(caName, cached);
+      return cached;
     } catch (CMSException ex) {
       throw new OperationException(SYSTEM_FAILURE, ex.getMessage());
     }
-  }
+  } // method getCaCertResp
 
   private ContentInfo servicePkiOperation(
       ScepSigner signer, String caName, CMSSignedData requestContent, String certprofileName, AuditEvent event)
@@ -0,0 +1,109 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway.scep;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1PrintableString;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.xipki.scep.util.ScepConstants;
+import org.xipki.scep.util.ScepUtil;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.Args;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the signed CertRep responses to successfully processed PKIOperation requests, keyed by
+ * the CA, certprofile, transactionId and the digest of the request. A client resending the same
+ * request (e.g. after a network failure) gets the stored response, without decrypting the request
+ * and calling the CA again.
+ * <p>
+ * Since the key contains the digest of the whole request, only the exact same request, whose
+ * signature has been verified before, hits the cache.
+ *
+ * @author Lijun Liao (xipki)
+ * @since 6.5.4
+ */
+class ScepResponseCache {
+
+  private static class Entry {
+
+    private final byte[] response;
+
+    private final long expiresAt;
+
+    Entry(byte[] response, long expiresAt) {
+      this.response = response;
+      this.expiresAt = expiresAt;
+    }
+
+  } // class Entry
+
+  private final int maxSize;
+
+  private final long ttlMs;
+
+  private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+  ScepResponseCache(int maxSize, Duration ttl) {
+    this.maxSize = Args.positive(maxSize, "maxSize");
+    this.ttlMs = ttl.toMillis();
+  }
+
+  /**
+   * Reads the transactionId from the signed attributes without decrypting the request.
+   *
+   * @param request the request.
+   * @return the transactionId, {@code null} if absent or invalid.
+   */
+  static String getTransactionId(CMSSignedData request) {
+    Collection<SignerInformation> signerInfos = request.getSignerInfos().getSigners();
+    if (signerInfos.size() != 1) {
+      return null;
+    }
+
+    AttributeTable signedAttrs = signerInfos.iterator().next().getSignedAttributes();
+    if (signedAttrs == null) {
+      return null;
+    }
+
+    ASN1Encodable value = ScepUtil.getFirstAttrValue(signedAttrs, ScepConstants.ID_TRANSACTION_ID);
+    return value instanceof ASN1PrintableString ? ((ASN1PrintableString) value).getString() : null;
+  }
+
+  static String cacheKey(String caName, String certprofileName, String tid, byte[] request) {
+    return caName + "/" + certprofileName + "/" + tid + "/" + HashAlgo.SHA256.base64Hash(request);
+  }
+
+  byte[] get(String cacheKey) {
+    Entry entry = cache.get(cacheKey);
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.expiresAt <= Clock.systemUTC().millis()) {
+      cache.remove(cacheKey, entry);
+      return null;
+    }
+    return entry.response;
+  }
+
+  void put(String cacheKey, byte[] response) {
+    long now = Clock.systemUTC().millis();
+    if (cache.size() >= maxSize) {
+      // remove the expired entries, and all if none has expired.
+      cache.values().removeIf(e -> e.expiresAt <= now);
+      if (cache.size() >= maxSize) {
+        cache.clear();
+      }
+    }
+    cache.put(cacheKey, new Entry(response, now + ttlMs));
+  }
+
+}
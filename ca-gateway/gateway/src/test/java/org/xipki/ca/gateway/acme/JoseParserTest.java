@@ -0,0 +1,202 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway.acme;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.ca.gateway.acme.msg.JoseMessage;
+import org.xipki.ca.gateway.acme.type.AcmeError;
+import org.xipki.util.JSON;
+import org.xipki.util.StringUtil;
+
+import java.util.Map;
+
+/**
+ * JoseParser test. Valid messages must be parsed as by {@link JSON#parseObject(byte[], Class)}.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public class JoseParserTest {
+
+  private static final String MESSAGE =
+      "{\"protected\":\"cHJvdGVjdGVk\",\"payload\":\"\",\"signature\":\"c2lnbmF0dXJl\"}";
+
+  private static final String JWK = "{\"kty\":\"EC\",\"crv\":\"P-256\",\"x\":\"eA\",\"y\":\"eQ\"}";
+
+  private static final String HEADER =
+      "{\"alg\":\"ES256\",\"nonce\":\"my-nonce\",\"url\":\"https://example.com/acme/new-account\",\"jwk\":"
+      + JWK + "}";
+
+  @Test
+  public void testParseMessage() throws Exception {
+    JoseMessage message = JoseParser.parseMessage(bytes(MESSAGE));
+    Assert.assertEquals("protected", "cHJvdGVjdGVk", message.getProtected());
+    Assert.assertEquals("payload", "", message.getPayload());
+    Assert.assertEquals("signature", "c2lnbmF0dXJl", message.getSignature());
+    assertSameAsJson(MESSAGE);
+  }
+
+  @Test
+  public void testNonStringMessageField() {
+    for (String name : new String[]{"protected", "payload", "signature"}) {
+      for (String value : new String[]{"1", "true", "{}", "[\"a\"]"}) {
+        String json = MESSAGE.replace("\"" + name + "\":\"", "\"" + name + "\":" + value + ",\"x\":\"");
+        assertMessageError(json, AcmeError.malformed);
+      }
+    }
+  }
+
+  @Test
+  public void testMissingMessageField() {
+    assertMessageError("{\"protected\":\"cHJvdGVjdGVk\",\"payload\":\"\"}", AcmeError.malformed);
+    assertMessageError("{\"protected\":\"cHJvdGVjdGVk\",\"payload\":null,\"signature\":\"c2lnbmF0dXJl\"}",
+        AcmeError.malformed);
+  }
+
+  @Test
+  public void testInvalidMessage() {
+    for (String json : new String[]{"", "[]", "\"abc\"", "null", "{", "{\"protected\":\"cHJvdGVjdGVk\"",
+        "{\"protected\" \"cHJvdGVjdGVk\"}"}) {
+      assertMessageError(json, AcmeError.malformed);
+    }
+  }
+
+  @Test
+  public void testUnknownAndTrailingMessageFields() {
+    assertSameAsJson("{\"header\":{\"kid\":[1,{\"a\":null}]},\"protected\":\"cHJvdGVjdGVk\",\"x\":1.5,"
+        + "\"payload\":\"\",\"signature\":\"c2lnbmF0dXJl\",\"y\":[true,false]}");
+    assertSameAsJson(MESSAGE + "  \n");
+    assertSameAsJson(MESSAGE + "{\"protected\":\"b3RoZXI\"}");
+    assertSameAsJson(MESSAGE + "]");
+  }
+
+  @Test
+  public void testParseHeader() throws Exception {
+    JoseParser.Header header = JoseParser.parseHeader(bytes(HEADER));
+    Assert.assertEquals("alg", "ES256", header.getAlg());
+    Assert.assertNull("kid", header.getKid());
+    Assert.assertEquals("nonce", "my-nonce", header.getNonce());
+    Assert.assertEquals("url", "https://example.com/acme/new-account", header.getUrl());
+    Assert.assertEquals("jwk", Map.of("kty", "EC", "crv", "P-256", "x", "eA", "y", "eQ"), header.getJwk());
+    assertSameAsJsonHeader(HEADER);
+
+    header = JoseParser.parseHeader(bytes("{\"alg\":\"RS256\",\"kid\":\"https://example.com/acme/acct/1\","
+        + "\"jwk\":null}"));
+    Assert.assertEquals("kid", "https://example.com/acme/acct/1", header.getKid());
+    Assert.assertNull("jwk", header.getJwk());
+  }
+
+  @Test
+  public void testMissingAlg() {
+    assertHeaderError("{\"nonce\":\"my-nonce\",\"url\":\"https://example.com/acme/new-account\"}",
+        AcmeError.badSignatureAlgorithm);
+    assertHeaderError("{\"alg\":null,\"nonce\":\"my-nonce\"}", AcmeError.badSignatureAlgorithm);
+  }
+
+  @Test
+  public void testNonStringHeaderField() {
+    for (String name : new String[]{"alg", "kid", "nonce", "url"}) {
+      for (String value : new String[]{"1", "false", "{}", "[]"}) {
+        String json = "{\"alg\":\"ES256\",\"" + name + "\":" + value + "}";
+        assertHeaderError(json, AcmeError.malformed);
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidJwk() {
+    for (String jwk : new String[]{
+        // not a JSON object
+        "\"jwk\"", "1", "[]",
+        // non-string members
+        "{\"kty\":\"EC\",\"crv\":1}", "{\"kty\":\"EC\",\"crv\":\"P-256\",\"x\":{}}",
+        "{\"kty\":\"RSA\",\"key_ops\":[\"verify\"]}", "{\"kty\":true}"}) {
+      assertHeaderError("{\"alg\":\"ES256\",\"jwk\":" + jwk + "}", AcmeError.malformed);
+    }
+  }
+
+  @Test
+  public void testUnknownAndTrailingHeaderFields() {
+    assertSameAsJsonHeader("{\"b64\":false,\"crit\":[\"b64\"],\"alg\":\"ES256\",\"x\":{\"y\":[1,2]},"
+        + "\"nonce\":\"my-nonce\",\"jwk\":{\"kty\":\"EC\",\"crv\":\"P-256\",\"x\":\"eA\",\"y\":\"eQ\"}}");
+    assertSameAsJsonHeader(HEADER + "  \n");
+    assertSameAsJsonHeader(HEADER + "{\"alg\":\"RS256\"}");
+  }
+
+  private static void assertMessageError(String json, AcmeError expected) {
+    try {
+      JoseParser.parseMessage(bytes(json));
+      Assert.fail("AcmeProtocolException expected for " + json);
+    } catch (AcmeProtocolException ex) {
+      Assert.assertEquals("error of " + json, expected, ex.getAcmeError());
+    }
+  }
+
+  private static void assertHeaderError(String json, AcmeError expected) {
+    try {
+      JoseParser.parseHeader(bytes(json));
+      Assert.fail("AcmeProtocolException expected for " + json);
+    } catch (AcmeProtocolException ex) {
+      Assert.assertEquals("error of " + json, expected, ex.getAcmeError());
+    }
+  }
+
+  private static void assertSameAsJson(String json) {
+    JoseMessage expected;
+    try {
+      expected = JSON.parseObject(bytes(json), JoseMessage.class);
+    } catch (RuntimeException ex) {
+      expected = null;
+    }
+
+    JoseMessage actual;
+    try {
+      actual = JoseParser.parseMessage(bytes(json));
+    } catch (AcmeProtocolException ex) {
+      actual = null;
+    }
+
+    if (expected == null) {
+      Assert.assertNull("rejected " + json, actual);
+    } else {
+      Assert.assertNotNull("accepted " + json, actual);
+      Assert.assertEquals("protected", expected.getProtected(), actual.getProtected());
+      Assert.assertEquals("payload", expected.getPayload(), actual.getPayload());
+      Assert.assertEquals("signature", expected.getSignature(), actual.getSignature());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void assertSameAsJsonHeader(String json) {
+    Map<String, Object> expected;
+    try {
+      expected = JSON.parseObject(bytes(json), Map.class);
+    } catch (RuntimeException ex) {
+      expected = null;
+    }
+
+    JoseParser.Header actual;
+    try {
+      actual = JoseParser.parseHeader(bytes(json));
+    } catch (AcmeProtocolException ex) {
+      actual = null;
+    }
+
+    if (expected == null) {
+      Assert.assertNull("rejected " + json, actual);
+    } else {
+      Assert.assertNotNull("accepted " + json, actual);
+      Assert.assertEquals("alg", expected.get("alg"), actual.getAlg());
+      Assert.assertEquals("kid", expected.get("kid"), actual.getKid());
+      Assert.assertEquals("nonce", expected.get("nonce"), actual.getNonce());
+      Assert.assertEquals("url", expected.get("url"), actual.getUrl());
+      Assert.assertEquals("jwk", expected.get("jwk"), actual.getJwk());
+    }
+  }
+
+  private static byte[] bytes(String json) {
+    return StringUtil.toUtf8Bytes(json);
+  }
+
+}
@@ -0,0 +1,214 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway.acme;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.Base64Url;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NonceManager test.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public class NonceManagerTest {
+
+  private static class TestClock extends Clock {
+
+    private long seconds;
+
+    TestClock(long seconds) {
+      this.seconds = seconds;
+    }
+
+    void set(long seconds) {
+      this.seconds = seconds;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochSecond(seconds);
+    }
+
+  } // class TestClock
+
+  private static final int NONCE_NUM_BYTES = 12;
+
+  // 60 seconds
+  private static final long VALIDITY = 60;
+
+  // start of a window
+  private static final long T0 = 1_700_000_040L;
+
+  private static final byte[] KEY = new byte[32];
+
+  private static NonceManager newManager(TestClock clock) {
+    NonceManager manager = new NonceManager(NONCE_NUM_BYTES, KEY, 1000, clock);
+    manager.setValidityMs(VALIDITY * 1000);
+    return manager;
+  }
+
+  @Test
+  public void testValidNonceAcceptedOnce() {
+    TestClock clock = new TestClock(T0);
+    NonceManager manager = newManager(clock);
+
+    String nonce = manager.newNonce();
+    Assert.assertTrue("first use", manager.useNonce(nonce));
+    Assert.assertFalse("second use", manager.useNonce(nonce));
+  }
+
+  @Test
+  public void testReplayedNonceRejected() {
+    TestClock clock = new TestClock(T0);
+    NonceManager manager = newManager(clock);
+
+    List<String> nonces = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      nonces.add(manager.newNonce());
+    }
+
+    for (String nonce : nonces) {
+      Assert.assertTrue("first use", manager.useNonce(nonce));
+    }
+
+    clock.set(T0 + VALIDITY / 2);
+    for (String nonce : nonces) {
+      Assert.assertFalse("replayed", manager.useNonce(nonce));
+    }
+  }
+
+  @Test
+  public void testForgedNonceRejected() {
+    TestClock clock = new TestClock(T0);
+    NonceManager manager = newManager(clock);
+
+    byte[] bytes = Base64Url.decodeFast(manager.newNonce());
+
+    // modified time, random bytes and MAC
+    for (int index : new int[]{3, 4 + NONCE_NUM_BYTES - 1, bytes.length - 1}) {
+      byte[] forged = bytes.clone();
+      forged[index] ^= 1;
+      Assert.assertFalse("modified byte " + index,
+          manager.useNonce(Base64Url.encodeToStringNoPadding(forged)));
+    }
+
+    // nonce issued with other key
+    NonceManager otherManager = new NonceManager(NONCE_NUM_BYTES, null, 1000, clock);
+    Assert.assertFalse("other key", manager.useNonce(otherManager.newNonce()));
+
+    // invalid encodings
+    Assert.assertFalse("null", manager.useNonce(null));
+    Assert.assertFalse("empty", manager.useNonce(""));
+    Assert.assertFalse("too short", manager.useNonce(Base64Url.encodeToStringNoPadding(
+        new byte[bytes.length - 1])));
+    Assert.assertFalse("too long", manager.useNonce(Base64Url.encodeToStringNoPadding(
+        new byte[bytes.length + 1])));
+
+    // the original nonce is still valid
+    Assert.assertTrue("original", manager.useNonce(Base64Url.encodeToStringNoPadding(bytes)));
+  }
+
+  @Test
+  public void testExpiredNonceRejected() {
+    TestClock clock = new TestClock(T0);
+    NonceManager manager = newManager(clock);
+
+    String nonce1 = manager.newNonce();
+    String nonce2 = manager.newNonce();
+
+    clock.set(T0 + VALIDITY);
+    Assert.assertTrue("at the end of validity", manager.useNonce(nonce1));
+
+    clock.set(T0 + VALIDITY + 1);
+    Assert.assertFalse("expired", manager.useNonce(nonce2));
+  }
+
+  @Test
+  public void testNonceFromFutureRejected() {
+    TestClock clock = new TestClock(T0);
+    NonceManager manager = newManager(clock);
+
+    // nonces issued by an instance whose clock is 10 seconds ahead are accepted.
+    NonceManager aheadManager = newManager(new TestClock(T0 + 10));
+    Assert.assertTrue("10 seconds ahead", manager.useNonce(aheadManager.newNonce()));
+
+    aheadManager = newManager(new TestClock(T0 + 11));
+    Assert.assertFalse("11 seconds ahead", manager.useNonce(aheadManager.newNonce()));
+  }
+
+  @Test
+  public void testNonceIssuedBeforeStartRejected() {
+    TestClock clock = new TestClock(T0);
+    NonceManager manager = newManager(clock);
+    String nonce = manager.newNonce();
+
+    // restart of the instance
+    clock.set(T0 + 1);
+    NonceManager restartedManager = newManager(clock);
+    Assert.assertFalse("issued before restart", restartedManager.useNonce(nonce));
+
+    // instances sharing the key accept the nonces of each other.
+    Assert.assertTrue("issued by other instance", manager.useNonce(restartedManager.newNonce()));
+  }
+
+  @Test
+  public void testWindowBoundary() {
+    TestClock clock = new TestClock(T0);
+    NonceManager manager = newManager(clock);
+
+    // last second of window w
+    clock.set(T0 + VALIDITY - 1);
+    String nonceW = manager.newNonce();
+
+    // first second of window w+1
+    clock.set(T0 + VALIDITY);
+    String nonceW1 = manager.newNonce();
+
+    Assert.assertTrue("window w", manager.useNonce(nonceW));
+    Assert.assertTrue("window w+1", manager.useNonce(nonceW1));
+
+    // the nonces of both windows are still recorded.
+    clock.set(T0 + 2 * VALIDITY - 1);
+    Assert.assertFalse("replayed window w", manager.useNonce(nonceW));
+    Assert.assertFalse("replayed window w+1", manager.useNonce(nonceW1));
+
+    // window w+2
+    clock.set(T0 + 2 * VALIDITY);
+    String nonceW2 = manager.newNonce();
+    Assert.assertTrue("window w+2", manager.useNonce(nonceW2));
+    Assert.assertFalse("replayed window w+1", manager.useNonce(nonceW1));
+
+    // window w+3 reuses the filter of window w, the nonces of window w have expired.
+    clock.set(T0 + 3 * VALIDITY);
+    String nonceW3 = manager.newNonce();
+    Assert.assertTrue("window w+3", manager.useNonce(nonceW3));
+    Assert.assertFalse("expired window w", manager.useNonce(nonceW));
+    Assert.assertFalse("replayed window w+2", manager.useNonce(nonceW2));
+    Assert.assertFalse("replayed window w+3", manager.useNonce(nonceW3));
+
+    // fresh nonces in the reused filter are accepted once.
+    String nonceW3b = manager.newNonce();
+    Assert.assertTrue("window w+3", manager.useNonce(nonceW3b));
+    Assert.assertFalse("replayed window w+3", manager.useNonce(nonceW3b));
+  }
+
+}
@@ -0,0 +1,181 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.gateway.cmp;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.cmp.PBMParameter;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.cert.cmp.ProtectedPKIMessageBuilder;
+import org.bouncycastle.cert.crmf.PKMACBuilder;
+import org.bouncycastle.cert.crmf.jcajce.JcePKMACValuesCalculator;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.MacCalculator;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.SignAlgo;
+
+import java.security.SecureRandom;
+import java.security.Security;
+import java.time.Duration;
+
+/**
+ * PbmMacKeyCache test. The keys and MACs must be identical to those computed by BouncyCastle's
+ * {@link PKMACBuilder} for the same PBM parameter.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public class PbmMacKeyCacheTest {
+
+  private static final char[] PASSWORD = "my-password".toCharArray();
+
+  private static final byte[] SENDER_KID = "my-kid".getBytes();
+
+  private final SecureRandom random = new SecureRandom();
+
+  @Before
+  public void addBouncyCastleProvider() {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+  }
+
+  @Test
+  public void testSha1HmacSha1() throws Exception {
+    assertSameAsBc(HashAlgo.SHA1, SignAlgo.HMAC_SHA1, 500);
+  }
+
+  @Test
+  public void testSha256HmacSha256() throws Exception {
+    assertSameAsBc(HashAlgo.SHA256, SignAlgo.HMAC_SHA256, 1000);
+  }
+
+  @Test
+  public void testChangedPassword() throws Exception {
+    PbmMacKeyCache cache = new PbmMacKeyCache(Duration.ofMinutes(1));
+    PBMParameter parameter = newParameter(HashAlgo.SHA256, SignAlgo.HMAC_SHA256, 1000);
+
+    // cache the key of the old password
+    Assert.assertTrue("valid MAC", cache.verify(newMessage(parameter, PASSWORD), SENDER_KID, PASSWORD, parameter,
+        HashAlgo.SHA256, SignAlgo.HMAC_SHA256));
+    Assert.assertEquals("cached keys", 1, cache.size());
+
+    char[] newPassword = "my-new-password".toCharArray();
+    MacCalculator calculator = cache.newMacCalculator(SENDER_KID, newPassword, parameter,
+        HashAlgo.SHA256, SignAlgo.HMAC_SHA256, true);
+    Assert.assertArrayEquals("key of new password", bcKey(parameter, newPassword), key(calculator));
+  }
+
+  @Test
+  public void testVerify() throws Exception {
+    PbmMacKeyCache cache = new PbmMacKeyCache(Duration.ofMinutes(1));
+    PBMParameter parameter = newParameter(HashAlgo.SHA256, SignAlgo.HMAC_SHA256, 1000);
+
+    PKIMessage message = newMessage(parameter, PASSWORD);
+
+    for (int i = 0; i < 2; i++) {
+      // the first verification derives the key, the second uses the cached key.
+      Assert.assertTrue("valid MAC, round " + i, cache.verify(message, SENDER_KID, PASSWORD, parameter,
+          HashAlgo.SHA256, SignAlgo.HMAC_SHA256));
+      Assert.assertEquals("cached keys, round " + i, 1, cache.size());
+    }
+
+    Assert.assertFalse("wrong password", cache.verify(message, SENDER_KID, "wrong".toCharArray(), parameter,
+        HashAlgo.SHA256, SignAlgo.HMAC_SHA256));
+  }
+
+  @Test
+  public void testInvalidMacNotCached() throws Exception {
+    PbmMacKeyCache cache = new PbmMacKeyCache(Duration.ofMinutes(1));
+
+    // messages with random salts and a wrong password must not fill the cache.
+    for (int i = 0; i < 10; i++) {
+      PBMParameter parameter = newParameter(HashAlgo.SHA256, SignAlgo.HMAC_SHA256, 1000 + i);
+      Assert.assertFalse("invalid MAC", cache.verify(newMessage(parameter, "wrong".toCharArray()), SENDER_KID,
+          PASSWORD, parameter, HashAlgo.SHA256, SignAlgo.HMAC_SHA256));
+    }
+    Assert.assertEquals("cached keys", 0, cache.size());
+
+    // newMacCalculator looks up the cache, but does not add keys.
+    PBMParameter parameter = newParameter(HashAlgo.SHA256, SignAlgo.HMAC_SHA256, 1000);
+    cache.newMacCalculator(SENDER_KID, PASSWORD, parameter, HashAlgo.SHA256, SignAlgo.HMAC_SHA256, true);
+    Assert.assertEquals("cached keys", 0, cache.size());
+  }
+
+  private void assertSameAsBc(HashAlgo owfAlg, SignAlgo macAlg, int iterationCount) throws Exception {
+    PBMParameter parameter = newParameter(owfAlg, macAlg, iterationCount);
+
+    MacCalculator bcCalculator = newBcBuilder(parameter).build(PASSWORD);
+    byte[] bcKey = key(bcCalculator);
+
+    byte[] data = new byte[1000];
+    random.nextBytes(data);
+    byte[] bcMac = mac(bcCalculator, data);
+
+    PbmMacKeyCache cache = new PbmMacKeyCache(Duration.ofMinutes(1));
+    PbmMacKeyCache disabledCache = new PbmMacKeyCache(Duration.ZERO);
+
+    // derives the key
+    MacCalculator derived = cache.newMacCalculator(SENDER_KID, PASSWORD, parameter, owfAlg, macAlg, true);
+
+    // caches the key
+    Assert.assertTrue("valid MAC", cache.verify(newMessage(parameter, PASSWORD), SENDER_KID, PASSWORD, parameter,
+        owfAlg, macAlg));
+    Assert.assertTrue("valid MAC", disabledCache.verify(newMessage(parameter, PASSWORD), SENDER_KID, PASSWORD,
+        parameter, owfAlg, macAlg));
+    Assert.assertEquals("cached keys", 1, cache.size());
+    Assert.assertEquals("cached keys of disabled cache", 0, disabledCache.size());
+
+    MacCalculator[] calculators = {
+        derived,
+        // cached key
+        cache.newMacCalculator(SENDER_KID, PASSWORD, parameter, owfAlg, macAlg, true),
+        // without cache
+        cache.newMacCalculator(SENDER_KID, PASSWORD, parameter, owfAlg, macAlg, false),
+        disabledCache.newMacCalculator(SENDER_KID, PASSWORD, parameter, owfAlg, macAlg, true)};
+
+    for (int i = 0; i < calculators.length; i++) {
+      Assert.assertArrayEquals("key " + i, bcKey, key(calculators[i]));
+      Assert.assertArrayEquals("MAC " + i, bcMac, mac(calculators[i], data));
+      Assert.assertEquals("algorithm " + i, bcCalculator.getAlgorithmIdentifier(),
+          calculators[i].getAlgorithmIdentifier());
+    }
+  }
+
+  private PBMParameter newParameter(HashAlgo owfAlg, SignAlgo macAlg, int iterationCount) {
+    byte[] salt = new byte[16];
+    random.nextBytes(salt);
+    return new PBMParameter(salt, owfAlg.getAlgorithmIdentifier(), iterationCount, macAlg.getAlgorithmIdentifier());
+  }
+
+  private static PKIMessage newMessage(PBMParameter parameter, char[] password) throws Exception {
+    return new ProtectedPKIMessageBuilder(
+        new GeneralName(new X500Name("CN=sender")), new GeneralName(new X500Name("CN=recipient")))
+        .setSenderKID(SENDER_KID)
+        .setBody(new PKIBody(PKIBody.TYPE_CONFIRM, DERNull.INSTANCE))
+        .build(newBcBuilder(parameter).build(password)).toASN1Structure();
+  }
+
+  private static PKMACBuilder newBcBuilder(PBMParameter parameter) {
+    return new PKMACBuilder(new JcePKMACValuesCalculator().setProvider("BC")).setParameters(parameter);
+  }
+
+  private static byte[] bcKey(PBMParameter parameter, char[] password) throws Exception {
+    return key(newBcBuilder(parameter).build(password));
+  }
+
+  private static byte[] key(MacCalculator calculator) {
+    return (byte[]) calculator.getKey().getRepresentation();
+  }
+
+  private static byte[] mac(MacCalculator calculator, byte[] data) throws Exception {
+    calculator.getOutputStream().write(data);
+    return calculator.getMac();
+  }
+
+}
@@ -10,8 +10,13 @@ import org.junit.Test;
 import org.xipki.ca.gateway.PasswordHash;
 
 import java.security.Security;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * PasswordHash test.
@@ -60,4 +65,26 @@ public class PasswordHashTest {
     Assert.assertFalse("test validation failed", failure);
   }
 
+  @Test
+  public void testConcurrentValidation() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        final String password = "password-" + i;
+        futures.add(executor.submit(() -> {
+          String hash = PasswordHash.createHash(password);
+          return PasswordHash.validatePassword(password, hash)
+              && !PasswordHash.validatePassword(password + "x", hash);
+        }));
+      }
+
+      for (Future<Boolean> future : futures) {
+        Assert.assertTrue("concurrent validation failed", future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
 }
@@ -46,19 +46,63 @@ import java.security.cert.CRLException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.spec.InvalidKeySpecException;
+import java.time.Clock;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * SCEP client.
+ * <p>
+ * The client can be shared by several threads. The CA capabilities and the validated CA certificate
+ * store are retrieved once and replaced as a whole by {@link #refresh()}, or after
+ * {@link #setCaInfoMaxAgeInMs(long)} by the next operation.
  *
  * @author Lijun Liao (xipki)
  */
 
 public abstract class Client {
 
+  /**
+   * CA capabilities and the validated CA certificate store.
+   */
+  private static final class CaInfo {
+
+    private final CaCaps caCaps;
+
+    private final AuthorityCertStore authorityCertStore;
+
+    private final CollectionStore<X509CertificateHolder> responseSignerCerts;
+
+    // Content-Type and SHA-256 of the GetCACert response the store is built from.
+    private final String caCertRespType;
+
+    private final byte[] caCertRespHash;
+
+    private final long expiresAt;
+
+    CaInfo(CaCaps caCaps, AuthorityCertStore authorityCertStore,
+           CollectionStore<X509CertificateHolder> responseSignerCerts,
+           String caCertRespType, byte[] caCertRespHash, long expiresAt) {
+      this.caCaps = caCaps;
+      this.authorityCertStore = authorityCertStore;
+      this.responseSignerCerts = responseSignerCerts;
+      this.caCertRespType = caCertRespType;
+      this.caCertRespHash = caCertRespHash;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isBuiltFrom(String contentType, byte[] contentHash) {
+      return caCertRespType.equalsIgnoreCase(contentType) && Arrays.equals(caCertRespHash, contentHash);
+    }
+
+  } // class CaInfo
+
   public static final String REQ_CONTENT_TYPE = "application/octet-stream";
 
   // 5 minutes
@@ -66,15 +110,17 @@ public abstract class Client {
 
   protected final CaIdentifier caId;
 
-  protected CaCaps caCaps;
+  protected volatile CaCaps caCaps;
 
   private final CaCertValidator caCertValidator;
 
   private long maxSigningTimeBiasInMs = DEFAULT_SIGNINGTIME_BIAS;
 
-  private AuthorityCertStore authorityCertStore;
+  private long caInfoMaxAgeInMs;
+
+  private volatile CaInfo caInfo;
 
-  private CollectionStore<X509CertificateHolder> responseSignerCerts;
+  private final Object refreshLock = new Object();
 
   private boolean httpGetOnly;
 
@@ -110,6 +156,67 @@ public abstract class Client {
    */
   protected abstract ScepHttpResponse httpGet(String url) throws ScepClientException;
 
+  /**
+   * Send request via HTTP POST asynchronously. The default implementation sends the request in the
+   * calling thread via {@link #httpPost(String, String, byte[])} and returns a completed future.
+   *
+   * @param url
+   *          SCEP server URL. Must not be {@code null}.
+   * @param requestContentType
+   *          Content type of the HTTP request. Must not be {@code null}.
+   * @param request
+   *          HTTP request. Must not be {@code null}.
+   * @return the future of the SCEP response, completes exceptionally with {@link ScepClientException}.
+   * @since 6.5.4
+   */
+  protected CompletableFuture<ScepHttpResponse> httpPostAsync(String url, String requestContentType, byte[] request) {
+    try {
+      return CompletableFuture.completedFuture(httpPost(url, requestContentType, request));
+    } catch (ScepClientException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+  }
+
+  /**
+   * Send request via HTTP GET asynchronously. The default implementation sends the request in the
+   * calling thread via {@link #httpGet(String)} and returns a completed future.
+   *
+   * @param url
+   *          URL. Must not be {@code null}.
+   * @return the future of the response, completes exceptionally with {@link ScepClientException}.
+   * @since 6.5.4
+   */
+  protected CompletableFuture<ScepHttpResponse> httpGetAsync(String url) {
+    try {
+      return CompletableFuture.completedFuture(httpGet(url));
+    } catch (ScepClientException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+  }
+
+  /**
+   * Waits for the future and unwraps the {@link ScepClientException}.
+   *
+   * @param future the future returned by one of the async methods.
+   * @param <T> type of the result.
+   * @return the result.
+   * @throws ScepClientException if the future completed exceptionally.
+   * @since 6.5.4
+   */
+  protected static <T> T join(CompletableFuture<T> future) throws ScepClientException {
+    try {
+      return future.join();
+    } catch (CompletionException | CancellationException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof ScepClientException) {
+        throw (ScepClientException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new ScepClientException(cause == null ? ex : cause);
+    }
+  } // method join
+
   public boolean isHttpGetOnly() {
     return httpGetOnly;
   }
@@ -130,30 +237,51 @@ public abstract class Client {
     this.maxSigningTimeBiasInMs = maxSigningTimeBiasInMs;
   }
 
-  private ScepHttpResponse httpSend(Operation operation, ContentInfo pkiMessage) throws ScepClientException {
+  public long getCaInfoMaxAgeInMs() {
+    return caInfoMaxAgeInMs;
+  }
+
+  /**
+   * Set the maximal age of the CA capabilities and CA certificate store in milliseconds. After this
+   * period they are retrieved again by the next operation, the CA certificate store is validated
+   * again only if the GetCACert response has been changed.
+   * @param caInfoMaxAgeInMs zero or negative value to retrieve them only via {@link #refresh()}
+   * @since 6.5.4
+   */
+  public void setCaInfoMaxAgeInMs(long caInfoMaxAgeInMs) {
+    this.caInfoMaxAgeInMs = caInfoMaxAgeInMs;
+  }
+
+  private ScepHttpResponse httpSend(CaCaps caCaps, Operation operation, ContentInfo pkiMessage)
+      throws ScepClientException {
+    return join(httpSendAsync(caCaps, operation, pkiMessage));
+  }
+
+  private CompletableFuture<ScepHttpResponse> httpSendAsync(
+      CaCaps caCaps, Operation operation, ContentInfo pkiMessage) {
     byte[] request = null;
     if (pkiMessage != null) {
       try {
         request = pkiMessage.getEncoded();
       } catch (IOException ex) {
-        throw new ScepClientException(ex);
+        return CompletableFuture.failedFuture(new ScepClientException(ex));
       }
     }
 
     if (Operation.GetCACaps == operation || Operation.GetCACert == operation || Operation.GetNextCACert == operation) {
-      return httpGet(caId.buildGetUrl(operation, caId.getProfile()));
+      return httpGetAsync(caId.buildGetUrl(operation, caId.getProfile()));
     } else {
       if (!httpGetOnly && caCaps.supportsPost()) {
-        return httpPost(caId.buildPostUrl(operation), REQ_CONTENT_TYPE, request);
+        return httpPostAsync(caId.buildPostUrl(operation), REQ_CONTENT_TYPE, request);
       } else {
         String url = caId.buildGetUrl(operation, (request == null) ? null : Base64.encodeToString(request));
-        return httpGet(url);
+        return httpGetAsync(url);
       }
     } // end if
-  } // method httpSend
+  } // method httpSendAsync
 
   private ScepHttpResponse httpSend(Operation operation) throws ScepClientException {
-    return httpSend(operation, null);
+    return httpSend(null, operation, null);
   }
 
   public void init() throws ScepClientException {
@@ -161,45 +289,69 @@ public abstract class Client {
   }
 
   public void refresh() throws ScepClientException {
+    synchronized (refreshLock) {
+      refresh0();
+    }
+  }
+
+  private CaInfo refresh0() throws ScepClientException {
     // getCACaps
     ScepHttpResponse getCaCapsResp = httpSend(Operation.GetCACaps);
-    this.caCaps = CaCaps.getInstance(StringUtil.toUtf8String(getCaCapsResp.getContentBytes()));
+    CaCaps newCaCaps = CaCaps.getInstance(StringUtil.toUtf8String(getCaCapsResp.getContentBytes()));
 
     // getCACert
     ScepHttpResponse getCaCertResp = httpSend(Operation.GetCACert);
-    this.authorityCertStore = retrieveCaCertStore(getCaCertResp, caCertValidator);
+    String ct = getCaCertResp.getContentType();
+    byte[] content = getCaCertResp.getContentBytes();
+    byte[] contentHash = HashAlgo.SHA256.hash(content);
+
+    CaInfo oldInfo = caInfo;
+    AuthorityCertStore authorityCertStore;
+    CollectionStore<X509CertificateHolder> responseSignerCerts;
+    if (oldInfo != null && oldInfo.isBuiltFrom(ct, contentHash)) {
+      // unchanged response, the certificate store has been validated already.
+      authorityCertStore = oldInfo.authorityCertStore;
+      responseSignerCerts = oldInfo.responseSignerCerts;
+    } else {
+      authorityCertStore = retrieveCaCertStore(ct, content, caCertValidator);
 
-    X509CertificateHolder certHolder;
-    try {
-      certHolder = new X509CertificateHolder(this.authorityCertStore.getSignatureCert().getEncoded());
-    } catch (IOException ex) {
-      throw new ScepClientException(ex);
+      X509CertificateHolder certHolder;
+      try {
+        certHolder = new X509CertificateHolder(authorityCertStore.getSignatureCert().getEncoded());
+      } catch (IOException ex) {
+        throw new ScepClientException(ex);
+      }
+      responseSignerCerts = new CollectionStore<>(Collections.singletonList(certHolder));
     }
-    this.responseSignerCerts = new CollectionStore<>(Collections.singletonList(certHolder));
-  } // method refresh
+
+    long expiresAt = caInfoMaxAgeInMs > 0 ? Clock.systemUTC().millis() + caInfoMaxAgeInMs : Long.MAX_VALUE;
+    CaInfo info = new CaInfo(newCaCaps, authorityCertStore, responseSignerCerts, ct, contentHash, expiresAt);
+    this.caCaps = newCaCaps;
+    this.caInfo = info;
+    return info;
+  } // method refresh0
 
   public CaCaps getCaCaps() throws ScepClientException {
-    initIfNotInited();
-    return caCaps;
+    return caInfo().caCaps;
   }
 
   public X509Cert getCaCert() {
-    return authorityCertStore == null ? null : authorityCertStore.getCaCert();
+    CaInfo info = caInfo;
+    return info == null ? null : info.authorityCertStore.getCaCert();
   }
 
   public CaIdentifier getCaId() throws ScepClientException {
-    initIfNotInited();
+    caInfo();
     return caId;
   }
 
   public CaCertValidator getCaCertValidator() throws ScepClientException {
-    initIfNotInited();
+    caInfo();
     return caCertValidator;
   }
 
   public AuthorityCertStore getAuthorityCertStore() throws ScepClientException {
-    initIfNotInited();
-    return authorityCertStore;
+    return caInfo().authorityCertStore;
   }
 
   public X509CRLHolder scepGetCrl(
@@ -210,15 +362,15 @@ public abstract class Client {
     Args.notNull(issuer, "issuer");
     Args.notNull(serialNumber, "serialNumber");
 
-    initIfNotInited();
+    CaInfo info = caInfo();
 
     PkiMessage pkiMessage = new PkiMessage(TransactionId.randomTransactionId(), MessageType.GetCRL);
     IssuerAndSerialNumber isn = new IssuerAndSerialNumber(issuer, serialNumber);
     pkiMessage.setMessageData(isn);
-    ContentInfo request = encryptThenSign(pkiMessage, identityKey, identityCert);
-    ScepHttpResponse httpResp = httpSend(Operation.PKIOperation, request);
+    ContentInfo request = encryptThenSign(info, pkiMessage, identityKey, identityCert);
+    ScepHttpResponse httpResp = httpSend(info.caCaps, Operation.PKIOperation, request);
     CMSSignedData cmsSignedData = parsePkiMessage(httpResp.getContentBytes());
-    PkiMessage response = decode(cmsSignedData, identityKey, identityCert);
+    PkiMessage response = decode(info, cmsSignedData, identityKey, identityCert);
     if (response.getPkiStatus() != PkiStatus.SUCCESS) {
       throw new ScepClientException("server returned " + response.getPkiStatus());
     }
@@ -240,17 +392,17 @@ public abstract class Client {
     Args.notNull(issuer, "issuer");
     Args.notNull(serialNumber, "serialNumber");
 
-    initIfNotInited();
+    CaInfo info = caInfo();
 
     PkiMessage request = new PkiMessage(TransactionId.randomTransactionId(), MessageType.GetCert);
 
     IssuerAndSerialNumber isn = new IssuerAndSerialNumber(issuer, serialNumber);
     request.setMessageData(isn);
-    ContentInfo envRequest = encryptThenSign(request, identityKey, identityCert);
-    ScepHttpResponse httpResp = httpSend(Operation.PKIOperation, envRequest);
+    ContentInfo envRequest = encryptThenSign(info, request, identityKey, identityCert);
+    ScepHttpResponse httpResp = httpSend(info.caCaps, Operation.PKIOperation, envRequest);
 
     CMSSignedData cmsSignedData = parsePkiMessage(httpResp.getContentBytes());
-    DecodedPkiMessage response = decode(cmsSignedData, identityKey, identityCert);
+    DecodedPkiMessage response = decode(info, cmsSignedData, identityKey, identityCert);
     if (response.getPkiStatus() != PkiStatus.SUCCESS) {
       throw new ScepClientException("server returned " + response.getPkiStatus());
     }
@@ -266,55 +418,101 @@ public abstract class Client {
   public EnrolmentResponse scepCertPoll(
       PrivateKey identityKey, X509Cert identityCert, CertificationRequest csr, X500Name issuer)
       throws ScepClientException {
+    return join(scepCertPollAsync(identityKey, identityCert, csr, issuer));
+  }
+
+  /**
+   * Polls the certificate asynchronously, see
+   * {@link #scepCertPoll(PrivateKey, X509Cert, CertificationRequest, X500Name)}.
+   *
+   * @return the future of the response, completes exceptionally with {@link ScepClientException}.
+   * @since 6.5.4
+   */
+  public CompletableFuture<EnrolmentResponse> scepCertPollAsync(
+      PrivateKey identityKey, X509Cert identityCert, CertificationRequest csr, X500Name issuer) {
     Args.notNull(csr, "csr");
 
     TransactionId tid;
     try {
       tid = TransactionId.sha1TransactionId(csr.getCertificationRequestInfo().getSubjectPublicKeyInfo());
     } catch (InvalidKeySpecException ex) {
-      throw new ScepClientException(ex.getMessage(), ex);
+      return CompletableFuture.failedFuture(new ScepClientException(ex.getMessage(), ex));
     }
 
-    return scepCertPoll(identityKey, identityCert, tid, issuer, csr.getCertificationRequestInfo().getSubject());
+    return scepCertPollAsync(identityKey, identityCert, tid, issuer, csr.getCertificationRequestInfo().getSubject());
   }
 
   public EnrolmentResponse scepCertPoll(
       PrivateKey identityKey, X509Cert identityCert, TransactionId transactionId, X500Name issuer, X500Name subject)
       throws ScepClientException {
+    return join(scepCertPollAsync(identityKey, identityCert, transactionId, issuer, subject));
+  }
+
+  /**
+   * Polls the certificate asynchronously, see
+   * {@link #scepCertPoll(PrivateKey, X509Cert, TransactionId, X500Name, X500Name)}.
+   *
+   * @return the future of the response, completes exceptionally with {@link ScepClientException}.
+   * @since 6.5.4
+   */
+  public CompletableFuture<EnrolmentResponse> scepCertPollAsync(
+      PrivateKey identityKey, X509Cert identityCert, TransactionId transactionId, X500Name issuer, X500Name subject) {
     Args.notNull(identityKey, "identityKey");
     Args.notNull(identityCert, "identityCert");
     Args.notNull(issuer, "issuer");
     Args.notNull(transactionId, "transactionId");
 
-    initIfNotInited();
+    CaInfo info;
+    try {
+      info = caInfo();
+    } catch (ScepClientException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
 
     PkiMessage pkiMessage = new PkiMessage(transactionId, MessageType.CertPoll);
 
     IssuerAndSubject is = new IssuerAndSubject(issuer, subject);
     pkiMessage.setMessageData(is);
-    ContentInfo envRequest = encryptThenSign(pkiMessage, identityKey, identityCert);
-    ScepHttpResponse httpResp = httpSend(Operation.PKIOperation, envRequest);
-    CMSSignedData cmsSignedData = parsePkiMessage(httpResp.getContentBytes());
-    DecodedPkiMessage response = decode(cmsSignedData, identityKey, identityCert);
-    assertSameNonce(pkiMessage, response);
-    return new EnrolmentResponse(response);
+    return sendEnrolmentRequest(info, pkiMessage, identityKey, identityCert);
   }
 
   public EnrolmentResponse scepEnrol(CertificationRequest csr, PrivateKey identityKey, X509Cert identityCert)
       throws ScepClientException {
+    return join(scepEnrolAsync(csr, identityKey, identityCert));
+  }
+
+  /**
+   * Enrolls the certificate asynchronously, see
+   * {@link #scepEnrol(CertificationRequest, PrivateKey, X509Cert)}. With a transport overriding
+   * {@link #httpPostAsync(String, String, byte[])} and {@link #httpGetAsync(String)} the calling
+   * thread is not blocked while waiting for the response.
+   *
+   * @return the future of the response, completes exceptionally with {@link ScepClientException}.
+   * @since 6.5.4
+   */
+  public CompletableFuture<EnrolmentResponse> scepEnrolAsync(
+      CertificationRequest csr, PrivateKey identityKey, X509Cert identityCert) {
     Args.notNull(csr, "csr");
     Args.notNull(identityKey, "identityKey");
     Args.notNull(identityCert, "identityCert");
 
-    initIfNotInited();
+    CaInfo info;
+    try {
+      info = caInfo();
+    } catch (ScepClientException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
 
+    MessageType messageType = MessageType.PKCSReq;
     if (!identityCert.isSelfSigned()) {
-      if (caCaps.supportsRenewal()) {
-        return scepRenewalReq(csr, identityKey, identityCert);
+      if (info.caCaps.supportsRenewal()) {
+        messageType = MessageType.RenewalReq;
+      } else {
+        throw new IllegalArgumentException("identityCert is not self-signed");
       }
     } // end if
 
-    return scepPkcsReq(csr, identityKey, identityCert);
+    return enrollAsync(info, messageType, csr, identityKey, identityCert);
   }
 
   public EnrolmentResponse scepPkcsReq(CertificationRequest csr, PrivateKey identityKey, X509Cert identityCert)
@@ -323,20 +521,20 @@ public abstract class Client {
     Args.notNull(identityKey, "identityKey");
     Args.notNull(identityCert, "identityCert");
 
-    initIfNotInited();
+    CaInfo info = caInfo();
 
     if (!identityCert.isSelfSigned()) {
       throw new IllegalArgumentException("identityCert is not self-signed");
     }
 
-    return enroll(MessageType.PKCSReq, csr, identityKey, identityCert);
+    return join(enrollAsync(info, MessageType.PKCSReq, csr, identityKey, identityCert));
   } // method scepPkcsReq
 
   public EnrolmentResponse scepRenewalReq(CertificationRequest csr, PrivateKey identityKey, X509Cert identityCert)
       throws ScepClientException {
-    initIfNotInited();
+    CaInfo info = caInfo();
 
-    if (!caCaps.supportsRenewal()) {
+    if (!info.caCaps.supportsRenewal()) {
       throw new OperationNotSupportedException("unsupported messageType '" + MessageType.RenewalReq + "'");
     }
 
@@ -344,42 +542,58 @@ public abstract class Client {
       throw new IllegalArgumentException("identityCert must not be self-signed");
     }
 
-    return enroll(MessageType.RenewalReq, csr, identityKey, identityCert);
+    return join(enrollAsync(info, MessageType.RenewalReq, csr, identityKey, identityCert));
   } // method scepRenewalReq
 
-  private EnrolmentResponse enroll(
-      MessageType messageType, CertificationRequest csr, PrivateKey identityKey, X509Cert identityCert)
-      throws ScepClientException {
+  private CompletableFuture<EnrolmentResponse> enrollAsync(
+      CaInfo info, MessageType messageType, CertificationRequest csr, PrivateKey identityKey,
+      X509Cert identityCert) {
     TransactionId tid;
     try {
       tid = TransactionId.sha1TransactionId(csr.getCertificationRequestInfo().getSubjectPublicKeyInfo());
     } catch (InvalidKeySpecException ex) {
-      throw new ScepClientException(ex.getMessage(), ex);
+      return CompletableFuture.failedFuture(new ScepClientException(ex.getMessage(), ex));
     }
     PkiMessage pkiMessage = new PkiMessage(tid, messageType);
 
     pkiMessage.setMessageData(csr);
-    ContentInfo envRequest = encryptThenSign(pkiMessage, identityKey, identityCert);
-    ScepHttpResponse httpResp = httpSend(Operation.PKIOperation, envRequest);
+    return sendEnrolmentRequest(info, pkiMessage, identityKey, identityCert);
+  } // method enrollAsync
 
-    CMSSignedData cmsSignedData = parsePkiMessage(httpResp.getContentBytes());
-    DecodedPkiMessage response = decode(cmsSignedData, identityKey, identityCert);
-    assertSameNonce(pkiMessage, response);
-    return new EnrolmentResponse(response);
-  } // method enroll
+  private CompletableFuture<EnrolmentResponse> sendEnrolmentRequest(
+      CaInfo info, PkiMessage pkiMessage, PrivateKey identityKey, X509Cert identityCert) {
+    ContentInfo envRequest;
+    try {
+      envRequest = encryptThenSign(info, pkiMessage, identityKey, identityCert);
+    } catch (ScepClientException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+
+    return httpSendAsync(info.caCaps, Operation.PKIOperation, envRequest).thenApply(httpResp -> {
+      try {
+        CMSSignedData cmsSignedData = parsePkiMessage(httpResp.getContentBytes());
+        DecodedPkiMessage response = decode(info, cmsSignedData, identityKey, identityCert);
+        assertSameNonce(pkiMessage, response);
+        return new EnrolmentResponse(response);
+      } catch (ScepClientException ex) {
+        throw new CompletionException(ex);
+      }
+    });
+  } // method sendEnrolmentRequest
 
   public AuthorityCertStore scepNextCaCert() throws ScepClientException {
-    initIfNotInited();
+    CaInfo info = caInfo();
 
-    if (!this.caCaps.supportsGetNextCACert()) {
+    if (!info.caCaps.supportsGetNextCACert()) {
       throw new OperationNotSupportedException("unsupported operation '" + Operation.GetNextCACert.getCode() + "'");
     }
 
-    return retrieveNextCaAuthorityCertStore(httpSend(Operation.GetNextCACert));
+    return retrieveNextCaAuthorityCertStore(info, httpSend(Operation.GetNextCACert));
   }
 
-  private ContentInfo encryptThenSign(PkiMessage request, PrivateKey identityKey, X509Cert identityCert)
-      throws ScepClientException {
+  private ContentInfo encryptThenSign(
+      CaInfo info, PkiMessage request, PrivateKey identityKey, X509Cert identityCert) throws ScepClientException {
+    CaCaps caCaps = info.caCaps;
     HashAlgo hashAlgo = caCaps.mostSecureHashAlgo();
     ASN1ObjectIdentifier encAlgId;
     if (caCaps.supportsAES()) {
@@ -393,7 +607,7 @@ public abstract class Client {
     try {
       SignAlgo signatureAlgorithm = SignAlgo.getInstance(identityKey, hashAlgo, null);
       return request.encode(identityKey, signatureAlgorithm, identityCert,
-          new X509Cert[]{identityCert}, authorityCertStore.getEncryptionCert(), encAlgId);
+          new X509Cert[]{identityCert}, info.authorityCertStore.getEncryptionCert(), encAlgId);
     } catch (EncodeException | NoSuchAlgorithmException ex) {
       throw new ScepClientException(ex);
     }
@@ -402,7 +616,8 @@ public abstract class Client {
   public void destroy() {
   }
 
-  private AuthorityCertStore retrieveNextCaAuthorityCertStore(ScepHttpResponse httpResp) throws ScepClientException {
+  private AuthorityCertStore retrieveNextCaAuthorityCertStore(CaInfo info, ScepHttpResponse httpResp)
+      throws ScepClientException {
     String ct = httpResp.getContentType();
 
     if (!ScepConstants.CT_X509_NEXT_CA_CERT.equalsIgnoreCase(ct)) {
@@ -418,7 +633,7 @@ public abstract class Client {
 
     DecodedNextCaMessage resp;
     try {
-      resp = DecodedNextCaMessage.decode(cmsSignedData, responseSignerCerts);
+      resp = DecodedNextCaMessage.decode(cmsSignedData, info.responseSignerCerts);
     } catch (DecodeException ex) {
       throw new ScepClientException("could not decode response: " + ex.getMessage(), ex);
     }
@@ -444,24 +659,39 @@ public abstract class Client {
       }
     }
 
-    if (!resp.getSignatureCert().equals(authorityCertStore.getSignatureCert())) {
+    if (!resp.getSignatureCert().equals(info.authorityCertStore.getSignatureCert())) {
       throw new ScepClientException("the signature certificate must not be trusted");
     }
 
     return resp.getAuthorityCertStore();
   }
 
-  private void initIfNotInited() throws ScepClientException {
-    if (caCaps == null) {
-      init();
+  /**
+   * Returns the current CA capabilities and certificate store, retrieves them if not available yet
+   * or expired. Only one thread retrieves them, the others wait for the result.
+   */
+  private CaInfo caInfo() throws ScepClientException {
+    CaInfo info = caInfo;
+    if (info != null && info.expiresAt > Clock.systemUTC().millis()) {
+      return info;
     }
-  }
 
-  private DecodedPkiMessage decode(CMSSignedData pkiMessage, PrivateKey recipientKey, X509Cert recipientCert)
+    synchronized (refreshLock) {
+      // may have been retrieved by another thread in the meantime.
+      info = caInfo;
+      if (info != null && info.expiresAt > Clock.systemUTC().millis()) {
+        return info;
+      }
+      return refresh0();
+    }
+  } // method caInfo
+
+  private DecodedPkiMessage decode(
+      CaInfo info, CMSSignedData pkiMessage, PrivateKey recipientKey, X509Cert recipientCert)
       throws ScepClientException {
     DecodedPkiMessage resp;
     try {
-      resp = DecodedPkiMessage.decode(pkiMessage, recipientKey, recipientCert, responseSignerCerts);
+      resp = DecodedPkiMessage.decode(pkiMessage, recipientKey, recipientCert, info.responseSignerCerts);
     } catch (DecodeException ex) {
       throw new ScepClientException(ex);
     }
@@ -492,7 +722,7 @@ public abstract class Client {
       }
     }
 
-    if (!resp.getSignatureCert().equals(authorityCertStore.getSignatureCert())) {
+    if (!resp.getSignatureCert().equals(info.authorityCertStore.getSignatureCert())) {
       throw new ScepClientException("the signature certificate must not be trusted");
     }
     return resp;
@@ -506,21 +736,19 @@ public abstract class Client {
     }
   }
 
-  private static AuthorityCertStore retrieveCaCertStore(ScepHttpResponse resp, CaCertValidator caValidator)
+  private static AuthorityCertStore retrieveCaCertStore(String ct, byte[] content, CaCertValidator caValidator)
       throws ScepClientException {
-    String ct = resp.getContentType();
-
     X509Cert caCert = null;
     List<X509Cert> raCerts = new LinkedList<>();
 
     if (ScepConstants.CT_X509_CA_CERT.equalsIgnoreCase(ct)) {
       try {
-        caCert = X509Util.parseCert(resp.getContentBytes());
+        caCert = X509Util.parseCert(content);
       } catch (CertificateEncodingException ex) {
         throw new ScepClientException("error parsing certificate: " + ex.getMessage(), ex);
       }
     } else if (ScepConstants.CT_X509_CA_RA_CERT.equalsIgnoreCase(ct)) {
-      ContentInfo contentInfo = ContentInfo.getInstance(resp.getContentBytes());
+      ContentInfo contentInfo = ContentInfo.getInstance(content);
 
       SignedData signedData;
       try {
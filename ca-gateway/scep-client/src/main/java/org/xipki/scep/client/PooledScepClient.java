@@ -0,0 +1,195 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.scep.client;
+
+import org.xipki.util.http.HttpStatusCode;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A concrete SCEP client based on {@link HttpClient}. The connections are kept alive and reused
+ * by all threads sharing this client, and the async methods do not block the calling thread while
+ * waiting for the response. The number of in-flight requests can be limited, requests exceeding
+ * the limit are queued without blocking the caller.
+ *
+ * @author Lijun Liao (xipki)
+ * @since 6.5.4
+ */
+
+public class PooledScepClient extends Client {
+
+  private final HttpClient client;
+
+  private final Duration requestTimeout;
+
+  private final int maxConcurrentRequests;
+
+  private final Queue<Runnable> waiting = new ArrayDeque<>();
+
+  private int active;
+
+  public PooledScepClient(CaIdentifier caId, CaCertValidator caCertValidator) {
+    this(caId, caCertValidator, null, 10, 60, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param caId the CA identifier.
+   * @param caCertValidator the CA certificate validator.
+   * @param sslContext the SSL context, may be {@code null}.
+   * @param connectTimeout connect timeout in seconds, non-positive for no timeout.
+   * @param requestTimeout request timeout in seconds, non-positive for no timeout.
+   * @param maxConcurrentRequests maximal number of in-flight requests, non-positive for no limit.
+   */
+  public PooledScepClient(CaIdentifier caId, CaCertValidator caCertValidator, SSLContext sslContext,
+                          int connectTimeout, int requestTimeout, int maxConcurrentRequests) {
+    super(caId, caCertValidator);
+    HttpClient.Builder builder = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .followRedirects(HttpClient.Redirect.NEVER);
+    if (sslContext != null) {
+      builder.sslContext(sslContext);
+    }
+    if (connectTimeout > 0) {
+      builder.connectTimeout(Duration.ofSeconds(connectTimeout));
+    }
+
+    this.client = builder.build();
+    this.requestTimeout = requestTimeout > 0 ? Duration.ofSeconds(requestTimeout) : null;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  @Override
+  protected ScepHttpResponse httpGet(String url) throws ScepClientException {
+    return join(httpGetAsync(url));
+  }
+
+  @Override
+  protected ScepHttpResponse httpPost(String url, String requestContentType, byte[] request)
+      throws ScepClientException {
+    return join(httpPostAsync(url, requestContentType, request));
+  }
+
+  @Override
+  protected CompletableFuture<ScepHttpResponse> httpGetAsync(String url) {
+    return send(newRequestBuilder(url).GET().build());
+  }
+
+  @Override
+  protected CompletableFuture<ScepHttpResponse> httpPostAsync(String url, String requestContentType, byte[] request) {
+    HttpRequest.Builder builder = newRequestBuilder(url).POST(HttpRequest.BodyPublishers.ofByteArray(request));
+    if (requestContentType != null) {
+      builder.header("Content-Type", requestContentType);
+    }
+    return send(builder.build());
+  }
+
+  private HttpRequest.Builder newRequestBuilder(String url) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url));
+    if (requestTimeout != null) {
+      builder.timeout(requestTimeout);
+    }
+    return builder;
+  }
+
+  private CompletableFuture<ScepHttpResponse> send(HttpRequest request) {
+    CompletableFuture<HttpResponse<byte[]>> future = maxConcurrentRequests > 0
+        ? submit(request) : client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+
+    return future.handle((resp, ex) -> {
+      try {
+        if (ex != null) {
+          Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+          throw new ScepClientException(cause);
+        }
+        return parseResp(resp);
+      } catch (ScepClientException e) {
+        throw new CompletionException(e);
+      }
+    });
+  } // method send
+
+  private CompletableFuture<HttpResponse<byte[]>> submit(HttpRequest request) {
+    CompletableFuture<HttpResponse<byte[]>> result = new CompletableFuture<>();
+    Runnable start = () -> {
+      CompletableFuture<HttpResponse<byte[]>> future;
+      try {
+        future = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+      } catch (RuntimeException ex) {
+        release();
+        result.completeExceptionally(ex);
+        return;
+      }
+
+      future.whenComplete((value, ex) -> {
+        release();
+        if (ex != null) {
+          result.completeExceptionally(ex);
+        } else {
+          result.complete(value);
+        }
+      });
+    };
+
+    boolean runNow;
+    synchronized (waiting) {
+      runNow = active < maxConcurrentRequests;
+      if (runNow) {
+        active++;
+      } else {
+        waiting.add(start);
+      }
+    }
+
+    if (runNow) {
+      start.run();
+    }
+    return result;
+  } // method submit
+
+  private void release() {
+    Runnable next;
+    synchronized (waiting) {
+      next = waiting.poll();
+      if (next == null) {
+        active--;
+      }
+    }
+
+    if (next != null) {
+      next.run();
+    }
+  }
+
+  private static ScepHttpResponse parseResp(HttpResponse<byte[]> resp) throws ScepClientException {
+    int statusCode = resp.statusCode();
+    byte[] content = resp.body();
+    if (statusCode != HttpStatusCode.SC_OK) {
+      String msg = "server returned status code " + statusCode;
+      if (content != null && content.length != 0) {
+        msg += ", message: " + new String(content, StandardCharsets.UTF_8);
+      }
+      throw new ScepClientException(msg);
+    }
+
+    String contentType = resp.headers().firstValue("Content-Type").orElse(null);
+    if (contentType == null) {
+      throw new ScepClientException("server returned no Content-Type");
+    }
+
+    return new ScepHttpResponse(contentType, content == null ? new byte[0] : content);
+  }
+
+}
@@ -14,6 +14,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.xipki.scep.client.CaCertValidator;
 import org.xipki.scep.client.CaIdentifier;
+import org.xipki.scep.client.Client;
 import org.xipki.scep.client.EnrolmentResponse;
 import org.xipki.scep.client.ScepClient;
 import org.xipki.scep.message.AuthorityCertStore;
@@ -77,6 +78,10 @@ public abstract class AbstractCaTest {
   public void init() {
   }
 
+  protected Client newClient(CaIdentifier caId, CaCertValidator caCertValidator) {
+    return new ScepClient(caId, caCertValidator, new DefaultCurl());
+  }
+
   protected CaCaps getDefaultCaCaps() {
     final CaCaps caCaps = new CaCaps();
     caCaps.addCapabilities(CaCapability.DES3, CaCapability.AES, CaCapability.SHA1,
@@ -115,7 +120,7 @@ public abstract class AbstractCaTest {
   private void doTest(KeyPair keypair) throws Exception {
     CaIdentifier caId = new CaIdentifier("http://localhost:" + port + "/scep/pkiclient.exe", null);
     CaCertValidator caCertValidator = new CaCertValidator.PreprovisionedCaCertValidator(scepServer.getCaCert());
-    ScepClient client = new ScepClient(caId, caCertValidator, new DefaultCurl());
+    Client client = newClient(caId, caCertValidator);
 
     client.refresh();
 
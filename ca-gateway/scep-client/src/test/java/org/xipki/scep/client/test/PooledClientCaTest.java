@@ -0,0 +1,30 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.scep.client.test;
+
+import org.xipki.scep.client.CaCertValidator;
+import org.xipki.scep.client.CaIdentifier;
+import org.xipki.scep.client.Client;
+import org.xipki.scep.client.PooledScepClient;
+import org.xipki.scep.transaction.CaCapability;
+
+/**
+ * Test the basic CA operation with the pooled client.
+ *
+ * @author Lijun Liao (xipki)
+ */
+
+public class PooledClientCaTest extends AbstractCaTest {
+
+  @Override
+  protected CaCapability[] getExcludedCaCaps() {
+    return null;
+  }
+
+  @Override
+  protected Client newClient(CaIdentifier caId, CaCertValidator caCertValidator) {
+    return new PooledScepClient(caId, caCertValidator);
+  }
+
+}
@@ -18,6 +18,10 @@ public class CaAuditConstants {
 
   public static final String NAME_certprofile = "certprofile";
 
+  public static final String NAME_crl_lease_ms = "crl_lease_ms";
+
+  public static final String NAME_crl_lease_token = "crl_lease_token";
+
   public static final String NAME_crl_number = "crl_number";
 
   public static final String NAME_basecrl_number = "basecrl_number";
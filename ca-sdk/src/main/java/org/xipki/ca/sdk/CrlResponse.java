@@ -20,6 +20,10 @@ import java.io.IOException;
 
 public class CrlResponse extends SdkResponse {
 
+  /**
+   * The DER-encoded CRL. {@code null} if the requestor has already the current CRL, namely
+   * the thisUpdate specified in the {@link GetCRLRequest} is not before that of the current CRL.
+   */
   private final byte[] crl;
 
   public CrlResponse(byte[] crl) {
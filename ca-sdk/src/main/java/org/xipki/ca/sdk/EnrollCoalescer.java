@@ -0,0 +1,242 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.sdk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.pki.ErrorCode;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects concurrent single-entry enrollment requests for the same CA within a short delay, or up
+ * to a maximal number of entries, and sends them in one request to the CA. The results are
+ * dispatched back to the individual callers.
+ * <p>
+ * Only requests with exactly one entry, without group enrollment, explicit confirmation, transaction
+ * ID and CA certificates are coalesced, since the CA processes the entries of such a request
+ * independently. If the CA rejects the whole batch (e.g. because of one invalid entry), the entries
+ * are sent again one by one, so that each caller gets its own result.
+ *
+ * @author Lijun Liao (xipki)
+ * @since 6.5.4
+ */
+
+class EnrollCoalescer {
+
+  private static class Pending {
+
+    private final EnrollCertsRequest request;
+
+    private final CompletableFuture<EnrollOrPollCertsResponse> future = new CompletableFuture<>();
+
+    Pending(EnrollCertsRequest request) {
+      this.request = request;
+    }
+
+  } // class Pending
+
+  private static class Batch {
+
+    private final String ca;
+
+    private final boolean reenroll;
+
+    private final List<Pending> items = new ArrayList<>();
+
+    private ScheduledFuture<?> timer;
+
+    Batch(String ca, boolean reenroll) {
+      this.ca = ca;
+      this.reenroll = reenroll;
+    }
+
+  } // class Batch
+
+  private static final Logger LOG = LoggerFactory.getLogger(EnrollCoalescer.class);
+
+  private static final AtomicInteger threadIndex = new AtomicInteger(1);
+
+  private final SdkClient client;
+
+  private final int maxBatchSize;
+
+  private final int maxDelayMs;
+
+  private final ScheduledThreadPoolExecutor executor;
+
+  private final Map<String, Batch> batches = new HashMap<>();
+
+  EnrollCoalescer(SdkClient client, int maxBatchSize, int maxDelayMs) {
+    this.client = client;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayMs = maxDelayMs;
+    this.executor = new ScheduledThreadPoolExecutor(2, r -> {
+      Thread t = new Thread(r, "sdk-enroll-batch-" + threadIndex.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+    this.executor.setRemoveOnCancelPolicy(true);
+  }
+
+  static boolean isCoalescable(EnrollCertsRequest req) {
+    EnrollCertsRequest.Entry[] entries = req.getEntries();
+    return entries != null && entries.length == 1
+        && !Boolean.TRUE.equals(req.getGroupEnroll())
+        && !Boolean.TRUE.equals(req.getExplicitConfirm())
+        && req.getTransactionId() == null
+        && req.getConfirmWaitTimeMs() == null
+        && req.getCaCertMode() == CertsMode.NONE;
+  }
+
+  CompletableFuture<EnrollOrPollCertsResponse> submit(String ca, boolean reenroll, EnrollCertsRequest req) {
+    Pending pending = new Pending(req);
+    String key = (reenroll ? "reenroll/" : "enroll/") + ca;
+
+    Batch fullBatch = null;
+    synchronized (batches) {
+      Batch batch = batches.get(key);
+      if (batch == null) {
+        Batch newBatch = new Batch(ca, reenroll);
+        newBatch.timer = executor.schedule(() -> flush(key, newBatch), maxDelayMs, TimeUnit.MILLISECONDS);
+        batches.put(key, newBatch);
+        batch = newBatch;
+      }
+
+      batch.items.add(pending);
+      if (batch.items.size() >= maxBatchSize) {
+        batches.remove(key);
+        batch.timer.cancel(false);
+        fullBatch = batch;
+      }
+    }
+
+    if (fullBatch != null) {
+      send(fullBatch);
+    }
+    return pending.future;
+  } // method submit
+
+  private void flush(String key, Batch batch) {
+    synchronized (batches) {
+      if (batches.get(key) != batch) {
+        // already sent because it was full
+        return;
+      }
+      batches.remove(key);
+    }
+    send(batch);
+  }
+
+  private void send(Batch batch) {
+    List<Pending> items = batch.items;
+    final int n = items.size();
+    if (n == 1) {
+      sendSingle(batch, items.get(0));
+      return;
+    }
+
+    EnrollCertsRequest.Entry[] entries = new EnrollCertsRequest.Entry[n];
+    for (int i = 0; i < n; i++) {
+      entries[i] = copy(items.get(i).request.getEntries()[0], BigInteger.valueOf(i + 1));
+    }
+
+    EnrollCertsRequest req = new EnrollCertsRequest();
+    req.setCaCertMode(CertsMode.NONE);
+    req.setExplicitConfirm(false);
+    req.setEntries(entries);
+
+    LOG.debug("send {} coalesced enrollment entries to CA {}", n, batch.ca);
+
+    client.enrollCertsAsync0(batch.ca, batch.reenroll, req).whenComplete((resp, ex) -> {
+      if (ex == null) {
+        dispatch(resp, items);
+        return;
+      }
+
+      Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+      if (cause instanceof SdkErrorResponseException
+          && ((SdkErrorResponseException) cause).getErrorResponse().getCode() != ErrorCode.SYSTEM_UNAVAILABLE) {
+        // the CA rejected the whole request, process each entry separately.
+        LOG.info("CA {} rejected {} coalesced enrollment entries ({}), send them separately",
+            batch.ca, n, cause.getMessage());
+        for (Pending item : items) {
+          sendSingle(batch, item);
+        }
+      } else {
+        for (Pending item : items) {
+          item.future.completeExceptionally(cause);
+        }
+      }
+    });
+  } // method send
+
+  private void sendSingle(Batch batch, Pending item) {
+    client.enrollCertsAsync0(batch.ca, batch.reenroll, item.request).whenComplete((resp, ex) -> {
+      if (ex == null) {
+        item.future.complete(resp);
+      } else {
+        item.future.completeExceptionally(
+            ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+      }
+    });
+  }
+
+  private static void dispatch(EnrollOrPollCertsResponse resp, List<Pending> items) {
+    Map<BigInteger, EnrollOrPollCertsResponse.Entry> entries = new HashMap<>();
+    for (EnrollOrPollCertsResponse.Entry entry : resp.getEntries()) {
+      entries.put(entry.getId(), entry);
+    }
+
+    for (int i = 0; i < items.size(); i++) {
+      Pending item = items.get(i);
+      EnrollOrPollCertsResponse.Entry entry = entries.get(BigInteger.valueOf(i + 1));
+      if (entry == null) {
+        item.future.completeExceptionally(new SdkErrorResponseException(ErrorCode.SYSTEM_FAILURE,
+            "found no response entry for the coalesced request entry"));
+        continue;
+      }
+
+      EnrollOrPollCertsResponse single = new EnrollOrPollCertsResponse();
+      single.setTransactionId(resp.getTransactionId());
+      single.setExtraCerts(resp.getExtraCerts());
+      single.setEntries(new EnrollOrPollCertsResponse.Entry[]{
+          new EnrollOrPollCertsResponse.Entry(item.request.getEntries()[0].getCertReqId(),
+              entry.getError(), entry.getCert(), entry.getPrivateKey())});
+      item.future.complete(single);
+    }
+  } // method dispatch
+
+  private static EnrollCertsRequest.Entry copy(EnrollCertsRequest.Entry entry, BigInteger certReqId) {
+    EnrollCertsRequest.Entry copy = new EnrollCertsRequest.Entry();
+    copy.setCertReqId(certReqId);
+    copy.setCertprofile(entry.getCertprofile());
+    copy.setP10req(entry.getP10req());
+    copy.setSubject(entry.getSubject());
+    copy.setSubjectPublicKey(entry.getSubjectPublicKey());
+    copy.setExtensions(entry.getExtensions());
+    copy.setNotBefore(entry.getNotBefore());
+    copy.setNotAfter(entry.getNotAfter());
+    copy.setOldCertInfo(entry.getOldCertInfo());
+    return copy;
+  }
+
+  /**
+   * Shuts down the scheduler. The batches already scheduled are still sent.
+   */
+  void close() {
+    executor.shutdown();
+  }
+
+}
@@ -0,0 +1,190 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.sdk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Transport based on {@link HttpClient}. The connections are kept alive and reused, with HTTP/2
+ * (if enabled and supported by the server) several requests are multiplexed over one connection.
+ * The number of concurrent requests per CA can be limited, requests exceeding the limit are queued
+ * without blocking the caller.
+ * <p>
+ * Custom hostname verifiers are not supported, {@link HttpClient} always applies the standard
+ * HTTPS hostname verification.
+ *
+ * @author Lijun Liao (xipki)
+ * @since 6.5.4
+ */
+
+class PooledHttpTransport {
+
+  /**
+   * Limits the number of concurrently running tasks, further tasks are queued.
+   */
+  private static class Limiter {
+
+    private final int maxActive;
+
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+
+    private int active;
+
+    Limiter(int maxActive) {
+      this.maxActive = maxActive;
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+      CompletableFuture<T> result = new CompletableFuture<>();
+      Runnable start = () -> {
+        CompletableFuture<T> future;
+        try {
+          future = task.get();
+        } catch (RuntimeException ex) {
+          release();
+          result.completeExceptionally(ex);
+          return;
+        }
+
+        future.whenComplete((value, ex) -> {
+          release();
+          if (ex != null) {
+            result.completeExceptionally(ex);
+          } else {
+            result.complete(value);
+          }
+        });
+      };
+
+      boolean runNow;
+      synchronized (this) {
+        runNow = active < maxActive;
+        if (runNow) {
+          active++;
+        } else {
+          waiting.add(start);
+        }
+      }
+
+      if (runNow) {
+        start.run();
+      }
+      return result;
+    }
+
+    private void release() {
+      Runnable next;
+      synchronized (this) {
+        next = waiting.poll();
+        if (next == null) {
+          active--;
+        }
+      }
+
+      if (next != null) {
+        next.run();
+      }
+    }
+
+  } // class Limiter
+
+  private static final Logger LOG = LoggerFactory.getLogger(PooledHttpTransport.class);
+
+  private static final String NULL_CA = "-";
+
+  private final HttpClient client;
+
+  private final Duration requestTimeout;
+
+  private final int maxConcurrentRequestsPerCa;
+
+  private final ConcurrentHashMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param sslContext the SSL context, may be {@code null}.
+   * @param hostnameVerifier the configured hostname verifier, may be {@code null}. It is not used,
+   *        a warning is logged if it is not the default one.
+   * @param http2 whether to prefer HTTP/2.
+   * @param connectTimeout connect timeout in seconds, non-positive for no timeout.
+   * @param requestTimeout request timeout in seconds, non-positive for no timeout.
+   * @param maxConcurrentRequestsPerCa maximal number of concurrent requests per CA, non-positive for
+   *        no limit.
+   */
+  PooledHttpTransport(SSLContext sslContext, HostnameVerifier hostnameVerifier, boolean http2,
+                      int connectTimeout, int requestTimeout, int maxConcurrentRequestsPerCa) {
+    if (hostnameVerifier != null && hostnameVerifier != HttpsURLConnection.getDefaultHostnameVerifier()) {
+      LOG.warn("the pooled transport ignores the configured hostnameVerifier {}, the standard HTTPS "
+          + "hostname verification is applied", hostnameVerifier.getClass().getName());
+    }
+
+    HttpClient.Builder builder = HttpClient.newBuilder()
+        .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+        .followRedirects(HttpClient.Redirect.NEVER);
+    if (sslContext != null) {
+      builder.sslContext(sslContext);
+    }
+    if (connectTimeout > 0) {
+      builder.connectTimeout(Duration.ofSeconds(connectTimeout));
+    }
+
+    this.client = builder.build();
+    this.requestTimeout = requestTimeout > 0 ? Duration.ofSeconds(requestTimeout) : null;
+    this.maxConcurrentRequestsPerCa = maxConcurrentRequestsPerCa;
+  }
+
+  /**
+   * Sends the request asynchronously.
+   *
+   * @param ca the CA name, may be {@code null}.
+   * @param url the URL.
+   * @param contentType the content type of the request, ignored if content is {@code null}.
+   * @param content the content, {@code null} to send a GET request.
+   * @param accept the expected content type of the response.
+   * @return the future of the response.
+   */
+  CompletableFuture<HttpResponse<byte[]>> send(
+      String ca, String url, String contentType, byte[] content, String accept) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url));
+    if (content == null) {
+      builder.GET();
+    } else {
+      builder.POST(HttpRequest.BodyPublishers.ofByteArray(content)).header("Content-Type", contentType);
+    }
+
+    if (accept != null) {
+      builder.header("Accept", accept);
+    }
+
+    if (requestTimeout != null) {
+      builder.timeout(requestTimeout);
+    }
+
+    HttpRequest request = builder.build();
+    if (maxConcurrentRequestsPerCa <= 0) {
+      return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    Limiter limiter = limiters.computeIfAbsent(ca == null ? NULL_CA : ca,
+        k -> new Limiter(maxConcurrentRequestsPerCa));
+    return limiter.submit(() -> client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()));
+  } // method send
+
+}
@@ -19,10 +19,16 @@ import org.xipki.util.http.XiHttpClient;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLSocketFactory;
+import java.io.Closeable;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.http.HttpTimeoutException;
 import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.xipki.ca.sdk.SdkConstants.CMD_cacert;
 import static org.xipki.ca.sdk.SdkConstants.CMD_cacert2;
@@ -51,7 +57,7 @@ import static org.xipki.ca.sdk.SdkConstants.CMD_unsuspend_cert;
  * @since 6.0.0
  */
 
-public class SdkClient {
+public class SdkClient implements Closeable {
 
   private static final Logger LOG = LoggerFactory.getLogger(SdkClient.class);
 
@@ -61,24 +67,74 @@ public class SdkClient {
 
   private final XiHttpClient client;
 
+  private final PooledHttpTransport transport;
+
+  private final EnrollCoalescer coalescer;
+
   private boolean logReqResp = false;
 
   public SdkClient(SdkClientConf conf) throws ObjectCreationException {
     this.serverUrl = conf.getServerUrl();
     SslContextConf sdkSslConf = SslContextConf.ofSslConf(conf.getSsl());
-    this.client = new XiHttpClient(sdkSslConf.getSslSocketFactory(), sdkSslConf.getHostnameVerifier());
+    if (conf.isPooledTransport()) {
+      this.client = null;
+      this.transport = new PooledHttpTransport(sdkSslConf.getSslContext(), sdkSslConf.getHostnameVerifier(),
+          conf.isHttp2(), conf.getConnectTimeout(), conf.getRequestTimeout(), conf.getMaxConcurrentRequestsPerCa());
+    } else {
+      this.client = new XiHttpClient(sdkSslConf.getSslSocketFactory(), sdkSslConf.getHostnameVerifier());
+      this.transport = null;
+    }
+
+    if (conf.getEnrollBatchSize() > 1) {
+      if (transport == null) {
+        throw new ObjectCreationException("enrollBatchSize > 1 requires pooledTransport");
+      }
+
+      LOG.info("coalesce enrollments: up to {} entries within {} ms", conf.getEnrollBatchSize(),
+          conf.getEnrollBatchDelay());
+      this.coalescer = new EnrollCoalescer(this, conf.getEnrollBatchSize(), conf.getEnrollBatchDelay());
+    } else {
+      this.coalescer = null;
+    }
   }
 
   public SdkClient(String serverUrl, SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
     this.serverUrl = serverUrl;
     this.client = new XiHttpClient(sslSocketFactory, hostnameVerifier);
+    this.transport = null;
+    this.coalescer = null;
   }
 
   public void setLogReqResp(boolean logReqResp) {
     this.logReqResp = logReqResp;
   }
 
+  /**
+   * Closes this client. The enrollment requests already being coalesced are still sent, new
+   * requests must not be sent after this call.
+   */
+  @Override
+  public void close() {
+    if (coalescer != null) {
+      coalescer.close();
+    }
+  }
+
+  /**
+   * Returns whether the requests are sent via the pooled transport. Only in this case
+   * {@link #sendAsync(String, String, SdkRequest)} does not block the calling thread.
+   *
+   * @return whether the pooled transport is used.
+   */
+  public boolean isPooledTransport() {
+    return transport != null;
+  }
+
   public byte[] send(String ca, String command, SdkRequest request) throws SdkErrorResponseException {
+    if (transport != null) {
+      return join(sendAsync(ca, command, request));
+    }
+
     String ct = request == null ? null : CONTENT_TYPE_CBOR;
     HttpRespContent resp = null;
 
@@ -88,13 +144,7 @@ public class SdkClient {
     byte[] encodedReq = null;
     try {
       if (viaPost) {
-        try {
-          encodedReq = request.encode();
-        } catch (EncodeException e) {
-          LogUtil.warn(LOG, e, e.getMessage());
-          throw new SdkErrorResponseException(ErrorCode.CLIENT_REQUEST_ENCODE_ERROR, e.getMessage());
-        }
-
+        encodedReq = encodeRequest(request);
         resp = client.httpPost(prefix + command, ct, encodedReq, CONTENT_TYPE_CBOR);
       } else {
         resp = client.httpGet(prefix + command);
@@ -108,21 +158,107 @@ public class SdkClient {
       }
     }
 
-    if (resp.isOK()) {
-      return resp.getContent();
+    return parseResponse(resp.isOK(), resp.getContent());
+  } // method send
+
+  /**
+   * Sends the request asynchronously. With the pooled transport the calling thread is not blocked,
+   * otherwise the request is sent in the calling thread and a completed future is returned.
+   * The future completes exceptionally with {@link SdkErrorResponseException} on error.
+   *
+   * @param ca the CA name, may be {@code null}.
+   * @param command the command.
+   * @param request the request, {@code null} to send a GET request.
+   * @return the future of the response content.
+   */
+  public CompletableFuture<byte[]> sendAsync(String ca, String command, SdkRequest request) {
+    if (transport == null) {
+      try {
+        return CompletableFuture.completedFuture(send(ca, command, request));
+      } catch (SdkErrorResponseException ex) {
+        return CompletableFuture.failedFuture(ex);
+      }
+    }
+
+    String prefix = ca == null ? serverUrl + "-/" : serverUrl + ca + "/";
+    boolean viaPost = request != null;
+
+    byte[] encodedReq;
+    try {
+      encodedReq = viaPost ? encodeRequest(request) : null;
+    } catch (SdkErrorResponseException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+
+    return transport.send(ca, prefix + command, CONTENT_TYPE_CBOR, encodedReq, CONTENT_TYPE_CBOR)
+        .handle((resp, ex) -> {
+          if (logReqResp && LOG.isDebugEnabled()) {
+            LogUtil.logReqResp("SDK Gateway", LOG, logReqResp, viaPost, command,
+                encodedReq, resp == null ? null : resp.body());
+          }
+
+          try {
+            if (ex != null) {
+              Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+              if (cause instanceof HttpTimeoutException) {
+                throw new SdkErrorResponseException(ErrorCode.SYSTEM_UNAVAILABLE, "timeout sending request to the CA");
+              }
+              LogUtil.warn(LOG, cause, "error sending request to the CA");
+              throw new SdkErrorResponseException(ErrorCode.SYSTEM_UNAVAILABLE, "IO error sending request to the CA");
+            }
+
+            return parseResponse(resp.statusCode() == HttpURLConnection.HTTP_OK, resp.body());
+          } catch (SdkErrorResponseException e) {
+            throw new CompletionException(e);
+          }
+        });
+  } // method sendAsync
+
+  private static byte[] encodeRequest(SdkRequest request) throws SdkErrorResponseException {
+    try {
+      return request.encode();
+    } catch (EncodeException e) {
+      LogUtil.warn(LOG, e, e.getMessage());
+      throw new SdkErrorResponseException(ErrorCode.CLIENT_REQUEST_ENCODE_ERROR, e.getMessage());
+    }
+  }
+
+  private static byte[] parseResponse(boolean ok, byte[] content) throws SdkErrorResponseException {
+    if (ok) {
+      return content;
     }
 
-    byte[] errorContent = resp.getContent();
-    if (errorContent == null) {
+    if (content == null || content.length == 0) {
       throw new SdkErrorResponseException(ErrorCode.SYSTEM_FAILURE, null);
     } else {
       try {
-        throw new SdkErrorResponseException(ErrorResponse.decode(errorContent));
+        throw new SdkErrorResponseException(ErrorResponse.decode(content));
       } catch (DecodeException e) {
         throw new SdkErrorResponseException(ErrorCode.CLIENT_RESPONSE_DECODE_ERROR, e.getMessage());
       }
     }
-  } // method send
+  }
+
+  /**
+   * Waits for the future and unwraps the {@link SdkErrorResponseException}.
+   *
+   * @param future the future returned by one of the async methods.
+   * @param <T> type of the result.
+   * @return the result.
+   * @throws SdkErrorResponseException if the future completed exceptionally.
+   */
+  public static <T> T join(CompletableFuture<T> future) throws SdkErrorResponseException {
+    try {
+      return future.join();
+    } catch (CompletionException | CancellationException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof SdkErrorResponseException) {
+        throw (SdkErrorResponseException) cause;
+      }
+      throw new SdkErrorResponseException(ErrorCode.SYSTEM_FAILURE,
+          cause == null ? ex.getMessage() : cause.getMessage());
+    }
+  }
 
   public boolean healthy(String ca) {
     try {
@@ -222,6 +358,16 @@ public class SdkClient {
     return currentCrl(ca, null, null, null);
   }
 
+  /**
+   * Gets the CRL.
+   *
+   * @param ca the CA name.
+   * @param crlNumber the CRL number, {@code null} for the current CRL.
+   * @param thisUpdate the thisUpdate of the known CRL, may be {@code null}.
+   * @param crlDp the CRL distribution point, may be {@code null}.
+   * @return the DER-encoded CRL, or {@code null} if the CRL is not newer than the given thisUpdate.
+   * @throws SdkErrorResponseException if error occurs.
+   */
   public byte[] currentCrl(String ca, BigInteger crlNumber, Instant thisUpdate, String crlDp)
       throws SdkErrorResponseException {
     GetCRLRequest req = new GetCRLRequest(crlNumber, thisUpdate, crlDp);
@@ -318,10 +464,27 @@ public class SdkClient {
 
   public EnrollOrPollCertsResponse enrollCerts(String ca, EnrollCertsRequest req) throws SdkErrorResponseException {
     checkEnrollCertsRequest(req);
+    if (coalescer != null && EnrollCoalescer.isCoalescable(req)) {
+      return join(coalescer.submit(ca, false, req));
+    }
+
     byte[] respBytes = send(ca, CMD_enroll, req);
     return checkEnrollResp(respBytes, req);
   }
 
+  public CompletableFuture<EnrollOrPollCertsResponse> enrollCertsAsync(String ca, EnrollCertsRequest req) {
+    try {
+      checkEnrollCertsRequest(req);
+    } catch (SdkErrorResponseException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+
+    if (coalescer != null && EnrollCoalescer.isCoalescable(req)) {
+      return coalescer.submit(ca, false, req);
+    }
+    return enrollCertsAsync0(ca, false, req);
+  }
+
   public EnrollOrPollCertsResponse enrollCrossCerts(String ca, EnrollCertsRequest req)
       throws SdkErrorResponseException {
     checkEnrollCertsRequest(req);
@@ -339,10 +502,35 @@ public class SdkClient {
   }
 
   public EnrollOrPollCertsResponse reenrollCerts(String ca, EnrollCertsRequest req) throws SdkErrorResponseException {
+    if (coalescer != null && EnrollCoalescer.isCoalescable(req)) {
+      return join(coalescer.submit(ca, true, req));
+    }
+
     byte[] respBytes = send(ca, CMD_reenroll, req);
     return checkEnrollResp(respBytes, req);
   }
 
+  public CompletableFuture<EnrollOrPollCertsResponse> reenrollCertsAsync(String ca, EnrollCertsRequest req) {
+    if (coalescer != null && EnrollCoalescer.isCoalescable(req)) {
+      return coalescer.submit(ca, true, req);
+    }
+    return enrollCertsAsync0(ca, true, req);
+  }
+
+  /**
+   * Sends the enrollment request without coalescing.
+   */
+  CompletableFuture<EnrollOrPollCertsResponse> enrollCertsAsync0(
+      String ca, boolean reenroll, EnrollCertsRequest req) {
+    return sendAsync(ca, reenroll ? CMD_reenroll : CMD_enroll, req).thenApply(respBytes -> {
+      try {
+        return checkEnrollResp(respBytes, req);
+      } catch (SdkErrorResponseException ex) {
+        throw new CompletionException(ex);
+      }
+    });
+  }
+
   private EnrollOrPollCertsResponse checkEnrollResp(byte[] respBytes, EnrollCertsRequest req)
       throws SdkErrorResponseException {
     EnrollOrPollCertsResponse resp;
@@ -389,6 +577,17 @@ public class SdkClient {
     }
   }
 
+  public CompletableFuture<RevokeCertsResponse> revokeCertsAsync(RevokeCertsRequest req) {
+    return sendAsync(null, CMD_revoke_cert, req).thenApply(respBytes -> {
+      try {
+        return RevokeCertsResponse.decode(respBytes);
+      } catch (DecodeException ex) {
+        throw new CompletionException(
+            new SdkErrorResponseException(ErrorCode.CLIENT_RESPONSE_DECODE_ERROR, ex.getMessage()));
+      }
+    });
+  }
+
   public UnSuspendOrRemoveCertsResponse unsuspendCerts(UnsuspendOrRemoveCertsRequest req)
       throws SdkErrorResponseException {
     byte[] respBytes = send(null, CMD_unsuspend_cert, req);
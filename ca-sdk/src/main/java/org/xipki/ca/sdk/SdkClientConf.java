@@ -22,6 +22,43 @@ public class SdkClientConf {
 
   private SslConf ssl;
 
+  /**
+   * Whether to use the pooled transport based on java.net.http.HttpClient. If false, the requests
+   * are sent via the blocking XiHttpClient.
+   */
+  private boolean pooledTransport;
+
+  /**
+   * Whether to prefer HTTP/2 in the pooled transport.
+   */
+  private boolean http2 = true;
+
+  /**
+   * Connect timeout in seconds of the pooled transport, 0 for no timeout.
+   */
+  private int connectTimeout = 10;
+
+  /**
+   * Request timeout in seconds of the pooled transport, 0 for no timeout.
+   */
+  private int requestTimeout = 60;
+
+  /**
+   * Maximal number of concurrent requests per CA of the pooled transport, 0 for no limit.
+   */
+  private int maxConcurrentRequestsPerCa;
+
+  /**
+   * Maximal number of single-entry enrollment requests coalesced into one request to the CA,
+   * 0 or 1 to disable the coalescing. Values greater than 1 require the pooled transport.
+   */
+  private int enrollBatchSize;
+
+  /**
+   * Maximal delay in milliseconds to wait for further enrollment requests to coalesce.
+   */
+  private int enrollBatchDelay = 5;
+
   public String getServerUrl() {
     return serverUrl;
   }
@@ -38,11 +75,81 @@ public class SdkClientConf {
     this.ssl = ssl;
   }
 
+  public boolean isPooledTransport() {
+    return pooledTransport;
+  }
+
+  public void setPooledTransport(boolean pooledTransport) {
+    this.pooledTransport = pooledTransport;
+  }
+
+  public boolean isHttp2() {
+    return http2;
+  }
+
+  public void setHttp2(boolean http2) {
+    this.http2 = http2;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getRequestTimeout() {
+    return requestTimeout;
+  }
+
+  public void setRequestTimeout(int requestTimeout) {
+    this.requestTimeout = requestTimeout;
+  }
+
+  public int getMaxConcurrentRequestsPerCa() {
+    return maxConcurrentRequestsPerCa;
+  }
+
+  public void setMaxConcurrentRequestsPerCa(int maxConcurrentRequestsPerCa) {
+    this.maxConcurrentRequestsPerCa = maxConcurrentRequestsPerCa;
+  }
+
+  public int getEnrollBatchSize() {
+    return enrollBatchSize;
+  }
+
+  public void setEnrollBatchSize(int enrollBatchSize) {
+    this.enrollBatchSize = enrollBatchSize;
+  }
+
+  public int getEnrollBatchDelay() {
+    return enrollBatchDelay;
+  }
+
+  public void setEnrollBatchDelay(int enrollBatchDelay) {
+    this.enrollBatchDelay = enrollBatchDelay;
+  }
+
   public void validate() throws InvalidConfException {
     if (ssl == null) {
       throw new InvalidConfException("ssl must not be null");
     }
     ssl.validate();
+
+    if (connectTimeout < 0 || requestTimeout < 0 || maxConcurrentRequestsPerCa < 0) {
+      throw new InvalidConfException(
+          "connectTimeout, requestTimeout and maxConcurrentRequestsPerCa must not be negative");
+    }
+
+    if (enrollBatchSize < 0 || enrollBatchDelay < 0) {
+      throw new InvalidConfException("enrollBatchSize and enrollBatchDelay must not be negative");
+    }
+
+    if (enrollBatchSize > 1 && !pooledTransport) {
+      // the coalesced requests would be sent in the scheduler threads of the coalescer.
+      throw new InvalidConfException("enrollBatchSize > 1 requires pooledTransport");
+    }
   }
 
   public static SdkClientConf decode(byte[] encoded) throws InvalidConfException {
@@ -0,0 +1,128 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.server;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.xipki.ca.sdk.CrlResponse;
+import org.xipki.util.Args;
+import org.xipki.util.exception.EncodeException;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.Instant;
+
+/**
+ * Encoded CRL with the information required to answer CRL requests without parsing the CRL.
+ *
+ * @author Lijun Liao (xipki)
+ */
+
+public class CachedCrl {
+
+  /**
+   * {@link CrlResponse} whose encoded form is computed only once.
+   */
+  public static class Response extends CrlResponse {
+
+    private byte[] encoded;
+
+    private Response(CachedCrl crl) {
+      super(crl.encoded);
+    }
+
+    @Override
+    public synchronized byte[] encode() throws EncodeException {
+      if (encoded == null) {
+        encoded = super.encode();
+      }
+      return encoded;
+    }
+
+  } // class Response
+
+  private final byte[] encoded;
+
+  private final BigInteger crlNumber;
+
+  private final BigInteger baseCrlNumber;
+
+  private final Instant thisUpdate;
+
+  private final Instant nextUpdate;
+
+  private Response response;
+
+  /**
+   * Constructor.
+   *
+   * @param encoded the DER-encoded CRL.
+   * @param crlNumber the CRL number.
+   * @param baseCrlNumber the CRL number of the base CRL for DeltaCRL, {@code null} for FullCRL.
+   * @param thisUpdate the thisUpdate, as encoded in the CRL.
+   * @param nextUpdate the nextUpdate, as encoded in the CRL, may be {@code null}.
+   */
+  public CachedCrl(byte[] encoded, BigInteger crlNumber, BigInteger baseCrlNumber,
+                   Instant thisUpdate, Instant nextUpdate) {
+    this.encoded = Args.notNull(encoded, "encoded");
+    this.crlNumber = Args.notNull(crlNumber, "crlNumber");
+    this.baseCrlNumber = baseCrlNumber;
+    this.thisUpdate = Args.notNull(thisUpdate, "thisUpdate");
+    this.nextUpdate = nextUpdate;
+  }
+
+  public static CachedCrl getInstance(byte[] encoded) throws IOException {
+    X509CRLHolder crl = new X509CRLHolder(encoded);
+    Extension extn = crl.getExtension(Extension.cRLNumber);
+    if (extn == null) {
+      throw new IOException("CRL does not contain the extension cRLNumber");
+    }
+
+    BigInteger crlNumber = ASN1Integer.getInstance(extn.getParsedValue()).getPositiveValue();
+
+    extn = crl.getExtension(Extension.deltaCRLIndicator);
+    BigInteger baseCrlNumber = (extn == null) ? null
+        : ASN1Integer.getInstance(extn.getParsedValue()).getPositiveValue();
+
+    return new CachedCrl(encoded, crlNumber, baseCrlNumber, crl.getThisUpdate().toInstant(),
+        crl.getNextUpdate() == null ? null : crl.getNextUpdate().toInstant());
+  }
+
+  public byte[] getEncoded() {
+    return encoded;
+  }
+
+  public BigInteger getCrlNumber() {
+    return crlNumber;
+  }
+
+  public BigInteger getBaseCrlNumber() {
+    return baseCrlNumber;
+  }
+
+  public boolean isDeltaCrl() {
+    return baseCrlNumber != null;
+  }
+
+  public Instant getThisUpdate() {
+    return thisUpdate;
+  }
+
+  public Instant getNextUpdate() {
+    return nextUpdate;
+  }
+
+  public X509CRLHolder toCrlHolder() throws IOException {
+    return new X509CRLHolder(encoded);
+  }
+
+  public synchronized Response getResponse() {
+    if (response == null) {
+      response = new Response(this);
+    }
+    return response;
+  }
+
+}
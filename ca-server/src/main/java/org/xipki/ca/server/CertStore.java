@@ -4,7 +4,6 @@
 package org.xipki.ca.server;
 
 import org.bouncycastle.asn1.x500.X500Name;
-import org.bouncycastle.cert.X509CRLHolder;
 import org.xipki.ca.api.CertWithDbId;
 import org.xipki.ca.api.CertificateInfo;
 import org.xipki.ca.api.NameId;
@@ -19,9 +18,9 @@ import org.xipki.security.CrlReason;
 import org.xipki.security.X509Cert;
 
 import java.math.BigInteger;
-import java.security.cert.CRLException;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 /**
  * CA cert store.
@@ -85,7 +84,44 @@ public interface CertStore {
 
   long getThisUpdateOfCurrentCrl(NameId ca, boolean deltaCrl) throws OperationException;
 
-  void addCrl(NameId ca, X509CRLHolder crl) throws OperationException, CRLException;
+  /**
+   * Adds the CRL.
+   *
+   * @param ca the CA.
+   * @param crl the encoded CRL with its metadata.
+   * @param leaseToken the fencing token of the CRL lease (see
+   *        {@link #acquireCrlLease(NameId, Instant, String, int)}), non-positive if the CRL is not
+   *        generated under a lease. If positive, the CRL is added only if the lease is still valid,
+   *        and the lease is marked as generated in the same transaction.
+   * @return {@code false} if the lease is no longer valid and the CRL is not added, {@code true} otherwise.
+   * @throws OperationException if database error occurs.
+   */
+  boolean addCrl(NameId ca, CachedCrl crl, long leaseToken) throws OperationException;
+
+  /**
+   * Acquires the lease to generate the CRL scheduled at the given time. For the same CA and
+   * scheduled time at most one instance holds the lease; once the CRL has been generated
+   * (see {@link #releaseCrlLease(NameId, long, boolean)}), the lease will not be granted again.
+   *
+   * @param ca the CA.
+   * @param scheduledTime the scheduled CRL generation time.
+   * @param owner identifier of the requesting instance.
+   * @param leaseSeconds duration of the lease in seconds.
+   * @return the fencing token (positive) if the lease is acquired, 0 if held by other instance or
+   *         the CRL has been generated, and -1 if the lease is not supported by the database.
+   * @throws OperationException if database error occurs.
+   */
+  long acquireCrlLease(NameId ca, Instant scheduledTime, String owner, int leaseSeconds) throws OperationException;
+
+  /**
+   * Releases the lease.
+   *
+   * @param ca the CA.
+   * @param token the fencing token.
+   * @param crlGenerated whether the CRL has been generated.
+   * @throws OperationException if database error occurs.
+   */
+  void releaseCrlLease(NameId ca, long token, boolean crlGenerated) throws OperationException;
 
   CertWithRevocationInfo revokeCert(
       NameId ca, BigInteger serialNumber, CertRevocationInfo revInfo, boolean force, CaIdNameMap idNameMap)
@@ -107,9 +143,37 @@ public interface CertStore {
   List<SerialWithId> getSerialNumbers(NameId ca,  long startId, int numEntries, boolean onlyRevoked)
       throws OperationException;
 
-  List<SerialWithId> getExpiredUnrevokedSerialNumbers(NameId ca, long expiredAt, int numEntries)
+  /**
+   * Gets the expired and not revoked certificates with ID greater than startId, ordered by ID.
+   *
+   * @param ca the CA.
+   * @param expiredAt the certificates expired before this time (seconds since epoch) are returned.
+   * @param startId only certificates with ID greater than it are returned.
+   * @param numEntries maximal number of certificates to be returned.
+   * @return the serial numbers with the database ID.
+   * @throws OperationException if database error occurs.
+   */
+  List<SerialWithId> getExpiredUnrevokedSerialNumbers(NameId ca, long expiredAt, long startId, int numEntries)
       throws OperationException;
 
+  /**
+   * Removes the certificates with the given IDs.
+   *
+   * @param ids IDs of the certificates to be removed.
+   * @return number of removed certificates.
+   * @throws OperationException if database error occurs.
+   */
+  int removeCerts(List<Long> ids) throws OperationException;
+
+  /**
+   * Gets the encoded certificates with the given IDs.
+   *
+   * @param ids IDs of the certificates.
+   * @return map of ID to the encoded certificate. The unknown IDs are not contained.
+   * @throws OperationException if database error occurs.
+   */
+  Map<Long, byte[]> getEncodedCerts(List<Long> ids) throws OperationException;
+
   List<SerialWithId> getSuspendedCertSerials(NameId ca, Instant latestLastUpdate, int numEntries)
       throws OperationException;
 
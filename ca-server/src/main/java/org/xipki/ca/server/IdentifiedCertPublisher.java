@@ -16,6 +16,8 @@ import org.xipki.security.X509Cert;
 import org.xipki.util.Args;
 
 import java.io.Closeable;
+import java.math.BigInteger;
+import java.util.List;
 
 /**
  * CertPublisher with identifier.
@@ -84,6 +86,14 @@ public class IdentifiedCertPublisher implements Closeable {
     return certPublisher.certificateRemoved(caCert, cert);
   }
 
+  public boolean supportsCertificatesRemoved() {
+    return certPublisher.supportsCertificatesRemoved();
+  }
+
+  public boolean certificatesRemoved(X509Cert caCert, List<BigInteger> serialNumbers) {
+    return certPublisher.certificatesRemoved(caCert, serialNumbers);
+  }
+
   @Override
   public void close() {
     certPublisher.close();
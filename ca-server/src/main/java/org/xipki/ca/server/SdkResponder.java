@@ -754,8 +754,19 @@ public class SdkResponder {
   private SdkResponse getCrl(RequestorInfo requestor, X509Ca ca, byte[] request)
       throws OperationException, DecodeException {
     GetCRLRequest req = GetCRLRequest.decode(request);
-    X509CRLHolder crl = ca.getCrl(requestor, req.getCrlNumber());
-    return buildCrlResp(crl, "get CRL");
+    CachedCrl crl = ca.getEncodedCrl(requestor, req.getCrlNumber());
+    if (crl == null) {
+      String message = "could not get CRL";
+      LOG.warn(message);
+      return new ErrorResponse(null, SYSTEM_FAILURE, message);
+    }
+
+    if (req.getThisUpdate() != null && !crl.getThisUpdate().isAfter(req.getThisUpdate())) {
+      // the requestor has already the CRL
+      return new CrlResponse(null);
+    }
+
+    return crl.getResponse();
   }
 
   private static SdkResponse buildCrlResp(X509CRLHolder crl, String desc) {
@@ -277,6 +277,10 @@ public class X509Ca extends X509CaModule implements Closeable {
     return crlModule.getCrl(requestor, crlNumber);
   } // method getCrl
 
+  public CachedCrl getEncodedCrl(RequestorInfo requestor, BigInteger crlNumber) throws OperationException {
+    return crlModule.getEncodedCrl(requestor, crlNumber);
+  } // method getEncodedCrl
+
   public X509CRLHolder generateCrlOnDemand(RequestorInfo requestor) throws OperationException {
     return crlModule.generateCrlOnDemand(requestor);
   }
@@ -3,22 +3,15 @@
 
 package org.xipki.ca.server;
 
-import org.bouncycastle.asn1.ASN1GeneralizedTime;
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.DERGeneralizedTime;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
 import org.bouncycastle.asn1.x509.CRLDistPoint;
-import org.bouncycastle.asn1.x509.CRLReason;
 import org.bouncycastle.asn1.x509.CertificateList;
 import org.bouncycastle.asn1.x509.Extension;
-import org.bouncycastle.asn1.x509.Extensions;
-import org.bouncycastle.asn1.x509.GeneralName;
-import org.bouncycastle.asn1.x509.GeneralNames;
 import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
-import org.bouncycastle.cert.CertIOException;
 import org.bouncycastle.cert.X509CRLHolder;
-import org.bouncycastle.cert.X509v2CRLBuilder;
 import org.xipki.audit.AuditEvent;
 import org.xipki.ca.api.PublicCaInfo;
 import org.xipki.ca.api.mgmt.CrlControl;
@@ -32,7 +25,6 @@ import org.xipki.security.KeyUsage;
 import org.xipki.security.NoIdleSignerException;
 import org.xipki.security.X509Cert;
 import org.xipki.security.XiContentSigner;
-import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.ConcurrentBag;
@@ -43,16 +35,12 @@ import org.xipki.util.LogUtil;
 import java.io.Closeable;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.cert.CRLException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
@@ -62,6 +50,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.xipki.ca.sdk.CaAuditConstants.NAME_basecrl_number;
+import static org.xipki.ca.sdk.CaAuditConstants.NAME_crl_lease_ms;
+import static org.xipki.ca.sdk.CaAuditConstants.NAME_crl_lease_token;
 import static org.xipki.ca.sdk.CaAuditConstants.NAME_crl_number;
 import static org.xipki.ca.sdk.CaAuditConstants.NAME_crl_type;
 import static org.xipki.ca.sdk.CaAuditConstants.NAME_next_update;
@@ -84,6 +74,18 @@ import static org.xipki.pki.ErrorCode.SYSTEM_UNAVAILABLE;
 
 public class X509CrlModule extends X509CaModule implements Closeable {
 
+  /**
+   * Maximal number of CRL entries kept in memory while generating CRL, further entries are
+   * sorted externally in temporary files.
+   */
+  private static final int MAX_CRL_ENTRIES_IN_MEMORY = 100_000;
+
+  /**
+   * Duration of the lease to generate a scheduled CRL. If the CRL is not generated within this period,
+   * e.g. the instance crashed, other instance may take the lease over.
+   */
+  private static final int CRL_LEASE_SECONDS = 30 * 60;
+
   private class CrlGenerationService implements Runnable {
 
     @Override
@@ -109,6 +111,9 @@ public class X509CrlModule extends X509CaModule implements Closeable {
     } // method run
 
     private void run0() throws OperationException {
+      // CRLs generated by other instances
+      checkCachedCrl();
+
       CrlControl control = caInfo.getCrlControl();
       // In seconds
       long lastIssueTimeOfFullCrl = certstore.getThisUpdateOfCurrentCrl(caIdent, false);
@@ -178,10 +183,35 @@ public class X509CrlModule extends X509CaModule implements Closeable {
       // add overlap
       nextUpdate = control.getOverlap().add(nextUpdate);
 
+      // elect one instance to generate the CRL of this schedule before any work starts
+      long start = System.nanoTime();
+      long leaseToken = certstore.acquireCrlLease(caIdent, scheduledCrlGenTime, caManager.getLockInstanceId(),
+          CRL_LEASE_SECONDS);
+      long leaseMs = (System.nanoTime() - start) / 1_000_000;
+      if (leaseToken == 0) {
+        LOG.info("CRL of ca={} scheduled at {} is generated by other instance, lease request took {} ms",
+            caIdent.getName(), scheduledCrlGenTime, leaseMs);
+        return;
+      }
+
+      if (leaseToken > 0) {
+        LOG.info("acquired CRL lease: ca={}, scheduledTime={}, token={}, took {} ms",
+            caIdent.getName(), scheduledCrlGenTime, leaseToken, leaseMs);
+      }
+
+      boolean generated = false;
       try {
-        scheduledGenerateCrl(createDeltaCrlNow, now, nextUpdate);
+        generated = scheduledGenerateCrl(createDeltaCrlNow, now, nextUpdate, leaseToken, leaseMs);
       } catch (Throwable th) {
         LogUtil.error(LOG, th);
+      } finally {
+        if (leaseToken > 0) {
+          try {
+            certstore.releaseCrlLease(caIdent, leaseToken, generated);
+          } catch (Throwable th) {
+            LogUtil.warn(LOG, th, "could not release the CRL lease");
+          }
+        }
       }
     } // method run0
 
@@ -199,6 +229,28 @@ public class X509CrlModule extends X509CaModule implements Closeable {
 
   private ScheduledFuture<?> crlGenerationService;
 
+  /**
+   * The current CRL (FullCRL or DeltaCRL, whichever is the latest), {@code null} if not loaded yet
+   * or invalidated.
+   */
+  private volatile CachedCrl currentCrl;
+
+  /**
+   * The latest FullCRL.
+   */
+  private volatile CachedCrl currentFullCrl;
+
+  /**
+   * The latest DeltaCRL.
+   */
+  private volatile CachedCrl currentDeltaCrl;
+
+  /**
+   * Incremented whenever the cached CRLs are invalidated, so that a CRL loaded before the
+   * invalidation is not cached.
+   */
+  private long crlCacheVersion;
+
   private final X509PublisherModule publisher;
 
   public X509CrlModule(CaManagerImpl caManager, CaInfo caInfo,
@@ -248,6 +300,42 @@ public class X509CrlModule extends X509CaModule implements Closeable {
   }
 
   public X509CRLHolder getCrl(RequestorInfo requestor, BigInteger crlNumber) throws OperationException {
+    return toCrlHolder(getEncodedCrl(requestor, crlNumber));
+  } // method getCrl
+
+  private static X509CRLHolder toCrlHolder(CachedCrl crl) throws OperationException {
+    try {
+      return crl == null ? null : crl.toCrlHolder();
+    } catch (IOException | RuntimeException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
+  }
+
+  public CertificateList getBcCurrentCrl(RequestorInfo requestor) throws OperationException {
+    return getBcCrl(requestor, null);
+  }
+
+  public CertificateList getBcCrl(RequestorInfo requestor, BigInteger crlNumber)
+      throws OperationException {
+    CachedCrl crl = getEncodedCrl(requestor, crlNumber);
+    try {
+      return crl == null ? null : CertificateList.getInstance(crl.getEncoded());
+    } catch (RuntimeException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
+  } // method getBcCrl
+
+  /**
+   * Gets the encoded CRL. The latest FullCRL and DeltaCRL are kept in memory. They are replaced when
+   * this instance generates a new CRL, CRLs generated by other instances are detected by the CRL
+   * generation service within one minute.
+   *
+   * @param requestor the requestor.
+   * @param crlNumber the CRL number, {@code null} for the current CRL.
+   * @return the encoded CRL, or {@code null} if no such CRL is available.
+   * @throws OperationException if error occurs.
+   */
+  public CachedCrl getEncodedCrl(RequestorInfo requestor, BigInteger crlNumber) throws OperationException {
     LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
     boolean successful = false;
 
@@ -258,66 +346,92 @@ public class X509CrlModule extends X509CaModule implements Closeable {
     }
 
     try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
-      if (encodedCrl == null) {
-        return null;
+      CachedCrl crl;
+      if (crlNumber == null) {
+        crl = currentCrl;
+        if (crl == null) {
+          long version = crlCacheVersion();
+          crl = loadCrl(null);
+          if (crl != null) {
+            cacheCrl(crl, version);
+          }
+        }
+      } else {
+        crl = currentFullCrl;
+        if (crl == null || !crl.getCrlNumber().equals(crlNumber)) {
+          crl = currentDeltaCrl;
+          if (crl == null || !crl.getCrlNumber().equals(crlNumber)) {
+            crl = loadCrl(crlNumber);
+          }
+        }
       }
 
-      try {
-        X509CRLHolder crl = X509Util.parseCrl(encodedCrl);
-        successful = true;
-        if (LOG.isInfoEnabled()) {
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(), crl.getThisUpdate());
-        }
-        return crl;
-      } catch (CRLException | RuntimeException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
+      if (crl == null) {
+        return null;
       }
+
+      successful = true;
+      LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(), crl.getThisUpdate());
+      return crl;
     } finally {
       if (!successful) {
         LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
       }
       finish(event, successful);
     }
-  } // method getCrl
+  } // method getEncodedCrl
 
-  public CertificateList getBcCurrentCrl(RequestorInfo requestor) throws OperationException {
-    return getBcCrl(requestor, null);
+  private synchronized long crlCacheVersion() {
+    return crlCacheVersion;
   }
 
-  public CertificateList getBcCrl(RequestorInfo requestor, BigInteger crlNumber)
-      throws OperationException {
-    LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
-    boolean successful = false;
+  /**
+   * Caches the CRL as the current one, unless the cache has been invalidated since the given version.
+   */
+  private synchronized void cacheCrl(CachedCrl crl, long version) {
+    if (version != crlCacheVersion) {
+      return;
+    }
 
-    AuditEvent event0 = newAuditEvent(crlNumber == null ? TYPE_download_crl : TYPE_downlaod_crl4number, requestor);
-    if (crlNumber != null) {
-      event0.addEventData(NAME_crl_number, crlNumber);
+    CachedCrl current = currentCrl;
+    if (current != null && current.getCrlNumber().compareTo(crl.getCrlNumber()) > 0) {
+      return;
     }
 
-    try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
-      if (encodedCrl == null) {
-        return null;
-      }
+    if (crl.isDeltaCrl()) {
+      currentDeltaCrl = crl;
+    } else {
+      currentFullCrl = crl;
+    }
+    currentCrl = crl;
+  } // method cacheCrl
 
-      try {
-        CertificateList crl = CertificateList.getInstance(encodedCrl);
-        successful = true;
-        if (LOG.isInfoEnabled()) {
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(), crl.getThisUpdate().getTime());
-        }
-        return crl;
-      } catch (RuntimeException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
-      }
-    } finally {
-      if (!successful) {
-        LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
+  /**
+   * Invalidates the current CRL if a newer CRL has been generated by other instance.
+   */
+  private void checkCachedCrl() throws OperationException {
+    CachedCrl crl = currentCrl;
+    if (crl != null && crl.getCrlNumber().longValue() != certstore.getMaxCrlNumber(caIdent)) {
+      synchronized (this) {
+        crlCacheVersion++;
+        currentCrl = null;
       }
-      finish(event0, successful);
+      LOG.info("CRL of ca={} has been generated by other instance, invalidated the cached CRL", caIdent.getName());
     }
-  } // method getCrl
+  } // method checkCachedCrl
+
+  private CachedCrl loadCrl(BigInteger crlNumber) throws OperationException {
+    byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
+    if (encodedCrl == null) {
+      return null;
+    }
+
+    try {
+      return CachedCrl.getInstance(encodedCrl);
+    } catch (IOException | RuntimeException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
+  } // method loadCrl
 
   private void cleanupCrlsWithoutException() {
     try {
@@ -367,30 +481,36 @@ public class X509CrlModule extends X509CaModule implements Closeable {
       // add overlap
       nextUpdate = control.getOverlap().add(nextUpdate);
 
-      return generateCrl(false, requestor, false, thisUpdate, nextUpdate);
+      return toCrlHolder(generateCrl(false, requestor, false, thisUpdate, nextUpdate));
     } finally {
       crlGenInProcess.set(false);
     }
   } // method generateCrlOnDemand
 
-  private void scheduledGenerateCrl(boolean deltaCrl, Instant thisUpdate, Instant nextUpdate)
+  private boolean scheduledGenerateCrl(boolean deltaCrl, Instant thisUpdate, Instant nextUpdate, long leaseToken,
+                                       long leaseMs)
       throws OperationException {
     AuditEvent event = newAuditEvent(TYPE_gen_crl, null);
+    if (leaseToken > 0) {
+      event.addEventData(NAME_crl_lease_token, leaseToken);
+      event.addEventData(NAME_crl_lease_ms, leaseMs);
+    }
     try {
-      generateCrl0(true, deltaCrl, thisUpdate, nextUpdate, event);
+      CachedCrl crl = generateCrl0(true, leaseToken, deltaCrl, thisUpdate, nextUpdate, event);
       finish(event, true);
+      return crl != null;
     } catch (OperationException ex) {
       finish(event, false);
       throw ex;
     }
   }
 
-  private X509CRLHolder generateCrl(boolean scheduled, RequestorInfo requestor, boolean deltaCrl,
-                                    Instant thisUpdate, Instant nextUpdate)
+  private CachedCrl generateCrl(boolean scheduled, RequestorInfo requestor, boolean deltaCrl,
+                                Instant thisUpdate, Instant nextUpdate)
       throws OperationException {
     AuditEvent event = newAuditEvent(TYPE_gen_crl, requestor);
     try {
-      X509CRLHolder ret = generateCrl0(scheduled, deltaCrl, thisUpdate, nextUpdate, event);
+      CachedCrl ret = generateCrl0(scheduled, 0, deltaCrl, thisUpdate, nextUpdate, event);
       finish(event, true);
       return ret;
     } catch (OperationException ex) {
@@ -399,11 +519,12 @@ public class X509CrlModule extends X509CaModule implements Closeable {
     }
   }
 
-  private X509CRLHolder generateCrl0(boolean scheduled, boolean deltaCrl,
-                                     Instant thisUpdate, Instant nextUpdate, AuditEvent event)
+  private CachedCrl generateCrl0(boolean scheduled, long leaseToken, boolean deltaCrl,
+                                 Instant thisUpdate, Instant nextUpdate, AuditEvent event)
       throws OperationException {
-    CrlControl control = Optional.ofNullable(caInfo.getCrlControl()).orElseThrow(
-        () -> new OperationException(NOT_PERMITTED, "CRL generation is not allowed"));
+    if (caInfo.getCrlControl() == null) {
+      throw new OperationException(NOT_PERMITTED, "CRL generation is not allowed");
+    }
 
     BigInteger baseCrlNumber = null;
     if (deltaCrl) {
@@ -426,122 +547,68 @@ public class X509CrlModule extends X509CaModule implements Closeable {
       }
     }
 
-    boolean successful = false;
-
-    try {
-      SignerEntry crlSigner = getCrlSigner();
-      PublicCaInfo pci = caInfo.getPublicCaInfo();
-
-      boolean indirectCrl = (crlSigner != null);
-      X500Name crlIssuer = indirectCrl ? crlSigner.getCertificate().getSubject() : pci.getSubject();
+    SignerEntry crlSigner = getCrlSigner();
+    PublicCaInfo pci = caInfo.getPublicCaInfo();
+    X500Name crlIssuer = (crlSigner != null) ? crlSigner.getCertificate().getSubject() : pci.getSubject();
 
-      X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(crlIssuer, Date.from(thisUpdate));
-      if (nextUpdate != null) {
-        crlBuilder.setNextUpdate(Date.from(nextUpdate));
-      }
+    // the certificateIssuer extension is added to the first entry of an indirect CRL
+    try (X509CrlStreamBuilder crlBuilder = new X509CrlStreamBuilder(crlIssuer, thisUpdate, nextUpdate,
+        (crlSigner != null) ? pci.getSubject() : null, MAX_CRL_ENTRIES_IN_MEMORY)) {
+      return buildCrl(scheduled, leaseToken, deltaCrl, thisUpdate, nextUpdate, baseCrlNumber, crlSigner,
+          crlBuilder, event);
+    }
+  } // method generateCrl0
 
-      final int numEntries = 100;
+  private CachedCrl buildCrl(boolean scheduled, long leaseToken, boolean deltaCrl, Instant thisUpdate,
+                             Instant nextUpdate, BigInteger baseCrlNumber, SignerEntry crlSigner,
+                             X509CrlStreamBuilder crlBuilder, AuditEvent event)
+      throws OperationException {
+    CrlControl control = caInfo.getCrlControl();
+    PublicCaInfo pci = caInfo.getPublicCaInfo();
+    boolean indirectCrl = (crlSigner != null);
+    X500Name crlIssuer = indirectCrl ? crlSigner.getCertificate().getSubject() : pci.getSubject();
 
-      CrlControl crlControl = caInfo.getCrlControl();
+    boolean successful = false;
+    try {
+      final int numEntries = 1000;
 
-      boolean withExpiredCerts = crlControl.isIncludeExpiredcerts();
+      boolean withExpiredCerts = control.isIncludeExpiredcerts();
 
       // 10 minutes buffer
       Instant notExpiredAt = withExpiredCerts
           ? Instant.ofEpochSecond(0) : thisUpdate.minus(600L, ChronoUnit.SECONDS);
 
-      // we have to cache the serial entries to sort them
-      List<CertRevInfoWithSerial> allRevInfos = new LinkedList<>();
-
-      if (deltaCrl) {
-        allRevInfos = certstore.getCertsForDeltaCrl(caIdent, baseCrlNumber, notExpiredAt);
-      } else {
-        long startId = 1;
-
-        List<CertRevInfoWithSerial> revInfos;
-        do {
-          revInfos = certstore.getRevokedCerts(caIdent, notExpiredAt, startId, numEntries);
-          allRevInfos.addAll(revInfos);
-
-          long maxId = 1;
-          for (CertRevInfoWithSerial revInfo : revInfos) {
-            if (revInfo.getId() > maxId) {
-              maxId = revInfo.getId();
-            }
-          } // end for
-          startId = maxId + 1;
-        } while (revInfos.size() >= numEntries); // end do
-
-        revInfos.clear();
-      }
-
-      if (indirectCrl && allRevInfos.isEmpty()) {
-        // add dummy entry, see https://github.com/xipki/xipki/issues/189
-        Extensions extensions = new Extensions(createCertificateIssuerExtension(pci.getSubject()));
-        crlBuilder.addCRLEntry(BigInteger.ZERO, new Date(0), extensions);
-        LOG.debug("added cert ca={} serial=0 to the indirect CRL", caIdent);
-      } else {
-        // sort the list by SerialNumber ASC
-        Collections.sort(allRevInfos);
-
-        boolean isFirstCrlEntry = true;
-
-        for (CertRevInfoWithSerial revInfo : allRevInfos) {
-          CrlReason reason = revInfo.getReason();
-          if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
-            reason = CrlReason.UNSPECIFIED;
-          }
-
-          Instant revocationTime = revInfo.getRevocationTime();
-          Instant invalidityTime = revInfo.getInvalidityTime();
-
-          switch (crlControl.getInvalidityDateMode()) {
-            case forbidden:
-              invalidityTime = null;
-              break;
-            case optional:
-              break;
-            case required:
-              if (invalidityTime == null) {
-                invalidityTime = revocationTime;
-              }
-              break;
-            default:
-              throw new IllegalStateException("unknown TripleState " + crlControl.getInvalidityDateMode());
-          }
-
-          BigInteger serial = revInfo.getSerial();
-          LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
-
-          if (!indirectCrl || !isFirstCrlEntry) {
-            if (invalidityTime != null) {
-              crlBuilder.addCRLEntry(serial, Date.from(revocationTime),
-                  reason.getCode(), Date.from(invalidityTime));
-            } else {
-              crlBuilder.addCRLEntry(serial, Date.from(revocationTime), reason.getCode());
-            }
-            continue;
-          }
-
-          List<Extension> extensions = new ArrayList<>(3);
-          if (reason != CrlReason.UNSPECIFIED) {
-            Extension ext = createReasonExtension(reason.getCode());
-            extensions.add(ext);
-          }
-          if (invalidityTime != null) {
-            Extension ext = createInvalidityDateExtension(invalidityTime);
-            extensions.add(ext);
+      try {
+        if (deltaCrl) {
+          for (CertRevInfoWithSerial revInfo : certstore.getCertsForDeltaCrl(caIdent, baseCrlNumber, notExpiredAt)) {
+            addCrlEntry(crlBuilder, control, revInfo);
           }
+        } else {
+          // keyset pagination, the entries are sorted by the crlBuilder.
+          long startId = 1;
 
-          Extension ext = createCertificateIssuerExtension(pci.getSubject());
-          extensions.add(ext);
+          List<CertRevInfoWithSerial> revInfos;
+          do {
+            revInfos = certstore.getRevokedCerts(caIdent, notExpiredAt, startId, numEntries);
 
-          crlBuilder.addCRLEntry(serial, Date.from(revocationTime),
-              new Extensions(extensions.toArray(new Extension[0])));
-          isFirstCrlEntry = false;
+            long maxId = 1;
+            for (CertRevInfoWithSerial revInfo : revInfos) {
+              if (revInfo.getId() > maxId) {
+                maxId = revInfo.getId();
+              }
+              addCrlEntry(crlBuilder, control, revInfo);
+            } // end for
+            startId = maxId + 1;
+          } while (revInfos.size() >= numEntries); // end do
         }
 
-        allRevInfos.clear(); // free the memory
+        if (indirectCrl && crlBuilder.getNumEntries() == 0) {
+          // add dummy entry, see https://github.com/xipki/xipki/issues/189
+          crlBuilder.addCrlEntry(BigInteger.ZERO, Instant.ofEpochSecond(0), 0, null);
+          LOG.debug("added cert ca={} serial=0 to the indirect CRL", caIdent);
+        }
+      } catch (IOException ex) {
+        throw new OperationException(CRL_FAILURE, "error writing CRL entries: " + ex.getMessage());
       }
 
       BigInteger crlNumber = caInfo.nextCrlNumber();
@@ -589,7 +656,7 @@ public class X509CrlModule extends X509CaModule implements Closeable {
           DERGeneralizedTime statusSince = new DERGeneralizedTime(Date.from(caCert.getNotBefore()));
           crlBuilder.addExtension(Extension.expiredCertsOnCRL, false, statusSince);
         }
-      } catch (CertIOException ex) {
+      } catch (IOException ex) {
         LogUtil.error(LOG, ex, "crlBuilder.addExtension");
         throw new OperationException(INVALID_EXTENSION, ex);
       }
@@ -604,15 +671,17 @@ public class X509CrlModule extends X509CaModule implements Closeable {
         throw new OperationException(SYSTEM_FAILURE, "NoIdleSignerException: " + ex.getMessage());
       }
 
-      X509CRLHolder crl;
+      byte[] encodedCrl;
       try {
-        crl = crlBuilder.build(signer0.value());
+        encodedCrl = crlBuilder.build(signer0.value());
+      } catch (IOException ex) {
+        throw new OperationException(CRL_FAILURE, "error building CRL: " + ex.getMessage());
       } finally {
         concurrentSigner.requiteSigner(signer0);
       }
 
-      // check again
-      if (scheduled) {
+      // check again. With a lease, the check is done when the CRL is saved, see below.
+      if (scheduled && leaseToken <= 0) {
         long lastIssueTimeOfFullCrl = certstore.getThisUpdateOfCurrentCrl(caIdent, deltaCrl);
         if (lastIssueTimeOfFullCrl > thisUpdate.getEpochSecond() - 10) {
           // CRL generated in the last time by other instance, ignore my own.
@@ -622,9 +691,26 @@ public class X509CrlModule extends X509CaModule implements Closeable {
         }
       }
 
+      // The generated CRL is not parsed, thisUpdate and nextUpdate are encoded with the precision of seconds.
+      CachedCrl crl = new CachedCrl(encodedCrl, crlNumber, baseCrlNumber, thisUpdate.truncatedTo(ChronoUnit.SECONDS),
+          nextUpdate == null ? null : nextUpdate.truncatedTo(ChronoUnit.SECONDS));
+
+      // fencing: the lease may have expired and been taken over by other instance, in this case
+      // the CRL is not saved. If the CRL could not be saved, an OperationException is thrown, the CRL
+      // number is not advanced, the CRL is not cached, and the lease is released for retry.
+      if (!publisher.publishCrl(crl, leaseToken)) {
+        successful = true;
+        LOG.info("IGNORE generateCrl: ca={}, CRL lease {} is no longer valid", caIdent.getName(), leaseToken);
+        return null;
+      }
+
       caInfo.setNextCrlNumber(crlNumber.longValue() + 1);
       caManager.commitNextCrlNo(caIdent, caInfo.getNextCrlNumber());
-      publisher.publishCrl(crl);
+      synchronized (this) {
+        // CRLs being loaded from database are older.
+        crlCacheVersion++;
+        cacheCrl(crl, crlCacheVersion);
+      }
 
       successful = true;
       LOG.info("SUCCESSFUL generateCrl: ca={}, crlNumber={}, thisUpdate={}", caIdent.getName(),
@@ -640,7 +726,37 @@ public class X509CrlModule extends X509CaModule implements Closeable {
         LOG.info("    FAILED generateCrl: ca={}", caIdent.getName());
       }
     }
-  } // method generateCrl
+  } // method buildCrl
+
+  private void addCrlEntry(X509CrlStreamBuilder crlBuilder, CrlControl crlControl, CertRevInfoWithSerial revInfo)
+      throws IOException {
+    CrlReason reason = revInfo.getReason();
+    if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
+      reason = CrlReason.UNSPECIFIED;
+    }
+
+    Instant revocationTime = revInfo.getRevocationTime();
+    Instant invalidityTime = revInfo.getInvalidityTime();
+
+    switch (crlControl.getInvalidityDateMode()) {
+      case forbidden:
+        invalidityTime = null;
+        break;
+      case optional:
+        break;
+      case required:
+        if (invalidityTime == null) {
+          invalidityTime = revocationTime;
+        }
+        break;
+      default:
+        throw new IllegalStateException("unknown TripleState " + crlControl.getInvalidityDateMode());
+    }
+
+    BigInteger serial = revInfo.getSerial();
+    LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
+    crlBuilder.addCrlEntry(serial, revocationTime, reason.getCode(), invalidityTime);
+  } // method addCrlEntry
 
   /**
    * Gets the nearest scheduled CRL generation time which is not after the given {@code time}.
@@ -693,31 +809,4 @@ public class X509CrlModule extends X509CaModule implements Closeable {
     return true;
   }
 
-  private static Extension createReasonExtension(int reasonCode) {
-    CRLReason crlReason = CRLReason.lookup(reasonCode);
-    try {
-      return new Extension(Extension.reasonCode, false, crlReason.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
-  private static Extension createInvalidityDateExtension(Instant invalidityDate) {
-    try {
-      ASN1GeneralizedTime asnTime = new ASN1GeneralizedTime(Date.from(invalidityDate));
-      return new Extension(Extension.invalidityDate, false, asnTime.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
-  private static Extension createCertificateIssuerExtension(X500Name certificateIssuer) {
-    try {
-      GeneralNames generalNames = new GeneralNames(new GeneralName(certificateIssuer));
-      return new Extension(Extension.certificateIssuer, true, generalNames.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
 }
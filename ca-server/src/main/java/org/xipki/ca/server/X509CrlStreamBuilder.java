@@ -0,0 +1,456 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.server;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentSigner;
+import org.xipki.util.Args;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builder of X.509 CRL with bounded memory consumption.
+ * <p>
+ * The revoked entries may be added in any order. At most {@code maxEntriesInMemory} entries are kept
+ * in memory, the others are sorted and spilled to temporary files which will be merged (external sort)
+ * in ascending order of the serial number. The DER-encoded revokedCertificates are written to a temporary
+ * file, and the TBSCertList is streamed to the signer. Only the final encoded CRL is hold in memory.
+ *
+ * @author Lijun Liao (xipki)
+ */
+
+public class X509CrlStreamBuilder implements Closeable {
+
+  private static class Entry {
+
+    private final BigInteger serial;
+
+    // epoch seconds
+    private final long revocationTime;
+
+    private final int reason;
+
+    // epoch seconds, 0 for absent
+    private final long invalidityTime;
+
+    Entry(BigInteger serial, long revocationTime, int reason, long invalidityTime) {
+      this.serial = serial;
+      this.revocationTime = revocationTime;
+      this.reason = reason;
+      this.invalidityTime = invalidityTime;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      byte[] bytes = serial.toByteArray();
+      out.writeShort(bytes.length);
+      out.write(bytes);
+      out.writeLong(revocationTime);
+      out.writeByte(reason);
+      out.writeLong(invalidityTime);
+    }
+
+    static Entry read(DataInputStream in) throws IOException {
+      int len;
+      try {
+        len = in.readUnsignedShort();
+      } catch (EOFException ex) {
+        return null;
+      }
+
+      byte[] bytes = new byte[len];
+      in.readFully(bytes);
+      return new Entry(new BigInteger(bytes), in.readLong(), in.readByte(), in.readLong());
+    }
+
+  } // class Entry
+
+  private static class RunReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private Entry current;
+
+    RunReader(File file) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+      this.current = Entry.read(in);
+    }
+
+    void advance() throws IOException {
+      current = Entry.read(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+  } // class RunReader
+
+  private static final Comparator<Entry> SERIAL_COMPARATOR = Comparator.comparing(e -> e.serial);
+
+  private final X500Name issuer;
+
+  private final Instant thisUpdate;
+
+  private final Instant nextUpdate;
+
+  private final X500Name certIssuerOfFirstEntry;
+
+  private final int maxEntriesInMemory;
+
+  private final ExtensionsGenerator extensions = new ExtensionsGenerator();
+
+  private final List<Entry> entries;
+
+  private final List<File> runFiles = new ArrayList<>();
+
+  private long numEntries;
+
+  /**
+   * Constructor.
+   *
+   * @param issuer the CRL issuer.
+   * @param thisUpdate the thisUpdate.
+   * @param nextUpdate the nextUpdate, may be {@code null}.
+   * @param certIssuerOfFirstEntry If not {@code null}, the extension certificateIssuer with this
+   *        value will be added to the first CRL entry (for indirect CRL).
+   * @param maxEntriesInMemory maximal number of entries kept in memory before they are spilled to disk.
+   */
+  public X509CrlStreamBuilder(X500Name issuer, Instant thisUpdate, Instant nextUpdate,
+                              X500Name certIssuerOfFirstEntry, int maxEntriesInMemory) {
+    this.issuer = Args.notNull(issuer, "issuer");
+    this.thisUpdate = Args.notNull(thisUpdate, "thisUpdate");
+    this.nextUpdate = nextUpdate;
+    this.certIssuerOfFirstEntry = certIssuerOfFirstEntry;
+    this.maxEntriesInMemory = Args.positive(maxEntriesInMemory, "maxEntriesInMemory");
+    this.entries = new ArrayList<>(Math.min(maxEntriesInMemory, 1000));
+  }
+
+  public long getNumEntries() {
+    return numEntries;
+  }
+
+  public void addExtension(ASN1ObjectIdentifier oid, boolean critical, ASN1Encodable value) throws IOException {
+    extensions.addExtension(oid, critical, value);
+  }
+
+  /**
+   * Adds a CRL entry.
+   *
+   * @param serial serial number of the revoked certificate.
+   * @param revocationTime the revocation time.
+   * @param reason the CRL reason code, 0 (unspecified) will not be encoded.
+   * @param invalidityTime the invalidity time, may be {@code null}.
+   * @throws IOException if error occurs while writing the entries to disk.
+   */
+  public void addCrlEntry(BigInteger serial, Instant revocationTime, int reason, Instant invalidityTime)
+      throws IOException {
+    Args.notNull(serial, "serial");
+    Args.notNull(revocationTime, "revocationTime");
+    entries.add(new Entry(serial, revocationTime.getEpochSecond(), reason,
+        invalidityTime == null ? 0 : invalidityTime.getEpochSecond()));
+    numEntries++;
+
+    if (entries.size() >= maxEntriesInMemory) {
+      spill();
+    }
+  }
+
+  private void spill() throws IOException {
+    entries.sort(SERIAL_COMPARATOR);
+    File file = createTempFile();
+    runFiles.add(file);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+      for (Entry entry : entries) {
+        entry.write(out);
+      }
+    }
+    entries.clear();
+  }
+
+  /**
+   * Builds and signs the CRL.
+   *
+   * @param signer the signer.
+   * @return the DER-encoded CRL.
+   * @throws IOException if error occurs while encoding the CRL.
+   */
+  public byte[] build(ContentSigner signer) throws IOException {
+    Args.notNull(signer, "signer");
+
+    File revokedCertsFile = createTempFile();
+    try {
+      long revokedCertsLen = writeRevokedCerts(revokedCertsFile);
+
+      // TBSCertList without the field revokedCertificates
+      byte[] prefix = concat(
+          new ASN1Integer(1).getEncoded(ASN1Encoding.DER),
+          signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER),
+          issuer.getEncoded(ASN1Encoding.DER),
+          new Time(Date.from(thisUpdate)).getEncoded(ASN1Encoding.DER),
+          nextUpdate == null ? new byte[0] : new Time(Date.from(nextUpdate)).getEncoded(ASN1Encoding.DER));
+
+      byte[] revokedCertsHeader = revokedCertsLen == 0 ? new byte[0] : encodeHeader(0x30, revokedCertsLen);
+
+      byte[] suffix = extensions.isEmpty() ? new byte[0]
+          : new DERTaggedObject(true, 0, extensions.generate()).getEncoded(ASN1Encoding.DER);
+
+      long tbsContentLen = prefix.length + revokedCertsHeader.length + revokedCertsLen + suffix.length;
+      byte[] tbsHeader = encodeHeader(0x30, tbsContentLen);
+      long tbsLen = tbsHeader.length + tbsContentLen;
+
+      // stream the TBSCertList to the signer
+      try (OutputStream sigOut = signer.getOutputStream()) {
+        writeTbsCertList(sigOut, tbsHeader, prefix, revokedCertsHeader, revokedCertsFile, suffix);
+      }
+
+      byte[] sigAlgId = signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER);
+      byte[] signature = new DERBitString(signer.getSignature()).getEncoded(ASN1Encoding.DER);
+
+      long contentLen = tbsLen + sigAlgId.length + signature.length;
+      byte[] header = encodeHeader(0x30, contentLen);
+      long totalLen = header.length + contentLen;
+      if (totalLen > Integer.MAX_VALUE - 8) {
+        throw new IOException("CRL too large: " + totalLen + " bytes");
+      }
+
+      byte[] encoded = new byte[(int) totalLen];
+      ArrayOutputStream out = new ArrayOutputStream(encoded);
+      out.write(header);
+      writeTbsCertList(out, tbsHeader, prefix, revokedCertsHeader, revokedCertsFile, suffix);
+      out.write(sigAlgId);
+      out.write(signature);
+      if (out.count != encoded.length) {
+        throw new IOException("length of the CRL is not as expected: " + out.count + " != " + encoded.length);
+      }
+      return encoded;
+    } finally {
+      delete(revokedCertsFile);
+    }
+  } // method build
+
+  private static void writeTbsCertList(OutputStream out, byte[] tbsHeader, byte[] prefix, byte[] revokedCertsHeader,
+                                       File revokedCertsFile, byte[] suffix) throws IOException {
+    out.write(tbsHeader);
+    out.write(prefix);
+    if (revokedCertsHeader.length > 0) {
+      out.write(revokedCertsHeader);
+      try (InputStream in = new FileInputStream(revokedCertsFile)) {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      }
+    }
+    out.write(suffix);
+  }
+
+  /**
+   * Writes the DER-encoded CRL entries, sorted by the serial number, to the given file.
+   * @return number of written bytes.
+   */
+  private long writeRevokedCerts(File file) throws IOException {
+    long len = 0;
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+      Iterator<Entry> it = null;
+      List<RunReader> readers = new ArrayList<>(runFiles.size() + 1);
+      try {
+        PriorityQueue<RunReader> queue = null;
+        if (runFiles.isEmpty()) {
+          entries.sort(SERIAL_COMPARATOR);
+          it = entries.iterator();
+        } else {
+          if (!entries.isEmpty()) {
+            spill();
+          }
+
+          queue = new PriorityQueue<>(runFiles.size(), (a, b) -> SERIAL_COMPARATOR.compare(a.current, b.current));
+          for (File runFile : runFiles) {
+            RunReader reader = new RunReader(runFile);
+            readers.add(reader);
+            if (reader.current != null) {
+              queue.add(reader);
+            }
+          }
+        }
+
+        boolean first = true;
+        while (true) {
+          Entry entry;
+          if (it != null) {
+            if (!it.hasNext()) {
+              break;
+            }
+            entry = it.next();
+          } else {
+            RunReader reader = queue.poll();
+            if (reader == null) {
+              break;
+            }
+            entry = reader.current;
+            reader.advance();
+            if (reader.current != null) {
+              queue.add(reader);
+            }
+          }
+
+          byte[] encoded = encodeEntry(entry, first ? certIssuerOfFirstEntry : null);
+          first = false;
+          out.write(encoded);
+          len += encoded.length;
+        }
+      } finally {
+        for (RunReader reader : readers) {
+          reader.close();
+        }
+      }
+    }
+
+    entries.clear();
+    return len;
+  } // method writeRevokedCerts
+
+  private static byte[] encodeEntry(Entry entry, X500Name certIssuer) throws IOException {
+    ASN1EncodableVector v = new ASN1EncodableVector(3);
+    v.add(new ASN1Integer(entry.serial));
+    v.add(new Time(new Date(entry.revocationTime * 1000)));
+
+    ExtensionsGenerator extnGen = new ExtensionsGenerator();
+    if (entry.reason != 0) {
+      extnGen.addExtension(Extension.reasonCode, false, CRLReason.lookup(entry.reason));
+    }
+
+    if (entry.invalidityTime != 0) {
+      extnGen.addExtension(Extension.invalidityDate, false,
+          new ASN1GeneralizedTime(new Date(entry.invalidityTime * 1000)));
+    }
+
+    if (certIssuer != null) {
+      extnGen.addExtension(Extension.certificateIssuer, true, new GeneralNames(new GeneralName(certIssuer)));
+    }
+
+    if (!extnGen.isEmpty()) {
+      v.add(extnGen.generate());
+    }
+
+    return new DERSequence(v).getEncoded(ASN1Encoding.DER);
+  }
+
+  private static byte[] encodeHeader(int tag, long len) {
+    if (len < 0x80) {
+      return new byte[]{(byte) tag, (byte) len};
+    }
+
+    int numBytes = 0;
+    for (long l = len; l != 0; l >>>= 8) {
+      numBytes++;
+    }
+
+    byte[] header = new byte[2 + numBytes];
+    header[0] = (byte) tag;
+    header[1] = (byte) (0x80 | numBytes);
+    for (int i = 0; i < numBytes; i++) {
+      header[header.length - 1 - i] = (byte) (len >>> (8 * i));
+    }
+    return header;
+  }
+
+  private static byte[] concat(byte[]... arrays) {
+    int len = 0;
+    for (byte[] arr : arrays) {
+      len += arr.length;
+    }
+
+    byte[] ret = new byte[len];
+    int offset = 0;
+    for (byte[] arr : arrays) {
+      System.arraycopy(arr, 0, ret, offset, arr.length);
+      offset += arr.length;
+    }
+    return ret;
+  }
+
+  private static File createTempFile() throws IOException {
+    // deleted by build() and close(). deleteOnExit() is not used, its entries are never released.
+    return File.createTempFile("xipki-crl-", ".tmp");
+  }
+
+  private static void delete(File file) {
+    try {
+      Files.deleteIfExists(file.toPath());
+    } catch (IOException ex) {
+      file.deleteOnExit();
+    }
+  }
+
+  @Override
+  public void close() {
+    entries.clear();
+    for (File file : runFiles) {
+      delete(file);
+    }
+    runFiles.clear();
+  }
+
+  private static class ArrayOutputStream extends OutputStream {
+
+    private final byte[] buf;
+
+    private int count;
+
+    ArrayOutputStream(byte[] buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public void write(int b) {
+      buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      System.arraycopy(b, off, buf, count, len);
+      count += len;
+    }
+
+  } // class ArrayOutputStream
+
+}
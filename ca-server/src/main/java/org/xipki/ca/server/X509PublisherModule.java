@@ -9,7 +9,9 @@ import org.xipki.ca.api.CertificateInfo;
 import org.xipki.ca.api.NameId;
 import org.xipki.ca.api.mgmt.CaStatus;
 import org.xipki.ca.api.mgmt.CertWithRevocationInfo;
+import org.xipki.ca.server.CertStore.SerialWithId;
 import org.xipki.ca.server.mgmt.CaManagerImpl;
+import org.xipki.pki.OperationException;
 import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.X509Cert;
 import org.xipki.util.Args;
@@ -17,9 +19,13 @@ import org.xipki.util.Base64;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.LogUtil;
 
+import java.io.IOException;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.xipki.pki.ErrorCode.DATABASE_FAILURE;
+
 /**
  * X509CA publisher module.
  *
@@ -159,23 +165,51 @@ class X509PublisherModule extends X509CaModule {
     }
   } // method republishCerts
 
-  void publishCrl(X509CRLHolder crl) {
+  /**
+   * Saves the CRL in the database and publishes it.
+   *
+   * @param crl the encoded CRL with its metadata.
+   * @param leaseToken the fencing token of the CRL lease, non-positive if not generated under a lease.
+   * @return {@code false} if the CRL lease is no longer valid, in this case the CRL is neither
+   *         saved nor published, {@code true} otherwise.
+   * @throws OperationException if the CRL could not be saved in the database, in this case the CRL
+   *         is not published.
+   */
+  boolean publishCrl(CachedCrl crl, long leaseToken) throws OperationException {
     try {
-      certstore.addCrl(caIdent, crl);
-    } catch (Exception ex) {
+      if (!certstore.addCrl(caIdent, crl, leaseToken)) {
+        return false;
+      }
+    } catch (OperationException | RuntimeException ex) {
       LOG.error("could not add CRL ca={}, thisUpdate={}: {}, ",
           caIdent.getName(), crl.getThisUpdate(), ex.getMessage());
       LOG.debug("Exception", ex);
-      return;
+      throw (ex instanceof OperationException) ? (OperationException) ex
+          : new OperationException(DATABASE_FAILURE, ex);
     }
 
-    for (IdentifiedCertPublisher publisher : publishers()) {
+    List<IdentifiedCertPublisher> publishers = publishers();
+    if (publishers.isEmpty()) {
+      return true;
+    }
+
+    // the CRL is parsed only if there are publishers.
+    X509CRLHolder crlHolder;
+    try {
+      crlHolder = crl.toCrlHolder();
+    } catch (IOException | RuntimeException ex) {
+      LogUtil.error(LOG, ex, "could not parse CRL ca=" + caIdent.getName() + ", crlNumber=" + crl.getCrlNumber());
+      return true;
+    }
+
+    for (IdentifiedCertPublisher publisher : publishers) {
       try {
-        publisher.crlAdded(caCert, crl);
+        publisher.crlAdded(caCert, crlHolder);
       } catch (RuntimeException ex) {
         LogUtil.error(LOG, ex, "could not publish CRL to the publisher " + publisher.getIdent());
       }
     } // end for
+    return true;
   } // method publishCrl
 
   boolean publishCertRemoved(CertWithDbId certToRemove) {
@@ -205,6 +239,83 @@ class X509PublisherModule extends X509CaModule {
     return successful;
   }
 
+  /**
+   * Publishes the remove of several certificates. Publishers supporting the remove by serial numbers
+   * are notified with one call, for the other ones the certificates are loaded one by one.
+   *
+   * @param certs the certificates to be removed.
+   * @return whether the remove has been published to all publishers.
+   */
+  boolean publishCertsRemoved(List<SerialWithId> certs) {
+    if (certs.isEmpty()) {
+      return true;
+    }
+
+    boolean successful = true;
+    List<BigInteger> serialNumbers = null;
+    List<CertWithDbId> loadedCerts = null;
+
+    for (IdentifiedCertPublisher publisher : publishers()) {
+      if (publisher.supportsCertificatesRemoved()) {
+        if (serialNumbers == null) {
+          serialNumbers = new ArrayList<>(certs.size());
+          for (SerialWithId cert : certs) {
+            serialNumbers.add(cert.getSerial());
+          }
+        }
+
+        boolean singleSuccessful;
+        try {
+          singleSuccessful = publisher.certificatesRemoved(caCert, serialNumbers);
+        } catch (RuntimeException ex) {
+          singleSuccessful = false;
+          LogUtil.warn(LOG, ex, "could not remove certificates from the publisher " + publisher.getIdent());
+        }
+
+        if (!singleSuccessful) {
+          successful = false;
+          LOG.error("removing {} certificates from publisher {} failed", certs.size(), publisher.getIdent());
+        }
+        continue;
+      }
+
+      if (loadedCerts == null) {
+        loadedCerts = new ArrayList<>(certs.size());
+        for (SerialWithId cert : certs) {
+          CertWithRevocationInfo certInfo;
+          try {
+            certInfo = certstore.getCertWithRevocationInfo(cert.getId(), caIdNameMap);
+          } catch (OperationException ex) {
+            LogUtil.error(LOG, ex, "could not load certificate with id " + cert.getId());
+            return false;
+          }
+
+          if (certInfo != null) {
+            loadedCerts.add(certInfo.getCert());
+          }
+        }
+      }
+
+      for (CertWithDbId cert : loadedCerts) {
+        boolean singleSuccessful;
+        try {
+          singleSuccessful = publisher.certificateRemoved(caCert, cert);
+        } catch (RuntimeException ex) {
+          singleSuccessful = false;
+          LogUtil.warn(LOG, ex, "could not remove certificate from the publisher " + publisher.getIdent());
+        }
+
+        if (!singleSuccessful) {
+          successful = false;
+          LOG.error("removing certificate serial={} from publisher {} failed",
+              cert.getCert().getSerialNumberHex(), publisher.getIdent());
+        }
+      }
+    } // end for
+
+    return successful;
+  } // method publishCertsRemoved
+
   void publishCertRevoked(CertWithRevocationInfo revokedCert) {
     for (IdentifiedCertPublisher publisher : publishers()) {
       boolean successful;
@@ -12,18 +12,32 @@ import org.xipki.ca.server.mgmt.CaManagerImpl;
 import org.xipki.pki.ErrorCode;
 import org.xipki.pki.OperationException;
 import org.xipki.util.Args;
+import org.xipki.util.Base64;
 import org.xipki.util.CollectionUtil;
+import org.xipki.util.ConfPairs;
+import org.xipki.util.DateUtil;
+import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
+import org.xipki.util.StringUtil;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * X509CA revoker module.
@@ -33,6 +47,23 @@ import java.util.concurrent.TimeUnit;
 
 public class X509RemoverModule extends X509CaModule implements Closeable {
 
+  /**
+   * Key in the CA's extraControl: number of expired certificates removed in one batch.
+   */
+  public static final String CTRL_BATCH_SIZE = "removeExpiredCerts.batchSize";
+
+  /**
+   * Key in the CA's extraControl: maximal number of expired certificates removed per second.
+   */
+  public static final String CTRL_MAX_RATE = "removeExpiredCerts.maxRate";
+
+  /**
+   * Key in the CA's extraControl: directory to which the expired certificates are archived before removal.
+   */
+  public static final String CTRL_ARCHIVE_DIR = "removeExpiredCerts.archiveDir";
+
+  private static final int DFLT_BATCH_SIZE = 1000;
+
   private class ExpiredCertsRemover implements Runnable {
 
     private boolean inProcess;
@@ -150,36 +181,135 @@ public class X509RemoverModule extends X509CaModule implements Closeable {
     }
 
     event.addEventData(CaAuditConstants.NAME_expired_at, expiredAtTime);
-    final int numEntries = 100;
+
+    ConfPairs extraControl = caInfo.getExtraControl();
+    int batchSize = intValue(extraControl, CTRL_BATCH_SIZE, DFLT_BATCH_SIZE);
+    if (batchSize == 0) {
+      batchSize = DFLT_BATCH_SIZE;
+    }
+    // maximal number of removed certificates per second, 0 for unlimited.
+    int maxRate = intValue(extraControl, CTRL_MAX_RATE, 0);
+    String archiveDir = extraControl == null ? null : extraControl.value(CTRL_ARCHIVE_DIR);
 
     final long expiredAt = expiredAtTime.getEpochSecond();
+    final long startTime = System.currentTimeMillis();
 
+    Writer archive = null;
     int sum = 0;
-    while (true) {
-      List<SerialWithId> serials = certstore.getExpiredUnrevokedSerialNumbers(caIdent, expiredAt, numEntries);
-      if (CollectionUtil.isEmpty(serials)) {
-        return sum;
+    long startId = 0;
+    try {
+      if (StringUtil.isNotBlank(archiveDir)) {
+        File file = new File(IoUtil.expandFilepath(archiveDir), caIdent.getName() + "-expired-"
+            + DateUtil.toUtcTimeyyyyMMddhhmmss(expiredAtTime) + "-" + startTime + ".txt.gz");
+        IoUtil.mkdirsParent(file.toPath());
+        archive = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file.toPath()), true),
+            StandardCharsets.UTF_8);
+        LOG.info("archive expired certificates of CA {} to {}", caIdent.getName(), file.getPath());
       }
 
-      for (SerialWithId serial : serials) {
-        // do not delete CA's own certificate
-        if ((caInfo.isSelfSigned() && caInfo.getSerialNumber().equals(serial.getSerial()))) {
+      while (true) {
+        List<SerialWithId> serials = certstore.getExpiredUnrevokedSerialNumbers(
+            caIdent, expiredAt, startId, batchSize);
+        if (CollectionUtil.isEmpty(serials)) {
+          return sum;
+        }
+
+        startId = serials.get(serials.size() - 1).getId();
+
+        List<SerialWithId> toRemove = new ArrayList<>(serials.size());
+        for (SerialWithId serial : serials) {
+          // do not delete CA's own certificate
+          if (!(caInfo.isSelfSigned() && caInfo.getSerialNumber().equals(serial.getSerial()))) {
+            toRemove.add(serial);
+          }
+        }
+
+        if (toRemove.isEmpty()) {
           continue;
         }
 
-        try {
-          if (removeCert(serial, event) != null) {
-            sum++;
+        List<Long> ids = new ArrayList<>(toRemove.size());
+        for (SerialWithId serial : toRemove) {
+          ids.add(serial.getId());
+        }
+
+        if (!publisherModule.publishCertsRemoved(toRemove)) {
+          // keep the certificates, they will be archived and retried in the next run.
+          LOG.warn("could not publish the removal of {} expired certificates of CA {}, skip them",
+              toRemove.size(), caIdent.getName());
+          continue;
+        }
+
+        if (archive != null) {
+          archiveCerts(archive, toRemove, certstore.getEncodedCerts(ids));
+        }
+
+        sum += certstore.removeCerts(ids);
+        LOG.debug("removed {} expired certificates of CA {}", sum, caIdent.getName());
+
+        if (maxRate > 0) {
+          long sleepMs = sum * 1000L / maxRate - (System.currentTimeMillis() - startTime);
+          if (sleepMs > 0) {
+            try {
+              Thread.sleep(sleepMs);
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+              return sum;
+            }
           }
-        } catch (OperationException ex) {
-          LOG.info("removed {} expired certificates of CA {}", sum, caIdent.getName());
-          LogUtil.error(LOG, ex, "could not remove expired certificate with serial" + serial.getSerial());
-          throw ex;
         }
-      } // end for
-    } // end while (true)
+      } // end while (true)
+    } catch (IOException ex) {
+      LOG.info("removed {} expired certificates of CA {}", sum, caIdent.getName());
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE, "could not archive expired certificates: "
+          + ex.getMessage());
+    } catch (OperationException ex) {
+      LOG.info("removed {} expired certificates of CA {}", sum, caIdent.getName());
+      LogUtil.error(LOG, ex, "could not remove expired certificates");
+      throw ex;
+    } finally {
+      event.addEventData(CaAuditConstants.NAME_num, sum);
+      IoUtil.closeQuietly(archive);
+    }
   } // method removeExpirtedCerts
 
+  private static void archiveCerts(Writer archive, List<SerialWithId> serials, Map<Long, byte[]> encodedCerts)
+      throws IOException {
+    for (SerialWithId serial : serials) {
+      byte[] encodedCert = encodedCerts.get(serial.getId());
+      if (encodedCert == null) {
+        continue;
+      }
+
+      archive.write(serial.getSerial().toString(16));
+      archive.write(' ');
+      archive.write(Base64.encodeToString(encodedCert));
+      archive.write('\n');
+    }
+    // make sure that the certificates are archived before they are removed.
+    archive.flush();
+  } // method archiveCerts
+
+  private static int intValue(ConfPairs conf, String name, int dfltValue) throws OperationException {
+    String str = conf == null ? null : conf.value(name);
+    if (StringUtil.isBlank(str)) {
+      return dfltValue;
+    }
+
+    int value;
+    try {
+      value = Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      value = -1;
+    }
+
+    if (value < 0) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "invalid extraControl " + name + ": '" + str + "', a non-negative integer is expected");
+    }
+    return value;
+  }
+
   @Override
   public void close() {
     if (expiredCertsRemover != null) {
@@ -3,14 +3,8 @@
 
 package org.xipki.ca.server.db;
 
-import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
-import org.bouncycastle.asn1.x509.CertificateList;
-import org.bouncycastle.asn1.x509.Extension;
-import org.bouncycastle.asn1.x509.Extensions;
-import org.bouncycastle.asn1.x509.TBSCertList.CRLEntry;
-import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.util.Pack;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,10 +18,12 @@ import org.xipki.ca.api.mgmt.CertWithRevocationInfo;
 import org.xipki.ca.server.CaConfStore;
 import org.xipki.ca.server.CaIdNameMap;
 import org.xipki.ca.server.CaUtil;
+import org.xipki.ca.server.CachedCrl;
 import org.xipki.ca.server.CertRevInfoWithSerial;
 import org.xipki.ca.server.CertStore;
 import org.xipki.ca.server.UniqueIdGenerator;
 import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataAccessException.Reason;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.password.PasswordResolverException;
 import org.xipki.password.Passwords;
@@ -41,7 +37,6 @@ import org.xipki.security.X509Cert;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
 import org.xipki.util.Base64;
-import org.xipki.util.DateUtil;
 import org.xipki.util.Hex;
 import org.xipki.util.LogUtil;
 import org.xipki.util.LruCache;
@@ -52,12 +47,11 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.IOException;
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -65,14 +59,12 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
-import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.xipki.pki.ErrorCode.BAD_REQUEST;
@@ -110,9 +102,7 @@ public class DbCertStore extends QueryExecutor implements CertStore {
 
   private final String sqlCrlWithNo;
 
-  private final String sqlSelectUnrevokedSn100;
-
-  private final String sqlSelectUnrevokedSn;
+  private final String sqlCrlThisUpdateWithNo;
 
   private final LruCache<Integer, String> cacheSqlExpiredSerials = new LruCache<>(5);
 
@@ -120,6 +110,8 @@ public class DbCertStore extends QueryExecutor implements CertStore {
 
   private final LruCache<Integer, String> cacheSqlRevokedCerts = new LruCache<>(5);
 
+  private final LruCache<Integer, String> cacheSqlDeltaCrlCerts = new LruCache<>(5);
+
   private final LruCache<Integer, String> cacheSqlSerials = new LruCache<>(5);
 
   private final LruCache<Integer, String> cacheSqlSerialsRevoked = new LruCache<>(5);
@@ -147,6 +139,20 @@ public class DbCertStore extends QueryExecutor implements CertStore {
 
   private static final String SQL_REMOVE_CERT_FOR_ID = "DELETE FROM CERT WHERE ID=?";
 
+  private static final int MAX_IDS_IN_SQL = 100;
+
+  private static final String SQL_ACQUIRE_CRL_LEASE = "UPDATE CRL_LEASE SET SCHEDULED=?,OWNER=?,EXPIRES=?,"
+      + "TOKEN=TOKEN+1 WHERE CA_ID=? AND (SCHEDULED<? OR (SCHEDULED=? AND EXPIRES<?))";
+
+  private static final String SQL_RELEASE_CRL_LEASE = "UPDATE CRL_LEASE SET EXPIRES=? WHERE CA_ID=? AND TOKEN=?";
+
+  private static final String SQL_FENCE_CRL_LEASE =
+      "UPDATE CRL_LEASE SET EXPIRES=? WHERE CA_ID=? AND TOKEN=? AND EXPIRES>?";
+
+  private final String sqlCrlLease;
+
+  private final boolean crlLeaseSupported;
+
   private final int dbSchemaVersion;
 
   private final int maxX500nameLen;
@@ -206,10 +212,14 @@ public class DbCertStore extends QueryExecutor implements CertStore {
     this.sqlCrlWithNo = buildSelectFirstSql("THISUPDATE DESC",
         "THISUPDATE,CRL FROM CRL WHERE CA_ID=? AND CRL_NO=?");
 
-    this.sqlSelectUnrevokedSn = buildSelectFirstSql("LUPDATE FROM CERT WHERE REV=0 AND SN=?");
-    final String prefix = "SN,LUPDATE FROM CERT WHERE REV=0 AND SN";
-    this.sqlSelectUnrevokedSn100 = buildArraySql(datasource, prefix, 100);
+    this.sqlCrlThisUpdateWithNo = buildSelectFirstSql("THISUPDATE FROM CRL WHERE CA_ID=? AND CRL_NO=?");
+    this.sqlCrlLease = buildSelectFirstSql("SCHEDULED,OWNER,TOKEN FROM CRL_LEASE WHERE CA_ID=?");
     this.earliestNotBefore = datasource.getMin(null, "CERT", "NBEFORE");
+
+    this.crlLeaseSupported = datasource.tableExists(null, "CRL_LEASE");
+    if (!crlLeaseSupported) {
+      LOG.warn("table CRL_LEASE does not exist, CRL generation will not be coordinated among instances");
+    }
   } // constructor
 
   @Override
@@ -476,49 +486,164 @@ public class DbCertStore extends QueryExecutor implements CertStore {
   } // method getThisUpdateOfCurrentCrl
 
   @Override
-  public void addCrl(NameId ca, X509CRLHolder crl) throws OperationException, CRLException {
+  public boolean addCrl(NameId ca, CachedCrl crl, long leaseToken) throws OperationException {
     notNulls(ca, "ca", crl, "crl");
 
-    Extensions extns = crl.getExtensions();
-    byte[] extnValue = X509Util.getCoreExtValue(extns, Extension.cRLNumber);
-    Long crlNumber = (extnValue == null) ? null : ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
-
-    extnValue = X509Util.getCoreExtValue(extns, Extension.deltaCRLIndicator);
-    Long baseCrlNumber = null;
-    if (extnValue != null) {
-      baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
-    }
-
     int currentMaxCrlId = (int) getMax("CRL", "ID");
     int crlId = Math.max(cachedCrlId.get(), currentMaxCrlId) + 1;
     cachedCrlId.set(crlId);
 
-    byte[] encodedCrl;
-    try {
-      encodedCrl = crl.getEncoded();
-    } catch (IOException ex) {
-      throw new CRLException(ex.getMessage(), ex);
-    }
-
+    byte[] encodedCrl = crl.getEncoded();
     String b64Sha1 = HashAlgo.SHA1.base64Hash(encodedCrl);
     String b64Crl = Base64.encodeToString(encodedCrl);
 
     List<SqlColumn2> columns = new ArrayList<>(10);
     columns.add(col2Int(crlId));
     columns.add(col2Int(ca.getId()));
-    columns.add(col2Long(crlNumber));
-    columns.add(col2Long(DateUtil.toEpochSecond(crl.getThisUpdate())));
-    columns.add(col2Long(getDateSeconds(crl.getNextUpdate())));
-    columns.add(col2Bool((baseCrlNumber != null)));
-    columns.add(col2Long(baseCrlNumber));
+    columns.add(col2Long(crl.getCrlNumber().longValue()));
+    columns.add(col2Long(crl.getThisUpdate().getEpochSecond()));
+    columns.add(col2Long(crl.getNextUpdate() == null ? null : crl.getNextUpdate().getEpochSecond()));
+    columns.add(col2Bool(crl.isDeltaCrl()));
+    columns.add(col2Long(crl.isDeltaCrl() ? crl.getBaseCrlNumber().longValue() : null));
     // in this version we set CRL_SCOPE to fixed value 0
     columns.add(col2Int(0));
     columns.add(col2Str(b64Sha1));
     columns.add(col2Str(b64Crl));
 
-    execUpdatePrepStmt0(SQL_ADD_CRL, columns.toArray(new SqlColumn2[0]));
+    SqlColumn2[] params = columns.toArray(new SqlColumn2[0]);
+    if (leaseToken <= 0 || !crlLeaseSupported) {
+      execUpdatePrepStmt0(SQL_ADD_CRL, params);
+      return true;
+    }
+
+    try {
+      return addCrlWithLease(ca, leaseToken, params);
+    } catch (DataAccessException ex) {
+      throw new OperationException(DATABASE_FAILURE, ex);
+    }
   } // method addCrl
 
+  /**
+   * Marks the CRL of the lease as generated and adds the CRL in one transaction. If the lease has
+   * expired meanwhile (and may have been taken over by other instance), no row is updated and the
+   * CRL is not added.
+   */
+  private boolean addCrlWithLease(NameId ca, long leaseToken, SqlColumn2[] crlParams) throws DataAccessException {
+    Connection conn = datasource.getConnection();
+    boolean autoCommitChanged = false;
+    boolean committed = false;
+    String sql = null;
+    PreparedStatement ps = null;
+    try {
+      if (conn.getAutoCommit()) {
+        conn.setAutoCommit(false);
+        autoCommitChanged = true;
+      }
+
+      sql = SQL_FENCE_CRL_LEASE;
+      ps = datasource.prepareStatement(conn, sql);
+      // the lease never expires for this schedule once the CRL is added.
+      setParameters(sql, ps, col2Long(Long.MAX_VALUE), col2Int(ca.getId()), col2Long(leaseToken),
+          col2Long(Instant.now().getEpochSecond()));
+      int count = ps.executeUpdate();
+      datasource.releaseResources(ps, null, false);
+      ps = null;
+
+      if (count == 0) {
+        return false;
+      }
+
+      sql = SQL_ADD_CRL;
+      ps = datasource.prepareStatement(conn, sql);
+      setParameters(sql, ps, crlParams);
+      ps.executeUpdate();
+
+      sql = "COMMIT";
+      conn.commit();
+      committed = true;
+      return true;
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, null, false);
+      if (!committed) {
+        try {
+          conn.rollback();
+        } catch (SQLException ex) {
+          LogUtil.error(LOG, ex, "could not rollback the transaction");
+        }
+      }
+
+      if (autoCommitChanged) {
+        try {
+          conn.setAutoCommit(true);
+        } catch (SQLException ex) {
+          LogUtil.error(LOG, ex, "could not restore the autoCommit of the connection");
+        }
+      }
+      datasource.returnConnection(conn);
+    }
+  } // method addCrlWithLease
+
+  @Override
+  public long acquireCrlLease(NameId ca, Instant scheduledTime, String owner, int leaseSeconds)
+      throws OperationException {
+    notNulls(ca, "ca", scheduledTime, "scheduledTime", owner, "owner");
+    if (!crlLeaseSupported) {
+      return -1;
+    }
+
+    long scheduled = scheduledTime.getEpochSecond();
+    long now = Instant.now().getEpochSecond();
+    long expires = now + leaseSeconds;
+
+    // take over the lease if it is for an earlier schedule, or if the CRL for this schedule has not been
+    // generated by the holder within its lease.
+    int count = execUpdatePrepStmt0(SQL_ACQUIRE_CRL_LEASE, col2Long(scheduled), col2Str(owner), col2Long(expires),
+        col2Int(ca.getId()), col2Long(scheduled), col2Long(scheduled), col2Long(now));
+
+    if (count == 0) {
+      ResultRow rs = execQuery1PrepStmt0(sqlCrlLease, col2Int(ca.getId()));
+      if (rs != null) {
+        // lease is held by other instance or CRL has been generated.
+        return 0;
+      }
+
+      // first lease for this CA
+      final String sql = SqlUtil.buildInsertSql("CRL_LEASE", "CA_ID,SCHEDULED,OWNER,EXPIRES,TOKEN");
+      try {
+        execUpdatePrepStmt(sql, col2Int(ca.getId()), col2Long(scheduled), col2Str(owner),
+            col2Long(expires), col2Long(1L));
+        return 1;
+      } catch (DataAccessException ex) {
+        if (ex.getReason().isDescendantOrSelfOf(Reason.DuplicateKey)) {
+          // other instance was faster
+          return 0;
+        }
+        throw new OperationException(DATABASE_FAILURE, ex);
+      }
+    }
+
+    ResultRow rs = execQuery1PrepStmt0(sqlCrlLease, col2Int(ca.getId()));
+    if (rs == null || rs.getLong("SCHEDULED") != scheduled || !owner.equals(rs.getString("OWNER"))) {
+      return 0;
+    }
+    return rs.getLong("TOKEN");
+  } // method acquireCrlLease
+
+  @Override
+  public void releaseCrlLease(NameId ca, long token, boolean crlGenerated) throws OperationException {
+    Args.notNull(ca, "ca");
+    if (!crlLeaseSupported) {
+      return;
+    }
+
+    // If generated, the lease never expires for this schedule, otherwise it expires immediately,
+    // so that other instances can take it over.
+    execUpdatePrepStmt0(SQL_RELEASE_CRL_LEASE, col2Long(crlGenerated ? Long.MAX_VALUE : 0L),
+        col2Int(ca.getId()), col2Long(token));
+  } // method releaseCrlLease
+
   @Override
   public CertWithRevocationInfo revokeCert(
       NameId ca, BigInteger serialNumber, CertRevocationInfo revInfo, boolean force, CaIdNameMap idNameMap)
@@ -629,10 +754,13 @@ public class DbCertStore extends QueryExecutor implements CertStore {
       }
     }
 
+    // The revocation reason is not reset to NULL: REV=0 together with RR=REMOVE_FROM_CRL marks a
+    // certificate unsuspended since its last update (LUPDATE), getCertsForDeltaCrl() selects it
+    // with this marker. All other readers must interpret RR only if REV=1.
     SqlColumn2 nullInt = new SqlColumn2(ColumnType.INT, null);
     int count = execUpdatePrepStmt0("UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE ID=?",
         col2Long(Instant.now().getEpochSecond()), // currentTimeSeconds
-        col2Bool(false), nullInt, nullInt, nullInt,
+        col2Bool(false), nullInt, nullInt, col2Int(CrlReason.REMOVE_FROM_CRL.getCode()),
         col2Long(certWithRevInfo.getCert().getCertId())); // certId
 
     if (count != 1) {
@@ -703,20 +831,66 @@ public class DbCertStore extends QueryExecutor implements CertStore {
   }
 
   @Override
-  public List<SerialWithId> getExpiredUnrevokedSerialNumbers(NameId ca, long expiredAt, int numEntries)
+  public List<SerialWithId> getExpiredUnrevokedSerialNumbers(NameId ca, long expiredAt, long startId, int numEntries)
       throws OperationException {
     Args.notNull(ca, "ca");
     Args.positive(numEntries, "numEntries");
 
     String sql = cacheSqlExpiredSerials.get(numEntries);
     if (sql == null) {
-      sql = datasource.buildSelectFirstSql(numEntries, "ID,SN FROM CERT WHERE CA_ID=? AND NAFTER<? AND REV=0");
+      sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
+          "ID,SN FROM CERT WHERE ID>? AND CA_ID=? AND NAFTER<? AND REV=0");
       cacheSqlExpiredSerials.put(numEntries, sql);
     }
 
-    return getSerialNumbers0(sql, numEntries, col2Int(ca.getId()), col2Long(expiredAt));
+    return getSerialNumbers0(sql, numEntries, col2Long(startId),
+        col2Int(ca.getId()), col2Long(expiredAt));
   } // method getExpiredSerialNumbers
 
+  @Override
+  public int removeCerts(List<Long> ids) throws OperationException {
+    Args.notNull(ids, "ids");
+
+    int sum = 0;
+    for (int offset = 0; offset < ids.size(); offset += MAX_IDS_IN_SQL) {
+      List<Long> block = ids.subList(offset, Math.min(offset + MAX_IDS_IN_SQL, ids.size()));
+      sum += execUpdatePrepStmt0(buildIdsSql("DELETE FROM CERT WHERE ID IN (", block.size()), idsParams(block));
+    }
+    return sum;
+  } // method removeCerts
+
+  @Override
+  public Map<Long, byte[]> getEncodedCerts(List<Long> ids) throws OperationException {
+    Args.notNull(ids, "ids");
+
+    Map<Long, byte[]> ret = new HashMap<>();
+    for (int offset = 0; offset < ids.size(); offset += MAX_IDS_IN_SQL) {
+      List<Long> block = ids.subList(offset, Math.min(offset + MAX_IDS_IN_SQL, ids.size()));
+      List<ResultRow> rows = execQueryPrepStmt0(buildIdsSql("SELECT ID,CERT FROM CERT WHERE ID IN (", block.size()),
+          idsParams(block));
+      for (ResultRow row : rows) {
+        ret.put(row.getLong("ID"), Base64.decodeFast(row.getString("CERT")));
+      }
+    }
+    return ret;
+  } // method getEncodedCerts
+
+  private static String buildIdsSql(String prefix, int numIds) {
+    StringBuilder sb = new StringBuilder(prefix.length() + numIds * 2 + 1).append(prefix);
+    for (int i = 0; i < numIds; i++) {
+      sb.append(i == 0 ? "?" : ",?");
+    }
+    return sb.append(")").toString();
+  }
+
+  private static SqlColumn2[] idsParams(List<Long> ids) {
+    SqlColumn2[] params = new SqlColumn2[ids.size()];
+    for (int i = 0; i < params.length; i++) {
+      params[i] = col2Long(ids.get(i));
+    }
+    return params;
+  }
+
   @Override
   public List<SerialWithId> getSuspendedCertSerials(NameId ca, Instant latestLastUpdate, int numEntries)
       throws OperationException {
@@ -1039,154 +1213,72 @@ public class DbCertStore extends QueryExecutor implements CertStore {
       throws OperationException {
     notNulls(ca, "ca", notExpiredAt, "notExpiredAt", baseCrlNumber, "baseCrlNumber");
 
-    // Get the Base FullCRL
-    byte[] encodedCrl = getEncodedCrl(ca, baseCrlNumber);
-    CertificateList crl = CertificateList.getInstance(encodedCrl);
-    // Get revoked certs in CRL
-    Enumeration<?> revokedCertsInCrl = crl.getRevokedCertificateEnumeration();
-
-    Set<BigInteger> allSnSet = null;
-
-    boolean supportInSql = datasource.getDatabaseType().supportsInArray();
-    List<BigInteger> snList = new LinkedList<>();
-
-    List<CertRevInfoWithSerial> ret = new LinkedList<>();
-
-    PreparedStatement ps = null;
-    try {
-      while (revokedCertsInCrl.hasMoreElements()) {
-        CRLEntry crlEntry = (CRLEntry) revokedCertsInCrl.nextElement();
-        if (allSnSet == null) {
-          // guess the size of revoked certificate, very rough
-          int averageSize = encodedCrl.length / crlEntry.getEncoded().length;
-          allSnSet = new HashSet<>((int) (1.1 * averageSize));
-        }
-
-        BigInteger sn = crlEntry.getUserCertificate().getPositiveValue();
-        snList.add(sn);
-        allSnSet.add(sn);
-
-        if (!supportInSql) {
-          continue;
-        }
-
-        if (snList.size() == 100) {
-          // check whether revoked certificates have been unrevoked.
-
-          // due to the memory consumption do not use the executeQueryPreparedStament0() method.
-          if (ps == null) {
-            ps = prepareStatement(sqlSelectUnrevokedSn100);
-          }
-
-          for (int i = 1; i < 101; i++) {
-            ps.setString(i, snList.get(i - 1).toString(16));
-          }
-          snList.clear();
-
-          ResultSet rs = ps.executeQuery();
-          try {
-            while (rs.next()) {
-              ret.add(new CertRevInfoWithSerial(0L, new BigInteger(rs.getString("SN"), 16),
-                  CrlReason.REMOVE_FROM_CRL, // reason
-                  Instant.ofEpochSecond(rs.getLong("LUPDATE")), //revocationTime,
-                  null)); // invalidityTime
-            }
-          } finally {
-            datasource.releaseResources(null, rs);
-          }
-        }
-      }
-    } catch (SQLException ex) {
-      throw new OperationException(DATABASE_FAILURE, datasource.translate(sqlSelectUnrevokedSn100, ex).getMessage());
-    } catch (IOException ex) {
-      throw new OperationException(CRL_FAILURE, ex.getMessage());
-    } finally {
-      datasource.releaseResources(ps, null);
-    }
-
-    if (!snList.isEmpty()) {
-      // check whether revoked certificates have been unrevoked.
-      ps = prepareStatement(sqlSelectUnrevokedSn);
-      try {
-        for (BigInteger sn : snList) {
-          ps.setString(1, sn.toString(16));
-          ResultSet rs = ps.executeQuery();
-          try {
-            if (rs.next()) {
-              ret.add(new CertRevInfoWithSerial(0L, sn, CrlReason.REMOVE_FROM_CRL,
-                  Instant.ofEpochSecond(rs.getLong("LUPDATE")), //revocationTime,
-                  null)); // invalidityTime
-            }
-          } finally {
-            datasource.releaseResources(null, rs);
-          }
-        }
-      } catch (SQLException ex) {
-        throw new OperationException(DATABASE_FAILURE, datasource.translate(sqlSelectUnrevokedSn, ex).getMessage());
-      } finally {
-        datasource.releaseResources(ps, null);
-      }
+    // Get the thisUpdate of the Base FullCRL, the CRL itself is not required.
+    ResultRow crlRow = execQuery1PrepStmt0(sqlCrlThisUpdateWithNo,
+        col2Int(ca.getId()), col2Long(baseCrlNumber.longValue()));
+    if (crlRow == null) {
+      throw new OperationException(CRL_FAILURE, "found no base CRL with CRL number " + baseCrlNumber);
     }
 
-    // get list of certificates revoked after the generation of Base FullCRL
-    // we check all revoked certificates with LUPDATE field (last update) > THISUPDATE - 1.
-    final int numEntries = 1000;
-
-    String coreSql = "ID,SN,RR,RT,RIT FROM CERT WHERE ID>? AND CA_ID=? AND REV=1 AND NAFTER>? AND LUPDATE>?";
-    String sql = datasource.buildSelectFirstSql(numEntries, "ID ASC", coreSql);
-    ps = prepareStatement(sql);
-    long startId = 1;
-
-    // -1: so that no entry is ignored: consider all revoked certificates with
+    // -1: so that no entry is ignored: consider all certificates with
     // Database.lastUpdate >= CRL.thisUpdate
-    final long updatedSince = DateUtil.toEpochSecond(crl.getThisUpdate().getDate()) - 1;
-
-    try {
-      ResultSet rs;
-      while (true) {
-        ps.setLong(1, startId - 1);
-        ps.setInt(2, ca.getId());
-        ps.setLong(3, notExpiredAt.getEpochSecond() + 1);
-        ps.setLong(4, updatedSince);
-        rs = ps.executeQuery();
+    final long updatedSince = crlRow.getLong("THISUPDATE") - 1;
+
+    // All changes of the revocation state after the generation of Base FullCRL are reflected
+    // by the column LUPDATE (last update):
+    //  - revoked certificates (REV=1): new revocation or change of the revocation reason.
+    //  - unrevoked certificates (REV=0 and RR=REMOVE_FROM_CRL): unsuspended certificates.
+    // Certificates revoked before and not changed since the base CRL are not returned, so that
+    // the cost is proportional to the number of changes instead of the size of base CRL.
+    final int numEntries = 1000;
 
-        try {
-          int num = 0;
-          while (rs.next()) {
-            num++;
-            long id = rs.getLong("ID");
-            if (id > startId) {
-              startId = id;
-            }
-
-            BigInteger sn = new BigInteger(rs.getString("SN"), 16);
-            if (allSnSet != null && allSnSet.contains(sn)) {
-              // already contained in CRL
-              continue;
-            }
-
-            long revInvalidityTime = rs.getLong("RIT");
-            Instant invalidityTime = (revInvalidityTime == 0) ? null : Instant.ofEpochSecond(revInvalidityTime);
-            CertRevInfoWithSerial revInfo = new CertRevInfoWithSerial(id, sn,
-                rs.getInt("RR"), Instant.ofEpochSecond(rs.getLong("RT")), invalidityTime);
-            ret.add(revInfo);
-          }
-
-          if (num < numEntries) {
-            // no more entries
-            break;
-          }
-        } finally {
-          datasource.releaseResources(null,rs);
+    String sql = cacheSqlDeltaCrlCerts.get(numEntries);
+    if (sql == null) {
+      // paging by (LUPDATE, ID) within the CA, so that the index IDX_CA_LUPDATE can be used.
+      String coreSql = "ID,SN,REV,RR,RT,RIT,LUPDATE FROM CERT WHERE CA_ID=? AND LUPDATE>=? AND (LUPDATE>? OR ID>?)" +
+          " AND ((REV=0 AND RR=?) OR (REV=1 AND NAFTER>?))";
+      sql = datasource.buildSelectFirstSql(numEntries, "CA_ID ASC,LUPDATE ASC,ID ASC", coreSql);
+      cacheSqlDeltaCrlCerts.put(numEntries, sql);
+    }
+
+    // A certificate changed again while paging will be read twice, keep only its latest state.
+    Map<Long, CertRevInfoWithSerial> ret = new LinkedHashMap<>();
+
+    // first page: with lastId=MAX_VALUE the condition is reduced to LUPDATE>updatedSince.
+    long lastUpdate = updatedSince;
+    long lastId = Long.MAX_VALUE;
+    while (true) {
+      List<ResultRow> rows = execQueryPrepStmt0(sql, col2Int(ca.getId()), col2Long(lastUpdate), col2Long(lastUpdate),
+          col2Long(lastId), col2Int(CrlReason.REMOVE_FROM_CRL.getCode()),
+          col2Long(notExpiredAt.getEpochSecond() + 1));
+
+      for (ResultRow rs : rows) {
+        long id = rs.getLong("ID");
+        lastId = id;
+        lastUpdate = rs.getLong("LUPDATE");
+
+        BigInteger sn = new BigInteger(rs.getString("SN"), 16);
+        CertRevInfoWithSerial revInfo;
+        if (rs.getBoolean("REV")) {
+          long revInvalidityTime = rs.getLong("RIT");
+          Instant invalidityTime = (revInvalidityTime == 0) ? null : Instant.ofEpochSecond(revInvalidityTime);
+          revInfo = new CertRevInfoWithSerial(id, sn, rs.getInt("RR"),
+              Instant.ofEpochSecond(rs.getLong("RT")), invalidityTime);
+        } else {
+          revInfo = new CertRevInfoWithSerial(id, sn, CrlReason.REMOVE_FROM_CRL,
+              Instant.ofEpochSecond(lastUpdate), //revocationTime,
+              null); // invalidityTime
         }
+        ret.put(id, revInfo);
+      }
+
+      if (rows.size() < numEntries) {
+        // no more entries
+        break;
       }
-    } catch (SQLException ex) {
-      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-    } finally {
-      datasource.releaseResources(ps, null);
     }
 
-    return ret;
+    return new ArrayList<>(ret.values());
   } // method getCertsForDeltaCrl
 
   @Override
@@ -1208,10 +1300,6 @@ public class DbCertStore extends QueryExecutor implements CertStore {
     }
   } // method isHealthy
 
-  private static Long getDateSeconds(Date date) {
-    return date == null ? null : DateUtil.toEpochSecond(date);
-  }
-
   @Override
   public void updateDbInfo() throws DataAccessException, CaMgmtException {
     // Save keypair control
@@ -1312,19 +1400,6 @@ public class DbCertStore extends QueryExecutor implements CertStore {
     }
   }
 
-  private PreparedStatement prepareStatement(String sqlQuery) throws OperationException {
-    try {
-      return datasource.prepareStatement(sqlQuery);
-    } catch (DataAccessException ex) {
-      throw new OperationException(ErrorCode.DATABASE_FAILURE, ex);
-    }
-  } // method borrowPrepStatement
-
-  private static String buildArraySql(DataSourceWrapper datasource, String prefix, int num) {
-    String sql = prefix + " IN (?" + ",?".repeat(Math.max(0, num - 1)) + ")";
-    return datasource.buildSelectFirstSql(num, sql);
-  }
-
   private static X509Cert parseCert(byte[] encodedCert) throws OperationException {
     try {
       return X509Util.parseCert(encodedCert);
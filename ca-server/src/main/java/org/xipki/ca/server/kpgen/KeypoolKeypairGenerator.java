@@ -27,17 +27,24 @@ import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.spec.KeySpec;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Keypool based keypair generator.
@@ -69,9 +76,14 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
 
     private final String sqlGetKeyData;
 
-    KeypoolQueryExecutor(DataSourceWrapper datasource, int shardId) {
+    /**
+     * Whether the JDBC driver returns {@link Statement#SUCCESS_NO_INFO} for batch updates.
+     */
+    private volatile boolean batchCountUnknown;
+
+    KeypoolQueryExecutor(DataSourceWrapper datasource, int shardId, int blockSize) {
       this.datasource = Args.notNull(datasource, "datasource");
-      this.sqlGetKeyData = datasource.buildSelectFirstSql(1,
+      this.sqlGetKeyData = datasource.buildSelectFirstSql(blockSize, "ID ASC",
           "ID,ENC_ALG,ENC_META,DATA FROM KEYPOOL WHERE SHARD_ID=" + shardId + " AND KID=?");
     } // constructor
 
@@ -96,38 +108,85 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
       }
     } // method initIssuerStore
 
-    KeypoolKeypairGenerator.CipherData nextKeyData(int keyspecId) throws DataAccessException {
-      final String sql = sqlGetKeyData;
+    /**
+     * Claims the next block of keys. Since the keys are deleted from the database only if they are
+     * still available, a key is never claimed twice, even if several instances share the same shard.
+     *
+     * @param keyspecId the keyspec id.
+     * @return the claimed keys, empty if all selected keys have been claimed by other instances,
+     *         or {@code null} if there is no more key.
+     * @throws DataAccessException if database error occurs.
+     */
+    List<CipherData> nextKeyDataBlock(int keyspecId) throws DataAccessException {
+      List<Integer> ids = new ArrayList<>();
+      List<CipherData> block = new ArrayList<>();
+
+      String sql = sqlGetKeyData;
       PreparedStatement ps = datasource.prepareStatement(sql);
-
       ResultSet rs = null;
       try {
         ps.setInt(1, keyspecId);
         rs = ps.executeQuery();
-        if (!rs.next()) {
-          return null;
+        while (rs.next()) {
+          ids.add(rs.getInt("ID"));
+          CipherData cd = new CipherData();
+          cd.encAlg = rs.getInt("ENC_ALG");
+          cd.encMeta = Base64.decodeFast(rs.getString("ENC_META"));
+          cd.cipherText = Base64.decodeFast(rs.getString("DATA"));
+          block.add(cd);
         }
-
-        int id = rs.getInt("ID");
-        KeypoolKeypairGenerator.CipherData cd = new KeypoolKeypairGenerator.CipherData();
-        cd.encAlg = rs.getInt("ENC_ALG");
-        cd.encMeta = org.xipki.util.Base64.decodeFast(rs.getString("ENC_META"));
-        cd.cipherText = Base64.decodeFast(rs.getString("DATA"));
-        datasource.releaseResources(ps, rs);
-        ps = null;
-        rs = null;
-
-        final String sqlDeleteKeyData = "DELETE FROM KEYPOOL WHERE ID=?";
-        ps = datasource.prepareStatement(sqlDeleteKeyData);
-        ps.setInt(1, id);
-        ps.executeUpdate();
-        return cd;
       } catch (SQLException ex) {
         throw datasource.translate(sql, ex);
       } finally {
         datasource.releaseResources(ps, rs);
       }
-    } // method nextKeyData
+
+      if (ids.isEmpty()) {
+        return null;
+      }
+
+      sql = "DELETE FROM KEYPOOL WHERE ID=?";
+      ps = datasource.prepareStatement(sql);
+      try {
+        List<CipherData> claimed = new ArrayList<>(block.size());
+        if (batchCountUnknown) {
+          for (int i = 0; i < ids.size(); i++) {
+            ps.setInt(1, ids.get(i));
+            // the key has been claimed by other instance if no row is deleted.
+            if (ps.executeUpdate() > 0) {
+              claimed.add(block.get(i));
+            }
+          }
+          return claimed;
+        }
+
+        for (Integer id : ids) {
+          ps.setInt(1, id);
+          ps.addBatch();
+        }
+
+        int[] counts = ps.executeBatch();
+        for (int i = 0; i < counts.length; i++) {
+          if (counts[i] == Statement.SUCCESS_NO_INFO) {
+            // the driver does not report the number of deleted rows, we cannot know whether this
+            // key has been claimed by other instance. Drop it, and delete the keys one by one
+            // from now on.
+            if (!batchCountUnknown) {
+              batchCountUnknown = true;
+              LOG.info("JDBC driver does not report the batch update counts, delete keys one by one");
+            }
+          } else if (counts[i] > 0) {
+            // the key has been claimed by other instance if no row is deleted.
+            claimed.add(block.get(i));
+          }
+        }
+        return claimed;
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, null);
+      }
+    } // method nextKeyDataBlock
 
     boolean isHealthy() {
       final String sql = "SELECT ID FROM KEYSPEC";
@@ -150,6 +209,23 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
 
   }
 
+  /**
+   * Keys claimed from the database but not consumed yet.
+   */
+  private static class KeyBuffer {
+
+    private final ConcurrentLinkedQueue<CipherData> keys = new ConcurrentLinkedQueue<>();
+
+    private final Lock refillLock = new ReentrantLock();
+
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger(KeypoolKeypairGenerator.class);
+
+  private static final int DFLT_PREFETCH_SIZE = 20;
+
+  private static final String CIPHER_ALGO = "AES/GCM/NoPadding";
+
   private int shardId;
 
   private KeypoolQueryExecutor queryExecutor;
@@ -160,12 +236,14 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
 
   private SecretKey aes256key;
 
-  private Cipher cipher;
+  private final ConcurrentLinkedQueue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
 
   private DataSourceMap datasources;
 
   private final Map<String, Integer> keyspecToId = new HashMap<>();
 
+  private final Map<Integer, KeyBuffer> keyBuffers = new HashMap<>();
+
   public void setShardId(int shardId) {
     this.shardId = shardId;
   }
@@ -192,11 +270,20 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
       throw new XiSecurityException("no datasource named '" + datasourceName + "' is specified");
     }
 
+    String str = conf.value("prefetch");
+    int prefetchSize = StringUtil.isBlank(str) ? DFLT_PREFETCH_SIZE : Integer.parseInt(str);
+    Args.positive(prefetchSize, "prefetch");
+
     try {
-      queryExecutor = new KeypoolQueryExecutor(datasource, shardId);
+      queryExecutor = new KeypoolQueryExecutor(datasource, shardId, prefetchSize);
       keyspecToId.clear();
       keyspecToId.putAll(queryExecutor.getKeyspecs());
 
+      keyBuffers.clear();
+      for (Integer id : keyspecToId.values()) {
+        keyBuffers.put(id, new KeyBuffer());
+      }
+
       Set<String> set = new HashSet<>();
       for (String m : keyspecs) {
         if (keyspecToId.containsKey(m)) {
@@ -231,7 +318,8 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
         }
       }
 
-      cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      ciphers.clear();
+      ciphers.add(Cipher.getInstance(CIPHER_ALGO));
     } catch (Exception ex) {
       throw new IllegalStateException("could not initialize Cipher", ex);
     }
@@ -239,21 +327,17 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
   }
 
   @Override
-  public synchronized PrivateKeyInfo generateKeypair(String keyspec)
-      throws XiSecurityException {
+  public PrivateKeyInfo generateKeypair(String keyspec) throws XiSecurityException {
     Integer keyspecId = keyspecToId.get(keyspec);
     if (keyspecId == null) {
       return null;
     }
 
-    CipherData cd ;
-    synchronized (keyspecId) {
-      // need to synchronize to prevent from the reuse of the same keypair.
-      try {
-        cd = queryExecutor.nextKeyData(keyspecId);
-      } catch (DataAccessException ex) {
-        throw new XiSecurityException(ex);
-      }
+    CipherData cd;
+    try {
+      cd = nextKeyData(keyBuffers.get(keyspecId), keyspecId);
+    } catch (DataAccessException ex) {
+      throw new XiSecurityException(ex);
     }
 
     if (cd == null) {
@@ -272,6 +356,7 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
       throw new XiSecurityException("unknown encryption algorithm " + cd.encAlg);
     }
 
+    Cipher cipher = borrowCipher();
     byte[] plain;
     try {
       cipher.init(Cipher.DECRYPT_MODE, key, spec);
@@ -279,9 +364,53 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
     } catch (IllegalBlockSizeException | BadPaddingException | InvalidKeyException
              | InvalidAlgorithmParameterException ex) {
       throw new XiSecurityException("error decrypting ciphertext", ex);
+    } finally {
+      ciphers.offer(cipher);
     }
     return PrivateKeyInfo.getInstance(plain);
-  }
+  } // method generateKeypair
+
+  private CipherData nextKeyData(KeyBuffer buffer, int keyspecId) throws DataAccessException {
+    CipherData cd = buffer.keys.poll();
+    if (cd != null) {
+      return cd;
+    }
+
+    // only one thread refills the buffer of a keyspec, the others wait and take from the refilled buffer.
+    buffer.refillLock.lock();
+    try {
+      while (true) {
+        cd = buffer.keys.poll();
+        if (cd != null) {
+          return cd;
+        }
+
+        List<CipherData> block = queryExecutor.nextKeyDataBlock(keyspecId);
+        if (block == null) {
+          return null;
+        }
+
+        LOG.debug("claimed {} keys of keyspec id {} from the keypool", block.size(), keyspecId);
+        buffer.keys.addAll(block);
+      }
+    } finally {
+      buffer.refillLock.unlock();
+    }
+  } // method nextKeyData
+
+  private Cipher borrowCipher() throws XiSecurityException {
+    Cipher cipher = ciphers.poll();
+    if (cipher != null) {
+      return cipher;
+    }
+
+    // all ciphers are in use, create a new one, it will be returned to the pool after use.
+    try {
+      return Cipher.getInstance(CIPHER_ALGO);
+    } catch (GeneralSecurityException ex) {
+      throw new XiSecurityException("could not create Cipher " + CIPHER_ALGO, ex);
+    }
+  } // method borrowCipher
 
   @Override
   public boolean isHealthy() {
@@ -290,6 +419,16 @@ public class KeypoolKeypairGenerator extends KeypairGenerator {
 
   @Override
   public void close() throws IOException {
+    // the claimed but not consumed keys have already been removed from the keypool.
+    int unused = 0;
+    for (KeyBuffer buffer : keyBuffers.values()) {
+      unused += buffer.keys.size();
+      buffer.keys.clear();
+    }
+
+    if (unused > 0) {
+      LOG.info("discarded {} prefetched keys", unused);
+    }
   }
 
 }
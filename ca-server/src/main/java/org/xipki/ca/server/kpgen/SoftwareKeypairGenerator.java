@@ -10,12 +10,17 @@ import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x509.DSAParameter;
 import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xipki.ca.api.kpgen.KeypairGenerator;
 import org.xipki.security.EdECConstants;
 import org.xipki.security.XiSecurityException;
 import org.xipki.security.util.DSAParameterCache;
 import org.xipki.security.util.KeyUtil;
+import org.xipki.util.Args;
 import org.xipki.util.ConfPairs;
+import org.xipki.util.LogUtil;
+import org.xipki.util.StringUtil;
 
 import java.io.IOException;
 import java.security.KeyPair;
@@ -26,7 +31,18 @@ import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.spec.DSAParameterSpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Software-based keypair generator.
@@ -35,14 +51,197 @@ import java.util.Locale;
  */
 public class SoftwareKeypairGenerator extends KeypairGenerator {
 
+  private static class PooledKey {
+
+    private final byte[] encoded;
+
+    private final long created;
+
+    PooledKey(byte[] encoded) {
+      this.encoded = encoded;
+      this.created = System.currentTimeMillis();
+    }
+
+    void zeroize() {
+      Arrays.fill(encoded, (byte) 0);
+    }
+
+  } // class PooledKey
+
+  /**
+   * Pool of pre-generated keypairs of one keyspec, refilled in the background.
+   */
+  private class KeyPool {
+
+    private final String keyspec;
+
+    private final ConcurrentLinkedQueue<PooledKey> keys = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    KeyPool(String keyspec) {
+      this.keyspec = keyspec;
+    }
+
+    PrivateKeyInfo take() {
+      PooledKey key;
+      while ((key = keys.poll()) != null) {
+        depth.decrementAndGet();
+        if (isExpired(key)) {
+          key.zeroize();
+          continue;
+        }
+
+        try {
+          // the parsed object does not share the byte array, so it can be zeroized.
+          return PrivateKeyInfo.getInstance(key.encoded);
+        } finally {
+          key.zeroize();
+          hits.increment();
+          triggerRefill();
+        }
+      }
+
+      misses.increment();
+      triggerRefill();
+      return null;
+    } // method take
+
+    void triggerRefill() {
+      if (!refilling.get() && !closed) {
+        try {
+          executor.execute(this::refill);
+        } catch (RejectedExecutionException ex) {
+          // executor has been shutdown
+        }
+      }
+    }
+
+    void refill() {
+      if (!refilling.compareAndSet(false, true)) {
+        return;
+      }
+
+      try {
+        // evict the expired keys
+        for (Iterator<PooledKey> it = keys.iterator(); it.hasNext();) {
+          PooledKey key = it.next();
+          if (isExpired(key) && keys.remove(key)) {
+            depth.decrementAndGet();
+            key.zeroize();
+          }
+        }
+
+        while (!closed && depth.get() < poolSize) {
+          PrivateKeyInfo keyInfo = generateKeypair0(keyspec);
+          keys.add(new PooledKey(keyInfo.getEncoded()));
+          depth.incrementAndGet();
+        }
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error refilling keypair pool of keyspec " + keyspec);
+      } finally {
+        refilling.set(false);
+      }
+    } // method refill
+
+    private boolean isExpired(PooledKey key) {
+      return System.currentTimeMillis() - key.created > poolMaxAgeMs;
+    }
+
+    void clear() {
+      PooledKey key;
+      while ((key = keys.poll()) != null) {
+        depth.decrementAndGet();
+        key.zeroize();
+      }
+    }
+
+  } // class KeyPool
+
+  private static final Logger LOG = LoggerFactory.getLogger(SoftwareKeypairGenerator.class);
+
+  private static final int DFLT_POOL_SIZE = 10;
+
+  private static final int DFLT_POOL_MAX_AGE = 3600;
+
+  private static final int DFLT_POOL_THREADS = 1;
+
   private final SecureRandom random;
 
+  private final Map<String, KeyPool> pools = new HashMap<>();
+
+  private ScheduledThreadPoolExecutor executor;
+
+  private int poolSize;
+
+  private long poolMaxAgeMs;
+
+  private volatile boolean closed;
+
   public SoftwareKeypairGenerator(SecureRandom random) {
     this.random = random == null ? new SecureRandom() : random;
   }
 
+  /**
+   * Initializes the optional pool of pre-generated keypairs. Configuration:
+   * <ul>
+   *   <li>pool.keyspecs: keyspecs to be pooled, separated by ':', e.g. 'RSA/3072:RSA/4096'.
+   *       If not set, no keypair is pooled.</li>
+   *   <li>pool.size: number of keypairs kept in the pool per keyspec, default 10.</li>
+   *   <li>pool.maxAge: maximal age of a pooled keypair in seconds, default 3600.</li>
+   *   <li>pool.threads: number of threads to refill the pools, default 1.</li>
+   * </ul>
+   *
+   * @param conf the configuration, may be {@code null}.
+   * @throws XiSecurityException if the configuration is invalid.
+   */
   @Override
-  public void initialize0(ConfPairs conf) {
+  public void initialize0(ConfPairs conf) throws XiSecurityException {
+    String str = conf == null ? null : conf.value("pool.keyspecs");
+    if (StringUtil.isBlank(str)) {
+      return;
+    }
+
+    try {
+      poolSize = intValue(conf, "pool.size", DFLT_POOL_SIZE);
+      poolMaxAgeMs = intValue(conf, "pool.maxAge", DFLT_POOL_MAX_AGE) * 1000L;
+      int threads = intValue(conf, "pool.threads", DFLT_POOL_THREADS);
+
+      for (String keyspec : StringUtil.splitAsSet(str.toUpperCase(Locale.ROOT), ": \t")) {
+        if (!supports(keyspec)) {
+          throw new XiSecurityException("keyspec " + keyspec + " to be pooled is not supported");
+        }
+        pools.put(keyspec, new KeyPool(keyspec));
+      }
+
+      executor = new ScheduledThreadPoolExecutor(threads, r -> {
+        Thread thread = new Thread(r, "keypairgen-pool");
+        thread.setDaemon(true);
+        return thread;
+      });
+    } catch (IllegalArgumentException ex) {
+      throw new XiSecurityException("invalid pool configuration: " + ex.getMessage(), ex);
+    }
+
+    // refill the pools, and evict the expired keypairs periodically.
+    long period = Math.max(1000, Math.min(60_000, poolMaxAgeMs / 2));
+    for (KeyPool pool : pools.values()) {
+      executor.scheduleWithFixedDelay(pool::refill, 0, period, TimeUnit.MILLISECONDS);
+    }
+    LOG.info("keypair pool initialized: keyspecs={}, size={}, maxAge={}s", pools.keySet(), poolSize,
+        poolMaxAgeMs / 1000);
+  } // method initialize0
+
+  private static int intValue(ConfPairs conf, String key, int dfltValue) {
+    String str = conf.value(key);
+    int value = StringUtil.isBlank(str) ? dfltValue : Integer.parseInt(str.trim());
+    return Args.positive(value, key);
   }
 
   @Override
@@ -51,6 +250,15 @@ public class SoftwareKeypairGenerator extends KeypairGenerator {
       throw new XiSecurityException(name + " cannot generate keypair of keyspec " + keyspec);
     }
 
+    KeyPool pool = pools.isEmpty() ? null : pools.get(keyspec.toUpperCase(Locale.ROOT));
+    if (pool != null && !closed) {
+      PrivateKeyInfo key = pool.take();
+      if (key != null) {
+        return key;
+      }
+      LOG.debug("keypair pool of keyspec {} is empty, generate keypair inline", keyspec);
+    }
+
     try {
       return generateKeypair0(keyspec);
     } catch (XiSecurityException ex) {
@@ -140,6 +348,15 @@ public class SoftwareKeypairGenerator extends KeypairGenerator {
 
   @Override
   public void close() throws IOException {
+    closed = true;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+
+    for (KeyPool pool : pools.values()) {
+      LOG.info("keypair pool of keyspec {}: hits={}, misses={}", pool.keyspec, pool.hits.sum(), pool.misses.sum());
+      pool.clear();
+    }
   }
 
 }
@@ -317,6 +317,10 @@ public class CaManagerImpl implements CaManager, Closeable {
     return shardId;
   }
 
+  public String getLockInstanceId() {
+    return lockInstanceId;
+  }
+
   public SecurityFactory getSecurityFactory() {
     return securityFactory;
   }
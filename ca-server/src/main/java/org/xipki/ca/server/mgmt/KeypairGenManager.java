@@ -44,11 +44,19 @@ class KeypairGenManager {
 
   void close() {
     for (KeypairGenEntryWrapper entry : manager.keypairGens.values()) {
-      try {
-        entry.getGenerator().close();
-      } catch (IOException e) {
-        LogUtil.warn(LOG, e, "error closing keypair generator " + entry.getDbEntry().getName());
-      }
+      close(entry);
+    }
+  }
+
+  private static void close(KeypairGenEntryWrapper entry) {
+    if (entry == null || entry.getGenerator() == null) {
+      return;
+    }
+
+    try {
+      entry.getGenerator().close();
+    } catch (IOException e) {
+      LogUtil.warn(LOG, e, "error closing keypair generator " + entry.getDbEntry().getName());
     }
   }
 
@@ -57,6 +65,7 @@ class KeypairGenManager {
       return;
     }
 
+    close();
     manager.keypairGenDbEntries.clear();
     manager.keypairGens.clear();
 
@@ -133,7 +142,7 @@ class KeypairGenManager {
     }
 
     manager.keypairGenDbEntries.remove(name);
-    manager.keypairGens.remove(name);
+    close(manager.keypairGens.remove(name));
     LOG.info("removed keypair generation '{}'", name);
   } // method removeKeypairGen
 
@@ -151,7 +160,7 @@ class KeypairGenManager {
 
     KeypairGenEntryWrapper newKeypairGen = manager.caConfStore.changeKeypairGen(name, type, conf, manager);
 
-    manager.keypairGens.remove(name);
+    close(manager.keypairGens.remove(name));
     manager.keypairGenDbEntries.remove(name);
 
     manager.keypairGenDbEntries.put(name, newKeypairGen.getDbEntry());
@@ -22,7 +22,9 @@ import org.xipki.security.X509Cert;
 import org.xipki.util.Args;
 import org.xipki.util.ConfPairs;
 
+import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 
 /**
  * Publish certificates to XiPKI OCSP database.
@@ -184,6 +186,23 @@ public class OcspCertPublisher extends CertPublisher {
     }
   } // method certificateRemoved
 
+  @Override
+  public boolean supportsCertificatesRemoved() {
+    return true;
+  }
+
+  @Override
+  public boolean certificatesRemoved(X509Cert issuerCert, List<BigInteger> serialNumbers) {
+    try {
+      queryExecutor.removeCerts(issuerCert, serialNumbers);
+      return true;
+    } catch (Exception ex) {
+      logAndAudit(issuerCert.getIssuerText(), issuerCert, null, ex,
+          "could not publish removal of certificates");
+      return false;
+    }
+  } // method certificatesRemoved
+
   @Override
   public boolean publishsGoodCert() {
     return publishsGoodCert;
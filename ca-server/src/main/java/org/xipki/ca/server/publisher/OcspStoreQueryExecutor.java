@@ -379,6 +379,53 @@ class OcspStoreQueryExecutor {
     }
   } // method removeCert
 
+  void removeCerts(X509Cert issuer, List<BigInteger> serialNumbers) throws DataAccessException {
+    Args.notNull(serialNumbers, "serialNumbers");
+
+    Integer issuerId = issuerStore.getIdForCert(Args.notNull(issuer, "issuer").getEncoded());
+    if (issuerId == null || serialNumbers.isEmpty()) {
+      return;
+    }
+
+    final int maxParams = 100;
+    String fullSql = null;
+
+    for (int offset = 0; offset < serialNumbers.size(); offset += maxParams) {
+      List<BigInteger> block = serialNumbers.subList(offset, Math.min(offset + maxParams, serialNumbers.size()));
+      String sql;
+      if (block.size() == maxParams) {
+        if (fullSql == null) {
+          fullSql = buildRemoveCertsSql(maxParams);
+        }
+        sql = fullSql;
+      } else {
+        sql = buildRemoveCertsSql(block.size());
+      }
+
+      PreparedStatement ps = datasource.prepareStatement(sql);
+      try {
+        int idx = 1;
+        ps.setInt(idx++, issuerId);
+        for (BigInteger serialNumber : block) {
+          ps.setString(idx++, serialNumber.toString(16));
+        }
+        ps.executeUpdate();
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, null);
+      }
+    }
+  } // method removeCerts
+
+  private static String buildRemoveCertsSql(int numSerials) {
+    StringBuilder sb = new StringBuilder(40 + numSerials * 2).append("DELETE FROM CERT WHERE IID=? AND SN IN (");
+    for (int i = 0; i < numSerials; i++) {
+      sb.append(i == 0 ? "?" : ",?");
+    }
+    return sb.append(")").toString();
+  }
+
   void revokeCa(X509Cert caCert, CertRevocationInfo revInfo) throws DataAccessException {
     Args.notNull(revInfo, "revInfo");
 
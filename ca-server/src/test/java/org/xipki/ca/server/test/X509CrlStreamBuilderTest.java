@@ -0,0 +1,215 @@
+// Copyright (c) 2013-2024 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.ca.server.test;
+
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.ca.server.X509CrlStreamBuilder;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * X509CrlStreamBuilder test. The generated CRL must be identical to the one generated by
+ * BouncyCastle's {@link X509v2CRLBuilder} for the same input.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public class X509CrlStreamBuilderTest {
+
+  private static class Entry {
+
+    private final BigInteger serial;
+
+    private final Instant revocationTime;
+
+    private final int reason;
+
+    private final Instant invalidityTime;
+
+    Entry(BigInteger serial, Instant revocationTime, int reason, Instant invalidityTime) {
+      this.serial = serial;
+      this.revocationTime = revocationTime;
+      this.reason = reason;
+      this.invalidityTime = invalidityTime;
+    }
+
+  } // class Entry
+
+  private static final X500Name ISSUER = new X500Name("CN=Test CRL Issuer,O=xipki");
+
+  private static final X500Name CERT_ISSUER = new X500Name("CN=Test CA,O=xipki");
+
+  private static PrivateKey signingKey;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    // Ed25519 signatures are deterministic, so that the two CRLs can be compared byte by byte.
+    // The JDK supports Ed25519 only since version 15, use the BouncyCastle provider.
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+    KeyPair keypair = KeyPairGenerator.getInstance("Ed25519", "BC").generateKeyPair();
+    signingKey = keypair.getPrivate();
+  }
+
+  @Test
+  public void testEmptyCrl() throws Exception {
+    assertSameCrl(Collections.emptyList(), null, 10);
+  }
+
+  @Test
+  public void testInMemory() throws Exception {
+    assertSameCrl(randomEntries(100), null, 1000);
+  }
+
+  @Test
+  public void testSpillAndMerge() throws Exception {
+    // 1000 entries, at most 7 in memory: 143 spilled runs are merged.
+    assertSameCrl(randomEntries(1000), null, 7);
+  }
+
+  @Test
+  public void testSpillAndMergeExactRuns() throws Exception {
+    // no entries left in memory when building the CRL.
+    assertSameCrl(randomEntries(100), null, 10);
+  }
+
+  @Test
+  public void testIndirectCrl() throws Exception {
+    assertSameCrl(randomEntries(100), CERT_ISSUER, 1000);
+  }
+
+  @Test
+  public void testIndirectCrlSpillAndMerge() throws Exception {
+    assertSameCrl(randomEntries(500), CERT_ISSUER, 13);
+  }
+
+  private static List<Entry> randomEntries(int num) {
+    Random random = new Random(num);
+    Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    int[] reasons = {CRLReason.unspecified, CRLReason.keyCompromise, CRLReason.cACompromise,
+        CRLReason.affiliationChanged, CRLReason.superseded, CRLReason.cessationOfOperation,
+        CRLReason.certificateHold, CRLReason.removeFromCRL, CRLReason.privilegeWithdrawn};
+
+    List<Entry> entries = new ArrayList<>(num);
+    Set<BigInteger> serials = new HashSet<>();
+    while (entries.size() < num) {
+      // different lengths of the serial numbers, and some with the highest bit set.
+      BigInteger serial = new BigInteger(1 + random.nextInt(159), random).add(BigInteger.ONE);
+      if (!serials.add(serial)) {
+        continue;
+      }
+
+      Instant revocationTime = now.minusSeconds(random.nextInt(1000000));
+      Instant invalidityTime = random.nextBoolean() ? null : revocationTime.minusSeconds(random.nextInt(100000));
+      entries.add(new Entry(serial, revocationTime, reasons[random.nextInt(reasons.length)], invalidityTime));
+    }
+    return entries;
+  }
+
+  private static void assertSameCrl(List<Entry> entries, X500Name certIssuer, int maxEntriesInMemory)
+      throws Exception {
+    Instant thisUpdate = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    Instant nextUpdate = thisUpdate.plus(1, ChronoUnit.DAYS);
+    BigInteger crlNumber = BigInteger.valueOf(1234);
+
+    IssuingDistributionPoint idp = certIssuer == null ? null
+        : new IssuingDistributionPoint((DistributionPointName) null, false, false, null, true, false);
+
+    // X509CrlStreamBuilder, the entries are added unsorted.
+    byte[] streamEncoded;
+    try (X509CrlStreamBuilder builder =
+             new X509CrlStreamBuilder(ISSUER, thisUpdate, nextUpdate, certIssuer, maxEntriesInMemory)) {
+      for (Entry entry : entries) {
+        builder.addCrlEntry(entry.serial, entry.revocationTime, entry.reason, entry.invalidityTime);
+      }
+
+      Assert.assertEquals("numEntries", entries.size(), builder.getNumEntries());
+
+      builder.addExtension(Extension.cRLNumber, false, new CRLNumber(crlNumber));
+      if (idp != null) {
+        builder.addExtension(Extension.issuingDistributionPoint, true, idp);
+      }
+      streamEncoded = builder.build(newSigner());
+    }
+
+    // X509v2CRLBuilder, the entries are added sorted by the serial number.
+    List<Entry> sortedEntries = new ArrayList<>(entries);
+    sortedEntries.sort((a, b) -> a.serial.compareTo(b.serial));
+
+    X509v2CRLBuilder bcBuilder = new X509v2CRLBuilder(ISSUER, Date.from(thisUpdate));
+    bcBuilder.setNextUpdate(Date.from(nextUpdate));
+
+    boolean first = true;
+    for (Entry entry : sortedEntries) {
+      Date revocationTime = Date.from(entry.revocationTime);
+      if (first && certIssuer != null) {
+        ExtensionsGenerator extnGen = new ExtensionsGenerator();
+        if (entry.reason != 0) {
+          extnGen.addExtension(Extension.reasonCode, false, CRLReason.lookup(entry.reason));
+        }
+        if (entry.invalidityTime != null) {
+          extnGen.addExtension(Extension.invalidityDate, false,
+              new ASN1GeneralizedTime(Date.from(entry.invalidityTime)));
+        }
+        extnGen.addExtension(Extension.certificateIssuer, true, new GeneralNames(new GeneralName(certIssuer)));
+        bcBuilder.addCRLEntry(entry.serial, revocationTime, extnGen.generate());
+      } else if (entry.invalidityTime == null) {
+        bcBuilder.addCRLEntry(entry.serial, revocationTime, entry.reason);
+      } else {
+        bcBuilder.addCRLEntry(entry.serial, revocationTime, entry.reason, Date.from(entry.invalidityTime));
+      }
+      first = false;
+    }
+
+    bcBuilder.addExtension(Extension.cRLNumber, false, new CRLNumber(crlNumber));
+    if (idp != null) {
+      bcBuilder.addExtension(Extension.issuingDistributionPoint, true, idp);
+    }
+    byte[] bcEncoded = bcBuilder.build(newSigner()).getEncoded();
+
+    Assert.assertArrayEquals("encoded CRL", bcEncoded, streamEncoded);
+
+    // the CRL can be parsed.
+    X509CRLHolder crl = new X509CRLHolder(streamEncoded);
+    Assert.assertEquals("number of CRL entries", entries.size(), crl.getRevokedCertificates().size());
+    Assert.assertEquals("CRL number", new ASN1Integer(crlNumber),
+        crl.getExtension(Extension.cRLNumber).getParsedValue());
+  } // method assertSameCrl
+
+  private static ContentSigner newSigner() throws Exception {
+    return new JcaContentSignerBuilder("Ed25519").setProvider("BC").build(signingKey);
+  }
+
+}